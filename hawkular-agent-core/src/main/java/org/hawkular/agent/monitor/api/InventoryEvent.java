@@ -17,9 +17,12 @@
 package org.hawkular.agent.monitor.api;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
+import org.hawkular.agent.monitor.inventory.ID;
 import org.hawkular.agent.monitor.inventory.Resource;
 import org.hawkular.agent.monitor.inventory.ResourceManager;
 import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
@@ -38,6 +41,7 @@ public class InventoryEvent<L, S extends Session<L>> {
     private final Optional<ResourceTypeManager<L>> resourceTypeManager;
     private final List<Resource<L>> addedOrModified;
     private final List<Resource<L>> removed;
+    private final Set<ID> newResourceIds;
 
     /**
      * Creates an inventory event.
@@ -50,13 +54,15 @@ public class InventoryEvent<L, S extends Session<L>> {
      *                            needed
      * @param addedOrModified list of added or modified resources
      * @param removed list of removed resources
+     * @param newResourceIds the IDs of the added resources that are known to be new - see {@link #isNew(Resource)}
      */
     private InventoryEvent(
             EndpointService<L, S> service,
             ResourceManager<L> resourceManager,
             Optional<ResourceTypeManager<L>> resourceTypeManager,
             List<Resource<L>> addedOrModified,
-            List<Resource<L>> removed) {
+            List<Resource<L>> removed,
+            Set<ID> newResourceIds) {
 
         if (service == null) {
             throw new IllegalArgumentException("service cannot be null");
@@ -75,6 +81,7 @@ public class InventoryEvent<L, S extends Session<L>> {
         this.resourceTypeManager = resourceTypeManager;
         this.addedOrModified = addedOrModified;
         this.removed = removed;
+        this.newResourceIds = newResourceIds;
     }
 
     /**
@@ -90,7 +97,8 @@ public class InventoryEvent<L, S extends Session<L>> {
             EndpointService<L, S> service,
             ResourceManager<L> resourceManager,
             List<Resource<L>> removed) {
-        return new InventoryEvent<>(service, resourceManager, Optional.empty(), new ArrayList<>(), removed);
+        return new InventoryEvent<>(service, resourceManager, Optional.empty(), new ArrayList<>(), removed,
+                Collections.emptySet());
     }
 
     /**
@@ -106,7 +114,8 @@ public class InventoryEvent<L, S extends Session<L>> {
             EndpointService<L, S> service,
             ResourceManager<L> resourceManager,
             List<Resource<L>> addedOrModified) {
-        return new InventoryEvent<>(service, resourceManager, Optional.empty(), addedOrModified, new ArrayList<>());
+        return new InventoryEvent<>(service, resourceManager, Optional.empty(), addedOrModified, new ArrayList<>(),
+                Collections.emptySet());
     }
 
     /**
@@ -126,12 +135,36 @@ public class InventoryEvent<L, S extends Session<L>> {
             ResourceTypeManager<L> resourceTypeManager,
             List<Resource<L>> addedOrModified,
             List<Resource<L>> removed) {
+        return discovery(service, resourceManager, resourceTypeManager, addedOrModified, removed,
+                Collections.emptySet());
+    }
+
+    /**
+     * Build an {@link InventoryEvent} for added or modified resources, some of which are known to be new.
+     *
+     * @param service a service that provides details such as feed ID and endpoint information that helps
+     *                identify the resources in the event, plus has methods that can be used to monitor
+     *                the resources in the event.
+     * @param resourceManager the resources associated with the event
+     * @param resourceTypeManager the resource types associated with the event
+     * @param addedOrModified list of added or modified resources
+     * @param removed list of removed resources
+     * @param newResourceIds the IDs of the added resources that are known to be new - see {@link #isNew(Resource)}
+     */
+    public static <L, S extends Session<L>> InventoryEvent<L, S> discovery(
+            EndpointService<L, S> service,
+            ResourceManager<L> resourceManager,
+            ResourceTypeManager<L> resourceTypeManager,
+            List<Resource<L>> addedOrModified,
+            List<Resource<L>> removed,
+            Set<ID> newResourceIds) {
         return new InventoryEvent<>(
                 service,
                 resourceManager,
                 Optional.of(resourceTypeManager),
                 addedOrModified,
-                removed);
+                removed,
+                newResourceIds);
     }
 
     /**
@@ -157,6 +190,9 @@ public class InventoryEvent<L, S extends Session<L>> {
     }
 
     /**
+     * The {@link Resource#getFingerprint() fingerprints} of the resources tell what content they had when they
+     * were discovered - a listener that remembers them can skip a resource whose content it already has.
+     *
      * @return the list of added or modified resources, including non-root resources
      */
     public List<Resource<L>> getAddedOrModified() {
@@ -169,4 +205,16 @@ public class InventoryEvent<L, S extends Session<L>> {
     public List<Resource<L>> getRemoved() {
         return removed;
     }
+
+    /**
+     * Tells if an added resource is new - that is, it was neither known to the agent nor, as far as the agent can
+     * tell, to inventory before. A listener that has not yet synced a new resource when it is removed again can simply
+     * forget about it. When in doubt - such as in the first discovery scan after the agent started - this is false.
+     *
+     * @param resource one of the {@link #getAddedOrModified() added or modified resources}
+     * @return true if the resource is known to be new
+     */
+    public boolean isNew(Resource<L> resource) {
+        return newResourceIds.contains(resource.getID());
+    }
 }
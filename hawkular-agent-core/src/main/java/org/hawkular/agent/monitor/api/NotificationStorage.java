@@ -16,6 +16,8 @@
  */
 package org.hawkular.agent.monitor.api;
 
+import java.util.List;
+
 public interface NotificationStorage {
     /**
      * @return a builder object suitable for wrapping metric data in a proper payload
@@ -32,4 +34,15 @@ public interface NotificationStorage {
      * @param waitMillis the amount of milliseconds to wait for the send to complete before returning (0==no wait)
      */
     void store(NotificationPayloadBuilder payloadBuilder, long waitMillis);
+
+    /**
+     * Sends the notifications found in the given builders, in as few requests as the storage backend allows.
+     * Like {@link #store(NotificationPayloadBuilder, long)} this is an asynchronous call.
+     *
+     * @param payloadBuilders contain the notifications to send
+     * @param waitMillis the amount of milliseconds to wait for the send to complete before returning (0==no wait)
+     */
+    default void store(List<NotificationPayloadBuilder> payloadBuilders, long waitMillis) {
+        payloadBuilders.forEach(b -> store(b, waitMillis));
+    }
 }
\ No newline at end of file
@@ -21,9 +21,11 @@ import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import org.hawkular.agent.monitor.inventory.InventoryIdUtil;
 import org.hawkular.agent.monitor.inventory.InventoryIdUtil.ResourceIdParts;
+import org.hawkular.agent.monitor.inventory.Resource;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.protocol.EndpointService;
@@ -37,6 +39,7 @@ import org.hawkular.cmdgw.api.ResourceResponse;
 import org.hawkular.cmdgw.api.ResponseStatus;
 import org.hawkular.cmdgw.api.ServerRefreshIndicator;
 import org.hawkular.dmr.api.OperationBuilder.OperationResult;
+import org.jboss.as.controller.PathElement;
 import org.jboss.as.controller.client.ModelControllerClient;
 import org.jboss.dmr.ModelNode;
 import org.jboss.dmr.Property;
@@ -179,6 +182,28 @@ public abstract class AbstractDMRResourcePathCommand //
         }
     }
 
+    /**
+     * Rediscovers a deployment on the given server so the inventory quickly reflects a change made to it.
+     * If server groups are given (i.e. domain mode), the change can affect any server in those groups
+     * so a full discovery is requested instead.
+     *
+     * @param endpointService the service of the endpoint where the deployment was changed
+     * @param server the server resource the deployment belongs to
+     * @param deploymentName the name of the deployment
+     * @param serverGroups the server groups the change was made to, empty if not in domain mode
+     */
+    protected void discoverDeployment(EndpointService<DMRNodeLocation, DMRSession> endpointService,
+            Resource<DMRNodeLocation> server, String deploymentName, Set<String> serverGroups) {
+        if (serverGroups == null || serverGroups.isEmpty()) {
+            PathElement deployment = PathElement.pathElement("deployment", deploymentName);
+            DMRNodeLocation deploymentLocation = new DMRNodeLocation(
+                    server.getLocation().getPathAddress().append(deployment));
+            endpointService.discoverSubtree(deploymentLocation);
+        } else {
+            endpointService.discoverAll();
+        }
+    }
+
     protected void assertNotRename(ModelNode adr, String newName) {
         List<Property> adrProps = adr.asPropertyList();
         String nameFromPath = adrProps.get(adrProps.size() - 1).getValue().asString();
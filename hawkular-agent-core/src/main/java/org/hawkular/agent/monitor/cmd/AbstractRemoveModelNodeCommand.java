@@ -81,7 +81,7 @@ public abstract class AbstractRemoveModelNodeCommand<Q extends ResourceRequest,
         endpointService.removeResources(doomedLocation);
 
         // discover that the old resource has been removed so it is deleted from inventory
-        endpointService.discoverAll();
+        endpointService.discoverSubtree(doomedLocation);
 
         return null;
     }
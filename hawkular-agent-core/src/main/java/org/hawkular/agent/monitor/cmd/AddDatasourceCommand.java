@@ -121,7 +121,7 @@ public class AddDatasourceCommand extends AbstractDMRResourcePathCommand<AddData
         setServerRefreshIndicator(opResult, response);
 
         // discover the new datasource so it gets placed into inventory
-        endpointService.discoverAll();
+        endpointService.discoverSubtree(DMRNodeLocation.of(dsAdr));
 
         return null;
     }
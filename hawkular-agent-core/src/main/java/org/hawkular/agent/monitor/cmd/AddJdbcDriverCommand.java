@@ -39,6 +39,7 @@ import org.hawkular.dmrclient.modules.AddModuleRequest;
 import org.hawkular.dmrclient.modules.AddModuleRequest.ModuleResource;
 import org.hawkular.dmrclient.modules.Modules;
 import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.dmr.ModelNode;
 
 /**
  * Adds an JdbcDriver to an Application Server instance.
@@ -82,8 +83,10 @@ public class AddJdbcDriverCommand extends AbstractDMRResourcePathCommand<AddJdbc
                 Collections.singleton(jarResource), DEFAULT_DRIVER_MODULE_DEPENDENCIES, null);
         new Modules(Modules.findModulesDir()).add(addModuleRequest);
 
+        ModelNode driverAdr = OperationBuilder.address().subsystemDatasources()
+                .segment(JDBC_DRIVER, request.getDriverName()).build();
         OperationResult<?> opResult = OperationBuilder.add()
-                .address().subsystemDatasources().segment(JDBC_DRIVER, request.getDriverName()).parentBuilder()
+                .address(driverAdr)
                 .attribute(JdbcDriverNodeConstants.DRIVER_NAME, request.getDriverName())
                 .attribute(JdbcDriverNodeConstants.DRIVER_MODULE_NAME, request.getModuleName())
                 .attribute(JdbcDriverNodeConstants.DRIVER_CLASS_NAME, request.getDriverClass())
@@ -96,7 +99,8 @@ public class AddJdbcDriverCommand extends AbstractDMRResourcePathCommand<AddJdbc
                 .assertSuccess();
         setServerRefreshIndicator(opResult, response);
 
-        endpointService.discoverAll();
+        // discover the new driver so it gets placed into inventory
+        endpointService.discoverSubtree(DMRNodeLocation.of(driverAdr));
 
         return null;
     }
@@ -76,8 +76,8 @@ public class DeployApplicationCommand
 
         String resourceId = resourcePath;
 
-        ResourceManager<DMRNodeLocation> resourceManager = endpointService.getResourceManager();
-        Resource<DMRNodeLocation> resource = resourceManager.getResource(new ID(resourceId));
+        ResourceManager.Snapshot<DMRNodeLocation> inventory = endpointService.getResourceManager().getSnapshot();
+        Resource<DMRNodeLocation> resource = inventory.getResource(new ID(resourceId));
         if (resource == null) {
             throw new IllegalArgumentException(
                     String.format("Cannot deploy application: unknown resource [%s]", resourcePath));
@@ -106,7 +106,7 @@ public class DeployApplicationCommand
         client.deploy(destFileName, envelope.getBinaryData(), enabled, serverGroups, forceDeploy);
 
         // run discovery now so we can quickly get the new app in inventory
-        endpointService.discoverAll();
+        discoverDeployment(endpointService, resource, destFileName, serverGroups);
         return null;
     }
 
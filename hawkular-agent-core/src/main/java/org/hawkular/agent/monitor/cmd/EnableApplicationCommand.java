@@ -75,8 +75,8 @@ public class EnableApplicationCommand
 
         String resourceId = resourcePath;
 
-        ResourceManager<DMRNodeLocation> resourceManager = endpointService.getResourceManager();
-        Resource<DMRNodeLocation> resource = resourceManager.getResource(new ID(resourceId));
+        ResourceManager.Snapshot<DMRNodeLocation> inventory = endpointService.getResourceManager().getSnapshot();
+        Resource<DMRNodeLocation> resource = inventory.getResource(new ID(resourceId));
         if (resource == null) {
             throw new IllegalArgumentException(
                     String.format("Cannot enable application: unknown resource [%s]", resourcePath));
@@ -106,7 +106,7 @@ public class EnableApplicationCommand
         client.enableDeployment(destFileName, serverGroups);
 
         // run discovery now so we can quickly show the app has been removed
-        endpointService.discoverAll();
+        discoverDeployment(endpointService, resource, destFileName, serverGroups);
         return null;
     }
 
@@ -86,8 +86,8 @@ public class ExecuteDMROperationCommand extends
         ExecuteOperationRequest request = envelope.getBasicMessage();
         String resourceId = request.getResourceId();
 
-        ResourceManager<DMRNodeLocation> resourceManager = endpointService.getResourceManager();
-        Resource<DMRNodeLocation> resource = resourceManager.getResource(new ID(resourceId));
+        ResourceManager.Snapshot<DMRNodeLocation> inventory = endpointService.getResourceManager().getSnapshot();
+        Resource<DMRNodeLocation> resource = inventory.getResource(new ID(resourceId));
         if (resource == null) {
             throw new IllegalArgumentException(
                     String.format("Cannot execute operation: unknown resource [%s]", request.getResourceId()));
@@ -82,8 +82,8 @@ public class ExecuteJMXOperationCommand extends
 
         ExecuteOperationRequest request = envelope.getBasicMessage();
 
-        ResourceManager<JMXNodeLocation> resourceManager = endpointService.getResourceManager();
-        Resource<JMXNodeLocation> resource = resourceManager.getResource(new ID(resourceId));
+        ResourceManager.Snapshot<JMXNodeLocation> inventory = endpointService.getResourceManager().getSnapshot();
+        Resource<JMXNodeLocation> resource = inventory.getResource(new ID(resourceId));
         if (resource == null) {
             throw new IllegalArgumentException(
                     String.format("Cannot execute operation: unknown resource [%s]", request.getResourceId()));
@@ -67,8 +67,8 @@ public class ExportJdrCommand extends AbstractDMRResourcePathCommand<ExportJdrRe
         String resourceId = request.getResourceId();
         boolean deleteImmediately = request.isDeleteImmediately();
 
-        ResourceManager<DMRNodeLocation> resourceManager = endpointService.getResourceManager();
-        Resource<DMRNodeLocation> resource = resourceManager.getResource(new ID(resourceId));
+        ResourceManager.Snapshot<DMRNodeLocation> inventory = endpointService.getResourceManager().getSnapshot();
+        Resource<DMRNodeLocation> resource = inventory.getResource(new ID(resourceId));
         if (resource == null) {
             throw new IllegalArgumentException(
                     String.format("Cannot export a DMR report: unknown resource [%s]", request.getResourceId()));
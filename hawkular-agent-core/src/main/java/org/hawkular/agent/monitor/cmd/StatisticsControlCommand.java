@@ -74,8 +74,8 @@ public class StatisticsControlCommand
 
         final StatisticsControlRequest request = envelope.getBasicMessage();
         final String resourceId = request.getResourceId();
-        final ResourceManager<DMRNodeLocation> resourceManager = endpointService.getResourceManager();
-        final Resource<DMRNodeLocation> resource = resourceManager.getResource(new ID(resourceId));
+        final ResourceManager.Snapshot<DMRNodeLocation> inventory = endpointService.getResourceManager().getSnapshot();
+        final Resource<DMRNodeLocation> resource = inventory.getResource(new ID(resourceId));
 
         if (resource == null) {
             throw new IllegalArgumentException(
@@ -75,8 +75,8 @@ public class UndeployApplicationCommand
 
         final String resourceId = request.getResourceId();
 
-        ResourceManager<DMRNodeLocation> resourceManager = endpointService.getResourceManager();
-        Resource<DMRNodeLocation> resource = resourceManager.getResource(new ID(resourceId));
+        ResourceManager.Snapshot<DMRNodeLocation> inventory = endpointService.getResourceManager().getSnapshot();
+        Resource<DMRNodeLocation> resource = inventory.getResource(new ID(resourceId));
         if (resource == null) {
             throw new IllegalArgumentException(
                     String.format("Cannot undeploy application: unknown resource [%s]", resourceId));
@@ -105,7 +105,7 @@ public class UndeployApplicationCommand
         client.undeploy(destFileName, serverGroups, removeContent);
 
         // run discovery now so we can quickly show the app has been removed
-        endpointService.discoverAll();
+        discoverDeployment(endpointService, resource, destFileName, serverGroups);
         return null;
     }
 
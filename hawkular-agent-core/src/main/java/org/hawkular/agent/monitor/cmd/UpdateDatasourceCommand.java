@@ -124,7 +124,7 @@ public class UpdateDatasourceCommand
         setServerRefreshIndicator(opResult, response);
 
         // discover the updated datasource so it gets updated in inventory
-        endpointService.discoverAll();
+        endpointService.discoverSubtree(DMRNodeLocation.of(adr));
 
         return null;
 
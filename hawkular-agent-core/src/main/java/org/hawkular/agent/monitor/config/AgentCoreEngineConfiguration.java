@@ -57,34 +57,214 @@ public class AgentCoreEngineConfiguration {
         private final String securityRealm;
         private final int connectTimeoutSeconds;
         private final int readTimeoutSeconds;
+        private final int inventoryImportMaxResources;
+        private final int inventoryImportMaxBytes;
+        private final int inventoryImportMaxConcurrentRequests;
+        private final boolean gzipRequests;
+        private final int gzipThresholdBytes;
+        private final boolean inventoryDigestSync;
+        private final String inventoryOutboxDir;
+        private final int inventoryOutboxMaxBytes;
+        private final int maxRetries;
+        private final int circuitBreakerThreshold;
+        private final int notificationBatchMaxSize;
+        private final int notificationBatchWindowMillis;
 
-        public StorageAdapterConfiguration(
-                String username,
-                String password,
-                String feedId,
-                String url,
-                boolean useSSL,
-                String inventoryContext,
-                String feedcommContext,
-                String hawkularContext,
-                String keystorePath,
-                String keystorePassword,
-                String securityRealm,
-                int connectTimeoutSeconds,
-                int readTimeoutSeconds) {
-            this.username = username;
-            this.password = password;
-            this.feedId = (FEED_ID_AUTOGENERATE.equalsIgnoreCase(feedId)) ? null : feedId;
-            this.url = url;
-            this.useSSL = useSSL;
-            this.inventoryContext = inventoryContext;
-            this.feedcommContext = feedcommContext;
-            this.hawkularContext = hawkularContext;
-            this.keystorePath = keystorePath;
-            this.keystorePassword = keystorePassword;
-            this.securityRealm = securityRealm;
-            this.connectTimeoutSeconds = connectTimeoutSeconds;
-            this.readTimeoutSeconds = readTimeoutSeconds;
+        /**
+         * Builds a storage adapter configuration. The settings of the inventory import, the compression of requests,
+         * the inventory outbox, the resilience of requests and the batching of notifications that are not set keep
+         * their defaults.
+         */
+        public static class Builder {
+            private String username;
+            private String password;
+            private String feedId;
+            private String url;
+            private boolean useSSL;
+            private String inventoryContext;
+            private String feedcommContext;
+            private String hawkularContext;
+            private String keystorePath;
+            private String keystorePassword;
+            private String securityRealm;
+            private int connectTimeoutSeconds;
+            private int readTimeoutSeconds;
+            private int inventoryImportMaxResources = 1000;
+            private int inventoryImportMaxBytes = 4194304;
+            private int inventoryImportMaxConcurrentRequests = 2;
+            private boolean gzipRequests;
+            private int gzipThresholdBytes = 1024;
+            private boolean inventoryDigestSync;
+            private String inventoryOutboxDir;
+            private int inventoryOutboxMaxBytes;
+            private int maxRetries = 3;
+            private int circuitBreakerThreshold = 5;
+            private int notificationBatchMaxSize = 100;
+            private int notificationBatchWindowMillis = 500;
+
+            public Builder() {
+            }
+
+            public StorageAdapterConfiguration build() {
+                return new StorageAdapterConfiguration(this);
+            }
+
+            public Builder username(String username) {
+                this.username = username;
+                return this;
+            }
+
+            public Builder password(String password) {
+                this.password = password;
+                return this;
+            }
+
+            public Builder feedId(String feedId) {
+                this.feedId = feedId;
+                return this;
+            }
+
+            public Builder url(String url) {
+                this.url = url;
+                return this;
+            }
+
+            public Builder useSSL(boolean useSSL) {
+                this.useSSL = useSSL;
+                return this;
+            }
+
+            public Builder inventoryContext(String inventoryContext) {
+                this.inventoryContext = inventoryContext;
+                return this;
+            }
+
+            public Builder feedcommContext(String feedcommContext) {
+                this.feedcommContext = feedcommContext;
+                return this;
+            }
+
+            public Builder hawkularContext(String hawkularContext) {
+                this.hawkularContext = hawkularContext;
+                return this;
+            }
+
+            public Builder keystorePath(String keystorePath) {
+                this.keystorePath = keystorePath;
+                return this;
+            }
+
+            public Builder keystorePassword(String keystorePassword) {
+                this.keystorePassword = keystorePassword;
+                return this;
+            }
+
+            public Builder securityRealm(String securityRealm) {
+                this.securityRealm = securityRealm;
+                return this;
+            }
+
+            public Builder connectTimeoutSeconds(int connectTimeoutSeconds) {
+                this.connectTimeoutSeconds = connectTimeoutSeconds;
+                return this;
+            }
+
+            public Builder readTimeoutSeconds(int readTimeoutSeconds) {
+                this.readTimeoutSeconds = readTimeoutSeconds;
+                return this;
+            }
+
+            public Builder inventoryImportMaxResources(int inventoryImportMaxResources) {
+                this.inventoryImportMaxResources = inventoryImportMaxResources;
+                return this;
+            }
+
+            public Builder inventoryImportMaxBytes(int inventoryImportMaxBytes) {
+                this.inventoryImportMaxBytes = inventoryImportMaxBytes;
+                return this;
+            }
+
+            public Builder inventoryImportMaxConcurrentRequests(int inventoryImportMaxConcurrentRequests) {
+                this.inventoryImportMaxConcurrentRequests = inventoryImportMaxConcurrentRequests;
+                return this;
+            }
+
+            public Builder gzipRequests(boolean gzipRequests) {
+                this.gzipRequests = gzipRequests;
+                return this;
+            }
+
+            public Builder gzipThresholdBytes(int gzipThresholdBytes) {
+                this.gzipThresholdBytes = gzipThresholdBytes;
+                return this;
+            }
+
+            public Builder inventoryDigestSync(boolean inventoryDigestSync) {
+                this.inventoryDigestSync = inventoryDigestSync;
+                return this;
+            }
+
+            public Builder inventoryOutboxDir(String inventoryOutboxDir) {
+                this.inventoryOutboxDir = inventoryOutboxDir;
+                return this;
+            }
+
+            public Builder inventoryOutboxMaxBytes(int inventoryOutboxMaxBytes) {
+                this.inventoryOutboxMaxBytes = inventoryOutboxMaxBytes;
+                return this;
+            }
+
+            public Builder maxRetries(int maxRetries) {
+                this.maxRetries = maxRetries;
+                return this;
+            }
+
+            public Builder circuitBreakerThreshold(int circuitBreakerThreshold) {
+                this.circuitBreakerThreshold = circuitBreakerThreshold;
+                return this;
+            }
+
+            public Builder notificationBatchMaxSize(int notificationBatchMaxSize) {
+                this.notificationBatchMaxSize = notificationBatchMaxSize;
+                return this;
+            }
+
+            public Builder notificationBatchWindowMillis(int notificationBatchWindowMillis) {
+                this.notificationBatchWindowMillis = notificationBatchWindowMillis;
+                return this;
+            }
+        }
+
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        private StorageAdapterConfiguration(Builder builder) {
+            this.username = builder.username;
+            this.password = builder.password;
+            this.feedId = (FEED_ID_AUTOGENERATE.equalsIgnoreCase(builder.feedId)) ? null : builder.feedId;
+            this.url = builder.url;
+            this.useSSL = builder.useSSL;
+            this.inventoryContext = builder.inventoryContext;
+            this.feedcommContext = builder.feedcommContext;
+            this.hawkularContext = builder.hawkularContext;
+            this.keystorePath = builder.keystorePath;
+            this.keystorePassword = builder.keystorePassword;
+            this.securityRealm = builder.securityRealm;
+            this.connectTimeoutSeconds = builder.connectTimeoutSeconds;
+            this.readTimeoutSeconds = builder.readTimeoutSeconds;
+            this.inventoryImportMaxResources = builder.inventoryImportMaxResources;
+            this.inventoryImportMaxBytes = builder.inventoryImportMaxBytes;
+            this.inventoryImportMaxConcurrentRequests = builder.inventoryImportMaxConcurrentRequests;
+            this.gzipRequests = builder.gzipRequests;
+            this.gzipThresholdBytes = builder.gzipThresholdBytes;
+            this.inventoryDigestSync = builder.inventoryDigestSync;
+            this.inventoryOutboxDir = builder.inventoryOutboxDir;
+            this.inventoryOutboxMaxBytes = builder.inventoryOutboxMaxBytes;
+            this.maxRetries = builder.maxRetries;
+            this.circuitBreakerThreshold = builder.circuitBreakerThreshold;
+            this.notificationBatchMaxSize = builder.notificationBatchMaxSize;
+            this.notificationBatchWindowMillis = builder.notificationBatchWindowMillis;
         }
 
         public String getUsername() {
@@ -147,6 +327,96 @@ public class AgentCoreEngineConfiguration {
             return readTimeoutSeconds;
         }
 
+        /**
+         * @return the maximum number of resources sent in a single inventory import request; 0 means no limit
+         */
+        public int getInventoryImportMaxResources() {
+            return inventoryImportMaxResources;
+        }
+
+        /**
+         * @return the maximum size (in bytes of JSON) of a single inventory import request; 0 means no limit
+         */
+        public int getInventoryImportMaxBytes() {
+            return inventoryImportMaxBytes;
+        }
+
+        /**
+         * @return how many inventory import requests may be in flight at the same time
+         */
+        public int getInventoryImportMaxConcurrentRequests() {
+            return inventoryImportMaxConcurrentRequests;
+        }
+
+        /**
+         * @return true if JSON request bodies are to be sent gzip compressed (if the server accepts them)
+         */
+        public boolean isGzipRequests() {
+            return gzipRequests;
+        }
+
+        /**
+         * @return JSON request bodies smaller than this are not compressed
+         */
+        public int getGzipThresholdBytes() {
+            return gzipThresholdBytes;
+        }
+
+        /**
+         * @return true if the agent is to ask the inventory server which resources it does not have yet before it
+         *         imports them (if the server supports it)
+         */
+        public boolean isInventoryDigestSync() {
+            return inventoryDigestSync;
+        }
+
+        /**
+         * @return the directory of the outbox that keeps the inventory changes that could not be synced until they
+         *         are replayed, or null if there is no outbox
+         */
+        public String getInventoryOutboxDir() {
+            return inventoryOutboxDir;
+        }
+
+        /**
+         * @return the maximum size of the outbox on disk, or 0 if there is no outbox
+         */
+        public int getInventoryOutboxMaxBytes() {
+            return inventoryOutboxMaxBytes;
+        }
+
+        /**
+         * @return how many times a request that failed because the server could not be reached or was unavailable
+         *         is sent again, after a randomized and growing delay
+         */
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        /**
+         * @return after how many consecutive failed requests no more requests are sent to the server until it is
+         *         reachable again, or 0 if requests are always sent
+         */
+        public int getCircuitBreakerThreshold() {
+            return circuitBreakerThreshold;
+        }
+
+        /**
+         * @return the maximum number of notifications that are sent to the server in one request - 1 if each
+         *         notification is sent in a request of its own
+         */
+        public int getNotificationBatchMaxSize() {
+            return notificationBatchMaxSize;
+        }
+
+        /**
+         * @return how long notifications are collected before they are sent to the server, unless there are
+         *         {@link #getNotificationBatchMaxSize()} of them earlier
+         */
+        public int getNotificationBatchWindowMillis() {
+            return notificationBatchWindowMillis;
+        }
+
     }
 
     public static class DiagnosticsConfiguration {
@@ -181,6 +451,9 @@ public class AgentCoreEngineConfiguration {
         private final boolean immutable;
         private final boolean inContainer;
         private final int autoDiscoveryScanPeriodSeconds;
+        private final int autoDiscoveryScanPeriodMinSeconds;
+        private final int autoDiscoveryScanPeriodMaxSeconds;
+        private final String inventorySnapshotDir;
         private final String typeVersion;
         private final int numDmrSchedulerThreads;
 
@@ -189,6 +462,9 @@ public class AgentCoreEngineConfiguration {
                 boolean immutable,
                 boolean inContainer,
                 int autoDiscoveryScanPeriodSeconds,
+                int autoDiscoveryScanPeriodMinSeconds,
+                int autoDiscoveryScanPeriodMaxSeconds,
+                String inventorySnapshotDir,
                 String typeVersion,
                 int numDmrSchedulerThreads) {
             super();
@@ -196,6 +472,9 @@ public class AgentCoreEngineConfiguration {
             this.immutable = immutable;
             this.inContainer = inContainer;
             this.autoDiscoveryScanPeriodSeconds = autoDiscoveryScanPeriodSeconds;
+            this.autoDiscoveryScanPeriodMinSeconds = autoDiscoveryScanPeriodMinSeconds;
+            this.autoDiscoveryScanPeriodMaxSeconds = autoDiscoveryScanPeriodMaxSeconds;
+            this.inventorySnapshotDir = inventorySnapshotDir;
             this.typeVersion = typeVersion;
             this.numDmrSchedulerThreads = numDmrSchedulerThreads;
         }
@@ -216,6 +495,27 @@ public class AgentCoreEngineConfiguration {
             return autoDiscoveryScanPeriodSeconds;
         }
 
+        /**
+         * @return the shortest period between auto-discovery scans of an endpoint, or 0 if the period is fixed
+         */
+        public int getAutoDiscoveryScanPeriodMinSeconds() {
+            return autoDiscoveryScanPeriodMinSeconds;
+        }
+
+        /**
+         * @return the longest period between auto-discovery scans of an endpoint, or 0 if the period is fixed
+         */
+        public int getAutoDiscoveryScanPeriodMaxSeconds() {
+            return autoDiscoveryScanPeriodMaxSeconds;
+        }
+
+        /**
+         * @return the directory where the synced resources of each endpoint are stored, or null if they are not
+         */
+        public String getInventorySnapshotDir() {
+            return inventorySnapshotDir;
+        }
+
         public String getTypeVersion() {
             return typeVersion;
         }
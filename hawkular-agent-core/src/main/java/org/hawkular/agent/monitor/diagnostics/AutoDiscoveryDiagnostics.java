@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.diagnostics;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * Diagnostic metrics for tracking the periodic auto-discovery scans of a single endpoint.
+ */
+public final class AutoDiscoveryDiagnostics {
+    private final Meter changeRate;
+    private volatile int intervalSeconds;
+
+    public AutoDiscoveryDiagnostics(Meter changeRate) {
+        this.changeRate = changeRate;
+    }
+
+    /**
+     * @return tracks the rate of resources that auto-discovery scans find to be added, modified or removed
+     */
+    public Meter getChangeRate() {
+        return changeRate;
+    }
+
+    /**
+     * @return the number of seconds the endpoint currently waits between auto-discovery scans
+     */
+    public int getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    public void setIntervalSeconds(int intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.hawkular.agent.monitor.diagnostics;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
@@ -44,6 +45,23 @@ public interface Diagnostics {
      */
     ProtocolDiagnostics getPlatformDiagnostics();
 
+    /**
+     * Returns the auto-discovery diagnostics of the given endpoint, creating them if needed.
+     *
+     * @param protocolName the name of the protocol of the endpoint (e.g. "DMR")
+     * @param endpointName the name of the endpoint
+     * @return the auto-discovery diagnostics of the endpoint
+     */
+    AutoDiscoveryDiagnostics getAutoDiscoveryDiagnostics(String protocolName, String endpointName);
+
+    /**
+     * Removes the auto-discovery diagnostics of an endpoint that is no longer monitored.
+     *
+     * @param protocolName the name of the protocol of the endpoint (e.g. "DMR")
+     * @param endpointName the name of the endpoint
+     */
+    void removeAutoDiscoveryDiagnostics(String protocolName, String endpointName);
+
     /**
      * @return tracks how many errors occurred while trying to store data to Hawkular storage
      */
@@ -58,4 +76,57 @@ public interface Diagnostics {
      * @return time it takes to execute inventory storage requests
      */
     Timer getInventoryStorageRequestTimer();
+
+    /**
+     * @return the number of resources that are waiting to be synced with inventory
+     */
+    Counter getInventorySyncQueueDepth();
+
+    /**
+     * @return tracks the changes to resources that were merged with or cancelled out by a later change before they
+     *         were synced with inventory
+     */
+    Meter getInventorySyncCoalesceRate();
+
+    /**
+     * @return time it takes for changes to resources to be synced with inventory, including the time they wait
+     */
+    Timer getInventorySyncLatencyTimer();
+
+    /**
+     * @return the number of inventory changes in the outbox that wait to be replayed
+     */
+    Counter getInventoryOutboxDepth();
+
+    /**
+     * @return tracks the inventory changes that were dropped from the outbox because it was full
+     */
+    Meter getInventoryOutboxDropRate();
+
+    /**
+     * Tells since when the oldest inventory change in the outbox waits to be replayed - its age is reported by a gauge.
+     *
+     * @param timestamp when the oldest change was recorded, or 0 if the outbox is empty
+     */
+    void setInventoryOutboxOldestTime(long timestamp);
+
+    /**
+     * @return tracks the requests to the server that were sent again because the server could not be reached or was
+     *         unavailable
+     */
+    Meter getStorageRetryRate();
+
+    /**
+     * @return tracks the requests to the server that were not sent because its circuit breaker was open
+     */
+    Meter getStorageCircuitBreakerRejectRate();
+
+    /**
+     * Tells the state of the circuit breaker of a server - it is reported by a gauge.
+     *
+     * @param endpoint the scheme, host and port of the server
+     * @param state 0 if closed (requests are sent), 1 if half open (the server is probed) or 2 if open (requests fail
+     *        right away)
+     */
+    void setStorageCircuitBreakerState(String endpoint, int state);
 }
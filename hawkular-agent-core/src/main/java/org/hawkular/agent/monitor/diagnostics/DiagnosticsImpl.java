@@ -16,8 +16,14 @@
  */
 package org.hawkular.agent.monitor.diagnostics;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
 import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
@@ -31,6 +37,17 @@ public class DiagnosticsImpl implements Diagnostics {
     private final Meter storageError;
     private final Meter inventoryRate;
     private final Timer inventoryStorageRequestTimer;
+    private final Counter inventorySyncQueueDepth;
+    private final Meter inventorySyncCoalesceRate;
+    private final Timer inventorySyncLatencyTimer;
+    private final Counter inventoryOutboxDepth;
+    private final Meter inventoryOutboxDropRate;
+    private volatile long inventoryOutboxOldestTime;
+    private final Meter storageRetryRate;
+    private final Meter storageCircuitBreakerRejectRate;
+    private final Map<String, Integer> storageCircuitBreakerStates = new ConcurrentHashMap<>();
+    private final Map<String, AutoDiscoveryDiagnostics> autoDiscoveryDiagnostics = new ConcurrentHashMap<>();
+    private final String feedId;
 
     public static String name(String feedId, String name) {
         return MetricRegistry.name(feedId + ".diagnostics." + name);
@@ -48,15 +65,30 @@ public class DiagnosticsImpl implements Diagnostics {
         storageError = registry.meter(name(feedId, "storage.error-rate"));
         inventoryRate = registry.meter(name(feedId, "inventory.rate"));
         inventoryStorageRequestTimer = registry.timer(name(feedId, "inventory.storage-request-timer"));
+        inventorySyncQueueDepth = registry.counter(name(feedId, "inventory.sync-queue-depth"));
+        inventorySyncCoalesceRate = registry.meter(name(feedId, "inventory.sync-coalesce-rate"));
+        inventorySyncLatencyTimer = registry.timer(name(feedId, "inventory.sync-latency-timer"));
+        inventoryOutboxDepth = registry.counter(name(feedId, "inventory.outbox-depth"));
+        inventoryOutboxDropRate = registry.meter(name(feedId, "inventory.outbox-drop-rate"));
+        registry.register(name(feedId, "inventory.outbox-age-secs"), (Gauge<Long>) () -> {
+            long oldest = inventoryOutboxOldestTime;
+            return (oldest == 0) ? 0 : TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - oldest);
+        });
+        storageRetryRate = registry.meter(name(feedId, "storage.retry-rate"));
+        storageCircuitBreakerRejectRate = registry.meter(name(feedId, "storage.circuit-breaker.reject-rate"));
 
         this.metricsRegistry = registry;
+        this.feedId = feedId;
     }
 
     private static ProtocolDiagnostics newDiagnostics(String prefix, String feedId, MetricRegistry registry) {
         return new ProtocolDiagnostics(
                 registry.timer(name(feedId, prefix + ".request-timer")),
                 registry.meter(name(feedId, prefix + ".error-rate")),
-                registry.timer(name(feedId, prefix + ".full-discovery-scan-timer")));
+                registry.timer(name(feedId, prefix + ".full-discovery-scan-timer")),
+                registry.meter(name(feedId, prefix + ".request-timeout-rate")),
+                registry.meter(name(feedId, prefix + ".discovery-timeout-rate")),
+                registry.meter(name(feedId, prefix + ".discovery-cancellation-rate")));
     }
 
     @Override
@@ -79,6 +111,30 @@ public class DiagnosticsImpl implements Diagnostics {
         return platformDiagnostics;
     }
 
+    @Override
+    public AutoDiscoveryDiagnostics getAutoDiscoveryDiagnostics(String protocolName, String endpointName) {
+        String prefix = autoDiscoveryPrefix(protocolName, endpointName);
+        return autoDiscoveryDiagnostics.computeIfAbsent(prefix, p -> {
+            AutoDiscoveryDiagnostics d = new AutoDiscoveryDiagnostics(
+                    metricsRegistry.meter(name(feedId, p + ".change-rate")));
+            metricsRegistry.register(name(feedId, p + ".interval-secs"), (Gauge<Integer>) d::getIntervalSeconds);
+            return d;
+        });
+    }
+
+    @Override
+    public void removeAutoDiscoveryDiagnostics(String protocolName, String endpointName) {
+        String prefix = autoDiscoveryPrefix(protocolName, endpointName);
+        if (autoDiscoveryDiagnostics.remove(prefix) != null) {
+            metricsRegistry.remove(name(feedId, prefix + ".change-rate"));
+            metricsRegistry.remove(name(feedId, prefix + ".interval-secs"));
+        }
+    }
+
+    private static String autoDiscoveryPrefix(String protocolName, String endpointName) {
+        return protocolName.toLowerCase() + ".auto-discovery." + endpointName;
+    }
+
     @Override
     public Meter getStorageErrorRate() {
         return storageError;
@@ -93,4 +149,52 @@ public class DiagnosticsImpl implements Diagnostics {
     public Timer getInventoryStorageRequestTimer() {
         return inventoryStorageRequestTimer;
     }
+
+    @Override
+    public Counter getInventorySyncQueueDepth() {
+        return inventorySyncQueueDepth;
+    }
+
+    @Override
+    public Meter getInventorySyncCoalesceRate() {
+        return inventorySyncCoalesceRate;
+    }
+
+    @Override
+    public Timer getInventorySyncLatencyTimer() {
+        return inventorySyncLatencyTimer;
+    }
+
+    @Override
+    public Counter getInventoryOutboxDepth() {
+        return inventoryOutboxDepth;
+    }
+
+    @Override
+    public Meter getInventoryOutboxDropRate() {
+        return inventoryOutboxDropRate;
+    }
+
+    @Override
+    public void setInventoryOutboxOldestTime(long timestamp) {
+        this.inventoryOutboxOldestTime = timestamp;
+    }
+
+    @Override
+    public Meter getStorageRetryRate() {
+        return storageRetryRate;
+    }
+
+    @Override
+    public Meter getStorageCircuitBreakerRejectRate() {
+        return storageCircuitBreakerRejectRate;
+    }
+
+    @Override
+    public void setStorageCircuitBreakerState(String endpoint, int state) {
+        if (storageCircuitBreakerStates.put(endpoint, state) == null) {
+            metricsRegistry.register(name(feedId, "storage.circuit-breaker." + endpoint + ".state"),
+                    (Gauge<Integer>) () -> storageCircuitBreakerStates.get(endpoint));
+        }
+    }
 }
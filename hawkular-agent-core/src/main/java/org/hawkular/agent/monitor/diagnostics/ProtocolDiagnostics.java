@@ -28,12 +28,19 @@ public final class ProtocolDiagnostics {
     private final Meter errorRate;
     private final Timer requestTimer;
     private final Timer fullDiscoveryScanTimer;
+    private final Meter requestTimeoutRate;
+    private final Meter discoveryTimeoutRate;
+    private final Meter discoveryCancellationRate;
 
-    public ProtocolDiagnostics(Timer requestTimer, Meter errorRate, Timer fullDiscoveryScanTimer) {
+    public ProtocolDiagnostics(Timer requestTimer, Meter errorRate, Timer fullDiscoveryScanTimer,
+            Meter requestTimeoutRate, Meter discoveryTimeoutRate, Meter discoveryCancellationRate) {
         super();
         this.requestTimer = requestTimer;
         this.errorRate = errorRate;
         this.fullDiscoveryScanTimer = fullDiscoveryScanTimer;
+        this.requestTimeoutRate = requestTimeoutRate;
+        this.discoveryTimeoutRate = discoveryTimeoutRate;
+        this.discoveryCancellationRate = discoveryCancellationRate;
     }
 
     /**
@@ -56,4 +63,26 @@ public final class ProtocolDiagnostics {
     public Timer getFullDiscoveryScanTimer() {
         return fullDiscoveryScanTimer;
     }
+
+    /**
+     * @return tracks the protocol requests that were given up on because they did not complete in time
+     *         (these are also counted in the {@link #getErrorRate() error rate})
+     */
+    public Meter getRequestTimeoutRate() {
+        return requestTimeoutRate;
+    }
+
+    /**
+     * @return tracks the discovery scans that ran out of time before they discovered all resources
+     */
+    public Meter getDiscoveryTimeoutRate() {
+        return discoveryTimeoutRate;
+    }
+
+    /**
+     * @return tracks the discovery scans that were cancelled before they discovered all resources
+     */
+    public Meter getDiscoveryCancellationRate() {
+        return discoveryCancellationRate;
+    }
 }
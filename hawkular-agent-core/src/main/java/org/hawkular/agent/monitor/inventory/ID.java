@@ -16,24 +16,82 @@
  */
 package org.hawkular.agent.monitor.inventory;
 
+import java.lang.ref.WeakReference;
+
 /**
  * Can be used to identify object instances.
+ * <p>
+ * Subclasses may build the ID string on demand from parts they share with other IDs rather than hold a string of
+ * their own - see {@link #buildIDString()}. IDs are equal if their ID strings are, whatever the class of the ID.
  */
 public class ID implements Comparable<ID> {
 
     public static final ID NULL_ID = new ID(null);
 
     private final String id;
+    private int hash; // cached so that the ID string of a subclass need not be built to look the ID up
+    private WeakReference<String> built; // the ID string a subclass built last, kept until it is garbage collected
 
     public ID(String id) {
-        this.id = id != null && id.endsWith("/") ? id.substring(0, id.length() - 1) + '~' : id;
+        this.id = normalize(id);
+    }
+
+    /**
+     * For subclasses that override {@link #buildIDString()} to build the ID string on demand.
+     */
+    protected ID() {
+        this.id = null;
+    }
+
+    /**
+     * Makes the given ID string a valid one - subclasses that build the ID string on demand must pass it through
+     * this method.
+     *
+     * @param id the ID string (may be null)
+     * @return the ID string that an ID created from the given string would have
+     */
+    protected static String normalize(String id) {
+        return id != null && id.endsWith("/") ? id.substring(0, id.length() - 1) + '~' : id;
     }
 
     /**
      * @return the actual ID string, or null if this object represents a null ID.
      */
     public String getIDString() {
-        return this.id;
+        if (this.id != null) {
+            return this.id;
+        }
+        // a string that is looked at again soon (e.g. several times within a discovery scan) is not built again
+        WeakReference<String> ref = this.built;
+        String i = (ref != null) ? ref.get() : null;
+        if (i == null) {
+            i = buildIDString();
+            if (i != null) {
+                this.built = new WeakReference<>(i);
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Builds the ID string of an ID that does not hold one. The result must be passed through
+     * {@link #normalize(String)}.
+     *
+     * @return the ID string, or null if this object represents a null ID.
+     */
+    protected String buildIDString() {
+        return null;
+    }
+
+    /**
+     * Tells if this ID is equal to another of the same class by comparing the parts its ID string is built from,
+     * so that looking an ID up need not build the ID strings of both. Parts that are equal must make equal ID strings.
+     *
+     * @param other an ID of the same class as this one
+     * @return true if the IDs are known to be equal, false if their ID strings must be compared to know
+     */
+    protected boolean equalParts(ID other) {
+        return false;
     }
 
     @Override
@@ -49,8 +107,14 @@ public class ID implements Comparable<ID> {
         if (!(obj instanceof ID)) {
             return false;
         }
-        String thisIDString = this.id;
-        String thatIDString = ((ID) obj).id;
+        if (hashCode() != obj.hashCode()) {
+            return false;
+        }
+        if (obj.getClass() == getClass() && equalParts((ID) obj)) {
+            return true;
+        }
+        String thisIDString = getIDString();
+        String thatIDString = ((ID) obj).getIDString();
         if (thisIDString == null) {
             return thatIDString == null;
         }
@@ -59,8 +123,13 @@ public class ID implements Comparable<ID> {
 
     @Override
     public int hashCode() {
-        String i = getIDString();
-        return (i != null) ? i.hashCode() : 0;
+        int h = hash;
+        if (h == 0) {
+            String i = getIDString();
+            h = (i != null) ? i.hashCode() : 0;
+            hash = h;
+        }
+        return h;
     }
 
     /**
@@ -73,6 +142,6 @@ public class ID implements Comparable<ID> {
 
     @Override
     public int compareTo(ID other) {
-        return this.id.compareTo(other.id);
+        return getIDString().compareTo(other.getIDString());
     }
 }
@@ -16,6 +16,8 @@
  */
 package org.hawkular.agent.monitor.inventory;
 
+import java.util.Objects;
+
 import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.AbstractEndpointConfiguration;
 
 /**
@@ -70,23 +72,30 @@ public class InventoryIdUtil {
 
     /**
      * Generates an ID for a resource.
+     * <p>
+     * The ID does not hold a string of its own - it refers to the given feed ID, endpoint name and ID part, which are
+     * shared with the IDs of all other resources and metrics of the endpoint, and builds its ID string from them on
+     * demand. IDs generated here are compared by those parts, so the ID part must be immutable and its equal
+     * instances must have equal string forms.
      *
      * @param feedId the ID of the feed that owns the resource whose ID is to be generated
      * @param endpoint the endpoint where the resource is found
-     * @param idPart a unique string that identifies the resource within the managed server
+     * @param idPart identifies the resource within the managed server - its string form, such as the string form of
+     *               a resource location, is the last part of the resource ID
      *
      * @return the resource ID
      */
     public static ID generateResourceId(
             String feedId,
             MonitoredEndpoint<? extends AbstractEndpointConfiguration> endpoint,
-            String idPart) {
-        ID id = new ID(String.format("%s~%s~%s", feedId, endpoint.getName(), idPart));
-        return id;
+            Object idPart) {
+        return new ResourceId(feedId, endpoint.getName(), idPart);
     }
 
     /**
      * Generates an ID for an {@link MetricInstance}.
+     * <p>
+     * Like a {@link #generateResourceId resource ID}, the ID refers to its parts rather than holding a string.
      *
      * @param resource the resource that owns the MetricInstance
      * @param metricType the type of the MetricInstance whose ID is being generated
@@ -94,7 +103,60 @@ public class InventoryIdUtil {
      * @return the ID
      */
     public static ID generateMetricInstanceId(String feedId, ID resourceId, MetricType<?> metricType) {
-        ID id = new ID(String.format("MI~R~[%s/%s]~MT~%s", feedId, resourceId, metricType.getID()));
-        return id;
+        return new MetricInstanceId(feedId, resourceId, metricType.getID());
+    }
+
+    /**
+     * The ID string is "feedId~endpointName~idPart".
+     */
+    private static final class ResourceId extends ID {
+        private final String feedId;
+        private final String endpointName;
+        private final Object idPart;
+
+        private ResourceId(String feedId, String endpointName, Object idPart) {
+            this.feedId = feedId;
+            this.endpointName = endpointName;
+            this.idPart = idPart;
+        }
+
+        @Override
+        protected String buildIDString() {
+            return normalize(feedId + '~' + endpointName + '~' + idPart);
+        }
+
+        @Override
+        protected boolean equalParts(ID other) {
+            ResourceId that = (ResourceId) other;
+            return Objects.equals(idPart, that.idPart) && Objects.equals(endpointName, that.endpointName)
+                    && Objects.equals(feedId, that.feedId);
+        }
+    }
+
+    /**
+     * The ID string is "MI~R~[feedId/resourceId]~MT~metricTypeId".
+     */
+    private static final class MetricInstanceId extends ID {
+        private final String feedId;
+        private final ID resourceId;
+        private final ID metricTypeId;
+
+        private MetricInstanceId(String feedId, ID resourceId, ID metricTypeId) {
+            this.feedId = feedId;
+            this.resourceId = resourceId;
+            this.metricTypeId = metricTypeId;
+        }
+
+        @Override
+        protected String buildIDString() {
+            return normalize("MI~R~[" + feedId + '/' + resourceId + "]~MT~" + metricTypeId);
+        }
+
+        @Override
+        protected boolean equalParts(ID other) {
+            MetricInstanceId that = (MetricInstanceId) other;
+            return Objects.equals(resourceId, that.resourceId) && Objects.equals(metricTypeId, that.metricTypeId)
+                    && Objects.equals(feedId, that.feedId);
+        }
     }
 }
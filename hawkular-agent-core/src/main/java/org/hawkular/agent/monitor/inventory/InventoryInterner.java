@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.inventory;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Shares the strings and metric label maps that many objects in inventory hold equal copies of, such as the label
+ * names and values of the metrics of all resources of an endpoint.
+ * <p>
+ * The pools only hold weak references, so an interned object is dropped as soon as nothing in inventory refers to it
+ * anymore. All methods are thread safe.
+ */
+public final class InventoryInterner {
+
+    private static final Pool<String> STRINGS = new Pool<>();
+    private static final Pool<Map<String, String>> LABELS = new Pool<>();
+
+    private InventoryInterner() {
+    }
+
+    /**
+     * @param string the string to intern (may be null)
+     * @return a string equal to the given one which is shared by all callers that interned an equal string
+     */
+    public static String intern(String string) {
+        return (string == null) ? null : STRINGS.intern(string);
+    }
+
+    /**
+     * Returns an immutable copy of the given labels which is shared by all callers that interned equal labels. The
+     * copy takes less memory than a {@link java.util.HashMap}; its iteration order is the one of the labels that were
+     * interned first.
+     *
+     * @param labels the labels to intern (may be null)
+     * @return the shared immutable labels - an empty map if the given labels are null or empty
+     */
+    public static Map<String, String> internLabels(Map<String, String> labels) {
+        if (labels == null || labels.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (labels instanceof Labels) {
+            return LABELS.intern(labels);
+        }
+
+        String[] keysAndValues = new String[labels.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            keysAndValues[i++] = intern(label.getKey());
+            keysAndValues[i++] = intern(label.getValue());
+        }
+        return LABELS.intern(new Labels(keysAndValues));
+    }
+
+    private static final class Pool<T> {
+        private final Map<T, WeakReference<T>> pool = new WeakHashMap<>();
+
+        private synchronized T intern(T object) {
+            WeakReference<T> ref = pool.get(object);
+            T shared = (ref == null) ? null : ref.get();
+            if (shared == null) {
+                pool.put(object, new WeakReference<>(object));
+                shared = object;
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * An immutable map that keeps its keys and values next to each other in a single array. Labels are few per metric
+     * so a linear lookup is as fast as hashing them.
+     */
+    private static final class Labels extends AbstractMap<String, String> {
+        private final String[] keysAndValues;
+        private int hash; // the hash of a map is the sum of the hashes of its entries - cached as it never changes
+
+        private Labels(String[] keysAndValues) {
+            this.keysAndValues = keysAndValues;
+        }
+
+        @Override
+        public int size() {
+            return keysAndValues.length / 2;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public String get(Object key) {
+            int i = indexOf(key);
+            return (i < 0) ? null : keysAndValues[i + 1];
+        }
+
+        @Override
+        public int hashCode() {
+            int h = hash;
+            if (h == 0) {
+                h = super.hashCode();
+                hash = h;
+            }
+            return h;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public int size() {
+                    return Labels.this.size();
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < keysAndValues.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<>(
+                                    keysAndValues[next], keysAndValues[next + 1]);
+                            next += 2;
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < keysAndValues.length; i += 2) {
+                if (keysAndValues[i] == null ? key == null : keysAndValues[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.inventory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores the resources of an endpoint that have been synced with inventory in a file so that, after the agent
+ * restarts, the first discovery scan can tell which resources the inventory already knows about.
+ *
+ * The file is written in a compact binary format: a header identifying the feed and endpoint, a table of the
+ * resource type names and then the resources in breadth-first order. Each resource refers to its parent and type
+ * by their indices rather than repeating their IDs and names, and its configuration and properties are only kept as
+ * part of its {@link Resource#getFingerprint() fingerprint}.
+ */
+public final class InventorySnapshot {
+
+    private static final int MAGIC = 0x484B4953; // "HKIS"
+    private static final int VERSION = 2;
+
+    /**
+     * A resource as it was when it was last synced with inventory.
+     */
+    public static final class Entry {
+        private final String id;
+        private final String parentId;
+        private final String typeName;
+        private final String name;
+        private final String location;
+        private final long persistedTime;
+        private final long fingerprint;
+        private final Set<String> metricIds;
+
+        private Entry(String id, String parentId, String typeName, String name, String location,
+                long persistedTime, long fingerprint, Set<String> metricIds) {
+            this.id = id;
+            this.parentId = parentId;
+            this.typeName = typeName;
+            this.name = name;
+            this.location = location;
+            this.persistedTime = persistedTime;
+            this.fingerprint = fingerprint;
+            this.metricIds = metricIds;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getTypeName() {
+            return typeName;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public long getPersistedTime() {
+            return persistedTime;
+        }
+
+        /**
+         * @return the {@link Resource#getFingerprint() fingerprint} of the resource
+         */
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @param resource a resource that was discovered
+         * @return true if the given resource was synced with inventory and has not changed since then
+         */
+        public <L> boolean isUnchanged(Resource<L> resource) {
+            if (persistedTime <= 0) {
+                return false; // it was never synced
+            }
+            String resourceParentId = (resource.getParent() != null) ? resource.getParent().getID().getIDString()
+                    : null;
+            return fingerprint == resource.getFingerprint()
+                    && id.equals(resource.getID().getIDString())
+                    && equal(parentId, resourceParentId)
+                    && equal(typeName, resource.getResourceType().getName().getNameString())
+                    && equal(name, resource.getName().getNameString())
+                    && metricIds.equals(metricIdsOf(resource));
+        }
+
+        private static boolean equal(String s1, String s2) {
+            return (s1 == null) ? s2 == null : s1.equals(s2);
+        }
+    }
+
+    private final File file;
+    private final String feedId;
+    private final String endpointName;
+
+    /**
+     * @param file the file where the snapshot is stored
+     * @param feedId the feed the endpoint belongs to - a snapshot of another feed is never loaded
+     * @param endpointName the name of the endpoint - a snapshot of another endpoint is never loaded
+     */
+    public InventorySnapshot(File file, String feedId, String endpointName) {
+        this.file = file;
+        this.feedId = feedId;
+        this.endpointName = endpointName;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes all the resources of the given resource manager to the snapshot file, replacing the previous snapshot.
+     *
+     * @param resourceManager the resources to store
+     * @throws IOException if the snapshot cannot be written
+     */
+    public <L> void save(ResourceManager<L> resourceManager) throws IOException {
+        List<Resource<L>> resources = resourceManager.getResourcesBreadthFirst();
+
+        Map<ID, Integer> resourceIndices = new HashMap<>(resources.size());
+        Map<String, Integer> typeIndices = new LinkedHashMap<>();
+        for (Resource<L> resource : resources) {
+            String typeName = resource.getResourceType().getName().getNameString();
+            typeIndices.putIfAbsent(typeName, typeIndices.size());
+        }
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, feedId);
+                writeString(out, endpointName);
+
+                out.writeInt(typeIndices.size());
+                for (String typeName : typeIndices.keySet()) {
+                    writeString(out, typeName);
+                }
+
+                out.writeInt(resources.size());
+                for (Resource<L> resource : resources) {
+                    Integer parentIndex = (resource.getParent() != null)
+                            ? resourceIndices.get(resource.getParent().getID())
+                            : null;
+                    resourceIndices.put(resource.getID(), resourceIndices.size());
+
+                    writeString(out, resource.getID().getIDString());
+                    out.writeInt((parentIndex != null) ? parentIndex : -1);
+                    out.writeInt(typeIndices.get(resource.getResourceType().getName().getNameString()));
+                    writeString(out, resource.getName().getNameString());
+                    writeString(out, String.valueOf(resource.getLocation()));
+                    out.writeLong(resource.getPersistedTime());
+                    out.writeLong(resource.getFingerprint());
+                    Set<String> metricIds = metricIdsOf(resource);
+                    out.writeInt(metricIds.size());
+                    for (String metricId : metricIds) {
+                        writeString(out, metricId);
+                    }
+                }
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Reads the snapshot file.
+     *
+     * @return the resources in the snapshot keyed on their IDs, or null if there is no snapshot
+     *         or the snapshot belongs to another feed or endpoint
+     * @throws IOException if the snapshot cannot be read
+     */
+    public Map<String, Entry> load() throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an inventory snapshot: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported inventory snapshot version [" + version + "]: " + file);
+            }
+            if (!feedId.equals(readString(in)) || !endpointName.equals(readString(in))) {
+                return null;
+            }
+
+            int typeCount = in.readInt();
+            List<String> typeNames = new ArrayList<>(typeCount);
+            for (int i = 0; i < typeCount; i++) {
+                typeNames.add(readString(in));
+            }
+
+            int resourceCount = in.readInt();
+            List<String> resourceIds = new ArrayList<>(resourceCount);
+            Map<String, Entry> entries = new LinkedHashMap<>(resourceCount);
+            for (int i = 0; i < resourceCount; i++) {
+                String id = readString(in);
+                int parentIndex = in.readInt();
+                String typeName = typeNames.get(in.readInt());
+                String name = readString(in);
+                String location = readString(in);
+                long persistedTime = in.readLong();
+                long fingerprint = in.readLong();
+                int metricCount = in.readInt();
+                Set<String> metricIds = new HashSet<>(metricCount);
+                for (int j = 0; j < metricCount; j++) {
+                    metricIds.add(readString(in));
+                }
+
+                String parentId = (parentIndex >= 0) ? resourceIds.get(parentIndex) : null;
+                resourceIds.add(id);
+                entries.put(id, new Entry(id, parentId, typeName, name, location, persistedTime, fingerprint,
+                        metricIds));
+            }
+            return Collections.unmodifiableMap(entries);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted inventory snapshot: " + file, e);
+        }
+    }
+
+    private static <L> Set<String> metricIdsOf(Resource<L> resource) {
+        Set<String> metricIds = new HashSet<>();
+        resource.getMetrics().forEach(m -> metricIds.add(m.getID().getIDString()));
+        return metricIds;
+    }
+
+    // unlike writeUTF, this is not limited to 64K and can write nulls
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
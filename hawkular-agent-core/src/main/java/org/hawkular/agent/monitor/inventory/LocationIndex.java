@@ -0,0 +1,226 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.inventory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.agent.monitor.protocol.LocationResolver;
+
+/**
+ * A trie of resources keyed on the segments of their locations as given by
+ * {@link LocationResolver#getIndexSegments(Object)}. It lets {@link ResourceManager} find the resources whose
+ * locations may match a query by walking down the segments of the query rather than by looking at every resource.
+ * <p>
+ * The index only narrows down the candidates - the caller must still check that each candidate matches the query.
+ * <p>
+ * This class is not thread safe - {@link ResourceManager} guards it with its own lock.
+ *
+ * @param <L> the type of the protocol specific location, typically a subclass of {@link NodeLocation}
+ */
+final class LocationIndex<L> {
+
+    private static final class Node<L> {
+        private Map<String, Node<L>> children; // null until the first child is added
+        private List<Resource<L>> resources; // the resources located exactly here; null if there are none
+
+        private boolean isEmpty() {
+            return children == null && resources == null;
+        }
+    }
+
+    private final LocationResolver<L> locationResolver;
+    private final Node<L> root = new Node<>();
+    private final List<Resource<L>> unindexed = new ArrayList<>(); // resources whose locations have no segments
+
+    LocationIndex(LocationResolver<L> locationResolver) {
+        this.locationResolver = locationResolver;
+    }
+
+    /**
+     * Adds the given resource to the index.
+     *
+     * @param resource the resource to add
+     */
+    void add(Resource<L> resource) {
+        List<String> segments = getSegments(resource);
+        if (segments == null) {
+            unindexed.add(resource);
+            return;
+        }
+
+        Node<L> node = root;
+        for (String segment : segments) {
+            if (node.children == null) {
+                node.children = new HashMap<>(4);
+            }
+            node = node.children.computeIfAbsent(segment, s -> new Node<>());
+        }
+        if (node.resources == null) {
+            node.resources = new ArrayList<>(1);
+        }
+        node.resources.add(resource);
+    }
+
+    /**
+     * Removes the given resource from the index. The very same object must have been {@link #add(Resource) added}.
+     *
+     * @param resource the resource to remove
+     */
+    void remove(Resource<L> resource) {
+        List<String> segments = getSegments(resource);
+        if (segments == null) {
+            removeSame(unindexed, resource);
+        } else {
+            remove(root, segments, 0, resource);
+        }
+    }
+
+    /**
+     * Returns the resources whose locations may match the given query. Those are the resources found under the
+     * segments of the query, along with the resources whose locations cannot be indexed.
+     *
+     * @param query the query
+     * @return the candidates or null if the index cannot answer the query, in which case all resources are candidates
+     */
+    List<Resource<L>> findCandidates(L query) {
+        List<String> querySegments = locationResolver.getIndexQuerySegments(query);
+        if (querySegments == null) {
+            return null;
+        }
+
+        List<Resource<L>> candidates = new ArrayList<>(unindexed);
+        collect(root, querySegments, 0, candidates);
+        return candidates;
+    }
+
+    /**
+     * Returns the resources whose locations may be ancestors of the given location. Those are the resources found
+     * along the segments of the location (but not at the location itself), along with the resources whose locations
+     * cannot be indexed.
+     *
+     * @param location the location, possibly with wildcards
+     * @return the candidates or null if the index cannot answer the query, in which case all resources are candidates
+     */
+    List<Resource<L>> findAncestorCandidates(L location) {
+        List<String> segments = locationResolver.getIndexAncestorSegments(location);
+        if (segments == null) {
+            return null;
+        }
+
+        List<Resource<L>> candidates = new ArrayList<>(unindexed);
+        collectAncestors(root, segments, 0, candidates);
+        return candidates;
+    }
+
+    /**
+     * Empties the index.
+     */
+    void clear() {
+        root.children = null;
+        root.resources = null;
+        unindexed.clear();
+    }
+
+    private List<String> getSegments(Resource<L> resource) {
+        return (resource.getLocation() == null) ? null : locationResolver.getIndexSegments(resource.getLocation());
+    }
+
+    private void collect(Node<L> node, List<String> querySegments, int depth, List<Resource<L>> candidates) {
+        if (depth == querySegments.size()) {
+            if (node.resources != null) {
+                candidates.addAll(node.resources);
+            }
+            return;
+        }
+        if (node.children == null) {
+            return;
+        }
+
+        String segment = querySegments.get(depth);
+        if (segment != null) {
+            Node<L> child = node.children.get(segment);
+            if (child != null) {
+                collect(child, querySegments, depth + 1, candidates);
+            }
+        } else {
+            for (Node<L> child : node.children.values()) {
+                collect(child, querySegments, depth + 1, candidates);
+            }
+        }
+    }
+
+    private void collectAncestors(Node<L> node, List<String> segments, int depth, List<Resource<L>> candidates) {
+        if (depth == segments.size()) {
+            return; // a location is not its own ancestor
+        }
+        if (node.resources != null) {
+            candidates.addAll(node.resources);
+        }
+        if (node.children == null) {
+            return;
+        }
+
+        String segment = segments.get(depth);
+        if (segment != null) {
+            Node<L> child = node.children.get(segment);
+            if (child != null) {
+                collectAncestors(child, segments, depth + 1, candidates);
+            }
+        } else {
+            for (Node<L> child : node.children.values()) {
+                collectAncestors(child, segments, depth + 1, candidates);
+            }
+        }
+    }
+
+    /**
+     * @return true if the node became empty and can be pruned by its parent
+     */
+    private boolean remove(Node<L> node, List<String> segments, int depth, Resource<L> resource) {
+        if (depth == segments.size()) {
+            if (node.resources != null) {
+                removeSame(node.resources, resource);
+                if (node.resources.isEmpty()) {
+                    node.resources = null;
+                }
+            }
+        } else if (node.children != null) {
+            String segment = segments.get(depth);
+            Node<L> child = node.children.get(segment);
+            if (child != null && remove(child, segments, depth + 1, resource)) {
+                node.children.remove(segment);
+                if (node.children.isEmpty()) {
+                    node.children = null;
+                }
+            }
+        }
+        return node != root && node.isEmpty();
+    }
+
+    // resources are equal if their IDs are - but a replaced resource and its replacement must not be mistaken
+    private static <L> void removeSame(List<Resource<L>> resources, Resource<L> resource) {
+        for (int i = 0; i < resources.size(); i++) {
+            if (resources.get(i) == resource) {
+                resources.remove(i);
+                return;
+            }
+        }
+    }
+}
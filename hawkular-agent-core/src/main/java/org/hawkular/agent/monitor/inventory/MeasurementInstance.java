@@ -16,7 +16,6 @@
  */
 package org.hawkular.agent.monitor.inventory;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.EndpointConfiguration;
@@ -57,7 +56,8 @@ public final class MeasurementInstance<L, T extends MeasurementType<L>> extends
     }
 
     /**
-     * @return labels that are associated with this metric instance. May be empty.
+     * @return labels that are associated with this metric instance. May be empty. The map is immutable and shared
+     *         with other instances that have the same labels - see {@link InventoryInterner#internLabels(Map)}.
      *
      * @see EndpointConfiguration#getMetricLabels()
      * @see MeasurementInstance#getUniqueMetricId()
@@ -67,11 +67,7 @@ public final class MeasurementInstance<L, T extends MeasurementType<L>> extends
     }
 
     public void setMetricLabels(Map<String, String> metricLabels) {
-        if (metricLabels == null) {
-            this.metricLabels = new HashMap<>();
-        } else {
-            this.metricLabels = new HashMap<>(metricLabels);
-        }
+        this.metricLabels = InventoryInterner.internLabels(metricLabels);
     }
 
     /**
@@ -19,6 +19,7 @@ package org.hawkular.agent.monitor.inventory;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -96,10 +97,14 @@ public final class Resource<L> extends NodeLocationProvider<L> {
         return new Builder<L>(template);
     }
 
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
     private final ResourceType<L> resourceType;
     private final Resource<L> parent;
     private final Set<MeasurementInstance<L, MetricType<L>>> metrics;
     private final Set<ResourceConfigurationPropertyInstance<L>> resourceConfigurationProperties;
+    private volatile long fingerprint; // recomputed when properties change
 
     private Resource(ID id,
             Name name,
@@ -115,6 +120,7 @@ public final class Resource<L> extends NodeLocationProvider<L> {
         this.resourceConfigurationProperties = resourceConfigurationProperties;
         assignToThisResource(this.metrics);
         assignToThisResource(this.resourceConfigurationProperties);
+        this.fingerprint = computeFingerprint();
     }
 
     private void assignToThisResource(Collection<? extends Instance<L, ?>> instances) {
@@ -141,8 +147,84 @@ public final class Resource<L> extends NodeLocationProvider<L> {
         return resourceConfigurationProperties;
     }
 
+    /**
+     * Returns a 64-bit hash of the content of this resource that can change when it is rediscovered: its name, the
+     * values of its resource configuration properties and its general properties. A rediscovered resource whose
+     * fingerprint differs from the one of the resource it replaces has changed; equal fingerprints mean that it has
+     * not, unless they collide. The fingerprint is computed when the resource is built and whenever its properties
+     * change, and does not depend on the JVM, so it can be stored and compared with the fingerprint of a resource
+     * discovered after a restart. Property values are hashed by their class and string form, so values that are
+     * {@link Object#equals(Object) equal} but print differently make the fingerprints differ; values that are not
+     * equal but print the same (and are of the same class) do not.
+     *
+     * @return the fingerprint of this resource
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public void addProperty(String name, Object value) {
+        super.addProperty(name, value);
+        this.fingerprint = computeFingerprint();
+    }
+
+    @Override
+    public void removeProperty(String name) {
+        super.removeProperty(name);
+        this.fingerprint = computeFingerprint();
+    }
+
     @Override
     public String toString() {
         return String.format("%s=[type=%s]", super.toString(), this.resourceType);
     }
+
+    // The configuration and properties are unordered so their entries are hashed one by one and summed up,
+    // the same way Map.hashCode() does it. FNV-1a is used for the strings as String.hashCode() is only 32-bit.
+    private long computeFingerprint() {
+        long configuration = 0;
+        for (ResourceConfigurationPropertyInstance<L> c : resourceConfigurationProperties) {
+            configuration += mix(hash(hash(FNV_OFFSET_BASIS, c.getName().getNameString()), c.getValue()));
+        }
+        long properties = 0;
+        for (Map.Entry<String, Object> p : getProperties().entrySet()) {
+            properties += mix(hash(hash(FNV_OFFSET_BASIS, p.getKey()), p.getValue()));
+        }
+
+        long h = hash(FNV_OFFSET_BASIS, getName().getNameString());
+        h = mix(h) * 31 + mix(configuration + resourceConfigurationProperties.size());
+        h = h * 31 + mix(properties + getProperties().size());
+        return mix(h);
+    }
+
+    // a string value and a value of another type that prints the same must not hash the same
+    private static long hash(long h, Object value) {
+        if (value == null || value instanceof String) {
+            return hash(h, (String) value);
+        }
+        return hash(hash(h, value.getClass().getName()), value.toString());
+    }
+
+    private static long hash(long h, String s) {
+        if (s == null) {
+            return (h ^ 0xffff) * FNV_PRIME; // cannot be confused with a string as no char is hashed this way
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            h = (h ^ (c & 0xff)) * FNV_PRIME;
+            h = (h ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return (h ^ 0x1ffff) * FNV_PRIME; // terminates the string so that "ab"+"c" and "a"+"bc" differ
+    }
+
+    // the finalizer of MurmurHash3 - spreads the bits of a hash so that sums of hashes do not cancel each other out
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
 }
@@ -16,41 +16,50 @@
  */
 package org.hawkular.agent.monitor.inventory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
 
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.protocol.LocationResolver;
-import org.jgrapht.alg.DirectedNeighborIndex;
-import org.jgrapht.event.GraphVertexChangeEvent;
-import org.jgrapht.event.VertexSetListener;
-import org.jgrapht.graph.DefaultEdge;
-import org.jgrapht.graph.ListenableDirectedGraph;
-import org.jgrapht.traverse.BreadthFirstIterator;
-import org.jgrapht.traverse.DepthFirstIterator;
-import org.jgrapht.traverse.GraphIterator;
 
 /**
- * Holds the graph of resources. The graph itself is never exposed externally - {@link ResourceManager} rather provides
- * methods to retrieve data from the graph and to change the data in the graph.
+ * Holds the tree of resources. The tree itself is never exposed externally - {@link ResourceManager} rather provides
+ * methods to retrieve data from the tree and to change the data in the tree.
+ * <p>
+ * Each resource in the tree is held by a small node that links it to its parent and its children. The nodes are
+ * looked up by resource ID, so finding a resource, its parent or its children takes constant time, and replacing a
+ * resource with a modified one only swaps the resource held by its node.
  * <p>
  * Concurrency:
  * <ul>
  * <li>All data and collections returned from {@link ResourceManager} is immutable
  * <li>{@link ResourceManager} uses a {@link ReadWriteLock} internally so that all public read and write operations can
  * be performed from concurrent threads
+ * <li>Readers that do not take part in discovery (such as command handlers and reports) should read the latest
+ * {@link #getSnapshot() snapshot} instead. Snapshots are immutable and reading them takes no lock, so those readers
+ * never wait for a discovery scan. Writers {@link #publishSnapshot() publish} a new snapshot when they are done with
+ * a scan or a batch of changes; it shares all subtrees that did not change with the previous snapshot.
+ * </ul>
+ * <p>
+ * Change detection: a discovery scan starts a new {@link #nextGeneration() generation} and every resource added while
+ * the scan runs is stamped with it, whether the resource turns out to be new, modified or unchanged. When the scan is
+ * done, the resources that were not seen by it are the ones still stamped with an older generation - they are found
+ * with a single sweep over the resources rather than by keeping track of the IDs of all resources the scan saw.
  *
  * @author John Mazzitelli
  * @author <a href="https://github.com/ppalaga">Peter Palaga</a>
@@ -92,25 +101,232 @@ public final class ResourceManager<L> {
     }
 
     /**
-     * This class listens for resources getting added and removed from the graph and updates its internal cache to
-     * reflect the changes. The internal cache lets us retrieve resources quickly by resource ID.
+     * Holds a resource in the tree. The node of a resource stays the same when the resource is replaced by a modified
+     * one, so its links to its parent and children never need to be rebuilt.
      */
-    private class VertexCacheListener implements VertexSetListener<Resource<L>> {
-        @Override
-        public void vertexAdded(GraphVertexChangeEvent<Resource<L>> e) {
-            resourceCache.put(e.getVertex().getID(), e.getVertex());
+    private static final class Node<L> {
+        private Resource<L> resource;
+        private Node<L> parent; // null for root resources
+        private List<Node<L>> children; // null until the first child is added
+        private long generation; // the last scan generation that saw this resource
+        private FrozenNode<L> frozen; // this subtree in the latest snapshot; null if it changed since
+
+        private Node(Resource<L> resource, Node<L> parent) {
+            this.resource = resource;
+            this.parent = parent;
         }
 
-        @Override
-        public void vertexRemoved(GraphVertexChangeEvent<Resource<L>> e) {
-            resourceCache.remove(e.getVertex().getID());
+        private void addChild(Node<L> child) {
+            if (children == null) {
+                children = new ArrayList<>(2);
+            }
+            children.add(child);
+        }
+
+        private void removeChild(Node<L> child) {
+            if (children != null) {
+                children.remove(child);
+                if (children.isEmpty()) {
+                    children = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * An immutable node of a {@link Snapshot}. A subtree that did not change is shared by consecutive snapshots.
+     */
+    private static final class FrozenNode<L> {
+        private final Resource<L> resource;
+        private final ID parentId; // null for root resources
+        private final List<FrozenNode<L>> children;
+
+        private FrozenNode(Node<L> node) {
+            this.resource = node.resource;
+            this.parentId = (node.parent != null) ? node.parent.resource.getID() : null;
+            if (node.children == null) {
+                this.children = Collections.emptyList();
+            } else {
+                List<FrozenNode<L>> frozenChildren = new ArrayList<>(node.children.size());
+                for (Node<L> child : node.children) {
+                    frozenChildren.add(child.frozen);
+                }
+                this.children = Collections.unmodifiableList(frozenChildren);
+            }
+        }
+    }
+
+    /**
+     * The frozen nodes of a {@link Snapshot} by the IDs of their resources. Consecutive snapshots share the entries
+     * that did not change: an index only holds the entries that changed since an older index (null for a removed
+     * resource) and looks up the others there. An index is merged into the older one as soon as it holds half as
+     * many entries, so a snapshot costs about as much to publish as what changed (amortized, times the logarithm of
+     * the number of resources) and a lookup goes through a logarithmic number of indexes.
+     */
+    private static final class FrozenIndex<L> {
+        private final Map<ID, FrozenNode<L>> entries;
+        private final FrozenIndex<L> older; // null if this index holds all entries
+        private final int size; // the number of resources
+
+        private FrozenIndex(Map<ID, FrozenNode<L>> entries, FrozenIndex<L> older, int size) {
+            this.entries = entries;
+            this.older = older;
+            this.size = size;
+        }
+
+        private FrozenNode<L> get(ID id) {
+            for (FrozenIndex<L> index = this; index != null; index = index.older) {
+                FrozenNode<L> node = index.entries.get(id);
+                if (node != null || index.entries.containsKey(id)) {
+                    return node;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @param changes the nodes that changed since this index, null for the resources that were removed; the map
+         *        must not be used afterwards
+         * @param size the number of resources once the changes are applied
+         * @return a new index with the changes applied - this index is left as it is
+         */
+        private FrozenIndex<L> with(Map<ID, FrozenNode<L>> changes, int size) {
+            Map<ID, FrozenNode<L>> merged = changes;
+            FrozenIndex<L> base = this;
+            while (base != null && merged.size() * 2 >= base.entries.size()) {
+                Map<ID, FrozenNode<L>> bigger = new HashMap<>(base.entries);
+                bigger.putAll(merged);
+                merged = bigger;
+                base = base.older;
+            }
+            if (base == null) {
+                merged.values().removeIf(Objects::isNull); // there is nothing left to hide
+            }
+            return new FrozenIndex<>(merged, base, size);
+        }
+    }
+
+    /**
+     * An immutable, consistent view of the resource tree as it was when the snapshot was
+     * {@link ResourceManager#publishSnapshot() published}. Reading a snapshot takes no lock.
+     */
+    public static final class Snapshot<L> {
+        private final long version;
+        private final FrozenIndex<L> nodes;
+        private final List<FrozenNode<L>> roots;
+
+        private Snapshot(long version, FrozenIndex<L> nodes, List<FrozenNode<L>> roots) {
+            this.version = version;
+            this.nodes = nodes;
+            this.roots = roots;
+        }
+
+        /**
+         * @return the number of snapshots published before this one
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return the total number of resources in the snapshot
+         */
+        public int size() {
+            return nodes.size;
+        }
+
+        /**
+         * @param resourceId the ID of the resource to retrieve
+         * @return the resource with the given ID or <code>null</code> if there is no such resource in the snapshot
+         */
+        public Resource<L> getResource(ID resourceId) {
+            FrozenNode<L> node = nodes.get(resourceId);
+            return (node != null) ? node.resource : null;
+        }
+
+        /**
+         * @param resource the resource whose parent is to be returned
+         * @return the direct parent of the given resource, or null if this is a root resource without a parent
+         * @throws IllegalArgumentException if the resource itself is not found in the snapshot
+         */
+        public Resource<L> getParent(Resource<L> resource) {
+            ID parentId = getNode(resource).parentId;
+            return (parentId != null) ? nodes.get(parentId).resource : null;
+        }
+
+        /**
+         * @param resource the resource whose children are to be returned
+         * @return an immutable {@link Set} of the direct children of the given resource
+         * @throws IllegalArgumentException if the resource itself is not found in the snapshot
+         */
+        public Set<Resource<L>> getChildren(Resource<L> resource) {
+            return toResources(getNode(resource).children);
+        }
+
+        /**
+         * @return an immutable {@link Set} of the resources that do not have a parent
+         */
+        public Set<Resource<L>> getRootResources() {
+            return toResources(roots);
+        }
+
+        /**
+         * @return an immutable {@link List} of all resources in the snapshot in breadth-first order
+         */
+        public List<Resource<L>> getResourcesBreadthFirst() {
+            List<Resource<L>> result = new ArrayList<>(nodes.size);
+            Deque<FrozenNode<L>> queue = new ArrayDeque<>();
+            for (FrozenNode<L> root : roots) {
+                queue.add(root);
+                while (!queue.isEmpty()) {
+                    FrozenNode<L> node = queue.poll();
+                    result.add(node.resource);
+                    queue.addAll(node.children);
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        /**
+         * @param query a location eventually containing wildcards
+         * @param locationResolver the {@link LocationResolver} to perform the matching against the given query
+         * @return an unmodifiable list of the resources that match the given {@code query}
+         */
+        public List<Resource<L>> findResources(L query, LocationResolver<L> locationResolver) {
+            List<Resource<L>> result = new ArrayList<>();
+            for (Resource<L> resource : getResourcesBreadthFirst()) {
+                if (locationResolver.matches(query, resource.getLocation())) {
+                    result.add(resource);
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        private FrozenNode<L> getNode(Resource<L> resource) {
+            FrozenNode<L> node = nodes.get(resource.getID());
+            if (node == null) {
+                throw new IllegalArgumentException("Resource is not in the snapshot: " + resource);
+            }
+            return node;
+        }
+
+        private static <L> Set<Resource<L>> toResources(List<FrozenNode<L>> frozenNodes) {
+            if (frozenNodes.isEmpty()) {
+                return Collections.emptySet();
+            }
+            Set<Resource<L>> resources = new LinkedHashSet<>(frozenNodes.size() * 4 / 3 + 1);
+            for (FrozenNode<L> node : frozenNodes) {
+                resources.add(node.resource);
+            }
+            return Collections.unmodifiableSet(resources);
         }
     }
 
     /**
      * This is used to see if a new resource is actually the same as a resource already
      * in inventory. This only checks those things that, if changed, warrant the inventory to
-     * be updated.
+     * be updated. Those are the things the {@link Resource#getFingerprint() fingerprint} of a resource is computed
+     * from, so it is only needed when fingerprints are equal - see {@link ResourceManager#isModified}.
      */
     private class ResourceComparator implements Comparator<Resource<L>> {
 
@@ -163,35 +379,63 @@ public final class ResourceManager<L> {
     private final ReadWriteLock graphLock = new ReentrantReadWriteLock(true);
     private final Lock graphLockRead = graphLock.readLock();
     private final Lock graphLockWrite = graphLock.writeLock();
-    private volatile DirectedNeighborIndex<Resource<L>, DefaultEdge> neighborIndex;
-    private volatile Map<ID, Resource<L>> resourceCache;
 
-    private volatile ListenableDirectedGraph<Resource<L>, DefaultEdge> resourcesGraph;
+    // all the nodes of the tree by the IDs of their resources; the maps and lists below are guarded by graphLock
+    private final Map<ID, Node<L>> nodes = new HashMap<>();
+    private final List<Node<L>> roots = new ArrayList<>(); // in the order they were added
+    private final LocationIndex<L> locationIndex; // null if resources are not indexed by location
+    private long generation;
+
+    // what changed since the latest snapshot was published; also guarded by graphLock
+    private boolean changedSinceSnapshot;
+    private final List<ID> removedSinceSnapshot = new ArrayList<>();
+    private boolean rebuildSnapshot; // if true, removedSinceSnapshot grew too long to be kept
+    private volatile Snapshot<L> snapshot = new Snapshot<>(0, new FrozenIndex<>(Collections.emptyMap(), null, 0),
+            Collections.emptyList());
 
+    /**
+     * Creates a resource manager that looks at all resources to find those matching a location query.
+     */
     public ResourceManager() {
-        reinitializeIfNecessary();
+        this(null);
     }
 
     /**
-     * @return the total number of resources currently in the graph.
+     * Creates a resource manager that indexes resources by their locations so that
+     * {@link #findResources(Object, LocationResolver)} and {@link #removeResources(Object, LocationResolver)} only
+     * look at the resources whose locations may match the query.
+     *
+     * @param locationResolver splits locations into the segments they are indexed by; if null, resources are not
+     *        indexed
+     */
+    public ResourceManager(LocationResolver<L> locationResolver) {
+        this.locationIndex = (locationResolver != null) ? new LocationIndex<>(locationResolver) : null;
+    }
+
+    /**
+     * @return the total number of resources currently in the tree.
      */
     public int size() {
-        return resourceCache.size();
+        graphLockRead.lock();
+        try {
+            return nodes.size();
+        } finally {
+            graphLockRead.unlock();
+        }
     }
 
     /**
-     * @return the total number of resources currently in the graph relative to the given resource (that is,
+     * @return the total number of resources currently in the tree relative to the given resource (that is,
      *         it counts that resource and all of its descendants).
      */
     public int size(Resource<L> relativeTo) {
         graphLockRead.lock();
         try {
-            if (getResource(relativeTo.getID()) == null) {
+            Node<L> node = nodes.get(relativeTo.getID());
+            if (node == null) {
                 return 0; // the resource doesn't even exist
             } else {
-                List<Resource<L>> descendants = new ArrayList<>();
-                getAllDescendants(relativeTo, descendants);
-                return 1 + descendants.size();
+                return getSubtree(node).size();
             }
         } finally {
             graphLockRead.unlock();
@@ -213,7 +457,7 @@ public final class ResourceManager<L> {
      * </ul>
      *
      * The return value's {@link AddResult#getResource() resource} is the resource object stored in the
-     * internal hierarchical graph, which may or may not be the same as the <code>newResource</code>
+     * internal hierarchical tree, which may or may not be the same as the <code>newResource</code>
      * that was passed into this method.
      *
      * @param newResource the new resource to be added
@@ -226,59 +470,183 @@ public final class ResourceManager<L> {
         graphLockWrite.lock();
         try {
             // Need to make sure we keep our resources consistent. If the newResource has a parent,
-            // and that parent is not the same instance we have in our graph, we need to recreate the
+            // and that parent is not the same instance we have in our tree, we need to recreate the
             // newResource such that it refers to our instance of the parent.
-            // Do this BEFORE we attempt to add the new resource to the graph.
+            // Do this BEFORE we attempt to add the new resource to the tree.
+            Node<L> parentNode = null;
             if (newResource.getParent() != null) {
-                Resource<L> parentInGraph = getResource(newResource.getParent().getID());
-                if (parentInGraph == null) {
+                parentNode = nodes.get(newResource.getParent().getID());
+                if (parentNode == null) {
                     throw new IllegalArgumentException(
                             String.format("The new resource [%s] has a parent [%s] that has not been added yet",
                                     newResource, newResource.getParent()));
                 }
 
-                // if parents are not the same instance, create a new resource with the parent we have in the graph
-                if (parentInGraph != newResource.getParent()) {
-                    newResource = Resource.<L> builder(newResource).parent(parentInGraph).build();
+                // if parents are not the same instance, create a new resource with the parent we have in the tree
+                if (parentNode.resource != newResource.getParent()) {
+                    newResource = Resource.<L> builder(newResource).parent(parentNode.resource).build();
                 }
             }
 
-            boolean added = this.resourcesGraph.addVertex(newResource);
-
-            if (!added) {
-                // Looks like this resource already exists.
-                // If the resource changed, we want to replace it but keep all edges intact.
-                // If the resource did not change, we don't do anything.
-                Resource<L> oldResource = getResource(newResource.getID());
+            Node<L> node = nodes.get(newResource.getID());
 
-                if (new ResourceComparator().compare(oldResource, newResource) != 0) {
-                    Set<Resource<L>> children = getChildren(oldResource);
-                    this.resourcesGraph.removeVertex(oldResource); // removes all edges! remember to put parent back
-                    this.resourcesGraph.addVertex(newResource);
-                    for (Resource<L> child : children) {
-                        ResourceManager.this.resourcesGraph.addEdge(newResource, child);
-                    }
-                    result = new AddResult<>(AddResult.Effect.MODIFIED, newResource);
-                } else {
-                    result = new AddResult<>(AddResult.Effect.UNCHANGED, oldResource);
+            if (node == null) {
+                node = new Node<>(newResource, parentNode);
+                nodes.put(newResource.getID(), node);
+                attach(node);
+                if (locationIndex != null) {
+                    locationIndex.add(newResource);
                 }
-            } else {
                 result = new AddResult<>(AddResult.Effect.ADDED, newResource);
+            } else if (isModified(node.resource, newResource)) {
+                // The resource changed - replace it in its node so all its children stay where they are.
+                // It might have moved to another parent, too.
+                if (locationIndex != null) {
+                    locationIndex.remove(node.resource);
+                    locationIndex.add(newResource);
+                }
+                node.resource = newResource;
+                invalidate(node);
+                if (node.parent != parentNode) {
+                    detach(node);
+                    node.parent = parentNode;
+                    attach(node);
+                }
+                result = new AddResult<>(AddResult.Effect.MODIFIED, newResource);
+            } else {
+                result = new AddResult<>(AddResult.Effect.UNCHANGED, node.resource);
+            }
+
+            node.generation = this.generation;
+            return result;
+
+        } finally {
+            graphLockWrite.unlock();
+        }
+    }
+
+    /**
+     * Tells if a rediscovered resource differs from the resource already in the tree. Different fingerprints mean
+     * that it does, without looking any further. Equal fingerprints usually mean that it does not, but they can
+     * collide, so then the resources are compared in full.
+     */
+    private boolean isModified(Resource<L> oldResource, Resource<L> newResource) {
+        if (oldResource.getFingerprint() != newResource.getFingerprint()) {
+            return true;
+        }
+        return new ResourceComparator().compare(oldResource, newResource) != 0;
+    }
+
+    /**
+     * Returns the latest published snapshot of the resource tree. This never waits for writers, so it is the way to
+     * read the tree for anything that must not be held up by a running discovery scan. Changes made since the
+     * snapshot was published are not in it.
+     *
+     * @return the latest published snapshot
+     */
+    public Snapshot<L> getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Makes the current state of the resource tree the one that {@link #getSnapshot()} returns. Only the parts of
+     * the tree that changed since the previous snapshot are copied, and the index of the resources by ID shares its
+     * unchanged entries with the previous one - see {@link FrozenIndex}. If nothing changed, the previous snapshot
+     * stays.
+     * Call this at the end of a discovery scan or of any other batch of changes.
+     *
+     * @return the published snapshot
+     */
+    public Snapshot<L> publishSnapshot() {
+        graphLockWrite.lock();
+        try {
+            if (!changedSinceSnapshot) {
+                return snapshot;
+            }
+
+            Map<ID, FrozenNode<L>> frozenNodes; // those that changed, null for the removed ones
+            if (rebuildSnapshot) {
+                frozenNodes = new HashMap<>(nodes.size() * 4 / 3 + 1);
+            } else {
+                frozenNodes = new HashMap<>();
+                for (ID removedId : removedSinceSnapshot) {
+                    frozenNodes.put(removedId, null);
+                }
             }
 
-            if ((result.getEffect() != AddResult.Effect.UNCHANGED) && (newResource.getParent() != null)) {
-                this.resourcesGraph.addEdge(newResource.getParent(), newResource);
+            List<FrozenNode<L>> frozenRoots = new ArrayList<>(roots.size());
+            for (Node<L> root : roots) {
+                frozenRoots.add(freeze(root, frozenNodes, rebuildSnapshot));
             }
 
-            return result;
+            FrozenIndex<L> frozenIndex = rebuildSnapshot ? new FrozenIndex<>(frozenNodes, null, nodes.size())
+                    : snapshot.nodes.with(frozenNodes, nodes.size());
+            snapshot = new Snapshot<>(snapshot.version + 1, frozenIndex, Collections.unmodifiableList(frozenRoots));
+            changedSinceSnapshot = false;
+            removedSinceSnapshot.clear();
+            rebuildSnapshot = false;
+            return snapshot;
+        } finally {
+            graphLockWrite.unlock();
+        }
+    }
 
+    /**
+     * Starts a new scan generation. All resources added from now on are stamped with it so that, once the scan is
+     * done, the resources it did not see can be found with {@link #findStaleResources(long)}.
+     *
+     * @return the new generation
+     */
+    public long nextGeneration() {
+        graphLockWrite.lock();
+        try {
+            return ++this.generation;
         } finally {
             graphLockWrite.unlock();
         }
     }
 
     /**
-     * Remove the resource from {@link #resourcesGraph}, including all its descendants.
+     * Finds the resources that have not been added since the given generation started, that is, the resources a scan
+     * of the whole hierarchy did not see.
+     *
+     * @param generation the generation of the scan as returned by {@link #nextGeneration()}
+     * @return the resources last added before the given generation started
+     */
+    public List<Resource<L>> findStaleResources(long generation) {
+        graphLockRead.lock();
+        try {
+            List<Resource<L>> result = new ArrayList<>();
+            for (Node<L> node : this.nodes.values()) {
+                if (node.generation < generation) {
+                    result.add(node.resource);
+                }
+            }
+            return result;
+        } finally {
+            graphLockRead.unlock();
+        }
+    }
+
+    /**
+     * Tells if the resource with the ID of the given resource has not been added since the given generation started.
+     *
+     * @param resource the resource to check; the resource in the tree with the same ID is the one that is checked
+     * @param generation the generation of the scan as returned by {@link #nextGeneration()}
+     * @return true if the resource was last added before the given generation started or if it is not in the tree
+     */
+    public boolean isStale(Resource<L> resource, long generation) {
+        graphLockRead.lock();
+        try {
+            Node<L> node = this.nodes.get(resource.getID());
+            return node == null || node.generation < generation;
+        } finally {
+            graphLockRead.unlock();
+        }
+    }
+
+    /**
+     * Remove the resource from the tree, including all its descendants.
      *
      * @param doomedResource the resource to remove
      * @return an unmodifiable list of {@link Resources} that were removed by this method
@@ -286,13 +654,12 @@ public final class ResourceManager<L> {
     public List<Resource<L>> removeResource(Resource<L> doomedResource) {
         graphLockWrite.lock();
         try {
-            List<Resource<L>> removedResources = new ArrayList<Resource<L>>();
-            Resource<L> resourceToRemove = getResource(doomedResource.getID());
-            if (resourceToRemove != null) {
-                getAllDescendants(resourceToRemove, removedResources);
-                removedResources.add(resourceToRemove);
-                removedResources.forEach(r -> this.resourcesGraph.removeVertex(r));
+            Node<L> node = nodes.get(doomedResource.getID());
+            if (node == null) {
+                return Collections.emptyList();
             }
+            List<Resource<L>> removedResources = new ArrayList<Resource<L>>();
+            remove(node, removedResources);
             return Collections.unmodifiableList(removedResources);
         } finally {
             graphLockWrite.unlock();
@@ -300,10 +667,11 @@ public final class ResourceManager<L> {
     }
 
     /**
-     * Find the resources in {@link #resourcesGraph} matching the given {@code query}.
+     * Find the resources in the tree matching the given {@code query}. If resources are indexed by
+     * location, only those the index finds for the query are matched; otherwise all of them are.
      *
      * @param query a location eventually containing wildcards
-     * @param locationResolver the {@link LocationResolver} to perform the matching of graph nodes against the given
+     * @param locationResolver the {@link LocationResolver} to perform the matching of tree nodes against the given
      *            {@code query}
      * @return an unmodifiable list of {@link Resources} that match the given {@code query}
      */
@@ -311,10 +679,11 @@ public final class ResourceManager<L> {
         graphLockRead.lock();
         try {
             List<Resource<L>> result = new ArrayList<Resource<L>>();
-            GraphIterator<Resource<L>, DefaultEdge> it = new BreadthFirstIterator<Resource<L>, DefaultEdge>(
-                    this.resourcesGraph);
-            while (it.hasNext()) {
-                Resource<L> resource = it.next();
+            List<Resource<L>> candidates = (locationIndex != null) ? locationIndex.findCandidates(query) : null;
+            if (candidates == null) {
+                candidates = getResourcesBreadthFirst();
+            }
+            for (Resource<L> resource : candidates) {
                 if (locationResolver.matches(query, resource.getLocation())) {
                     result.add(resource);
                 }
@@ -325,42 +694,69 @@ public final class ResourceManager<L> {
         }
     }
 
+    /**
+     * Finds the resources that may be ancestors of resources at the given {@code location} - that is, the resources
+     * under which resources at that location can be placed in the tree. If resources are indexed by location and
+     * the location resolver can split the location into {@link LocationResolver#getIndexAncestorSegments(Object)
+     * ancestor segments}, only the resources the index finds along them are returned; otherwise all of them are.
+     * The caller must still check which of them really are ancestors.
+     *
+     * @param location a location eventually containing wildcards
+     * @return an unmodifiable list of the candidate ancestors
+     */
+    public List<Resource<L>> findAncestorCandidates(L location) {
+        graphLockRead.lock();
+        try {
+            List<Resource<L>> candidates = (locationIndex != null) ? locationIndex.findAncestorCandidates(location)
+                    : null;
+            return Collections.unmodifiableList((candidates != null) ? candidates : getResourcesBreadthFirst());
+        } finally {
+            graphLockRead.unlock();
+        }
+    }
+
     /**
      * Returns an immutable {@link Set} of the direct children of the given resource.
      *
      * @param resource the resource whose children are to be returned
      *
      * @return a {@link Set} if direct children of the given resource
+     *
+     * @throws IllegalArgumentException if the resource itself is not found in the tree
      */
     public Set<Resource<L>> getChildren(Resource<L> resource) {
         graphLockRead.lock();
         try {
-            Set<Resource<L>> directChildren = neighborIndex.successorsOf(resource);
-            return Collections.unmodifiableSet(new HashSet<>(directChildren));
+            Node<L> node = getNode(resource);
+            if (node.children == null) {
+                return Collections.emptySet();
+            }
+            Set<Resource<L>> directChildren = new LinkedHashSet<>(node.children.size() * 4 / 3 + 1);
+            for (Node<L> child : node.children) {
+                directChildren.add(child.resource);
+            }
+            return Collections.unmodifiableSet(directChildren);
         } finally {
             graphLockRead.unlock();
         }
     }
 
     /**
-     * Returns the direct parent of the given resource. This examines the internal hierarchical graph
+     * Returns the direct parent of the given resource. This examines the internal hierarchical tree
      * to determine parentage.
      *
      * @param resource the resource whose parent is to be returned
      *
      * @return the direct parent of the given resource, or null if this is a root resource without a parent
      *
-     * @throws IllegalArgumentException if the resource itself is not found in the graph
+     * @throws IllegalArgumentException if the resource itself is not found in the tree
      */
     public Resource<L> getParent(Resource<L> resource) {
-        // do NOT call resource.getParent(), we want the one in our graph, not the one in the resource object
+        // do NOT call resource.getParent(), we want the one in our tree, not the one in the resource object
         graphLockRead.lock();
         try {
-            Set<Resource<L>> directParents = neighborIndex.predecessorsOf(resource);
-            if (directParents.isEmpty()) {
-                return null;
-            }
-            return directParents.iterator().next();
+            Node<L> parent = getNode(resource).parent;
+            return (parent != null) ? parent.resource : null;
         } finally {
             graphLockRead.unlock();
         }
@@ -368,22 +764,23 @@ public final class ResourceManager<L> {
 
     /**
      * Given a resource ID this will return the resource with that ID that is found in the internal
-     * hierarchical graph or <code>null</code> if there is no resource with that ID in the graph.
+     * hierarchical tree or <code>null</code> if there is no resource with that ID in the tree.
      *
      * @param resourceId the ID of the resource to retrieve
-     * @return the resource as found in the internal graph or <code>null</code>
+     * @return the resource as found in the internal tree or <code>null</code>
      */
     public Resource<L> getResource(ID resourceId) {
         graphLockRead.lock();
         try {
-            return resourceCache.get(resourceId);
+            Node<L> node = nodes.get(resourceId);
+            return (node != null) ? node.resource : null;
         } finally {
             graphLockRead.unlock();
         }
     }
 
     /**
-     * Returns an immutable {@link List} of all {@link Resource}s contained in {@link #resourcesGraph} in breadth-first
+     * Returns an immutable {@link List} of all {@link Resource}s contained in the tree in breadth-first
      * order.
      *
      * @return the list of all {@link Resource}s
@@ -391,21 +788,21 @@ public final class ResourceManager<L> {
     public List<Resource<L>> getResourcesBreadthFirst() {
         graphLockRead.lock();
         try {
-            List<Resource<L>> result = new ArrayList<Resource<L>>();
-
-            Set<Resource<L>> roots = getRootResources();
             if (roots.isEmpty()) {
                 return Collections.emptyList();
             }
 
             // loop over each root resource and traverse their tree hierarchy breadth-first
-            // roots.forEach(root -> new BreadthFirstIterator<>(ResourceManager.this.resourcesGraph, root)
-            //     .forEachRemaining(it -> result.add(it)));
-            for (Resource<L> root : roots) {
-                GraphIterator<Resource<L>, DefaultEdge> it = new BreadthFirstIterator<Resource<L>, DefaultEdge>(
-                        ResourceManager.this.resourcesGraph, root);
-                while (it.hasNext()) {
-                    result.add(it.next());
+            List<Resource<L>> result = new ArrayList<Resource<L>>(nodes.size());
+            Deque<Node<L>> queue = new ArrayDeque<>();
+            for (Node<L> root : roots) {
+                queue.add(root);
+                while (!queue.isEmpty()) {
+                    Node<L> node = queue.poll();
+                    result.add(node.resource);
+                    if (node.children != null) {
+                        queue.addAll(node.children);
+                    }
                 }
             }
 
@@ -425,14 +822,14 @@ public final class ResourceManager<L> {
     public List<Resource<L>> getAllResources(Collection<ID> filter) {
         graphLockRead.lock();
         try {
-            Set<ID> resultIds = new HashSet<>(this.resourceCache.keySet());
-            if (filter != null) {
-                resultIds.removeAll(filter);
-            }
-            return resultIds
-                    .stream()
-                    .map(i -> getResource(i))
-                    .collect(Collectors.toList());
+            Set<ID> filterIds = (filter != null) ? new HashSet<>(filter) : Collections.emptySet();
+            List<Resource<L>> result = new ArrayList<>();
+            for (Map.Entry<ID, Node<L>> entry : nodes.entrySet()) {
+                if (!filterIds.contains(entry.getKey())) {
+                    result.add(entry.getValue().resource);
+                }
+            }
+            return result;
         } finally {
             graphLockRead.unlock();
         }
@@ -447,14 +844,11 @@ public final class ResourceManager<L> {
     public Set<Resource<L>> getRootResources() {
         graphLockRead.lock();
         try {
-            Set<Resource<L>> roots = new HashSet<>();
-            Set<Resource<L>> allResources = resourcesGraph.vertexSet();
-            for (Resource<L> resource : allResources) {
-                if (neighborIndex.predecessorsOf(resource).isEmpty()) {
-                    roots.add(resource);
-                }
+            Set<Resource<L>> rootResources = new LinkedHashSet<>();
+            for (Node<L> root : roots) {
+                rootResources.add(root.resource);
             }
-            return Collections.unmodifiableSet(roots);
+            return Collections.unmodifiableSet(rootResources);
         } finally {
             graphLockRead.unlock();
         }
@@ -487,60 +881,167 @@ public final class ResourceManager<L> {
     }
 
     /**
-     * Remove the resources from {@link #resourcesGraph} matching the given {@code query} including all direct and
-     * indirect descendants.
+     * Remove the resources from the tree matching the given {@code query} including all direct and
+     * indirect descendants. If resources are indexed by location, only those the index finds for the query are
+     * matched; otherwise all of them are.
      *
      * @param query a location eventually containing wildcards
-     * @param locationResolver the {@link LocationResolver} to perform the matching of graph nodes against the given
+     * @param locationResolver the {@link LocationResolver} to perform the matching of tree nodes against the given
      *            {@code query}
      * @return an unmodifiable list of {@link Resources} that were removed by this method
      */
     public List<Resource<L>> removeResources(L query, LocationResolver<L> locationResolver) {
         graphLockWrite.lock();
         try {
+            List<Resource<L>> candidates = (locationIndex != null) ? locationIndex.findCandidates(query) : null;
+            if (candidates == null) {
+                candidates = getResourcesBreadthFirst();
+            }
+
             List<Resource<L>> doomedResources = new ArrayList<Resource<L>>();
-            GraphIterator<Resource<L>, DefaultEdge> it = new DepthFirstIterator<>(this.resourcesGraph);
-            while (it.hasNext()) {
-                Resource<L> resource = it.next();
+            for (Resource<L> resource : candidates) {
                 if (locationResolver.matches(query, resource.getLocation())) {
-                    getAllDescendants(resource, doomedResources);
-                    doomedResources.add(resource);
+                    // skip those already removed along with a matching ancestor
+                    Node<L> node = nodes.get(resource.getID());
+                    if (node != null && node.resource == resource) {
+                        remove(node, doomedResources);
+                    }
                 }
             }
 
-            // we couldn't do this while iterating (a ConcurrentModificationException would have resulted)
-            // but now that we have the doomed resources, we can remove them from the graph now
-            for (Resource<L> doomedResource : doomedResources) {
-                this.resourcesGraph.removeVertex(doomedResource);
-            }
-
             return Collections.unmodifiableList(doomedResources);
         } finally {
             graphLockWrite.unlock();
         }
     }
 
+    // make sure you call this with a graph lock - either read or write
+    private Node<L> getNode(Resource<L> resource) {
+        Node<L> node = nodes.get(resource.getID());
+        if (node == null) {
+            throw new IllegalArgumentException("Resource is not in the tree: " + resource);
+        }
+        return node;
+    }
+
     /**
-     * Always call with {@link #graphLockWrite} locked.
+     * Links the node to its parent or makes it a root. Always call with {@link #graphLockWrite} locked.
      */
-    private void reinitializeIfNecessary() {
-        if (this.resourceCache == null || this.resourceCache.size() > 0) {
-            this.resourcesGraph = new ListenableDirectedGraph<>(DefaultEdge.class);
-            this.neighborIndex = new DirectedNeighborIndex<>(this.resourcesGraph);
-            this.resourcesGraph.addGraphListener(neighborIndex);
-            this.resourceCache = new HashMap<>();
-            this.resourcesGraph.addVertexSetListener(new VertexCacheListener());
+    private void attach(Node<L> node) {
+        if (node.parent != null) {
+            node.parent.addChild(node);
+            invalidate(node.parent);
+        } else {
+            roots.add(node);
         }
+        changedSinceSnapshot = true;
     }
 
-    // make sure you call this with a graph lock - either read or write
-    private void getAllDescendants(Resource<L> parent, List<Resource<L>> descendants) {
-        for (Resource<L> child : getChildren(parent)) {
-            if (!descendants.contains(child)) {
-                getAllDescendants(child, descendants);
-                descendants.add(child);
+    /**
+     * Unlinks the node from its parent or from the roots. Always call with {@link #graphLockWrite} locked.
+     */
+    private void detach(Node<L> node) {
+        if (node.parent != null) {
+            node.parent.removeChild(node);
+            invalidate(node.parent);
+        } else {
+            roots.remove(node);
+        }
+        changedSinceSnapshot = true;
+    }
+
+    /**
+     * Marks the node and all its ancestors as changed since the latest snapshot. If a node is marked, so are all its
+     * ancestors, which is why this can stop at the first node that already is. Always call with
+     * {@link #graphLockWrite} locked.
+     */
+    private void invalidate(Node<L> node) {
+        while (node != null && node.frozen != null) {
+            node.frozen = null;
+            node = node.parent;
+        }
+        changedSinceSnapshot = true;
+    }
+
+    /**
+     * Freezes the subtree of the given node, copying only the nodes that changed since the latest snapshot, and puts
+     * the copies in the given map. Unless {@code all} is true, the nodes that did not change are left out of the map -
+     * they are in the index of the latest snapshot. Always call with {@link #graphLockWrite} locked.
+     */
+    private FrozenNode<L> freeze(Node<L> top, Map<ID, FrozenNode<L>> frozenNodes, boolean all) {
+        // collect the nodes to visit, parents before their children
+        List<Node<L>> visit = new ArrayList<>();
+        Deque<Node<L>> stack = new ArrayDeque<>();
+        stack.push(top);
+        while (!stack.isEmpty()) {
+            Node<L> node = stack.pop();
+            if (node.frozen != null && !all) {
+                continue;
+            }
+            visit.add(node);
+            if (node.children != null) {
+                for (Node<L> child : node.children) {
+                    stack.push(child);
+                }
+            }
+        }
+
+        // freeze children before their parents so the parents can refer to them
+        for (int i = visit.size() - 1; i >= 0; i--) {
+            Node<L> node = visit.get(i);
+            if (node.frozen == null) {
+                node.frozen = new FrozenNode<>(node);
+            }
+            frozenNodes.put(node.resource.getID(), node.frozen);
+        }
+        return top.frozen;
+    }
+
+    /**
+     * Removes the node along with all its descendants from the tree and adds their resources to the given list,
+     * descendants before their ancestors. Always call with {@link #graphLockWrite} locked.
+     */
+    private void remove(Node<L> node, List<Resource<L>> removedResources) {
+        detach(node);
+        for (Node<L> doomed : getSubtree(node)) {
+            nodes.remove(doomed.resource.getID());
+            if (locationIndex != null) {
+                locationIndex.remove(doomed.resource);
+            }
+            removedResources.add(doomed.resource);
+            if (!rebuildSnapshot) {
+                removedSinceSnapshot.add(doomed.resource.getID());
+            }
+        }
+
+        // a snapshot built from scratch costs no more than applying more removals than it has resources
+        if (removedSinceSnapshot.size() > snapshot.size()) {
+            removedSinceSnapshot.clear();
+            rebuildSnapshot = true;
+        }
+    }
+
+    /**
+     * Returns the given node and all its descendants, with every descendant before its ancestors and the given node
+     * last. The tree is walked without recursion so deep hierarchies cannot overflow the stack.
+     *
+     * Make sure you call this with a graph lock - either read or write.
+     */
+    private List<Node<L>> getSubtree(Node<L> top) {
+        // collect in pre-order, visiting the children first to last, then reverse
+        List<Node<L>> subtree = new ArrayList<>();
+        Deque<Node<L>> stack = new ArrayDeque<>();
+        stack.push(top);
+        while (!stack.isEmpty()) {
+            Node<L> node = stack.pop();
+            subtree.add(node);
+            if (node.children != null) {
+                for (int i = node.children.size() - 1; i >= 0; i--) {
+                    stack.push(node.children.get(i));
+                }
             }
         }
-        return;
+        Collections.reverse(subtree);
+        return subtree;
     }
 }
@@ -233,4 +233,70 @@ public interface MsgLogger extends BasicLogger {
     @LogMessage(level = Level.INFO)
     @Message(id = 10088, value = "Metrics exporter is stopping")
     void infoStopMetricsExporter();
-}
\ No newline at end of file
+
+    @LogMessage(level = Level.INFO)
+    @Message(id = 10089, value = "Recursive read of [%s] exceeded the size limit of [%d] bytes; "
+            + "endpoint [%s] will fall back to discovering one level at a time")
+    void infoRecursiveDiscoveryTooLarge(String location, long sizeLimit, String endpointName);
+
+    @LogMessage(level = Level.INFO)
+    @Message(id = 10090, value = "Auto-discovery scans will be performed every [%d] to [%d] seconds, "
+            + "depending on how often each endpoint changes")
+    void infoAdaptiveAutoDiscoveryEnabled(int minPeriodSeconds, int maxPeriodSeconds);
+
+    @LogMessage(level = Level.INFO)
+    @Message(id = 10091, value = "Loaded [%d] previously synced resources of endpoint [%s] from [%s]")
+    void infoLoadedInventorySnapshot(int resourceCount, String endpointName, String file);
+
+    @LogMessage(level = Level.WARN)
+    @Message(id = 10092, value = "Cannot load inventory snapshot [%s] - all resources will be synced again")
+    void warnCannotLoadInventorySnapshot(@Cause Throwable t, String file);
+
+    @LogMessage(level = Level.WARN)
+    @Message(id = 10093, value = "Cannot save inventory snapshot [%s]")
+    void warnCannotSaveInventorySnapshot(@Cause Throwable t, String file);
+
+    @LogMessage(level = Level.WARN)
+    @Message(id = 10094, value = "Discovery of managed server [%s] did not finish within [%d] seconds. "
+            + "[%d] resources it did not reach are kept as they were")
+    void warnDiscoveryScanTimedOut(String endpointName, int timeoutSecs, int notReached);
+
+    @LogMessage(level = Level.WARN)
+    @Message(id = 10095, value = "The server rejected a gzip compressed request with status [%d] but accepted it "
+            + "uncompressed - requests will no longer be compressed")
+    void warnCompressedRequestsRejected(int statusCode);
+
+    @LogMessage(level = Level.INFO)
+    @Message(id = 10096, value = "The inventory server does not support the digest exchange (status [%d]) - "
+            + "inventory changes will be imported in full")
+    void infoInventoryDigestSyncNotSupported(int statusCode);
+
+    @LogMessage(level = Level.WARN)
+    @Message(id = 10097, value = "Inventory outbox [%s] is full - dropped the [%d] oldest inventory changes that "
+            + "could not be synced")
+    void warnInventoryOutboxFull(String path, int dropped);
+
+    @LogMessage(level = Level.WARN)
+    @Message(id = 10098, value = "Cannot open inventory outbox [%s] - inventory changes that cannot be synced "
+            + "will not be kept")
+    void warnCannotOpenInventoryOutbox(@Cause Throwable t, String path);
+
+    @LogMessage(level = Level.WARN)
+    @Message(id = 10100, value = "Server [%s] failed [%d] requests in a row - requests will not be sent until it "
+            + "is available again")
+    void warnStorageCircuitBreakerOpened(String endpoint, int failures);
+
+    @LogMessage(level = Level.INFO)
+    @Message(id = 10101, value = "Server [%s] is available again - requests are sent again")
+    void infoStorageCircuitBreakerClosed(String endpoint);
+
+    @LogMessage(level = Level.INFO)
+    @Message(id = 10102, value = "The server does not accept several notifications in one request (status [%d]) - "
+            + "notifications will be sent one by one")
+    void infoNotificationBatchesNotSupported(int statusCode);
+
+    @LogMessage(level = Level.INFO)
+    @Message(id = 10103, value = "Cannot place [%s] in the known inventory of endpoint [%s] - performing a full "
+            + "discovery instead")
+    void infoSubtreeDiscoveryFallback(String location, String endpoint);
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.agent.monitor.diagnostics.AutoDiscoveryDiagnostics;
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
+import org.hawkular.agent.monitor.util.Consumer;
+import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
+
+/**
+ * Periodically performs full discovery scans on all endpoints of the given protocol services.
+ *
+ * Each endpoint has its own interval between scans. The interval starts out at the configured period. When a scan
+ * finds that resources were added, modified or removed, the interval is halved; when a scan finds no changes, the
+ * interval grows by half. The interval always stays within the configured minimum and maximum. In addition, the
+ * interval is never shorter than {@link #DURATION_FACTOR} times the duration of the last scan so slow endpoints
+ * are not kept busy by discovery. The next scan of an endpoint is only scheduled after the previous one finished.
+ *
+ * If the minimum and maximum are the same, this behaves like a plain fixed period scheduler.
+ */
+class AutoDiscoveryScheduler {
+    private static final MsgLogger log = AgentLoggers.getLogger(AutoDiscoveryScheduler.class);
+
+    /**
+     * How often the scheduler checks if any endpoint is due to be scanned.
+     */
+    private static final int TICK_SECONDS = 1;
+
+    /**
+     * The interval after a scan is at least this many times the duration of that scan.
+     */
+    static final int DURATION_FACTOR = 4;
+
+    private static class EndpointSchedule {
+        private final AutoDiscoveryDiagnostics diagnostics;
+        private int intervalSecs;
+        private long nextScanMillis;
+        private boolean scanning;
+
+        EndpointSchedule(AutoDiscoveryDiagnostics diagnostics, int intervalSecs, long nextScanMillis) {
+            this.diagnostics = diagnostics;
+            this.intervalSecs = intervalSecs;
+            this.nextScanMillis = nextScanMillis;
+            diagnostics.setIntervalSeconds(intervalSecs);
+        }
+    }
+
+    private final List<ProtocolService<?, ?>> services;
+    private final Diagnostics diagnostics;
+    private final int periodSecs;
+    private final int minPeriodSecs;
+    private final int maxPeriodSecs;
+
+    // keyed on protocol service name and then endpoint service; only accessed by the scheduler thread
+    private final Map<String, Map<EndpointService<?, ?>, EndpointSchedule>> schedules = new HashMap<>();
+    private boolean firstTick = true;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param services the services whose endpoints are to be scanned
+     * @param diagnostics where the current intervals and change rates of the endpoints are tracked
+     * @param periodSecs the initial interval between scans of an endpoint
+     * @param minPeriodSecs the shortest interval between scans of an endpoint; if 0, the period is used
+     * @param maxPeriodSecs the longest interval between scans of an endpoint; if 0, the period is used
+     */
+    AutoDiscoveryScheduler(List<ProtocolService<?, ?>> services, Diagnostics diagnostics, int periodSecs,
+            int minPeriodSecs, int maxPeriodSecs) {
+        this.services = services;
+        this.diagnostics = diagnostics;
+        this.minPeriodSecs = Math.min((minPeriodSecs > 0) ? minPeriodSecs : periodSecs, periodSecs);
+        this.maxPeriodSecs = Math.max((maxPeriodSecs > 0) ? maxPeriodSecs : periodSecs, periodSecs);
+        this.periodSecs = periodSecs;
+    }
+
+    public boolean isAdaptive() {
+        return minPeriodSecs < maxPeriodSecs;
+    }
+
+    public int getMinPeriodSecs() {
+        return minPeriodSecs;
+    }
+
+    public int getMaxPeriodSecs() {
+        return maxPeriodSecs;
+    }
+
+    public void start() {
+        ThreadFactory threadFactory = ThreadFactoryGenerator.generateFactory(true,
+                "Hawkular-Agent-Auto-Discovery-Scan");
+        executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+        // perform an initial discovery now, and then periodically thereafter
+        executor.scheduleWithFixedDelay(() -> {
+            // make sure we don't let exceptions bubble out - that would stop all future scans from executing
+            try {
+                tick();
+            } catch (Throwable t) {
+                log.errorAutoDiscoveryFailed(t);
+            }
+        }, 0, TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        for (ProtocolService<?, ?> service : services) {
+            Map<EndpointService<?, ?>, EndpointSchedule> serviceSchedules = schedules.computeIfAbsent(
+                    service.getName(), n -> new HashMap<>());
+            Map<String, ? extends EndpointService<?, ?>> endpointServices = service.getEndpointServices();
+
+            // forget the endpoints that are no longer monitored
+            for (Iterator<EndpointService<?, ?>> it = serviceSchedules.keySet().iterator(); it.hasNext();) {
+                EndpointService<?, ?> endpointService = it.next();
+                String endpointName = endpointService.getMonitoredEndpoint().getName();
+                if (endpointServices.get(endpointName) != endpointService) {
+                    it.remove();
+                    diagnostics.removeAutoDiscoveryDiagnostics(service.getName(), endpointName);
+                }
+            }
+
+            for (EndpointService<?, ?> endpointService : endpointServices.values()) {
+                EndpointSchedule schedule = serviceSchedules.get(endpointService);
+                if (schedule == null) {
+                    // Endpoints added after the first tick have already been discovered when they were added.
+                    AutoDiscoveryDiagnostics endpointDiagnostics = diagnostics.getAutoDiscoveryDiagnostics(
+                            service.getName(), endpointService.getMonitoredEndpoint().getName());
+                    schedule = new EndpointSchedule(endpointDiagnostics, periodSecs,
+                            firstTick ? now : now + TimeUnit.SECONDS.toMillis(periodSecs));
+                    serviceSchedules.put(endpointService, schedule);
+                }
+                scanIfDue(endpointService, schedule, now);
+            }
+        }
+        firstTick = false;
+    }
+
+    private void scanIfDue(EndpointService<?, ?> endpointService, EndpointSchedule schedule, long now) {
+        synchronized (schedule) {
+            if (schedule.scanning || now < schedule.nextScanMillis) {
+                return;
+            }
+            schedule.scanning = true;
+        }
+
+        try {
+            endpointService.discoverAll(new Consumer<DiscoveryScanSummary>() {
+                @Override
+                public void accept(DiscoveryScanSummary summary) {
+                    scanFinished(endpointService, schedule, summary);
+                }
+
+                @Override
+                public void report(Throwable e) {
+                    scanFinished(endpointService, schedule, null);
+                }
+            });
+        } catch (Exception e) {
+            // the endpoint service is not running
+            log.debugf(e, "Auto-discovery scan of [%s] was not performed", endpointService);
+            scanFinished(endpointService, schedule, null);
+        }
+    }
+
+    /**
+     * Determines when the next scan of the endpoint is to be performed.
+     *
+     * @param summary the summary of the scan, or null if the scan was not performed
+     */
+    private void scanFinished(EndpointService<?, ?> endpointService, EndpointSchedule schedule,
+            DiscoveryScanSummary summary) {
+        synchronized (schedule) {
+            if (summary != null) {
+                schedule.diagnostics.getChangeRate().mark(summary.getChangeCount());
+                // if the scan failed we do not know if anything changed, so keep the interval as it was
+                if (summary.getErrorCount() == 0) {
+                    schedule.intervalSecs = nextInterval(schedule.intervalSecs, summary.getChangeCount(),
+                            summary.getDurationMillis());
+                    schedule.diagnostics.setIntervalSeconds(schedule.intervalSecs);
+                }
+            }
+            schedule.nextScanMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(schedule.intervalSecs);
+            schedule.scanning = false;
+        }
+        log.debugf("Next auto-discovery scan of [%s] in [%d] seconds after %s", endpointService,
+                schedule.intervalSecs, summary);
+    }
+
+    /**
+     * @param intervalSecs the current interval
+     * @param changeCount how many resources the last scan found to be added, modified or removed
+     * @param durationMillis how long the last scan took
+     * @return the interval to wait before the next scan
+     */
+    int nextInterval(int intervalSecs, int changeCount, long durationMillis) {
+        long next = (changeCount > 0) ? intervalSecs / 2 : intervalSecs + Math.max(1, intervalSecs / 2);
+        next = Math.max(next, TimeUnit.MILLISECONDS.toSeconds(durationMillis * DURATION_FACTOR));
+        return (int) Math.min(maxPeriodSecs, Math.max(minPeriodSecs, next));
+    }
+}
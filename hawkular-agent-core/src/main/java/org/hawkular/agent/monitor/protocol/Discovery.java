@@ -16,10 +16,18 @@
  */
 package org.hawkular.agent.monitor.protocol;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
 
 import org.hawkular.agent.monitor.inventory.AttributeLocation;
 import org.hawkular.agent.monitor.inventory.ID;
@@ -39,7 +47,12 @@ import org.hawkular.agent.monitor.util.Consumer;
 import org.hawkular.agent.monitor.util.Util;
 
 /**
- * Discovers resources.
+ * Discovers resources. A discovery object is meant to be used for a single discovery scan - it can be given a time
+ * budget for the scan and the scan can be {@link #cancel() cancelled}. Both are checked before each query for
+ * resources; once the scan is to stop no more queries are made.
+ *
+ * The queries that were not made, or that failed, are remembered so the caller can tell which of the resources
+ * it already knows about were not {@link #isReached(Resource) reached} by the scan.
  *
  * @author <a href="https://github.com/ppalaga">Peter Palaga</a>
  *
@@ -49,9 +62,159 @@ public final class Discovery<L> {
 
     private static final MsgLogger log = AgentLoggers.getLogger(Discovery.class);
 
+    /**
+     * Identifies the query for the children of a given type underneath a given parent.
+     */
+    private static final class ChildrenQuery {
+        private final ID parentId; // null for root resources
+        private final ID childTypeId;
+
+        ChildrenQuery(Resource<?> parent, ResourceType<?> childType) {
+            this.parentId = (parent != null) ? parent.getID() : null;
+            this.childTypeId = childType.getID();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ChildrenQuery)) {
+                return false;
+            }
+            ChildrenQuery other = (ChildrenQuery) obj;
+            return Objects.equals(parentId, other.parentId) && childTypeId.equals(other.childTypeId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(parentId) + childTypeId.hashCode();
+        }
+    }
+
+    private final boolean forkSubtrees;
+    private final long timeoutNanos; // if 0, there is no time budget
+    private final long startNanos = System.nanoTime();
+    private volatile boolean cancelled;
+    private volatile boolean timedOut;
+    private final Set<ChildrenQuery> unreached = ConcurrentHashMap.newKeySet();
+    // sessions (and the drivers behind them) are not to be shared by threads, so each fork-join worker has its own
+    private final Map<Thread, Session<L>> workerSessions = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a discovery object that walks the resource hierarchy serially on the calling thread.
+     */
+    public Discovery() {
+        this(false);
+    }
+
+    /**
+     * Creates a discovery object that has no time budget.
+     *
+     * @param forkSubtrees if true, and if discovery is executed inside a fork-join pool, the subtrees of sibling
+     *        resources are discovered concurrently as fork-join tasks, each worker thread querying the endpoint with
+     *        a session of its own (see {@link #closeSessions()}). If discovery is not running inside a fork-join
+     *        pool, the subtrees are discovered serially regardless of this setting.
+     */
+    public Discovery(boolean forkSubtrees) {
+        this(forkSubtrees, 0L, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a discovery object.
+     *
+     * @param forkSubtrees if true, and if discovery is executed inside a fork-join pool, the subtrees of sibling
+     *        resources are discovered concurrently as fork-join tasks, each worker thread querying the endpoint with
+     *        a session of its own (see {@link #closeSessions()}). If discovery is not running inside a fork-join
+     *        pool, the subtrees are discovered serially regardless of this setting.
+     * @param timeout the time budget of the scan, measured from now; no more queries are made once it is spent.
+     *        If 0, there is no time budget.
+     * @param unit the unit of the timeout
+     */
+    public Discovery(boolean forkSubtrees, long timeout, TimeUnit unit) {
+        this.forkSubtrees = forkSubtrees;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Closes the sessions this object opened for the fork-join worker threads. Call this once the scan is over.
+     */
+    public void closeSessions() {
+        for (Session<L> session : workerSessions.values()) {
+            try {
+                session.close();
+            } catch (IOException e) {
+                log.debugf(e, "Could not close discovery session of [%s]", session.getEndpoint());
+            }
+        }
+        workerSessions.clear();
+    }
+
+    /**
+     * Tells the scan to stop - this does not interrupt a query that is in progress but no more queries are made.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the scan was {@link #cancel() cancelled}
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true if the scan ran out of its time budget
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return true if all queries of the scan were made successfully, that is, all resources were reached
+     */
+    public boolean isComplete() {
+        return unreached.isEmpty();
+    }
+
+    /**
+     * Tells if the scan reached the part of the hierarchy where the given resource is. If it did not (because it was
+     * stopped or because a query for the resource or any of its ancestors failed) the scan cannot tell whether
+     * the resource still exists.
+     *
+     * @param resource a resource that is known from an earlier scan
+     * @return true if the resource was reached by the scan
+     */
+    public boolean isReached(Resource<L> resource) {
+        for (Resource<L> r = resource; r != null; r = r.getParent()) {
+            if (unreached.contains(new ChildrenQuery(r.getParent(), r.getResourceType()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if no more queries are to be made
+     */
+    private boolean isStopped() {
+        if (cancelled || timedOut) {
+            return true;
+        }
+        if (timeoutNanos > 0 && System.nanoTime() - startNanos > timeoutNanos) {
+            timedOut = true;
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Discovers children of the given type underneath the given parent.
      *
+     * Note that a resource is always handed to the consumer before any of its children are discovered so
+     * the consumer is guaranteed to see parents before their children, even if subtrees are forked.
+     *
      * @param parent look under this resource to find its children (if null, this looks for root resources)
      * @param childType only find children of this type
      * @param session session used to query the managed endpoint
@@ -64,22 +227,64 @@ public final class Discovery<L> {
             Session<L> session,
             EndpointService<L, S> service,
             Consumer<Resource<L>> resourceConsumer) {
+        discoverChildren(parent, childType, null, session, service, resourceConsumer);
+    }
+
+    /**
+     * Discovers children of the given type underneath the given parent, but only those children whose locations
+     * match the given query. This is used to rediscover only a part of the resource hierarchy. The descendants of the
+     * children that are found are all discovered.
+     *
+     * @param parent look under this resource to find its children (if null, this looks for root resources)
+     * @param childType only find children of this type
+     * @param childQuery the absolute location of the children to look for; it must refer to resources of the given
+     *        child type. If null, all children of the given type are discovered.
+     * @param session session used to query the managed endpoint; if subtrees are forked, the worker threads use
+     *        sessions of their own opened by the given service instead
+     * @param samplingService the service that collects measurements - this is used here just to generate metric IDs
+     * @param resourceConsumer if not null, will be a listener that gets notified when resources are discovered
+     */
+    public <N, S extends Session<L>> void discoverChildren(
+            Resource<L> parent,
+            ResourceType<L> childType,
+            L childQuery,
+            Session<L> session,
+            EndpointService<L, S> service,
+            Consumer<Resource<L>> resourceConsumer) {
+
+        if (isStopped()) {
+            log.debugf("Discovery stopped - not discovering children of [%s] of type [%s]", parent, childType);
+            unreached.add(new ChildrenQuery(parent, childType));
+            return;
+        }
 
         try {
+            // if not null, the subtrees of the resources found here are to be discovered concurrently
+            List<ForkJoinTask<?>> subtrees = (forkSubtrees && ForkJoinTask.inForkJoinPool()) ? new ArrayList<>()
+                    : null;
+            Session<L> querySession = (subtrees != null) ? getWorkerSession(service) : session;
 
             L parentLocation = parent != null ? parent.getLocation() : null;
             log.debugf("Discovering children of [%s] of type [%s]", parent, childType);
-            final L childQuery = session.getLocationResolver().absolutize(parentLocation, childType.getLocation());
-            Map<L, N> nativeResources = session.getDriver().fetchNodes(childQuery);
+            if (childQuery == null) {
+                childQuery = querySession.getLocationResolver().absolutize(parentLocation, childType.getLocation());
+            }
+            Map<L, N> nativeResources = querySession.getDriver().fetchNodes(childQuery);
 
             for (Map.Entry<L, N> entry : nativeResources.entrySet()) {
+                // each child costs a few more queries (e.g. for its configuration) so do not go on if we must stop
+                if (isStopped()) {
+                    unreached.add(new ChildrenQuery(parent, childType));
+                    break;
+                }
+
                 L location = entry.getKey(); // this is the unique DMR address for this resource
-                String resourceName = session.getLocationResolver().applyTemplate(childType.getResourceNameTemplate(),
-                        location, session.getEndpoint().getName());
+                String resourceName = querySession.getLocationResolver().applyTemplate(
+                        childType.getResourceNameTemplate(), location, querySession.getEndpoint().getName());
                 ID id = InventoryIdUtil.generateResourceId(
-                        session.getFeedId(),
-                        session.getEndpoint(),
-                        location.toString());
+                        querySession.getFeedId(),
+                        querySession.getEndpoint(),
+                        location);
                 Builder<L> builder = Resource.<L> builder()
                         .id(id)
                         .name(new Name(resourceName))
@@ -91,10 +296,10 @@ public final class Discovery<L> {
                 }
 
                 // get the configuration of the resource
-                discoverResourceConfiguration(id, childType, location, entry.getValue(), builder, session);
+                discoverResourceConfiguration(id, childType, location, entry.getValue(), builder, querySession);
 
                 // populate the metrics based on the resource's type
-                addMetricInstances(id, childType, location, entry.getValue(), builder, session);
+                addMetricInstances(id, childType, location, entry.getValue(), builder, querySession);
 
                 // build the resource now - we might need it to generate metric IDs
                 Resource<L> resource = builder.build();
@@ -113,19 +318,37 @@ public final class Discovery<L> {
                 }
 
                 // recursively discover children of child types
-                Set<ResourceType<L>> childTypes = session.getResourceTypeManager()
+                Set<ResourceType<L>> childTypes = querySession.getResourceTypeManager()
                         .getChildren(childType);
                 for (ResourceType<L> nextLevelChildType : childTypes) {
-                    discoverChildren(resource, nextLevelChildType, session, service, resourceConsumer);
+                    if (subtrees != null) {
+                        subtrees.add(ForkJoinTask.adapt(() -> discoverChildren(resource, nextLevelChildType,
+                                querySession, service, resourceConsumer)));
+                    } else {
+                        discoverChildren(resource, nextLevelChildType, querySession, service, resourceConsumer);
+                    }
                 }
 
             }
+
+            // wait for all sibling subtrees - each task reports its own errors to the consumer
+            if (subtrees != null && !subtrees.isEmpty()) {
+                ForkJoinTask.invokeAll(subtrees);
+            }
         } catch (Exception e) {
+            unreached.add(new ChildrenQuery(parent, childType));
             log.errorFailedToDiscoverResources(e, session.getEndpoint());
             resourceConsumer.report(e);
         }
     }
 
+    /**
+     * @return the session of the current fork-join worker thread, opened the first time the thread needs it
+     */
+    private Session<L> getWorkerSession(EndpointService<L, ?> service) {
+        return workerSessions.computeIfAbsent(Thread.currentThread(), t -> service.openDiscoverySession());
+    }
+
     private <N> void discoverResourceConfiguration(
             ID resourceId,
             ResourceType<L> type,
@@ -135,17 +358,35 @@ public final class Discovery<L> {
             Session<L> session) {
 
         Collection<ResourceConfigurationPropertyType<L>> confPropTypes = type.getResourceConfigurationPropertyTypes();
+        if (confPropTypes.isEmpty()) {
+            return;
+        }
+
+        final LocationResolver<L> locationResolver = session.getLocationResolver();
+        final Driver<L> driver = session.getDriver();
+
+        // let the driver fetch all the single-target properties at once - those it can't are fetched one by one below
+        List<AttributeLocation<L>> singleTargetLocations = new ArrayList<>(confPropTypes.size());
+        for (ResourceConfigurationPropertyType<L> confPropType : confPropTypes) {
+            AttributeLocation<L> instanceLocation = locationResolver.absolutize(parentAddress,
+                    confPropType.getAttributeLocation());
+            if (!locationResolver.isMultiTarget(instanceLocation.getLocation())) {
+                singleTargetLocations.add(instanceLocation);
+            }
+        }
+        Map<AttributeLocation<L>, Object> prefetched = singleTargetLocations.isEmpty() ? Collections.emptyMap()
+                : driver.fetchAttributes(singleTargetLocations, parentAddress, baseNode);
+
         for (ResourceConfigurationPropertyType<L> confPropType : confPropTypes) {
             try {
                 final AttributeLocation<L> location = confPropType.getAttributeLocation();
-                final LocationResolver<L> locationResolver = session.getLocationResolver();
                 final AttributeLocation<L> instanceLocation = locationResolver.absolutize(parentAddress, location);
-                final Driver<L> driver = session.getDriver();
 
                 String resConfPropValue;
 
                 if (!locationResolver.isMultiTarget(instanceLocation.getLocation())) {
-                    Object o = driver.fetchAttribute(instanceLocation);
+                    Object o = prefetched.containsKey(instanceLocation) ? prefetched.get(instanceLocation)
+                            : driver.fetchAttribute(instanceLocation);
                     resConfPropValue = ((o == null) ? null : o.toString());
                 } else {
                     // This resource config is a conglomeration of attrib values across multiple locations. We need to
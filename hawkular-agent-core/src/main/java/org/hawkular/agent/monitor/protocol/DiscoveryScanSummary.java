@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+/**
+ * Describes the outcome of a full discovery scan.
+ *
+ * @see EndpointService#discoverAll(org.hawkular.agent.monitor.util.Consumer)
+ */
+public final class DiscoveryScanSummary {
+    private final long durationMillis;
+    private final int changeCount;
+    private final int errorCount;
+
+    public DiscoveryScanSummary(long durationMillis, int changeCount, int errorCount) {
+        this.durationMillis = durationMillis;
+        this.changeCount = changeCount;
+        this.errorCount = errorCount;
+    }
+
+    /**
+     * @return how long the scan took in milliseconds or -1 if it failed before it could be timed
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return the number of resources that were added, modified or removed by the scan
+     */
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * @return the number of errors that occurred during the scan
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DiscoveryScanSummary: duration=[%d]ms, changes=[%d], errors=[%d]", durationMillis,
+                changeCount, errorCount);
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.hawkular.agent.monitor.protocol;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -72,6 +74,25 @@ public interface Driver<L> {
      */
     Map<L, Object> fetchAttributeAsMap(AttributeLocation<L> attributeLocation) throws ProtocolException;
 
+    /**
+     * Fetches the values of the given single-target attributes from a {@link MonitoredEndpoint}, possibly all of
+     * them with a single request. Attributes found in {@code baseNode} (the native node that
+     * {@link #fetchNodes(Object)} returned for {@code baseLocation}) may be taken from there without any request.
+     *
+     * This is a best-effort bulk fetch - the returned map contains only the attributes that could be fetched this
+     * way and any attribute missing from it should be fetched individually with
+     * {@link #fetchAttribute(AttributeLocation)}. The default implementation fetches nothing and returns an empty map.
+     *
+     * @param attributeLocations the attributes to retrieve
+     * @param baseLocation the location of {@code baseNode}
+     * @param baseNode the native node found at {@code baseLocation}, may be null
+     * @return the attribute values keyed on their attribute locations (a value is null if the attribute is unset)
+     */
+    default <N> Map<AttributeLocation<L>, Object> fetchAttributes(Collection<AttributeLocation<L>> attributeLocations,
+            L baseLocation, N baseNode) {
+        return Collections.emptyMap();
+    }
+
     /**
      * Returns {@code true} if the given {@code attributeLocation} exists on a {@link MonitoredEndpoint} or
      * {@code false} otherwise. This method should return {@code true} for attributes that exist but are unset.
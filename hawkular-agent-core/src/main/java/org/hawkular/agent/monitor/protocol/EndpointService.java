@@ -17,13 +17,23 @@
 package org.hawkular.agent.monitor.protocol;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
@@ -32,6 +42,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.stream.Collectors;
 
 import org.hawkular.agent.monitor.api.InventoryEvent;
 import org.hawkular.agent.monitor.api.InventoryListener;
@@ -39,10 +50,12 @@ import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.AbstractEn
 import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.EndpointConfiguration;
 import org.hawkular.agent.monitor.diagnostics.ProtocolDiagnostics;
 import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.InventorySnapshot;
 import org.hawkular.agent.monitor.inventory.MeasurementInstance;
 import org.hawkular.agent.monitor.inventory.MeasurementType;
 import org.hawkular.agent.monitor.inventory.MetricType;
 import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
+import org.hawkular.agent.monitor.inventory.Name;
 import org.hawkular.agent.monitor.inventory.NodeLocation;
 import org.hawkular.agent.monitor.inventory.Resource;
 import org.hawkular.agent.monitor.inventory.ResourceManager;
@@ -70,6 +83,28 @@ import com.codahale.metrics.Timer.Context;
 public abstract class EndpointService<L, S extends Session<L>> {
     private static final MsgLogger LOG = AgentLoggers.getLogger(EndpointService.class);
 
+    /**
+     * Custom data key (see {@link EndpointConfiguration#getCustomData()}) whose Boolean value indicates if
+     * sibling subtrees are to be discovered concurrently. Default is <code>false</code>.
+     */
+    public static final String PARALLEL_DISCOVERY_KEY = "parallel-discovery";
+
+    /**
+     * Custom data key (see {@link EndpointConfiguration#getCustomData()}) whose Integer value is the maximum number
+     * of threads that concurrently discover resources when {@link #PARALLEL_DISCOVERY_KEY parallel discovery}
+     * is enabled.
+     */
+    public static final String DISCOVERY_PARALLELISM_KEY = "discovery-parallelism";
+
+    public static final int DEFAULT_DISCOVERY_PARALLELISM = 4;
+
+    /**
+     * Custom data key (see {@link EndpointConfiguration#getCustomData()}) whose Integer value is the maximum number
+     * of seconds a discovery scan may take. Once a scan runs out of time it stops querying the endpoint and the
+     * resources it did not reach are kept as they were. If 0 or not set, scans have no time limit.
+     */
+    public static final String DISCOVERY_SCAN_TIMEOUT_KEY = "discovery-scan-timeout-secs";
+
     private class InventoryListenerSupport {
         private final List<InventoryListener> inventoryListeners = new ArrayList<>();
         private final ReadWriteLock inventoryListenerRWLock = new ReentrantReadWriteLock();
@@ -92,7 +127,8 @@ public abstract class EndpointService<L, S extends Session<L>> {
             }
         }
 
-        public void fireDiscoveryComplete(List<Resource<L>> addedOrModified, List<Resource<L>> removed) {
+        public void fireDiscoveryComplete(List<Resource<L>> addedOrModified, List<Resource<L>> removed,
+                Set<ID> newResourceIds) {
             inventoryListenerRWLock.readLock().lock();
             try {
                 LOG.debugf("Firing inventory event for discovery complete");
@@ -101,7 +137,8 @@ public abstract class EndpointService<L, S extends Session<L>> {
                         getResourceManager(),
                         getResourceTypeManager(),
                         addedOrModified,
-                        removed);
+                        removed,
+                        newResourceIds);
                 for (InventoryListener inventoryListener : inventoryListeners) {
                     inventoryListener.receivedEvent(event);
                 }
@@ -111,50 +148,181 @@ public abstract class EndpointService<L, S extends Session<L>> {
         }
     }
 
+    /**
+     * Collects the results of a discovery scan. This may be called concurrently if parallel discovery is enabled.
+     */
     private class DiscoveryResults {
         private final List<Resource<L>> newOrModifiedResources = new ArrayList<>();
-        private final List<ID> discoveredResourceIds = new ArrayList<>(); // to save space, just store the IDs
+        private final Set<ID> newResourceIds = new HashSet<>(); // added resources inventory cannot know yet
         private final List<Throwable> errors = new ArrayList<>();
+        private final Discovery<L> discovery;
+        private final Collection<Resource<L>> removalCandidates; // if null, the full inventory was scanned
+        private final long generation; // resources discovered by the scan are stamped with this
+        private int removedCount;
+
+        /**
+         * Use this when the full resource hierarchy is scanned.
+         *
+         * @param discovery the object that performs the scan
+         */
+        public DiscoveryResults(Discovery<L> discovery) {
+            this(discovery, null);
+        }
 
-        public DiscoveryResults() {
+        /**
+         * Use this when only a part of the resource hierarchy is scanned.
+         *
+         * @param discovery the object that performs the scan
+         * @param removalCandidates the known resources within the scanned part of the hierarchy - those not
+         *        discovered by the scan are the only resources that will be removed when discovery finishes
+         */
+        public DiscoveryResults(Discovery<L> discovery, Collection<Resource<L>> removalCandidates) {
+            this.discovery = discovery;
+            this.removalCandidates = removalCandidates;
+            this.generation = getResourceManager().nextGeneration();
         }
 
-        public void error(Throwable t) {
+        public synchronized void error(Throwable t) {
             errors.add(t);
         }
 
-        public void added(Resource<L> resource) {
-            discoveredResourceIds.add(resource.getID());
+        public synchronized void added(Resource<L> resource) {
             newOrModifiedResources.add(resource);
+            if (inventoryReported) {
+                newResourceIds.add(resource.getID());
+            }
         }
 
-        public void modified(Resource<L> resource) {
-            discoveredResourceIds.add(resource.getID());
+        public synchronized void modified(Resource<L> resource) {
             newOrModifiedResources.add(resource);
         }
 
-        public void unchanged(Resource<L> resource) {
-            discoveredResourceIds.add(resource.getID());
-        }
-
-        public void discoveryFinished() {
+        public synchronized void discoveryFinished() {
             // Discovery is complete so the resource manager has all known resources (including all previously
             // discovered resources that may not have been discovered this last time around). removedResources will be
             // those resources that were not added, modified, or discovered-but-unchanged but still found in the
-            // resource manager - we need to remove them internally and fire the removed event.
-            List<Resource<L>> removedResources = getResourceManager().getAllResources(discoveredResourceIds);
+            // resource manager - i.e. those the resource manager has not stamped with this scan's generation.
+            // We need to remove them internally and fire the removed event.
+            // If only part of the hierarchy was scanned, only the resources that were known to be in that part
+            // can be considered removed.
+            List<Resource<L>> removedResources;
+            if (removalCandidates == null) {
+                removedResources = getResourceManager().findStaleResources(generation);
+            } else {
+                removedResources = removalCandidates.stream()
+                        .filter(r -> getResourceManager().isStale(r, generation))
+                        .collect(Collectors.toList());
+            }
+
+            // If the scan did not reach some parts of the hierarchy (it ran out of time, was cancelled or failed
+            // there) we do not know if the resources we knew in those parts still exist - so we keep them.
+            if (!discovery.isComplete()) {
+                int notReached = removedResources.size();
+                removedResources = removedResources.stream()
+                        .filter(discovery::isReached)
+                        .collect(Collectors.toList());
+                notReached -= removedResources.size();
+                if (discovery.isCancelled()) {
+                    getDiagnostics().getDiscoveryCancellationRate().mark();
+                    LOG.debugf("Discovery of [%s] was cancelled - keeping [%d] resources it did not reach",
+                            getMonitoredEndpoint(), notReached);
+                } else if (discovery.isTimedOut()) {
+                    getDiagnostics().getDiscoveryTimeoutRate().mark();
+                    LOG.warnDiscoveryScanTimedOut(getMonitoredEndpoint().getName(), discoveryScanTimeoutSecs,
+                            notReached);
+                } else {
+                    LOG.debugf("Discovery of [%s] failed in parts - keeping [%d] resources it did not reach",
+                            getMonitoredEndpoint(), notReached);
+                }
+            }
 
             // remove them from the resource manager itself
             removedResources.forEach(r -> getResourceManager().removeResource(r));
 
+            // commands and reports read the snapshot, now they can see what this scan found
+            getResourceManager().publishSnapshot();
+
+            // the first full discovery after the agent restarted only reports what changed since the last sync
+            if (removalCandidates == null && errors.isEmpty() && discovery.isComplete() && previousInventory != null) {
+                removedResources = applyPreviousInventory(previousInventory, removedResources);
+                previousInventory = null;
+            }
+            removedCount = removedResources.size();
+
             // do not fire a discovery complete event if errors occurred since we might be missing resources
             // that really do exist - we don't want to permanently delete those during an inventory sync
             if (errors.isEmpty()) {
-                inventoryListenerSupport.fireDiscoveryComplete(newOrModifiedResources, removedResources);
+                inventoryListenerSupport.fireDiscoveryComplete(newOrModifiedResources, removedResources,
+                        newResourceIds);
+                if (removalCandidates == null && discovery.isComplete()) {
+                    // listeners now know all resources, any resource added from now on is a new one
+                    inventoryReported = true;
+                }
             } else {
                 LOG.debugf("[%d] discovery errors occurred - not firing event: %s", errors.size(), errors);
             }
         }
+
+        /**
+         * Takes the resources that have not changed since they were synced before the agent restarted out of the
+         * new resources, and adds the synced resources that no longer exist to the removed resources.
+         *
+         * @param previous the resources that were synced before the agent restarted
+         * @param removedResources the resources found to be removed so far
+         * @return all removed resources
+         */
+        private List<Resource<L>> applyPreviousInventory(Map<String, InventorySnapshot.Entry> previous,
+                List<Resource<L>> removedResources) {
+            for (Iterator<Resource<L>> it = newOrModifiedResources.iterator(); it.hasNext();) {
+                Resource<L> resource = it.next();
+                InventorySnapshot.Entry entry = previous.get(resource.getID().getIDString());
+                if (entry != null && entry.isUnchanged(resource)) {
+                    resource.setPersistedTime(entry.getPersistedTime());
+                    resource.getMetrics().forEach(m -> m.setPersistedTime(entry.getPersistedTime()));
+                    it.remove();
+                }
+            }
+
+            // the scan was complete and what it did not discover has been removed already, so the resource manager
+            // now holds exactly the discovered resources
+            List<Resource<L>> allRemovedResources = new ArrayList<>(removedResources);
+            Map<String, ResourceType<L>> typesByName = new HashMap<>();
+            for (ResourceType<L> type : getResourceTypeManager().getResourceTypesBreadthFirst()) {
+                typesByName.putIfAbsent(type.getName().getNameString(), type);
+            }
+            for (InventorySnapshot.Entry entry : previous.values()) {
+                if (entry.getPersistedTime() > 0 && getResourceManager().getResource(new ID(entry.getId())) == null) {
+                    ResourceType<L> type = typesByName.get(entry.getTypeName());
+                    if (type == null) {
+                        // the agent was reconfigured while it was down - the resource cannot be reported as removed
+                        LOG.debugf("Type [%s] of previously synced resource [%s] is unknown - ignoring it",
+                                entry.getTypeName(), entry.getId());
+                        continue;
+                    }
+                    allRemovedResources.add(Resource.<L> builder()
+                            .id(new ID(entry.getId()))
+                            .name(new Name(entry.getName()))
+                            .type(type)
+                            .build());
+                }
+            }
+
+            LOG.debugf("Compared with [%d] previously synced resources of [%s]: [%d] new or modified, [%d] removed",
+                    previous.size(), getMonitoredEndpoint(), newOrModifiedResources.size(),
+                    allRemovedResources.size());
+            return allRemovedResources;
+        }
+
+        /**
+         * Call this only after {@link #discoveryFinished()}.
+         *
+         * @param durationMillis how long the discovery took
+         * @return the summary of the discovery
+         */
+        public synchronized DiscoveryScanSummary summarize(long durationMillis) {
+            return new DiscoveryScanSummary(durationMillis, newOrModifiedResources.size() + removedCount,
+                    errors.size());
+        }
     }
 
     private final MonitoredEndpoint<EndpointConfiguration> endpoint;
@@ -166,6 +334,18 @@ public abstract class EndpointService<L, S extends Session<L>> {
     private final ProtocolDiagnostics diagnostics;
     private final ExecutorService fullDiscoveryScanThreadPool;
     private final ReentrantReadWriteLock discoveryScanRWLock;
+    private final int discoveryParallelism; // if 0, parallel discovery is disabled
+    private volatile ForkJoinPool discoveryPool;
+    private final int discoveryScanTimeoutSecs; // if 0, discovery scans have no time limit
+    private volatile Discovery<L> currentDiscovery; // the scan in progress, if any
+
+    // the metric label templates of the endpoint config and of all types, parsed the first time they are used
+    private final Map<String, MetricLabelTemplate> metricLabelTemplates = new ConcurrentHashMap<>();
+
+    private volatile InventorySnapshot inventorySnapshot;
+    // the resources synced before the agent restarted; only used by the first full discovery that has no errors
+    private Map<String, InventorySnapshot.Entry> previousInventory; // guarded by discoveryScanRWLock
+    private volatile boolean inventoryReported; // true once a complete full discovery scan was reported
 
     protected volatile ServiceStatus status = ServiceStatus.INITIAL;
 
@@ -176,7 +356,7 @@ public abstract class EndpointService<L, S extends Session<L>> {
             ProtocolDiagnostics diagnostics) {
         this.feedId = feedId;
         this.endpoint = endpoint;
-        this.resourceManager = new ResourceManager<>();
+        this.resourceManager = new ResourceManager<>(locationResolver);
         this.resourceTypeManager = resourceTypeManager;
         this.locationResolver = locationResolver;
         this.diagnostics = diagnostics;
@@ -190,6 +370,32 @@ public abstract class EndpointService<L, S extends Session<L>> {
                 "Hawkular-Agent-Full-Discovery-Scan-" + endpoint.getName());
         this.fullDiscoveryScanThreadPool = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
                 new LinkedBlockingQueue<Runnable>(1), threadFactory);
+
+        this.discoveryParallelism = determineDiscoveryParallelism(endpoint.getEndpointConfiguration());
+        this.discoveryScanTimeoutSecs = determineDiscoveryScanTimeout(endpoint.getEndpointConfiguration());
+    }
+
+    private static int determineDiscoveryParallelism(EndpointConfiguration config) {
+        Map<String, ? extends Object> customData = config.getCustomData();
+        if (customData == null || !Boolean.TRUE.equals(customData.get(PARALLEL_DISCOVERY_KEY))) {
+            return 0;
+        }
+        Object parallelism = customData.get(DISCOVERY_PARALLELISM_KEY);
+        if (parallelism instanceof Number && ((Number) parallelism).intValue() > 0) {
+            return ((Number) parallelism).intValue();
+        }
+        return DEFAULT_DISCOVERY_PARALLELISM;
+    }
+
+    private static int determineDiscoveryScanTimeout(EndpointConfiguration config) {
+        Map<String, ? extends Object> customData = config.getCustomData();
+        if (customData != null) {
+            Object timeout = customData.get(DISCOVERY_SCAN_TIMEOUT_KEY);
+            if (timeout instanceof Number && ((Number) timeout).intValue() > 0) {
+                return ((Number) timeout).intValue();
+            }
+        }
+        return 0;
     }
 
     public String getFeedId() {
@@ -222,6 +428,35 @@ public abstract class EndpointService<L, S extends Session<L>> {
         return diagnostics;
     }
 
+    /**
+     * Sets where the resources of this endpoint are stored once they are synced with inventory. At start up,
+     * the resources stored there are compared with those discovered by the first full discovery so only
+     * the resources that changed while the agent was down are reported as added, modified or removed.
+     *
+     * Works only before {@link #start()} or after {@link #stop()}.
+     *
+     * @param inventorySnapshot the snapshot of this endpoint's resources; if null, no snapshot is kept
+     */
+    public void setInventorySnapshot(InventorySnapshot inventorySnapshot) {
+        status.assertInitialOrStopped(getClass(), "setInventorySnapshot()");
+        this.inventorySnapshot = inventorySnapshot;
+    }
+
+    /**
+     * Writes the resources of this endpoint to the inventory snapshot, if there is one.
+     * This is to be called after the resources have been synced with inventory.
+     */
+    public void saveInventorySnapshot() {
+        InventorySnapshot snapshot = this.inventorySnapshot;
+        if (snapshot != null) {
+            try {
+                snapshot.save(getResourceManager());
+            } catch (Exception e) {
+                LOG.warnCannotSaveInventorySnapshot(e, snapshot.getFile().getPath());
+            }
+        }
+    }
+
     /**
      * Works only before {@link #start()} or after {@link #stop()}.
      *
@@ -261,6 +496,17 @@ public abstract class EndpointService<L, S extends Session<L>> {
      */
     public abstract S openSession();
 
+    /**
+     * Opens a new protocol specific {@link Session} to be used for a single discovery scan - do not forget to close
+     * it! Subclasses can override this to use a session optimized for discovery. By default this is the same as
+     * {@link #openSession()}.
+     *
+     * @return a new {@link Session}
+     */
+    protected S openDiscoverySession() {
+        return openSession();
+    }
+
     /**
      * Discovers all resources, puts them in the {@link #resourceManager},
      * and triggers any listeners listening for new inventory.
@@ -273,24 +519,42 @@ public abstract class EndpointService<L, S extends Session<L>> {
      * This method does not block - it runs the discovery in another thread.
      */
     public void discoverAll() {
+        discoverAll(null);
+    }
+
+    /**
+     * Same as {@link #discoverAll()} but the given callback is told about the outcome of the discovery.
+     * If the discovery is not performed because another full discovery is already pending, the callback is
+     * given a {@link RejectedExecutionException} via {@link Consumer#report(Throwable)}. If the discovery fails
+     * (for example, because an inventory listener threw an exception) the callback is given that failure.
+     *
+     * @param callback if not null, is notified when the discovery finishes
+     */
+    public void discoverAll(Consumer<DiscoveryScanSummary> callback) {
         status.assertRunning(getClass(), "discoverAll()");
 
         Runnable runnable = new Runnable() {
             @Override
             public void run() {
+                DiscoveryScanSummary summary = null;
+                Throwable failure = null;
                 WriteLock lock = EndpointService.this.discoveryScanRWLock.writeLock();
                 lock.lock();
                 try {
-                    DiscoveryResults discoveryResults = new DiscoveryResults();
+                    Discovery<L> discovery = startDiscovery();
+                    DiscoveryResults discoveryResults = new DiscoveryResults(discovery);
 
                     LOG.infoDiscoveryRequested(getMonitoredEndpoint());
                     long duration = -1;
-                    try (S session = openSession()) {
+                    try (S session = openDiscoverySession()) {
                         Set<ResourceType<L>> rootTypes = getResourceTypeManager().getRootResourceTypes();
                         Context timer = getDiagnostics().getFullDiscoveryScanTimer().time();
+                        List<Runnable> rootTasks = new ArrayList<>(rootTypes.size());
                         for (ResourceType<L> rootType : rootTypes) {
-                            discoverChildren(null, rootType, session, discoveryResults);
+                            rootTasks.add(() -> discoverChildren(null, rootType, session, discovery,
+                                    discoveryResults));
                         }
+                        runDiscoveryTasks(rootTasks);
                         long nanos = timer.stop();
                         duration = TimeUnit.MILLISECONDS.convert(nanos, TimeUnit.NANOSECONDS);
                     } catch (Exception e) {
@@ -302,8 +566,22 @@ public abstract class EndpointService<L, S extends Session<L>> {
                             duration);
 
                     discoveryResults.discoveryFinished();
+                    summary = discoveryResults.summarize(duration);
+                } catch (Throwable t) {
+                    failure = t;
+                    throw t;
                 } finally {
+                    finishDiscovery();
                     lock.unlock();
+
+                    // the caller (e.g. the auto-discovery scheduler) waits for this even if the discovery failed
+                    if (callback != null) {
+                        if (summary != null) {
+                            callback.accept(summary);
+                        } else {
+                            callback.report(failure);
+                        }
+                    }
                 }
             }
         };
@@ -312,6 +590,231 @@ public abstract class EndpointService<L, S extends Session<L>> {
             this.fullDiscoveryScanThreadPool.execute(runnable);
         } catch (RejectedExecutionException ree) {
             LOG.debugf("Redundant full discovery scan will be ignored for endpoint [%s]", getMonitoredEndpoint());
+            if (callback != null) {
+                callback.report(ree);
+            }
+        }
+    }
+
+    /**
+     * Rediscovers the resources matching the given {@code location} along with all their direct and indirect
+     * descendant resources, puts them in the {@link #resourceManager}, and triggers any listeners listening for
+     * inventory changes. Only resources within the rediscovered subtrees are considered for removal, and the
+     * inventory event that is fired contains only the resources affected by this rediscovery.
+     *
+     * This is much cheaper than {@link #discoverAll()} when it is known which part of the resource hierarchy
+     * changed (for example, after a deployment was added or removed). If the location cannot be placed within the
+     * currently known resource hierarchy (for example, its parent has not been discovered yet) this falls back
+     * to {@link #discoverAll()}.
+     *
+     * Unlike {@link #discoverAll()}, this method blocks until the rediscovery finishes. It will also block if a
+     * discovery scan is currently in progress - the rediscovery will occur when the discovery scan finishes.
+     *
+     * @param location the location of the resources to rediscover - this can contain wildcards
+     * @return false if the location could not be placed within the known resource hierarchy and a full discovery was
+     *         requested instead
+     */
+    public boolean discoverSubtree(L location) {
+        status.assertRunning(getClass(), "discoverSubtree()");
+        try (S session = openDiscoverySession()) {
+            LocationResolver<L> resolver = session.getLocationResolver();
+
+            // we must not alter the resource manager while another discovery scan is in progress
+            WriteLock lock = EndpointService.this.discoveryScanRWLock.writeLock();
+            lock.lock();
+            try {
+                LOG.debugf("Subtree discovery requested for [%s] at [%s]", getMonitoredEndpoint(), location);
+
+                // The known resources at the location, along with all their descendants, are the only resources
+                // that can be removed by this rediscovery.
+                List<Resource<L>> existing = getResourceManager().findResources(location, resolver);
+                Discovery<L> discovery = startDiscovery();
+                DiscoveryResults discoveryResults = new DiscoveryResults(discovery, getSubtrees(existing));
+
+                // Determine where in the hierarchy the location belongs - that is, which resource types the
+                // location refers to and under which parents. The location may refer to root resources, or it may
+                // refer to children of any of the resources we already know about.
+                List<Runnable> tasks = new ArrayList<>();
+                for (ResourceType<L> rootType : getResourceTypeManager().getRootResourceTypes()) {
+                    if (resolver.matches(rootType.getLocation(), location)) {
+                        tasks.add(() -> discoverChildren(null, rootType, location, session, discovery,
+                                discoveryResults));
+                    }
+                }
+                boolean multiTarget = resolver.isMultiTarget(location);
+                for (Resource<L> parent : getResourceManager().findAncestorCandidates(location)) {
+                    // a child type query does not always name its parent (e.g. a JMX one), so check it is under it
+                    if (!multiTarget && parent.getLocation() != null
+                            && !resolver.isParent(parent.getLocation(), location)) {
+                        continue;
+                    }
+                    for (ResourceType<L> childType : getResourceTypeManager().getChildren(parent.getResourceType())) {
+                        L childQuery = resolver.absolutize(parent.getLocation(), childType.getLocation());
+                        if (resolver.matches(childQuery, location)) {
+                            tasks.add(() -> discoverChildren(parent, childType, location, session, discovery,
+                                    discoveryResults));
+                        }
+                    }
+                }
+
+                if (tasks.isEmpty()) {
+                    LOG.infoSubtreeDiscoveryFallback(String.valueOf(location), getMonitoredEndpoint().getName());
+                    discoverAll();
+                    return false;
+                }
+
+                long start = System.nanoTime();
+                runDiscoveryTasks(tasks);
+                long duration = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                LOG.debugf("Subtree discovery of [%s] at [%s] took [%d] ms", getMonitoredEndpoint(), location,
+                        duration);
+
+                discoveryResults.discoveryFinished();
+            } finally {
+                finishDiscovery();
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            LOG.errorCouldNotAccess(this, e);
+        }
+        return true;
+    }
+
+    /**
+     * Rediscovers all children of the given type underneath the resources matching the given {@code parentLocation}
+     * along with all their direct and indirect descendant resources, puts them in the {@link #resourceManager}, and
+     * triggers any listeners listening for inventory changes. Only the already known children of the given type (and
+     * their descendants) are considered for removal, and the inventory event that is fired contains only the resources
+     * affected by this rediscovery.
+     *
+     * Unlike {@link #discoverAll()}, this method blocks until the rediscovery finishes. It will also block if a
+     * discovery scan is currently in progress - the rediscovery will occur when the discovery scan finishes.
+     *
+     * @param parentLocation the location of the parents whose children are to be rediscovered - this can contain
+     *        wildcards. If null, root resources of the given type are rediscovered.
+     * @param childType the type of the children to rediscover
+     */
+    public void discoverSubtree(L parentLocation, ResourceType<L> childType) {
+        status.assertRunning(getClass(), "discoverSubtree()");
+        try (S session = openDiscoverySession()) {
+            LocationResolver<L> resolver = session.getLocationResolver();
+
+            // we must not alter the resource manager while another discovery scan is in progress
+            WriteLock lock = EndpointService.this.discoveryScanRWLock.writeLock();
+            lock.lock();
+            try {
+                LOG.debugf("Subtree discovery requested for [%s] of type [%s] under [%s]", getMonitoredEndpoint(),
+                        childType, parentLocation);
+
+                List<Resource<L>> parents;
+                List<Resource<L>> existing = new ArrayList<>();
+                if (parentLocation != null) {
+                    parents = getResourceManager().findResources(parentLocation, resolver);
+                    for (Resource<L> parent : parents) {
+                        getResourceManager().getChildren(parent).stream()
+                                .filter(c -> c.getResourceType().equals(childType))
+                                .forEach(existing::add);
+                    }
+                } else {
+                    parents = Arrays.asList((Resource<L>) null);
+                    getResourceManager().getRootResources().stream()
+                            .filter(r -> r.getResourceType().equals(childType))
+                            .forEach(existing::add);
+                }
+                Discovery<L> discovery = startDiscovery();
+                DiscoveryResults discoveryResults = new DiscoveryResults(discovery, getSubtrees(existing));
+
+                List<Runnable> tasks = new ArrayList<>(parents.size());
+                for (Resource<L> parent : parents) {
+                    tasks.add(() -> discoverChildren(parent, childType, null, session, discovery, discoveryResults));
+                }
+                runDiscoveryTasks(tasks);
+
+                discoveryResults.discoveryFinished();
+            } finally {
+                finishDiscovery();
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            LOG.errorCouldNotAccess(this, e);
+        }
+    }
+
+    /**
+     * Creates the object that performs a discovery scan and makes it the {@link #cancelDiscovery() cancellable}
+     * scan in progress. This must be called with the write lock held and the caller must call
+     * {@link #finishDiscovery()} before it releases the lock.
+     *
+     * @return the object that performs the discovery scan
+     */
+    private Discovery<L> startDiscovery() {
+        Discovery<L> discovery = new Discovery<>(discoveryPool != null, discoveryScanTimeoutSecs, TimeUnit.SECONDS);
+        currentDiscovery = discovery;
+        return discovery;
+    }
+
+    /**
+     * Ends the discovery scan in progress, if there is one, and closes the sessions it opened for parallel discovery.
+     * This must be called with the write lock held.
+     */
+    private void finishDiscovery() {
+        Discovery<L> discovery = currentDiscovery;
+        if (discovery != null) {
+            currentDiscovery = null;
+            discovery.closeSessions();
+        }
+    }
+
+    /**
+     * Cancels the discovery scan in progress, if there is one. The scan does not make any more queries but the
+     * query that is in progress is not interrupted. The resources the scan discovered so far are reported as usual,
+     * and the resources it did not reach are kept as they were.
+     */
+    public void cancelDiscovery() {
+        Discovery<L> discovery = currentDiscovery;
+        if (discovery != null) {
+            LOG.debugf("Cancelling discovery of [%s]", getMonitoredEndpoint());
+            discovery.cancel();
+        }
+    }
+
+    /**
+     * @param resources the resources whose subtrees are to be returned
+     * @return the given resources along with all their direct and indirect descendants
+     */
+    private List<Resource<L>> getSubtrees(List<Resource<L>> resources) {
+        List<Resource<L>> subtrees = new ArrayList<>();
+        Set<ID> visited = new HashSet<>();
+        Deque<Resource<L>> toVisit = new ArrayDeque<>(resources);
+        while (!toVisit.isEmpty()) {
+            Resource<L> resource = toVisit.pop();
+            if (visited.add(resource.getID())) {
+                subtrees.add(resource);
+                toVisit.addAll(getResourceManager().getChildren(resource));
+            }
+        }
+        return subtrees;
+    }
+
+    /**
+     * Runs the given discovery tasks and waits for them all to finish. If parallel discovery is enabled the tasks
+     * run concurrently in the discovery pool; otherwise they run serially in the calling thread.
+     *
+     * @param tasks the discovery tasks to run
+     */
+    private void runDiscoveryTasks(List<Runnable> tasks) {
+        ForkJoinPool pool = discoveryPool;
+        if (pool != null) {
+            // each task's hierarchy is discovered concurrently and, within those
+            // hierarchies, sibling subtrees are also discovered concurrently - each worker thread
+            // with a session of its own, see Discovery
+            List<ForkJoinTask<?>> forkJoinTasks = new ArrayList<>(tasks.size());
+            for (Runnable task : tasks) {
+                forkJoinTasks.add(ForkJoinTask.adapt(task));
+            }
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(forkJoinTasks)));
+        } else {
+            tasks.forEach(Runnable::run);
         }
     }
 
@@ -324,10 +827,11 @@ public abstract class EndpointService<L, S extends Session<L>> {
      * @param session If not <code>null</code>, this session is used; if <code>null</code> one will be created.
      *        If a non-null session is passed in, the caller is responsible for closing it - this method will
      *        not close it. If a null session is passed in, this method will create and close a session itself.
+     * @param discovery the object that performs the discovery
      * @param discoveryResults the object that collects results from this method as it executes recursively
      */
     private void discoverChildren(L parentLocation, ResourceType<L> childType, S session,
-            DiscoveryResults discoveryResults) {
+            Discovery<L> discovery, DiscoveryResults discoveryResults) {
 
         status.assertRunning(getClass(), "discoverChildren()");
         LOG.debugf("Being asked to discover children of type [%s] under parent [%s] for endpoint [%s]",
@@ -337,41 +841,17 @@ public abstract class EndpointService<L, S extends Session<L>> {
         try {
             sessionToUse = (session == null) ? openSession() : session;
 
-            // If discoveryChildren is ever called concurrently then we need to synchronize around the
-            // resource manager's calls to findResources and addResource. Because we don't need it today,
-            // this locking is not performed. But this is a reminder for the future.
+            // This can be called concurrently when parallel discovery is enabled. The resource manager locks
+            // internally, and a parent is always added before discovery of its children begins, so no further
+            // synchronization is needed around findResources and addResource.
             List<Resource<L>> parents;
             if (parentLocation != null) {
                 parents = getResourceManager().findResources(parentLocation, sessionToUse.getLocationResolver());
             } else {
                 parents = Arrays.asList((Resource<L>) null);
             }
-            Discovery<L> discovery = new Discovery<>();
             for (Resource<L> parent : parents) {
-                discovery.discoverChildren(parent, childType, sessionToUse, this, new Consumer<Resource<L>>() {
-                    public void accept(Resource<L> resource) {
-                        AddResult<L> addResult = getResourceManager().addResource(resource);
-                        switch (addResult.getEffect()) {
-                            case ADDED:
-                                discoveryResults.added(addResult.getResource());
-                                break;
-                            case MODIFIED:
-                                discoveryResults.modified(addResult.getResource());
-                                break;
-                            case UNCHANGED:
-                                discoveryResults.unchanged(addResult.getResource());
-                                break;
-                            default:
-                                throw new RuntimeException("Bad effect; report this bug: " + addResult.getEffect());
-                        }
-                    }
-
-                    @Override
-                    public void report(Throwable t) {
-                        discoveryResults.error(t);
-                        LOG.errorCouldNotAccess(EndpointService.this, t);
-                    }
-                });
+                discoverChildren(parent, childType, null, sessionToUse, discovery, discoveryResults);
             }
         } catch (Exception e) {
             discoveryResults.error(e);
@@ -389,6 +869,49 @@ public abstract class EndpointService<L, S extends Session<L>> {
         }
     }
 
+    /**
+     * Discovers child resources of the given {@code parent}, puts them to {@link #resourceManager} and records them
+     * in the given {@code discoveryResults}.
+     *
+     * @param parent the resource under which the discovery should happen (null to discover root resources)
+     * @param childType the resources of this type will be discovered
+     * @param childQuery if not null, only the children at this location will be discovered
+     * @param session the session to use - the caller is responsible for closing it
+     * @param discovery the object that performs the discovery
+     * @param discoveryResults the object that collects results from this method as it executes recursively
+     */
+    private void discoverChildren(Resource<L> parent, ResourceType<L> childType, L childQuery, S session,
+            Discovery<L> discovery, DiscoveryResults discoveryResults) {
+        try {
+            discovery.discoverChildren(parent, childType, childQuery, session, this, new Consumer<Resource<L>>() {
+                public void accept(Resource<L> resource) {
+                    AddResult<L> addResult = getResourceManager().addResource(resource);
+                    switch (addResult.getEffect()) {
+                        case ADDED:
+                            discoveryResults.added(addResult.getResource());
+                            break;
+                        case MODIFIED:
+                            discoveryResults.modified(addResult.getResource());
+                            break;
+                        case UNCHANGED:
+                            break; // the resource manager stamped it as discovered, there is nothing else to do
+                        default:
+                            throw new RuntimeException("Bad effect; report this bug: " + addResult.getEffect());
+                    }
+                }
+
+                @Override
+                public void report(Throwable t) {
+                    discoveryResults.error(t);
+                    LOG.errorCouldNotAccess(EndpointService.this, t);
+                }
+            });
+        } catch (Exception e) {
+            discoveryResults.error(e);
+            LOG.errorCouldNotAccess(this, e);
+        }
+    }
+
     public String generateMetricFamily(MeasurementInstance<L, ? extends MeasurementType<L>> instance) {
         return instance.getType().getMetricFamily();
     }
@@ -413,12 +936,15 @@ public abstract class EndpointService<L, S extends Session<L>> {
             tokenizedLabels.putAll(instance.getType().getMetricLabels());
         }
 
+        MetricLabelTemplate.Values values = null; // determined when the first label is to be generated
+        StringBuilder buffer = new StringBuilder();
+
         if (!tokenizedLabels.isEmpty()) {
+            L location = instance.getAttributeLocation().getLocation();
+            values = getMetricLabelTokenValues(instance, config);
             for (Map.Entry<String, String> tokenizedLabel : tokenizedLabels.entrySet()) {
-                String name = replaceTokens(instance.getAttributeLocation().getLocation(), instance, config,
-                        tokenizedLabel.getKey());
-                String value = replaceTokens(instance.getAttributeLocation().getLocation(), instance, config,
-                        tokenizedLabel.getValue());
+                String name = replaceTokens(location, instance, config, values, buffer, tokenizedLabel.getKey());
+                String value = replaceTokens(location, instance, config, values, buffer, tokenizedLabel.getValue());
                 generatedLabels.put(name, value);
             }
         }
@@ -428,9 +954,14 @@ public abstract class EndpointService<L, S extends Session<L>> {
         while (r != null) {
             if (r.getResourceType().getMetricLabels() != null) {
                 for (Map.Entry<String, String> tokenizedLabel : r.getResourceType().getMetricLabels().entrySet()) {
+                    if (values == null) {
+                        values = getMetricLabelTokenValues(instance, config);
+                    }
                     // we must use the parent resource location, not metric's resource location
-                    String name = replaceTokens(r.getLocation(), instance, config, tokenizedLabel.getKey());
-                    String value = replaceTokens(r.getLocation(), instance, config, tokenizedLabel.getValue());
+                    String name = replaceTokens(r.getLocation(), instance, config, values, buffer,
+                            tokenizedLabel.getKey());
+                    String value = replaceTokens(r.getLocation(), instance, config, values, buffer,
+                            tokenizedLabel.getValue());
                     generatedLabels.put(name, value);
                 }
             }
@@ -440,6 +971,41 @@ public abstract class EndpointService<L, S extends Session<L>> {
         return generatedLabels;
     }
 
+    private MetricLabelTemplate.Values getMetricLabelTokenValues(MeasurementInstance<L, ?> instance,
+            EndpointConfiguration config) {
+        MetricUnit units = null;
+        if (instance.getType() instanceof MetricType) {
+            units = ((MetricType<?>) instance.getType()).getMetricUnits();
+        }
+
+        // the values must be in the order of the MetricLabelTemplate.Token constants
+        return new MetricLabelTemplate.Values(
+                getFeedId(),
+                config.getName(),
+                instance.getResource().getName().getNameString(),
+                instance.getAttributeLocation().getAttribute(),
+                instance.getType().getName().getNameString(),
+                units == null ? "" : units.toString());
+    }
+
+    private String replaceTokens(L location, MeasurementInstance<L, ?> instance, EndpointConfiguration config,
+            MetricLabelTemplate.Values values, StringBuilder buffer, String string) {
+        MetricLabelTemplate template = metricLabelTemplates.computeIfAbsent(string, MetricLabelTemplate::parse);
+        String rendered = template.render(values, buffer);
+        if (rendered == null) {
+            // the values cannot simply be inserted into the template - let the regexes sort it out as they always did
+            return replaceTokens(location, instance, config, string);
+        }
+
+        // none of the values has a '%' so there is nothing left for the location resolver if the template had none
+        if (!template.hasPositionalTokens()) {
+            return rendered;
+        }
+
+        // this replaces any positional tokens that might exist in the string (like "%1", "%key%", "%-", etc).
+        return getLocationResolver().applyTemplate(rendered, location, config.getName());
+    }
+
     private String replaceTokens(L location, MeasurementInstance<L, ?> instance, EndpointConfiguration config,
             String string) {
         MetricUnit units = null;
@@ -479,6 +1045,7 @@ public abstract class EndpointService<L, S extends Session<L>> {
             try {
                 List<Resource<L>> removed = getResourceManager().removeResources(location,
                         session.getLocationResolver());
+                getResourceManager().publishSnapshot();
                 inventoryListenerSupport.fireResourcesRemoved(removed);
             } finally {
                 lock.unlock();
@@ -510,6 +1077,34 @@ public abstract class EndpointService<L, S extends Session<L>> {
 
         postStart();
 
+        InventorySnapshot snapshot = this.inventorySnapshot;
+        if (snapshot != null) {
+            try {
+                previousInventory = snapshot.load();
+                if (previousInventory != null) {
+                    LOG.infoLoadedInventorySnapshot(previousInventory.size(), getMonitoredEndpoint().getName(),
+                            snapshot.getFile().getPath());
+                }
+            } catch (Exception e) {
+                LOG.warnCannotLoadInventorySnapshot(e, snapshot.getFile().getPath());
+            }
+        }
+
+        if (discoveryParallelism > 0) {
+            discoveryPool = new ForkJoinPool(discoveryParallelism, new ForkJoinWorkerThreadFactory() {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("Hawkular-Agent-Discovery-" + getMonitoredEndpoint().getName() + "-"
+                            + thread.getPoolIndex());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, null, false);
+            LOG.debugf("Parallel discovery enabled for [%s] with parallelism [%d]", toString(),
+                    discoveryParallelism);
+        }
+
         status = ServiceStatus.RUNNING;
 
         LOG.debugf("Started [%s]", toString());
@@ -525,7 +1120,16 @@ public abstract class EndpointService<L, S extends Session<L>> {
     public void stop() {
         status.assertRunning(getClass(), "stop()");
         status = ServiceStatus.STOPPING;
-        // nothing to do
+
+        // do not let a long discovery scan hold up the shutdown
+        cancelDiscovery();
+
+        ForkJoinPool pool = discoveryPool;
+        if (pool != null) {
+            discoveryPool = null;
+            pool.shutdownNow();
+        }
+
         status = ServiceStatus.STOPPED;
 
         LOG.debugf("Stopped [%s]", toString());
@@ -16,8 +16,11 @@
  */
 package org.hawkular.agent.monitor.protocol;
 
+import java.util.List;
+
 import org.hawkular.agent.monitor.inventory.AttributeLocation;
 import org.hawkular.agent.monitor.inventory.NodeLocation;
+import org.hawkular.agent.monitor.inventory.ResourceManager;
 
 /**
  * A bunch of methods to manipulate with protocol specific locations. Note that all of the provided operations should be
@@ -90,6 +93,44 @@ public interface LocationResolver<L> {
 
     boolean matches(L query, L location);
 
+    /**
+     * Splits the given location into the segments the {@link ResourceManager} indexes it by - for example, the path
+     * elements of a DMR address. Locations that share leading segments share the path to them in the index.
+     *
+     * @param location a single location
+     * @return the segments of the location or null if the location is not to be indexed
+     */
+    default List<String> getIndexSegments(L location) {
+        return null;
+    }
+
+    /**
+     * Splits the given query into segments of the same form as {@link #getIndexSegments(Object)} so the locations
+     * that may match the query can be found in the {@link ResourceManager} index. A location may only match the query
+     * if its segments are as many as the query segments and equal to them, except where a query segment is null -
+     * that stands for any segment. Whether a location found this way really matches must still be checked with
+     * {@link #matches(Object, Object)}.
+     *
+     * @param query the query, possibly with wildcards
+     * @return the segments of the query or null if the index cannot narrow down the locations that match the query
+     */
+    default List<String> getIndexQuerySegments(L query) {
+        return null;
+    }
+
+    /**
+     * Splits the given location into segments of the same form as {@link #getIndexQuerySegments(Object)} so the
+     * locations that may be ancestors of it can be found in the {@link ResourceManager} index - those found along its
+     * segments. This only works if the location of a parent is made of the leading segments of the locations of its
+     * children, which is why resolvers must opt in.
+     *
+     * @param location a location, possibly with wildcards
+     * @return the segments of the location or null if the index cannot narrow down the ancestors of the location
+     */
+    default List<String> getIndexAncestorSegments(L location) {
+        return null;
+    }
+
     String applyTemplate(String nameTemplate, L location, String endpointName);
 
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A metric label name or value template that has been parsed into literal text and the endpoint-wide tokens
+ * (like "%FeedId" or "%ResourceName") so it can be rendered without scanning the template once per token.
+ *
+ * Rendering yields exactly what replacing each token in turn with {@link String#replaceAll(String, String)} yields.
+ * Where that is not guaranteed - i.e. when a value could itself be taken for a token or for a regex group reference,
+ * or when a literal '%' could join with a value into a token - {@link #render(Values, StringBuilder)} returns null
+ * and the caller must fall back to replacing the tokens one by one.
+ *
+ * Any positional tokens (like "%1" or "%key%") are left in place - see {@link #hasPositionalTokens()}.
+ *
+ * @see EndpointService#generateMetricLabels(org.hawkular.agent.monitor.inventory.MeasurementInstance)
+ */
+final class MetricLabelTemplate {
+
+    /**
+     * The tokens whose values are the same for all labels of a metric. The order is the order in which the tokens
+     * were historically replaced.
+     */
+    enum Token {
+        FEED_ID("%FeedId"),
+        MANAGED_SERVER_NAME("%ManagedServerName"),
+        RESOURCE_NAME("%ResourceName"),
+        ATTRIBUTE_NAME("%AttributeName"),
+        METRIC_TYPE_NAME("%MetricTypeName"),
+        METRIC_TYPE_UNITS("%MetricTypeUnits");
+
+        private final String text;
+
+        Token(String text) {
+            this.text = text;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * The values of the {@link Token}s for a single metric.
+     */
+    static final class Values {
+        private final String[] values;
+        private final boolean literal;
+
+        /**
+         * @param values the value of each {@link Token} in the order of {@link Token#values()}
+         */
+        Values(String... values) {
+            if (values.length != TOKENS.length) {
+                throw new IllegalArgumentException("Expected [" + TOKENS.length + "] values, got " + values.length);
+            }
+            this.values = values;
+            boolean literal = true;
+            for (String value : values) {
+                if (value == null || value.indexOf('%') != -1 || value.indexOf('$') != -1
+                        || value.indexOf('\\') != -1) {
+                    literal = false;
+                    break;
+                }
+            }
+            this.literal = literal;
+        }
+
+        public String get(Token token) {
+            return values[token.ordinal()];
+        }
+
+        /**
+         * @return true if all values can be inserted as they are; false if any value is null or has characters
+         *         that are special to either the token replacement or to the regex replacement
+         */
+        public boolean isLiteral() {
+            return literal;
+        }
+    }
+
+    private static final Token[] TOKENS = Token.values();
+
+    /**
+     * Parses the given template.
+     *
+     * @param template the template to parse
+     * @return the parsed template
+     */
+    public static MetricLabelTemplate parse(String template) {
+        List<String> literals = new ArrayList<>();
+        List<Token> tokens = new ArrayList<>();
+        boolean ambiguous = false;
+
+        int literalStart = 0;
+        int i = template.indexOf('%');
+        while (i != -1) {
+            Token token = tokenAt(template, i);
+            if (token == null) {
+                i = template.indexOf('%', i + 1);
+                continue;
+            }
+
+            String literal = template.substring(literalStart, i);
+            ambiguous |= endsWithTokenPrefix(literal);
+            literals.add(literal);
+            tokens.add(token);
+            literalStart = i + token.getText().length();
+            i = template.indexOf('%', literalStart);
+        }
+        literals.add(template.substring(literalStart));
+
+        return new MetricLabelTemplate(template, literals.toArray(new String[literals.size()]),
+                tokens.toArray(new Token[tokens.size()]), ambiguous);
+    }
+
+    private static Token tokenAt(String template, int offset) {
+        for (Token token : TOKENS) {
+            if (template.startsWith(token.getText(), offset)) {
+                return token;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the part of the literal starting at its last '%' is the beginning of a token, in which case
+     *         that part joined with the value following it could itself be taken for a token
+     */
+    private static boolean endsWithTokenPrefix(String literal) {
+        int lastPercent = literal.lastIndexOf('%');
+        if (lastPercent == -1) {
+            return false;
+        }
+        String tail = literal.substring(lastPercent);
+        for (Token token : TOKENS) {
+            if (token.getText().startsWith(tail)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final String template;
+    private final String[] literals; // there is always one more literal than there are tokens
+    private final Token[] tokens;
+    private final boolean ambiguous;
+    private final boolean positional;
+
+    private MetricLabelTemplate(String template, String[] literals, Token[] tokens, boolean ambiguous) {
+        this.template = template;
+        this.literals = literals;
+        this.tokens = tokens;
+        this.ambiguous = ambiguous;
+
+        boolean positional = false;
+        for (String literal : literals) {
+            if (literal.indexOf('%') != -1) {
+                positional = true;
+                break;
+            }
+        }
+        this.positional = positional;
+    }
+
+    /**
+     * @return the template as it was parsed
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return true if the literal text of the template has a '%' which means it might have positional tokens that
+     *         have to be resolved against a location with {@link LocationResolver#applyTemplate}
+     */
+    public boolean hasPositionalTokens() {
+        return positional;
+    }
+
+    /**
+     * Replaces the tokens of this template with the given values.
+     *
+     * @param values the values of the tokens
+     * @param buffer the buffer used to build the result; it is cleared before use so it can be shared
+     * @return the template with its tokens replaced or null if this template cannot be rendered with the given
+     *         values in a way that is guaranteed to be the same as replacing the tokens one by one
+     */
+    public String render(Values values, StringBuilder buffer) {
+        if (tokens.length == 0) {
+            return template;
+        }
+        if (ambiguous || !values.isLiteral()) {
+            return null;
+        }
+
+        buffer.setLength(0);
+        for (int i = 0; i < tokens.length; i++) {
+            buffer.append(literals[i]).append(values.get(tokens[i]));
+        }
+        buffer.append(literals[tokens.length]);
+        return buffer.toString();
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.hawkular.agent.monitor.protocol;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -23,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.hawkular.agent.monitor.api.InventoryListener;
+import org.hawkular.agent.monitor.inventory.InventorySnapshot;
 import org.hawkular.agent.monitor.inventory.NodeLocation;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
@@ -70,6 +72,10 @@ public class ProtocolService<L, S extends Session<L>> {
     // need to remember the listeners in case new endpoints are added after things have started
     private final List<InventoryListener> inventoryListeners = Collections.synchronizedList(new ArrayList<>());
 
+    // where the inventory snapshots of the endpoints are kept, if anywhere; also used for endpoints added later
+    private volatile File inventorySnapshotDir;
+    private volatile String feedId;
+
     public ProtocolService(String name, Map<String, EndpointService<L, S>> endpointServices) {
         this.name = name;
         this.endpointServices = endpointServices;
@@ -111,6 +117,31 @@ public class ProtocolService<L, S extends Session<L>> {
         }
     }
 
+    /**
+     * Keeps a snapshot of the synced resources of each endpoint in the given directory - including the endpoints
+     * added later on. Works only before the endpoint services are started.
+     *
+     * @param feedId the feed whose resources are kept
+     * @param dir the directory where the snapshots are stored
+     */
+    public void setInventorySnapshotDir(String feedId, File dir) {
+        this.feedId = feedId;
+        this.inventorySnapshotDir = dir;
+        for (EndpointService<L, S> service : getEndpointServices().values()) {
+            setInventorySnapshot(service);
+        }
+    }
+
+    private void setInventorySnapshot(EndpointService<L, S> service) {
+        File dir = inventorySnapshotDir;
+        if (dir == null) {
+            return;
+        }
+        String endpointName = service.getMonitoredEndpoint().getName();
+        String fileName = name.toLowerCase() + "-" + endpointName.replaceAll("[^A-Za-z0-9._-]", "_") + ".inventory";
+        service.setInventorySnapshot(new InventorySnapshot(new File(dir, fileName), feedId, endpointName));
+    }
+
     public void addInventoryListener(InventoryListener listener) {
         for (EndpointService<L, S> service : getEndpointServices().values()) {
             service.addInventoryListener(listener);
@@ -141,6 +172,7 @@ public class ProtocolService<L, S extends Session<L>> {
                 newEndpointService.addInventoryListener(listener);
             }
         }
+        setInventorySnapshot(newEndpointService);
 
         endpointServices.put(newEndpointService.getMonitoredEndpoint().getName(), newEndpointService);
         newEndpointService.start();
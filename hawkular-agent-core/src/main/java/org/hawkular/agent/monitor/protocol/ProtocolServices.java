@@ -16,14 +16,11 @@
  */
 package org.hawkular.agent.monitor.protocol;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
 
@@ -42,14 +39,14 @@ import org.hawkular.agent.monitor.protocol.dmr.ModelControllerClientFactory;
 import org.hawkular.agent.monitor.protocol.jmx.JMXEndpointService;
 import org.hawkular.agent.monitor.protocol.jmx.JMXNodeLocation;
 import org.hawkular.agent.monitor.protocol.jmx.JMXSession;
-import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
 
 /**
  * This object contains all the {@link ProtocolService}s and their inventories (that is, all the managed
  * DMR endpoints, platform endpoint, etc).
  *
  * This object will also periodically trigger auto-discovery scans on all managed endpoints to help
- * keep the inventory up-to-date.
+ * keep the inventory up-to-date. If a minimum and maximum period are given, the period of each endpoint
+ * adapts to how often the endpoint changes (see {@link AutoDiscoveryScheduler}).
  *
  * @author <a href="https://github.com/ppalaga">Peter Palaga</a>
  * @author John Mazzitelli
@@ -64,6 +61,9 @@ public class ProtocolServices {
         private final Map<String, SSLContext> sslContexts;
         private final Diagnostics diagnostics;
         private int autoDiscoveryScanPeriodSecs;
+        private int autoDiscoveryScanPeriodMinSecs;
+        private int autoDiscoveryScanPeriodMaxSecs;
+        private File inventorySnapshotDir;
 
         public Builder(String feedId, Map<String, SSLContext> sslContexts, Diagnostics diagnostics) {
             this.feedId = feedId;
@@ -73,7 +73,15 @@ public class ProtocolServices {
         }
 
         public ProtocolServices build() {
-            return new ProtocolServices(dmrProtocolService, jmxProtocolService, autoDiscoveryScanPeriodSecs);
+            if (inventorySnapshotDir != null) {
+                for (ProtocolService<?, ?> protocolService : Arrays.asList(dmrProtocolService, jmxProtocolService)) {
+                    if (protocolService != null) {
+                        protocolService.setInventorySnapshotDir(feedId, inventorySnapshotDir);
+                    }
+                }
+            }
+            return new ProtocolServices(dmrProtocolService, jmxProtocolService, diagnostics,
+                    autoDiscoveryScanPeriodSecs, autoDiscoveryScanPeriodMinSecs, autoDiscoveryScanPeriodMaxSecs);
         }
 
         public Builder autoDiscoveryScanPeriodSecs(int periodSecs) {
@@ -81,6 +89,32 @@ public class ProtocolServices {
             return this;
         }
 
+        /**
+         * Lets the auto-discovery scan period of each endpoint adapt to how often the endpoint changes.
+         * If either bound is 0, the period given by {@link #autoDiscoveryScanPeriodSecs(int)} is used in its place.
+         *
+         * @param minPeriodSecs the shortest period between scans of an endpoint
+         * @param maxPeriodSecs the longest period between scans of an endpoint
+         * @return this builder
+         */
+        public Builder autoDiscoveryScanPeriodBoundsSecs(int minPeriodSecs, int maxPeriodSecs) {
+            this.autoDiscoveryScanPeriodMinSecs = minPeriodSecs;
+            this.autoDiscoveryScanPeriodMaxSecs = maxPeriodSecs;
+            return this;
+        }
+
+        /**
+         * Keeps a snapshot of each endpoint's synced resources in the given directory so the first discovery
+         * after a restart only syncs what changed while the agent was down.
+         *
+         * @param dir the directory where the snapshots are stored; if null, no snapshots are kept
+         * @return this builder
+         */
+        public Builder inventorySnapshotDir(File dir) {
+            this.inventorySnapshotDir = dir;
+            return this;
+        }
+
         public Builder dmrProtocolService(
                 ModelControllerClientFactory localModelControllerClientFactory, // may be null; only needed for local
                 ProtocolConfiguration<DMRNodeLocation> protocolConfig) {
@@ -168,16 +202,23 @@ public class ProtocolServices {
 
     // used to execute auto-discovery scans periodically
     private final int autoDiscoveryScanPeriodSecs;
-    private ScheduledExecutorService autoDiscoveryExecutor = null;
+    private final AutoDiscoveryScheduler autoDiscoveryScheduler;
 
     public ProtocolServices(
             ProtocolService<DMRNodeLocation, DMRSession> dmrProtocolService,
             ProtocolService<JMXNodeLocation, JMXSession> jmxProtocolService,
-            int autoDiscoveryScanPeriodSecs) {
+            Diagnostics diagnostics,
+            int autoDiscoveryScanPeriodSecs,
+            int autoDiscoveryScanPeriodMinSecs,
+            int autoDiscoveryScanPeriodMaxSecs) {
         this.dmrProtocolService = dmrProtocolService;
         this.jmxProtocolService = jmxProtocolService;
         this.services = Collections.unmodifiableList(Arrays.asList(dmrProtocolService, jmxProtocolService));
         this.autoDiscoveryScanPeriodSecs = autoDiscoveryScanPeriodSecs;
+        this.autoDiscoveryScheduler = (autoDiscoveryScanPeriodSecs > 0)
+                ? new AutoDiscoveryScheduler(services, diagnostics, autoDiscoveryScanPeriodSecs,
+                        autoDiscoveryScanPeriodMinSecs, autoDiscoveryScanPeriodMaxSecs)
+                : null;
     }
 
     public void start() {
@@ -230,30 +271,18 @@ public class ProtocolServices {
     }
 
     private void startAutoDiscovery() {
-        if (this.autoDiscoveryScanPeriodSecs > 0) {
-            log.infoAutoDiscoveryEnabled(this.autoDiscoveryScanPeriodSecs);
-
-            ThreadFactory threadFactory = ThreadFactoryGenerator.generateFactory(true,
-                    "Hawkular-Agent-Auto-Discovery-Scan");
-            this.autoDiscoveryExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
-
-            Runnable job = new Runnable() {
-                @Override
-                public void run() {
-                    // make sure we don't let exceptions bubble out - that would stop all future scans from executing
-                    try {
-                        ProtocolServices.this.discoverAll();
-                    } catch (Throwable t) {
-                        log.errorAutoDiscoveryFailed(t);
-                    }
-                }
-            };
+        if (this.autoDiscoveryScheduler != null) {
+            if (this.autoDiscoveryScheduler.isAdaptive()) {
+                log.infoAdaptiveAutoDiscoveryEnabled(this.autoDiscoveryScheduler.getMinPeriodSecs(),
+                        this.autoDiscoveryScheduler.getMaxPeriodSecs());
+            } else {
+                log.infoAutoDiscoveryEnabled(this.autoDiscoveryScanPeriodSecs);
+            }
 
-            // perform an initial discovery now, and then periodically thereafter
-            this.autoDiscoveryExecutor.scheduleAtFixedRate(job, 0, autoDiscoveryScanPeriodSecs, TimeUnit.SECONDS);
+            // performs an initial discovery now, and then periodically thereafter
+            this.autoDiscoveryScheduler.start();
         } else {
             log.infoAutoDiscoveryDisabled();
-            this.autoDiscoveryExecutor = null;
 
             // we still must perform an initial discovery to obtain our inventory
             try {
@@ -265,9 +294,9 @@ public class ProtocolServices {
     }
 
     private void stopAutoDiscovery() {
-        if (this.autoDiscoveryExecutor != null) {
+        if (this.autoDiscoveryScheduler != null) {
             log.debugf("Shutting down auto-discovery job");
-            this.autoDiscoveryExecutor.shutdownNow();
+            this.autoDiscoveryScheduler.stop();
         }
     }
 }
@@ -19,11 +19,14 @@ package org.hawkular.agent.monitor.protocol.dmr;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -36,11 +39,15 @@ import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.protocol.Driver;
 import org.hawkular.agent.monitor.protocol.ProtocolException;
 import org.hawkular.dmr.api.OperationBuilder;
+import org.hawkular.dmr.api.OperationBuilder.AbstractOperationBuilder;
+import org.hawkular.dmr.api.OperationBuilder.CompositeOperationBuilder;
 import org.hawkular.dmr.api.OperationBuilder.OperationResult;
 import org.hawkular.dmr.api.OperationBuilder.ReadAttributeOperationBuilder;
 import org.hawkular.dmr.api.OperationBuilder.ReadResourceOperationBuilder;
+import org.hawkular.dmr.api.OperationTimeoutException;
 import org.hawkular.dmrclient.JBossASClient;
 import org.jboss.as.controller.PathAddress;
+import org.jboss.as.controller.PathElement;
 import org.jboss.as.controller.client.ModelControllerClient;
 import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
 import org.jboss.dmr.ModelNode;
@@ -112,21 +119,79 @@ public class DMRDriver implements Driver<DMRNodeLocation> {
     private final ModelControllerClient client;
     private final MonitoredEndpoint<EndpointConfiguration> endpoint;
     private final ProtocolDiagnostics diagnostics;
+    private final int requestTimeoutSecs; // if 0, requests have no time limit
+
+    // Remembers which locations exist so attributeExists() does not need to ask the server again. Drivers only live
+    // as long as their session (e.g. a single discovery scan) so this never gets stale for long.
+    private final Map<PathAddress, Boolean> knownLocations = new ConcurrentHashMap<>();
 
     public DMRDriver(ModelControllerClient client, MonitoredEndpoint<EndpointConfiguration> endpoint,
             ProtocolDiagnostics diagnostics) {
+        this(client, endpoint, diagnostics, 0);
+    }
+
+    /**
+     * @param client the client used to talk to the managed server
+     * @param endpoint the endpoint being talked to
+     * @param diagnostics the diagnostics object where request metrics are recorded
+     * @param requestTimeoutSecs the number of seconds to wait for the reply to a request; if 0, there is no limit
+     */
+    public DMRDriver(ModelControllerClient client, MonitoredEndpoint<EndpointConfiguration> endpoint,
+            ProtocolDiagnostics diagnostics, int requestTimeoutSecs) {
         super();
         this.client = client;
         this.endpoint = endpoint;
         this.diagnostics = diagnostics;
+        this.requestTimeoutSecs = requestTimeoutSecs;
+    }
+
+    /**
+     * Executes the operation built by the given builder, giving up if the reply does not arrive in time.
+     *
+     * @param opBuilder builds the operation to execute
+     * @return the result of the operation
+     */
+    private OperationResult<?> execute(AbstractOperationBuilder<?, ?> opBuilder) {
+        if (requestTimeoutSecs == 0) {
+            return opBuilder.execute(client);
+        }
+        try {
+            return opBuilder.execute(client, requestTimeoutSecs, TimeUnit.SECONDS);
+        } catch (OperationTimeoutException e) {
+            diagnostics.getRequestTimeoutRate().mark(1);
+            throw e;
+        }
     }
 
+    /**
+     * Note that DMR attributes are assumed to exist if the resource at their location exists. The existence of
+     * locations is cached - locations of nodes returned by {@link #fetchNodes(DMRNodeLocation)} are known to exist
+     * and so checking attributes on discovered resources requires no further request to the server.
+     */
     @Override
     public boolean attributeExists(AttributeLocation<DMRNodeLocation> location) {
-        Optional<ModelNode> result = OperationBuilder.readResource()
-                .address(location.getLocation().getPathAddress())
-                .includeRuntime().execute(client).getOptionalResultNode();
-        return result.isPresent();
+        PathAddress address = location.getLocation().getPathAddress();
+        Boolean exists = knownLocations.get(address);
+        if (exists == null) {
+            Optional<ModelNode> result = execute(OperationBuilder.readResource()
+                    .address(address)
+                    .includeRuntime()).getOptionalResultNode();
+            exists = result.isPresent();
+            knownLocations.put(address, exists);
+        }
+        return exists;
+    }
+
+    /**
+     * Remembers that resources exist at the given locations so {@link #attributeExists(AttributeLocation)}
+     * does not need to check them again.
+     *
+     * @param locations locations of resources known to exist
+     */
+    protected void rememberExistingLocations(Collection<DMRNodeLocation> locations) {
+        for (DMRNodeLocation location : locations) {
+            knownLocations.put(location.getPathAddress(), Boolean.TRUE);
+        }
     }
 
     @Override
@@ -143,7 +208,7 @@ public class DMRDriver implements Driver<DMRNodeLocation> {
         // time the execute separately - we want to time ONLY the execute call
         OperationResult<?> opResult;
         try (Context timerContext = diagnostics.getRequestTimer().time()) {
-            opResult = opBuilder.execute(client);
+            opResult = execute(opBuilder);
         } catch (Exception e) {
             diagnostics.getErrorRate().mark(1);
             throw new ProtocolException("Error fetching DMR attribute [" + useAttribute + "]", e);
@@ -159,6 +224,19 @@ public class DMRDriver implements Driver<DMRNodeLocation> {
                     "Unsuccessful fetching DMR attribute [" + location.getLocation() + "] [" + useAttribute + "]", e);
         }
 
+        return toAttributeValue(attribute, value);
+    }
+
+    /**
+     * Converts the value node of an attribute to the attribute value.
+     *
+     * @param attribute the attribute name split on "#" - the second element, if any, is a sub-attribute
+     * @param value the value node of the (main) attribute
+     * @return the attribute value
+     * @throws ProtocolException if the value cannot be converted
+     */
+    private Object toAttributeValue(String[] attribute, ModelNode value) throws ProtocolException {
+        String useAttribute = attribute[0];
         if (attribute.length > 1 && value != null && value.isDefined()) {
             useAttribute = attribute[1];
             value = value.get(useAttribute);
@@ -171,6 +249,122 @@ public class DMRDriver implements Driver<DMRNodeLocation> {
         return postProcessAttribute(useAttribute, toObject(value));
     }
 
+    /**
+     * Attributes found in the given {@code baseNode} are taken from there. This includes attributes of descendant
+     * locations when the base node was read recursively. All other attributes are read with a single
+     * {@code composite} operation. If the composite operation fails, only the attributes taken from the base node
+     * are returned.
+     */
+    @Override
+    public <N> Map<AttributeLocation<DMRNodeLocation>, Object> fetchAttributes(
+            Collection<AttributeLocation<DMRNodeLocation>> locations, DMRNodeLocation baseLocation, N baseNode) {
+
+        Map<AttributeLocation<DMRNodeLocation>, Object> result = new HashMap<>(locations.size());
+        List<AttributeLocation<DMRNodeLocation>> toRead = new ArrayList<>(locations.size());
+        for (AttributeLocation<DMRNodeLocation> location : locations) {
+            ModelNode value = findInNode(location, baseLocation, baseNode);
+            if (value == null) {
+                toRead.add(location);
+            } else {
+                try {
+                    result.put(location, toAttributeValue(location.getAttribute().split("#"), value));
+                } catch (ProtocolException e) {
+                    toRead.add(location);
+                }
+            }
+        }
+
+        if (toRead.isEmpty()) {
+            return result;
+        }
+
+        CompositeOperationBuilder<?> batch = OperationBuilder.composite();
+        for (AttributeLocation<DMRNodeLocation> location : toRead) {
+            batch.readAttribute()
+                    .address(location.getLocation().getPathAddress())
+                    .resolveExpressions(location.getLocation().getResolveExpressions())
+                    .includeDefaults(location.getLocation().getIncludeDefaults())
+                    .name(location.getAttribute().split("#")[0])
+                    .parentBuilder();
+        }
+
+        // time the execute separately - we want to time ONLY the execute call
+        OperationResult<?> opResult;
+        try (Context timerContext = diagnostics.getRequestTimer().time()) {
+            opResult = execute(batch);
+        } catch (Exception e) {
+            diagnostics.getErrorRate().mark(1);
+            log.debugf(e, "Failed to fetch [%d] attributes under [%s] - they will be fetched one by one",
+                    toRead.size(), baseLocation);
+            return result;
+        }
+
+        // A failed step (e.g. an attribute that does not exist) fails the whole composite but the results of the
+        // successful steps are still reported. Only the attributes of the failed steps are left for the caller
+        // to fetch one by one.
+        ModelNode steps = opResult.getResultNode();
+        for (int i = 0; i < toRead.size(); i++) {
+            AttributeLocation<DMRNodeLocation> location = toRead.get(i);
+            ModelNode step = steps.get("step-" + (i + 1));
+            String outcome = step.hasDefined(ModelDescriptionConstants.OUTCOME)
+                    ? step.get(ModelDescriptionConstants.OUTCOME).asString() : null;
+            if (ModelDescriptionConstants.SUCCESS.equals(outcome)) {
+                try {
+                    result.put(location, toAttributeValue(location.getAttribute().split("#"),
+                            step.get(ModelDescriptionConstants.RESULT)));
+                } catch (ProtocolException e) {
+                    log.debugf(e, "Cannot convert attribute [%s] - it will be fetched individually", location);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Looks for the attribute value in the given node that was read at the given base location.
+     *
+     * @return the value or null if the value is not found in the node
+     */
+    private ModelNode findInNode(AttributeLocation<DMRNodeLocation> location, DMRNodeLocation baseLocation,
+            Object baseNode) {
+        if (!(baseNode instanceof ModelNode) || baseLocation == null) {
+            return null;
+        }
+        DMRNodeLocation attributeNodeLocation = location.getLocation();
+
+        // nodes were read with defaults but without resolving expressions
+        if (!attributeNodeLocation.getIncludeDefaults()) {
+            return null;
+        }
+
+        PathAddress basePath = baseLocation.getPathAddress();
+        PathAddress path = attributeNodeLocation.getPathAddress();
+        if (path.size() < basePath.size() || !path.subAddress(0, basePath.size()).equals(basePath)) {
+            return null;
+        }
+
+        // walk down to the attribute's node, which is only possible if the base node was read recursively
+        ModelNode node = (ModelNode) baseNode;
+        for (int i = basePath.size(); i < path.size(); i++) {
+            PathElement element = path.getElement(i);
+            if (!node.hasDefined(element.getKey()) || !node.get(element.getKey()).hasDefined(element.getValue())) {
+                return null;
+            }
+            node = node.get(element.getKey()).get(element.getValue());
+        }
+
+        String attribute = location.getAttribute().split("#")[0];
+        if (node.getType() != ModelType.OBJECT || !node.has(attribute)) {
+            return null;
+        }
+        ModelNode value = node.get(attribute);
+        if (value.getType() == ModelType.EXPRESSION && attributeNodeLocation.getResolveExpressions()) {
+            return null;
+        }
+        return value;
+    }
+
     @Override
     public Map<DMRNodeLocation, Object> fetchAttributeAsMap(AttributeLocation<DMRNodeLocation> location)
             throws ProtocolException {
@@ -209,16 +403,33 @@ public class DMRDriver implements Driver<DMRNodeLocation> {
     @SuppressWarnings("unchecked")
     @Override
     public Map<DMRNodeLocation, ModelNode> fetchNodes(DMRNodeLocation query) throws ProtocolException {
+        return fetchNodes(query, 0);
+    }
+
+    /**
+     * Just like {@link #fetchNodes(DMRNodeLocation)} but can optionally read the nodes recursively, in which case
+     * each returned node contains the model of its descendants down to the given depth.
+     *
+     * @param query a pattern location to query for nodes
+     * @param recursiveDepth if greater than 0, the nodes are read recursively down to this many levels below them
+     * @return an immutable {@link Map} from locations to nodes
+     * @throws ProtocolException on any problems related to the retrieval
+     */
+    protected Map<DMRNodeLocation, ModelNode> fetchNodes(DMRNodeLocation query, int recursiveDepth)
+            throws ProtocolException {
 
         ReadResourceOperationBuilder<?> opBuilder = OperationBuilder
                 .readResource()//
                 .address(query.getPathAddress()) //
                 .includeRuntime();
+        if (recursiveDepth > 0) {
+            opBuilder.recursiveDepth(recursiveDepth);
+        }
 
         // time the execute separately - we want to time ONLY the execute call
         OperationResult<?> opResult;
         try (Context timerContext = diagnostics.getRequestTimer().time()) {
-            opResult = opBuilder.execute(client);
+            opResult = execute(opBuilder);
         } catch (Exception e) {
             diagnostics.getErrorRate().mark(1);
             throw new ProtocolException("Error fetching nodes for query [" + query + "]", e);
@@ -228,6 +439,7 @@ public class DMRDriver implements Driver<DMRNodeLocation> {
         if (resultNode.isPresent()) {
             ModelNode n = resultNode.get();
             if (n.getType() == ModelType.OBJECT) {
+                rememberExistingLocations(Collections.singleton(query));
                 return Collections.singletonMap(query, n);
             } else if (n.getType() == ModelType.LIST) {
                 Map<DMRNodeLocation, ModelNode> result = new HashMap<>();
@@ -237,6 +449,7 @@ public class DMRDriver implements Driver<DMRNodeLocation> {
                     pathAddress = makePathAddressFullyQualified_WFLY6628(query.getPathAddress(), pathAddress);
                     result.put(DMRNodeLocation.of(pathAddress, true, true), JBossASClient.getResults(item));
                 }
+                rememberExistingLocations(result.keySet());
                 return Collections.unmodifiableMap(result);
             } else {
                 throw new IllegalStateException("Invalid type - please report this bug: " + n.getType()
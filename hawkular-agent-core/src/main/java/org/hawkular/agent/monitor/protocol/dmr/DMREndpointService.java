@@ -18,6 +18,7 @@ package org.hawkular.agent.monitor.protocol.dmr;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.EndpointConfiguration;
 import org.hawkular.agent.monitor.diagnostics.ProtocolDiagnostics;
@@ -38,6 +39,29 @@ public class DMREndpointService
 
     public static final String ENABLE_STATISTICS_KEY = "enable-statistics";
 
+    /**
+     * Custom data key whose Boolean value indicates if discovery scans are to read the model of the managed server
+     * with a few depth-limited recursive reads rather than one read per parent and child type. Default is
+     * <code>false</code>.
+     */
+    public static final String RECURSIVE_DISCOVERY_KEY = "recursive-discovery";
+
+    /**
+     * Custom data key whose Integer value is the maximum size, in bytes, of a model obtained by a single recursive
+     * read. The size is checked once the model has been read; if it is larger, discovery falls back to reading one
+     * level at a time. A single recursive read is at most {@link DMRRecursiveDriver#DEFAULT_READ_DEPTH} levels deep.
+     */
+    public static final String RECURSIVE_DISCOVERY_SIZE_LIMIT_KEY = "recursive-discovery-size-limit";
+
+    public static final int DEFAULT_RECURSIVE_DISCOVERY_SIZE_LIMIT = 50 * 1024 * 1024;
+
+    /**
+     * Custom data key whose Integer value is the maximum number of seconds discovery waits for the reply to a single
+     * management request. A request that times out is cancelled and the part of the hierarchy it was to discover is
+     * treated as not reached. If 0 or not set, discovery waits as long as it takes.
+     */
+    public static final String DISCOVERY_REQUEST_TIMEOUT_KEY = "discovery-request-timeout-secs";
+
     public static String lookupServerIdentifier(ModelControllerClient client) throws IOException {
         ModelNode rootNode = OperationBuilder.readResource().includeRuntime().execute(client).assertSuccess()
                 .getResultNode();
@@ -92,12 +116,42 @@ public class DMREndpointService
     }
 
     private final ModelControllerClientFactory modelControllerClientFactory;
+    private final int recursiveDiscoverySizeLimit; // if 0, recursive discovery is disabled
+    private final int discoveryRequestTimeoutSecs; // if 0, discovery requests have no time limit
+
+    // once a recursive read exceeds the size limit, this endpoint is always discovered one level at a time
+    private final AtomicBoolean recursiveDiscoveryTooLarge = new AtomicBoolean(false);
 
     public DMREndpointService(String feedId, MonitoredEndpoint<EndpointConfiguration> endpoint,
             ResourceTypeManager<DMRNodeLocation> resourceTypeManager,
             ModelControllerClientFactory modelControllerClientFactory, ProtocolDiagnostics diagnostics) {
         super(feedId, endpoint, resourceTypeManager, new DMRLocationResolver(), diagnostics);
         this.modelControllerClientFactory = modelControllerClientFactory;
+        this.recursiveDiscoverySizeLimit = determineRecursiveDiscoverySizeLimit(endpoint.getEndpointConfiguration());
+        this.discoveryRequestTimeoutSecs = determineDiscoveryRequestTimeout(endpoint.getEndpointConfiguration());
+    }
+
+    private static int determineRecursiveDiscoverySizeLimit(EndpointConfiguration config) {
+        Map<String, ? extends Object> customData = config.getCustomData();
+        if (customData == null || !Boolean.TRUE.equals(customData.get(RECURSIVE_DISCOVERY_KEY))) {
+            return 0;
+        }
+        Object sizeLimit = customData.get(RECURSIVE_DISCOVERY_SIZE_LIMIT_KEY);
+        if (sizeLimit instanceof Number && ((Number) sizeLimit).intValue() > 0) {
+            return ((Number) sizeLimit).intValue();
+        }
+        return DEFAULT_RECURSIVE_DISCOVERY_SIZE_LIMIT;
+    }
+
+    private static int determineDiscoveryRequestTimeout(EndpointConfiguration config) {
+        Map<String, ? extends Object> customData = config.getCustomData();
+        if (customData != null) {
+            Object timeout = customData.get(DISCOVERY_REQUEST_TIMEOUT_KEY);
+            if (timeout instanceof Number && ((Number) timeout).intValue() > 0) {
+                return ((Number) timeout).intValue();
+            }
+        }
+        return 0;
     }
 
     @Override
@@ -108,6 +162,25 @@ public class DMREndpointService
                 getLocationResolver(), client);
     }
 
+    @Override
+    protected DMRSession openDiscoverySession() {
+        boolean recursive = recursiveDiscoverySizeLimit > 0 && !recursiveDiscoveryTooLarge.get();
+        if (!recursive && discoveryRequestTimeoutSecs == 0) {
+            return openSession();
+        }
+        ModelControllerClient client = modelControllerClientFactory.createClient();
+        Driver<DMRNodeLocation> driver;
+        if (recursive) {
+            driver = new DMRRecursiveDriver(client, getMonitoredEndpoint(), getDiagnostics(),
+                    discoveryRequestTimeoutSecs, recursiveDiscoverySizeLimit, DMRRecursiveDriver.DEFAULT_READ_DEPTH,
+                    recursiveDiscoveryTooLarge);
+        } else {
+            driver = new DMRDriver(client, getMonitoredEndpoint(), getDiagnostics(), discoveryRequestTimeoutSecs);
+        }
+        return new DMRSession(getFeedId(), getMonitoredEndpoint(), getResourceTypeManager(), driver,
+                getLocationResolver(), client);
+    }
+
     @Override
     protected void postStart() {
         // see if we are to enable statistics - default is 'yes'
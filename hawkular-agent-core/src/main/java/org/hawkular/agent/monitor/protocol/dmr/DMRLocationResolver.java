@@ -19,6 +19,7 @@ package org.hawkular.agent.monitor.protocol.dmr;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.hawkular.agent.monitor.protocol.LocationResolver;
 import org.hawkular.agent.monitor.protocol.ProtocolException;
@@ -32,6 +33,10 @@ import org.jboss.dmr.Property;
  * @see LocationResolver
  */
 public class DMRLocationResolver implements LocationResolver<DMRNodeLocation> {
+    private static final Pattern POSITIONAL_TOKEN = Pattern.compile("%(\\d+)");
+    private static final Pattern LAST_POSITION_TOKEN = Pattern.compile("%(-)");
+    private static final Pattern MANAGED_SERVER_NAME_TOKEN = Pattern.compile("%ManagedServerName");
+
     private static boolean matches(int length, PathAddress pattern, PathAddress address) {
         for (int i = 0; i < length; i++) {
             PathElement otherElem = address.getElement(i);
@@ -156,6 +161,33 @@ public class DMRLocationResolver implements LocationResolver<DMRNodeLocation> {
         }
     }
 
+    @Override
+    public List<String> getIndexSegments(DMRNodeLocation location) {
+        PathAddress path = location.getPathAddress();
+        List<String> segments = new ArrayList<>(path.size());
+        for (PathElement element : path) {
+            segments.add(element.getKey() + '=' + element.getValue());
+        }
+        return segments;
+    }
+
+    @Override
+    public List<String> getIndexQuerySegments(DMRNodeLocation query) {
+        // a query only matches addresses of its own length - see matches()
+        PathAddress queryPath = query.getPathAddress();
+        List<String> segments = new ArrayList<>(queryPath.size());
+        for (PathElement element : queryPath) {
+            segments.add(element.isMultiTarget() ? null : element.getKey() + '=' + element.getValue());
+        }
+        return segments;
+    }
+
+    @Override
+    public List<String> getIndexAncestorSegments(DMRNodeLocation location) {
+        // the address of a parent is a prefix of the addresses of its children
+        return getIndexQuerySegments(location);
+    }
+
     @Override
     public String applyTemplate(String nameTemplate, DMRNodeLocation location, String endpointName) {
 
@@ -201,12 +233,12 @@ public class DMRLocationResolver implements LocationResolver<DMRNodeLocation> {
         }
 
         // %#
-        nameTemplate = nameTemplate.replaceAll("%(\\d+)", "%$1\\$s");
+        nameTemplate = POSITIONAL_TOKEN.matcher(nameTemplate).replaceAll("%$1\\$s");
 
         // %-
-        nameTemplate = nameTemplate.replaceAll("%(-)", "%" + args.size() + "\\$s");
+        nameTemplate = LAST_POSITION_TOKEN.matcher(nameTemplate).replaceAll("%" + args.size() + "\\$s");
 
-        nameTemplate = nameTemplate.replaceAll("%ManagedServerName", endpointName);
+        nameTemplate = MANAGED_SERVER_NAME_TOKEN.matcher(nameTemplate).replaceAll(endpointName);
         String nameStr = String.format(nameTemplate, args.toArray());
         return nameStr;
     }
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol.dmr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.EndpointConfiguration;
+import org.hawkular.agent.monitor.diagnostics.ProtocolDiagnostics;
+import org.hawkular.agent.monitor.inventory.AttributeLocation;
+import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
+import org.hawkular.agent.monitor.protocol.ProtocolException;
+import org.jboss.as.controller.PathAddress;
+import org.jboss.as.controller.PathElement;
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
+
+/**
+ * A {@link DMRDriver} to be used for discovery scans. The first time nodes are fetched for a query that is not
+ * covered by what this driver has already read, the model under that query is read with a single recursive
+ * {@code read-resource} operation. Any later query that falls under an already read model is answered from memory
+ * rather than by a management round trip per parent and child type.
+ *
+ * A recursive read only goes a limited number of levels deep (see {@link #DEFAULT_READ_DEPTH}) so that a single
+ * reply never holds the model of the whole server. A query deeper than what was read leads to another recursive
+ * read starting at the query.
+ *
+ * The management client reads a reply into memory as a whole, so the size limit cannot keep a large reply from being
+ * read - it is checked once the reply is in. If a model is larger than the limit, it is not kept and the shared
+ * {@code disabled} flag is set, after which this driver (and any other driver sharing that flag) fetches nodes
+ * one level at a time just like {@link DMRDriver}. Together, the depth and the size limit bound how much memory
+ * discovery of a server can take.
+ *
+ * The models are never refreshed so an instance should only live as long as a single discovery scan.
+ *
+ * @see DMRDriver
+ */
+public class DMRRecursiveDriver extends DMRDriver {
+    private static final MsgLogger log = AgentLoggers.getLogger(DMRRecursiveDriver.class);
+
+    /**
+     * How many levels below a query a recursive read goes by default.
+     */
+    public static final int DEFAULT_READ_DEPTH = 3;
+
+    /**
+     * Counts the bytes written to it and fails as soon as the limit is exceeded.
+     */
+    private static class LimitedCountingOutputStream extends OutputStream {
+        private final long limit;
+        private long count;
+
+        LimitedCountingOutputStream(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            add(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            add(len);
+        }
+
+        private void add(int len) throws IOException {
+            count += len;
+            if (count > limit) {
+                throw new SizeLimitExceededException();
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class SizeLimitExceededException extends IOException {
+    }
+
+    private final MonitoredEndpoint<EndpointConfiguration> endpoint;
+    private final DMRLocationResolver locationResolver = new DMRLocationResolver();
+    private final long sizeLimit;
+    private final int readDepth;
+    private final AtomicBoolean disabled;
+
+    // the queries that were read recursively and the models they returned keyed on their absolute addresses
+    private final List<DMRNodeLocation> readQueries = new CopyOnWriteArrayList<>();
+    private final Map<PathAddress, ModelNode> models = new ConcurrentHashMap<>();
+
+    /**
+     * @param client the client used to talk to the managed server
+     * @param endpoint the endpoint being discovered
+     * @param diagnostics the diagnostics object where request metrics are recorded
+     * @param requestTimeoutSecs the number of seconds to wait for the reply to a request; if 0, there is no limit
+     * @param sizeLimit the maximum size, in bytes, of the model that a single recursive read may return
+     * @param readDepth how many levels below a query a single recursive read goes, at least 1
+     * @param disabled if this flag is set, nodes are fetched one level at a time; this driver sets it when the
+     *        size limit is exceeded
+     */
+    public DMRRecursiveDriver(ModelControllerClient client, MonitoredEndpoint<EndpointConfiguration> endpoint,
+            ProtocolDiagnostics diagnostics, int requestTimeoutSecs, long sizeLimit, int readDepth,
+            AtomicBoolean disabled) {
+        super(client, endpoint, diagnostics, requestTimeoutSecs);
+        this.endpoint = endpoint;
+        this.sizeLimit = sizeLimit;
+        this.readDepth = Math.max(1, readDepth);
+        this.disabled = disabled;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<DMRNodeLocation, ModelNode> fetchNodes(DMRNodeLocation query) throws ProtocolException {
+        if (disabled.get()) {
+            return super.fetchNodes(query);
+        }
+
+        Map<DMRNodeLocation, ModelNode> result = findInModels(query);
+        if (result != null) {
+            return result;
+        }
+
+        synchronized (this) {
+            // another thread might have read a model covering this query while we were waiting
+            result = findInModels(query);
+            if (result != null) {
+                return result;
+            }
+
+            Map<DMRNodeLocation, ModelNode> nodes = fetchNodes(query, readDepth);
+            if (!isWithinSizeLimit(nodes)) {
+                disabled.set(true);
+                log.infoRecursiveDiscoveryTooLarge(query.toString(), sizeLimit, endpoint.getName());
+                return nodes;
+            }
+
+            for (Map.Entry<DMRNodeLocation, ModelNode> node : nodes.entrySet()) {
+                models.put(node.getKey().getPathAddress(), node.getValue());
+            }
+            readQueries.add(query);
+            log.debugf("Read model of [%d] nodes at [%s] for endpoint [%s]", nodes.size(), query,
+                    endpoint.getName());
+
+            // if a model we read earlier lacks some of the children (e.g. proxied resources are not included
+            // in recursive reads) we cannot answer from memory, but we do have the nodes we just read
+            result = findInModels(query);
+            return (result != null) ? result : nodes;
+        }
+    }
+
+    @Override
+    public boolean attributeExists(AttributeLocation<DMRNodeLocation> location) {
+        if (!disabled.get()) {
+            Map<DMRNodeLocation, ModelNode> nodes = findInModels(location.getLocation());
+            if (nodes != null) {
+                return !nodes.isEmpty();
+            }
+        }
+        return super.attributeExists(location);
+    }
+
+    private boolean isWithinSizeLimit(Map<DMRNodeLocation, ModelNode> nodes) throws ProtocolException {
+        LimitedCountingOutputStream out = new LimitedCountingOutputStream(sizeLimit);
+        try {
+            for (ModelNode node : nodes.values()) {
+                node.writeExternal(out);
+            }
+            return true;
+        } catch (SizeLimitExceededException e) {
+            return false;
+        } catch (IOException e) {
+            throw new ProtocolException("Cannot determine the size of the model", e);
+        }
+    }
+
+    /**
+     * Finds the nodes matching the given query in the models read so far.
+     *
+     * @param query the query whose nodes are to be found
+     * @return the nodes found or null if the models read so far do not cover the query
+     */
+    private Map<DMRNodeLocation, ModelNode> findInModels(DMRNodeLocation query) {
+        PathAddress queryAddress = query.getPathAddress();
+
+        // the query is covered only if it is under an address that was read recursively, and not too far under it
+        boolean covered = false;
+        for (DMRNodeLocation readQuery : readQueries) {
+            PathAddress readAddress = readQuery.getPathAddress();
+            if (queryAddress.size() - readAddress.size() <= readDepth && isUnder(queryAddress, readAddress)) {
+                covered = true;
+                break;
+            }
+        }
+        if (!covered) {
+            return null;
+        }
+
+        // models read too far above the query do not go deep enough to answer it
+        Map<DMRNodeLocation, ModelNode> result = new HashMap<>();
+        for (Map.Entry<PathAddress, ModelNode> model : models.entrySet()) {
+            PathAddress modelAddress = model.getKey();
+            if (queryAddress.size() - modelAddress.size() <= readDepth && leadsTo(queryAddress, modelAddress)) {
+                if (!collect(query, modelAddress, model.getValue(), result)) {
+                    return null;
+                }
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return true if the given address is the given ancestor or any of its descendants - wildcards in the ancestor
+     *         match any value in the address (but not the other way around)
+     */
+    private boolean isUnder(PathAddress address, PathAddress ancestor) {
+        int depth = ancestor.size();
+        if (depth > address.size()) {
+            return false;
+        }
+        return locationResolver.matches(new DMRNodeLocation(ancestor),
+                new DMRNodeLocation(address.subAddress(0, depth)));
+    }
+
+    /**
+     * @return true if the given query passes through the given address - that is, the leading elements of the query
+     *         match the address
+     */
+    private boolean leadsTo(PathAddress query, PathAddress address) {
+        int depth = address.size();
+        if (depth > query.size()) {
+            return false;
+        }
+        return locationResolver.matches(new DMRNodeLocation(query.subAddress(0, depth)),
+                new DMRNodeLocation(address));
+    }
+
+    /**
+     * Walks down the given model following the path elements of the query and collects the nodes that match it.
+     *
+     * @return false if the model does not contain enough information to answer the query
+     */
+    private boolean collect(DMRNodeLocation query, PathAddress address, ModelNode node,
+            Map<DMRNodeLocation, ModelNode> result) {
+        PathAddress queryAddress = query.getPathAddress();
+        if (address.size() == queryAddress.size()) {
+            if (!node.isDefined()) {
+                return false; // the read did not go this deep
+            }
+            // Use the same locations the per-level read would have returned
+            DMRNodeLocation location = queryAddress.isMultiTarget() ? new DMRNodeLocation(address, true, true)
+                    : query;
+            if (locationResolver.matches(query, location)) {
+                result.put(location, node);
+            }
+            return true;
+        }
+
+        PathElement element = queryAddress.getElement(address.size());
+        if (!node.has(element.getKey())) {
+            return false; // not a child type known to the model
+        }
+        ModelNode children = node.get(element.getKey());
+        if (!children.isDefined()) {
+            return true; // there are no children of this type
+        }
+
+        List<Property> matchingChildren = new ArrayList<>();
+        if (element.isMultiTarget()) {
+            for (Property child : children.asPropertyList()) {
+                if (element.matches(new Property(element.getKey(), new ModelNode(child.getName())))) {
+                    matchingChildren.add(child);
+                }
+            }
+        } else if (children.has(element.getValue())) {
+            matchingChildren.add(new Property(element.getValue(), children.get(element.getValue())));
+        }
+
+        for (Property child : matchingChildren) {
+            PathAddress childAddress = address.append(PathElement.pathElement(element.getKey(), child.getName()));
+            if (!collect(query, childAddress, child.getValue(), result)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -18,18 +18,36 @@ package org.hawkular.agent.monitor.protocol.jmx;
 
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.MBeanServer;
 import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
 import javax.management.MBeanServerFactory;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
 
 import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.EndpointConfiguration;
 import org.hawkular.agent.monitor.diagnostics.ProtocolDiagnostics;
 import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
+import org.hawkular.agent.monitor.inventory.ResourceType;
 import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.protocol.Driver;
 import org.hawkular.agent.monitor.protocol.EndpointService;
+import org.hawkular.agent.monitor.service.ServiceStatus;
+import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
 import org.jolokia.client.J4pClient;
 
 /**
@@ -40,9 +58,58 @@ import org.jolokia.client.J4pClient;
 public class JMXEndpointService
         extends EndpointService<JMXNodeLocation, JMXSession> {
 
+    private static final MsgLogger log = AgentLoggers.getLogger(JMXEndpointService.class);
+
     public static final String MBEAN_SERVER_NAME_KEY = "mbean-server-name";
 
+    /**
+     * Custom data key whose Boolean value indicates if MBean registrations and unregistrations in a local MBean
+     * Server are to be discovered as they happen rather than only by periodic discovery scans.
+     * Default is <code>false</code>. This is ignored for remote JMX endpoints.
+     */
+    public static final String INCREMENTAL_DISCOVERY_KEY = "incremental-discovery";
+
+    /**
+     * Custom data key whose Integer value is the number of milliseconds without further MBean registration
+     * notifications after which the affected resources are discovered or removed. Notifications that keep coming
+     * are collected for at most {@link #MAX_DELAY_FACTOR} times this long.
+     */
+    public static final String INCREMENTAL_DISCOVERY_DELAY_KEY = "incremental-discovery-delay-millis";
+
+    public static final int DEFAULT_INCREMENTAL_DISCOVERY_DELAY = 1000;
+
+    /**
+     * If more MBeans than this changed within a single delay period, a full discovery is performed instead
+     * of rediscovering the MBeans one by one.
+     */
+    private static final int MAX_INCREMENTAL_CHANGES = 100;
+
+    /**
+     * Changes are processed no later than this many times the incremental discovery delay after the first of them,
+     * even if more changes keep coming.
+     */
+    private static final int MAX_DELAY_FACTOR = 10;
+
     private final JolokiaClientFactory clientFactory;
+    private final int incrementalDiscoveryDelay; // if 0, incremental discovery is disabled
+
+    // MBeans that were registered (true) or unregistered (false) and have not been processed yet
+    private final Map<ObjectName, Boolean> pendingChanges = new LinkedHashMap<>();
+    private ScheduledFuture<?> pendingChangesTask; // guarded by pendingChanges
+    private long pendingChangesDeadline; // guarded by pendingChanges
+    private ScheduledExecutorService incrementalDiscoveryExecutor;
+    private MBeanServer incrementalDiscoveryMBeanServer;
+    private final NotificationListener registrationListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (notification instanceof MBeanServerNotification) {
+                MBeanServerNotification mbsNotification = (MBeanServerNotification) notification;
+                boolean registered = MBeanServerNotification.REGISTRATION_NOTIFICATION
+                        .equals(mbsNotification.getType());
+                mbeanChanged(mbsNotification.getMBeanName(), registered);
+            }
+        }
+    };
 
     public JMXEndpointService(String feedId, MonitoredEndpoint<EndpointConfiguration> endpoint,
             ResourceTypeManager<JMXNodeLocation> resourceTypeManager, ProtocolDiagnostics diagnostics) {
@@ -53,6 +120,144 @@ public class JMXEndpointService
         } else {
             this.clientFactory = null;
         }
+
+        this.incrementalDiscoveryDelay = (this.clientFactory == null)
+                ? determineIncrementalDiscoveryDelay(endpoint.getEndpointConfiguration())
+                : 0;
+    }
+
+    private static int determineIncrementalDiscoveryDelay(EndpointConfiguration config) {
+        Map<String, ? extends Object> customData = config.getCustomData();
+        if (customData == null || !Boolean.TRUE.equals(customData.get(INCREMENTAL_DISCOVERY_KEY))) {
+            return 0;
+        }
+        Object delay = customData.get(INCREMENTAL_DISCOVERY_DELAY_KEY);
+        if (delay instanceof Number && ((Number) delay).intValue() > 0) {
+            return ((Number) delay).intValue();
+        }
+        return DEFAULT_INCREMENTAL_DISCOVERY_DELAY;
+    }
+
+    @Override
+    protected void postStart() {
+        if (incrementalDiscoveryDelay == 0) {
+            return;
+        }
+
+        ThreadFactory threadFactory = ThreadFactoryGenerator.generateFactory(true,
+                "Hawkular-Agent-Incremental-Discovery-" + getMonitoredEndpoint().getName());
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        executor.setRemoveOnCancelPolicy(true); // the task is rescheduled with every change
+        incrementalDiscoveryExecutor = executor;
+
+        MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+        filter.enableAllObjectNames();
+        MBeanServer mbs = getMBeanServer();
+        try {
+            mbs.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrationListener, filter, null);
+            incrementalDiscoveryMBeanServer = mbs;
+            log.debugf("Incremental discovery enabled for [%s] with delay [%d] ms", this, incrementalDiscoveryDelay);
+        } catch (Exception e) {
+            log.warnf(e, "Cannot listen for MBean registrations - incremental discovery disabled for [%s]", this);
+            incrementalDiscoveryExecutor.shutdownNow();
+            incrementalDiscoveryExecutor = null;
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (incrementalDiscoveryMBeanServer != null) {
+            try {
+                incrementalDiscoveryMBeanServer.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME,
+                        registrationListener);
+            } catch (Exception e) {
+                log.debugf(e, "Cannot stop listening for MBean registrations for [%s]", this);
+            }
+            incrementalDiscoveryMBeanServer = null;
+        }
+        if (incrementalDiscoveryExecutor != null) {
+            incrementalDiscoveryExecutor.shutdownNow();
+            incrementalDiscoveryExecutor = null;
+        }
+        synchronized (pendingChanges) {
+            pendingChanges.clear();
+            pendingChangesTask = null;
+        }
+
+        super.stop();
+    }
+
+    /**
+     * Called when an MBean is registered or unregistered. This only remembers the change - changes are processed
+     * together once no more changes have come for the incremental discovery delay so a burst of changes (e.g. when
+     * an application is deployed) is handled at once. A burst that does not settle is processed anyway after
+     * {@link #MAX_DELAY_FACTOR} times the delay.
+     */
+    private void mbeanChanged(ObjectName name, boolean registered) {
+        // ignore MBeans that cannot be resources
+        JMXNodeLocation location = new JMXNodeLocation(name);
+        boolean interesting = false;
+        for (ResourceType<JMXNodeLocation> type : getResourceTypeManager().getResourceTypesBreadthFirst()) {
+            if (type.getLocation() != null && getLocationResolver().matches(type.getLocation(), location)) {
+                interesting = true;
+                break;
+            }
+        }
+        if (!interesting) {
+            return;
+        }
+
+        synchronized (pendingChanges) {
+            ScheduledExecutorService executor = incrementalDiscoveryExecutor;
+            if (executor == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (pendingChanges.isEmpty()) {
+                pendingChangesDeadline = now + (long) incrementalDiscoveryDelay * MAX_DELAY_FACTOR;
+            }
+            pendingChanges.remove(name); // the latest change is the one that counts; keep it in order
+            pendingChanges.put(name, registered);
+
+            // wait for the burst to settle, but not past the deadline
+            if (pendingChangesTask != null) {
+                pendingChangesTask.cancel(false);
+            }
+            long delay = Math.max(0, Math.min(incrementalDiscoveryDelay, pendingChangesDeadline - now));
+            pendingChangesTask = executor.schedule(this::processPendingChanges, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void processPendingChanges() {
+        List<Map.Entry<ObjectName, Boolean>> changes;
+        synchronized (pendingChanges) {
+            changes = new ArrayList<>(pendingChanges.entrySet());
+            pendingChanges.clear();
+            pendingChangesTask = null;
+        }
+
+        if (changes.isEmpty() || status != ServiceStatus.RUNNING) {
+            return; // the next full discovery will pick up the changes
+        }
+
+        try {
+            if (changes.size() > MAX_INCREMENTAL_CHANGES) {
+                log.debugf("[%d] MBeans changed in [%s] - performing full discovery", changes.size(), this);
+                discoverAll();
+                return;
+            }
+
+            for (Map.Entry<ObjectName, Boolean> change : changes) {
+                JMXNodeLocation location = new JMXNodeLocation(change.getKey());
+                if (change.getValue()) {
+                    discoverSubtree(location);
+                } else {
+                    removeResources(location);
+                }
+            }
+        } catch (Exception e) {
+            log.warnf(e, "Failed to process MBean registration changes for [%s]", this);
+        }
     }
 
     /** @see org.hawkular.agent.monitor.protocol.EndpointService#openSession() */
@@ -66,7 +271,7 @@ public class JMXEndpointService
             driver = new JolokiaJMXDriver(getDiagnostics(), client);
         } else {
             // local JMX access via JMX API
-            MBeanServerConnection mbs = getMBeanServerConnection();
+            MBeanServerConnection mbs = getMBeanServer();
             driver = new MBeanServerConnectionJMXDriver(getDiagnostics(), mbs);
         }
 
@@ -74,7 +279,7 @@ public class JMXEndpointService
                 getLocationResolver());
     }
 
-    private MBeanServerConnection getMBeanServerConnection() {
+    private MBeanServer getMBeanServer() {
         // Find out what the name of the MBeanServer is from our custom data in the endpoint config.
         String mbsName = null;
         Map<String, ? extends Object> customData = getMonitoredEndpoint().getEndpointConfiguration().getCustomData();
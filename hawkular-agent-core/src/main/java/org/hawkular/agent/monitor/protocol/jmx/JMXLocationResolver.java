@@ -16,6 +16,8 @@
  */
 package org.hawkular.agent.monitor.protocol.jmx;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import javax.management.ObjectName;
@@ -115,6 +117,46 @@ public class JMXLocationResolver implements LocationResolver<JMXNodeLocation> {
         return query.getObjectName().apply(location.getObjectName());
     }
 
+    @Override
+    public List<String> getIndexSegments(JMXNodeLocation location) {
+        ObjectName objectName = location.getObjectName();
+        if (objectName == null) {
+            return null;
+        }
+
+        // the domain followed by the key properties sorted by their keys
+        List<String> segments = new ArrayList<>(location.getCanonicalKeys().size() + 1);
+        segments.add(objectName.getDomain());
+        for (String key : location.getCanonicalKeys()) {
+            segments.add(key + '=' + objectName.getKeyProperty(key));
+        }
+        return segments;
+    }
+
+    @Override
+    public List<String> getIndexQuerySegments(JMXNodeLocation query) {
+        ObjectName objectName = query.getObjectName();
+
+        // a pattern in the domain or one that allows more key properties can match object names of any shape
+        if (objectName == null || objectName.isDomainPattern() || objectName.isPropertyListPattern()) {
+            return null;
+        }
+
+        List<String> segments = new ArrayList<>(query.getCanonicalKeys().size() + 1);
+        segments.add(objectName.getDomain());
+        for (String key : query.getCanonicalKeys()) {
+            segments.add(objectName.isPropertyValuePattern(key) ? null : key + '=' + objectName.getKeyProperty(key));
+        }
+        return segments;
+    }
+
+    @Override
+    public List<String> getIndexAncestorSegments(JMXNodeLocation location) {
+        // the key properties are indexed sorted by their keys, so the segments of a parent (say d:name=Y,type=X) are
+        // not necessarily leading segments of those of its children (d:name=Y,sub=Z,type=X) - any resource may be one
+        return null;
+    }
+
     @Override
     public String applyTemplate(String nameTemplate, JMXNodeLocation location, String endpointName) {
         // The name template can have %X% where X is a key in the object name.
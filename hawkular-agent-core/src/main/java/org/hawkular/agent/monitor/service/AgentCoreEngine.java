@@ -299,6 +299,7 @@ public abstract class AgentCoreEngine {
                 // build the diagnostics object that will be used to track our own performance
                 final MetricRegistry metricRegistry = new MetricRegistry();
                 this.diagnostics = new DiagnosticsImpl(configuration.getDiagnostics(), metricRegistry, feedId);
+                this.httpClientBuilder.setDiagnostics(this.diagnostics);
 
                 // try to connect to the server via command-gateway channel; keep going on error
                 try {
@@ -335,6 +336,12 @@ public abstract class AgentCoreEngine {
                         .jmxProtocolService(configuration.getJmxConfiguration())
                         .autoDiscoveryScanPeriodSecs(
                                 configuration.getGlobalConfiguration().getAutoDiscoveryScanPeriodSeconds())
+                        .autoDiscoveryScanPeriodBoundsSecs(
+                                configuration.getGlobalConfiguration().getAutoDiscoveryScanPeriodMinSeconds(),
+                                configuration.getGlobalConfiguration().getAutoDiscoveryScanPeriodMaxSeconds())
+                        .inventorySnapshotDir(
+                                configuration.getGlobalConfiguration().getInventorySnapshotDir() == null ? null
+                                        : new File(configuration.getGlobalConfiguration().getInventorySnapshotDir()))
                         .build();
                 ps.addInventoryListener(inventoryStorageProxy);
                 if (notificationDispatcher != null) {
@@ -437,6 +444,17 @@ public abstract class AgentCoreEngine {
                 log.debug("Cannot shutdown protocol services but will continue shutdown", t);
             }
 
+            // send the notifications that are still collected
+            try {
+                if (notificationDispatcher != null) {
+                    notificationDispatcher.shutdown();
+                    notificationDispatcher = null;
+                }
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+                log.debug("Cannot shutdown notification dispatcher but will continue shutdown", t);
+            }
+
             // now stop the storage adapter
             try {
                 if (storageAdapter != null) {
@@ -640,9 +658,7 @@ public abstract class AgentCoreEngine {
     private void waitForHawkularInventory(HttpClientBuilder hcb, StorageAdapterConfiguration storageAdapterConfig)
             throws Exception {
         OkHttpClient httpclient = hcb.getHttpClient();
-        String statusUrl = Util
-                .getContextUrlString(storageAdapterConfig.getUrl(), storageAdapterConfig.getInventoryContext())
-                .append("status").toString();
+        String statusUrl = hcb.getInventoryStatusUrl(); // also probed by the storage circuit breakers
         Request request = hcb.buildJsonGetRequest(statusUrl, null);
         int counter = 0;
         while (true) {
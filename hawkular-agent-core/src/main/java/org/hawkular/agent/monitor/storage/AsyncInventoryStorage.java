@@ -16,23 +16,41 @@
  */
 package org.hawkular.agent.monitor.storage;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.hawkular.agent.monitor.api.InventoryEvent;
 import org.hawkular.agent.monitor.api.InventoryStorage;
 import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration;
-import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.EndpointConfiguration;
 import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.StorageAdapterConfiguration;
 import org.hawkular.agent.monitor.diagnostics.Diagnostics;
 import org.hawkular.agent.monitor.inventory.ID;
 import org.hawkular.agent.monitor.inventory.MeasurementInstance;
 import org.hawkular.agent.monitor.inventory.MeasurementType;
-import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
 import org.hawkular.agent.monitor.inventory.NamedObject;
 import org.hawkular.agent.monitor.inventory.Operation;
 import org.hawkular.agent.monitor.inventory.OperationParam;
@@ -41,7 +59,9 @@ import org.hawkular.agent.monitor.inventory.ResourceType;
 import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
+import org.hawkular.agent.monitor.protocol.EndpointService;
 import org.hawkular.agent.monitor.protocol.Session;
+import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
 import org.hawkular.agent.monitor.util.Util;
 import org.hawkular.inventory.api.model.Inventory;
 import org.hawkular.inventory.api.model.Metric;
@@ -56,6 +76,11 @@ import okhttp3.Response;
 
 /**
  * An {@link InventoryStorage} that syncs inventory that has been discovered.
+ * <p>
+ * Inventory events are not synced by the thread that fires them - which usually is a discovery thread that holds
+ * the discovery lock of its endpoint. They are rather {@link InventorySyncQueue queued} per endpoint, where changes to
+ * the same resource are coalesced, and a single sender thread syncs the queued changes with the inventory server.
+ * A slow inventory server therefore does not slow down discovery.
  *
  * @author John Mazzitelli
  */
@@ -63,43 +88,201 @@ public class AsyncInventoryStorage implements InventoryStorage {
 
     private static final MsgLogger log = AgentLoggers.getLogger(AsyncInventoryStorage.class);
 
+    /**
+     * How many times the import request of a chunk is sent before the import is given up.
+     */
+    private static final int MAX_IMPORT_ATTEMPTS = 3;
+
+    /**
+     * Thrown when the server answers a request of a sync with an error status.
+     */
+    private static final class StatusCodeException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        private StatusCodeException(Response response, Request request) {
+            super("status-code=[" + response.code() + "], reason=[" + response.message() + "], url=["
+                    + request.url().toString() + "]");
+            this.statusCode = response.code();
+        }
+    }
+
+    /**
+     * The maximum length of the URL of a delete request, which lists the IDs of the resources to delete. Proxies and
+     * servers commonly reject request lines that are longer than 4 to 8 KiB.
+     */
+    private static final int MAX_DELETE_URL_LENGTH = 4096;
+
+    /**
+     * How often the changes in the inventory outbox are sent again while the server cannot be reached.
+     */
+    private static final int OUTBOX_REPLAY_PERIOD_SECONDS = 30;
+
+    /**
+     * How often, at most, the inventory snapshot of an endpoint is written while its changes keep being synced.
+     */
+    private static final int INVENTORY_SNAPSHOT_PERIOD_SECONDS = 30;
+
+    /**
+     * The maximum number of added or modified resources that are queued for an endpoint. If more are queued,
+     * all resources of the endpoint are synced instead.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
     private final String feedId;
     private final AgentCoreEngineConfiguration.StorageAdapterConfiguration config;
     private final HttpClientBuilder httpClientBuilder;
     private final Diagnostics diagnostics;
+    private final InventorySyncQueue queue;
+    private final ScheduledExecutorService sender;
+    private final Object sendingLock = new Object();
+    private boolean sending; // true while the sender drains the queue; guarded by sendingLock
+    private final ExecutorService importer;
+    private final int maxConcurrentImports;
+    private volatile boolean digestSync; // false if not configured or the server turned out not to support it
+    private final Map<String, InventoryDigests> digests = new HashMap<>(); // by endpoint name; only used by sender
+    private final InventoryOutbox outbox; // null if there is none; only used by sender
+    // the endpoints synced since their inventory snapshots were last written; only used by sender
+    private final Set<EndpointService<?, ?>> unsavedSnapshots = new LinkedHashSet<>();
 
     public AsyncInventoryStorage(
             String feedId,
             StorageAdapterConfiguration config,
             HttpClientBuilder httpClientBuilder,
             Diagnostics diagnostics) {
+        this(feedId, config, httpClientBuilder, diagnostics, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public AsyncInventoryStorage(
+            String feedId,
+            StorageAdapterConfiguration config,
+            HttpClientBuilder httpClientBuilder,
+            Diagnostics diagnostics,
+            int queueCapacity) {
         this.feedId = feedId;
         this.config = config;
         this.httpClientBuilder = httpClientBuilder;
         this.diagnostics = diagnostics;
+        this.queue = new InventorySyncQueue(queueCapacity, diagnostics.getInventorySyncQueueDepth(),
+                diagnostics.getInventorySyncCoalesceRate());
+        this.sender = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryGenerator.generateFactory(true, "Hawkular-Agent-Inventory-Sync"));
+        this.maxConcurrentImports = Math.max(1, config.getInventoryImportMaxConcurrentRequests());
+        this.importer = Executors.newFixedThreadPool(maxConcurrentImports,
+                ThreadFactoryGenerator.generateFactory(true, "Hawkular-Agent-Inventory-Import"));
+        this.digestSync = config.isInventoryDigestSync();
+        this.outbox = openOutbox(config, diagnostics);
+        if (outbox != null) {
+            sender.scheduleWithFixedDelay(this::replayOutbox, OUTBOX_REPLAY_PERIOD_SECONDS,
+                    OUTBOX_REPLAY_PERIOD_SECONDS, TimeUnit.SECONDS);
+        }
+        sender.scheduleWithFixedDelay(this::saveInventorySnapshots, INVENTORY_SNAPSHOT_PERIOD_SECONDS,
+                INVENTORY_SNAPSHOT_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static InventoryOutbox openOutbox(StorageAdapterConfiguration config, Diagnostics diagnostics) {
+        if (config.getInventoryOutboxDir() == null || config.getInventoryOutboxMaxBytes() <= 0) {
+            return null;
+        }
+        File dir = new File(config.getInventoryOutboxDir());
+        try {
+            return new InventoryOutbox(dir, config.getInventoryOutboxMaxBytes(), diagnostics);
+        } catch (IOException e) {
+            log.warnCannotOpenInventoryOutbox(e, new File(dir, InventoryOutbox.FILE_NAME).getPath());
+            return null;
+        }
     }
 
     public void shutdown() {
         log.debugf("Shutting down async inventory storage");
+        // a sync that is in progress is allowed to finish, but what is still queued is not synced anymore
+        try {
+            sender.execute(this::saveInventorySnapshots);
+        } catch (RejectedExecutionException e) {
+            log.debugf("Inventory storage is already shut down");
+        }
+        sender.shutdown();
+        importer.shutdown();
     }
 
     @Override
     public <L, S extends Session<L>> void receivedEvent(InventoryEvent<L, S> event) {
         try {
-            MonitoredEndpoint<EndpointConfiguration> endpoint = event.getEndpointService().getMonitoredEndpoint();
-            log.debugf("Received inventory event for endpoint: %s", endpoint);
+            log.debugf("Received inventory event for endpoint: %s", event.getEndpointService().getMonitoredEndpoint());
+            queue.offer(event);
+            startSending();
+        } catch (Exception e) {
+            log.errorf(e, "Failed to process inventory event");
+        }
+    }
+
+    /**
+     * Waits until all changes that have been received so far are synced (or failed to be synced).
+     *
+     * @param timeoutMillis the maximum time to wait
+     * @return true if everything is synced, false if the time ran out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitSynced(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (sendingLock) {
+            while (sending || !queue.isEmpty()) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return false;
+                }
+                sendingLock.wait(wait);
+            }
+            return true;
+        }
+    }
+
+    private void startSending() {
+        synchronized (sendingLock) {
+            if (sending || queue.isEmpty()) {
+                return;
+            }
+            try {
+                sender.execute(this::sendQueued);
+                sending = true;
+            } catch (RejectedExecutionException e) {
+                log.debugf("Inventory storage is shut down - not syncing the queued inventory changes");
+            }
+        }
+    }
+
+    // runs in the sender thread until the queue is empty
+    private void sendQueued() {
+        try {
+            InventorySyncQueue.Batch<?> batch;
+            while ((batch = queue.poll()) != null) {
+                send(batch);
+            }
+        } finally {
+            synchronized (sendingLock) {
+                sending = false;
+                sendingLock.notifyAll();
+            }
+            startSending(); // in case something was queued after the queue was found empty
+        }
+    }
 
-            long timestamp = System.currentTimeMillis();
+    private <L> void send(InventorySyncQueue.Batch<L> batch) {
+        long timestamp = System.currentTimeMillis();
+        Map<ResourceType<L>, org.hawkular.inventory.api.model.ResourceType> importTypes = new LinkedHashMap<>();
+        List<Resource<L>> addedOrModified = batch.getAddedOrModified();
+        List<InventoryDeleteChunk> deleteChunks = Collections.emptyList();
+        boolean synced = false;
 
-            List<RawResource> importResources = new ArrayList<>();
-            List<org.hawkular.inventory.api.model.ResourceType> importTypes = new ArrayList<>();
-            Inventory importData = new Inventory(importResources, importTypes);
+        try {
+            log.debugf("Syncing inventory of endpoint: %s", batch.getEndpointName());
 
             // Since we know types never change during the lifetime of the agent, we don't have to process
             // types that have already been flagged as having been persisted.
             // Remember, there are no hierarchies, all resource types are peers to one another.
-            if (event.getResourceTypeManager().isPresent()) {
-                ResourceTypeManager<L> resourceTypeManager = event.getResourceTypeManager().get();
+            if (batch.getResourceTypeManager() != null) {
+                ResourceTypeManager<L> resourceTypeManager = batch.getResourceTypeManager();
                 List<ResourceType<L>> allResourceTypes = resourceTypeManager.getResourceTypesBreadthFirst();
                 for (ResourceType<L> rt : allResourceTypes) {
                     if (rt.isPersisted()) {
@@ -129,42 +312,321 @@ public class AsyncInventoryStorage implements InventoryStorage {
                     }
                     org.hawkular.inventory.api.model.ResourceType resourceType = rtb.build();
                     log.debugf("Adding resource type: %s", resourceType);
-                    importTypes.add(resourceType);
-
-                    // indicate we persisted the resource
-                    rt.setPersistedTime(timestamp);
+                    importTypes.put(rt, resourceType);
                 }
             }
 
-            // Build the JSON for the resources.
             // Note that it is possible for a endpoint to define multiple root resources.
-            event.getAddedOrModified().forEach(r -> {
-                log.debugf("Updating resource: %s", r.getID().getIDString());
+            List<Resource<L>> toImport = addedOrModified;
+            if (batch.isSyncAll()) {
+                log.debugf("Too many inventory changes were queued for endpoint [%s] - syncing all [%d] resources",
+                        batch.getEndpointName(), addedOrModified.size());
+            }
 
-                addResourceToImport(r, importResources);
+            // Unless the server does not support it, only import what it does not have yet
+            InventoryDigests endpointDigests = null;
+            InventoryDigests.AckRequest ack = null;
+            Map<ID, Long> resourceDigests = new HashMap<>();
+            if (digestSync) {
+                endpointDigests = digests.computeIfAbsent(batch.getEndpointName(), n -> new InventoryDigests());
+                List<Resource<L>> compared = endpointDigests.isCompareAll() ? batch.getAllResources() : addedOrModified;
+                if (!compared.isEmpty() || !importTypes.isEmpty()) {
+                    List<Resource<L>> stale = new ArrayList<>();
+                    ack = compareDigests(batch.getEndpointName(), importTypes, compared, stale, resourceDigests,
+                            timestamp);
+                    if (ack != null) {
+                        toImport = stale;
+                    }
+                }
+            }
 
-                // indicate we persisted the resource
-                r.setPersistedTime(timestamp);
-                r.getMetrics().forEach(m -> m.setPersistedTime(timestamp));
-            });
+            if (log.isDebugEnabled()) {
+                toImport.forEach(r -> log.debugf("Updating resource: %s", r.getID().getIDString()));
+            }
 
-            // Remove deleted resources
-            if (!event.getRemoved().isEmpty()) {
-                List<String> resourcesToRemove = event.getRemoved().stream()
+            // Split the import into chunks, parents first.
+            List<InventoryImportChunk<L>> chunks = InventoryImportChunk.split(importTypes, toImport,
+                    this::toRawResource, config.getInventoryImportMaxResources(), config.getInventoryImportMaxBytes());
+
+            // Remove deleted resources - in chunks that keep the URL of each delete request short enough
+            if (log.isDebugEnabled() && !batch.getRemoved().isEmpty()) {
+                log.debugf("Removing resources: %s", batch.getRemoved().stream()
                         .map(r -> r.getID().getIDString())
-                        .collect(Collectors.toList());
-                log.debugf("Removing resources: %s", resourcesToRemove);
-                deleteInventoryData(resourcesToRemove);
+                        .collect(Collectors.toList()));
+            }
+            int maxDeleteQueryLength = MAX_DELETE_URL_LENGTH - getDeleteUrl().length();
+            deleteChunks = InventoryDeleteChunk.split(batch.getRemoved(), maxDeleteQueryLength);
+
+            if (!deleteChunks.isEmpty() || !chunks.isEmpty()) {
+                sendInventoryData(deleteChunks, chunks, timestamp);
             }
-            if (!importResources.isEmpty() || !importTypes.isEmpty()) {
-                importInventoryData(importData);
+            if (digestSync && (ack != null || !batch.getRemoved().isEmpty())) {
+                if (ack == null) {
+                    ack = new InventoryDigests.AckRequest(feedId, batch.getEndpointName()); // only removals
+                }
+                acknowledgeDigests(ack, endpointDigests, resourceDigests, batch.getRemoved());
             }
+            diagnostics.getInventorySyncLatencyTimer().update(System.nanoTime() - batch.getQueuedNanos(),
+                    TimeUnit.NANOSECONDS);
+
+            // inventory is now in sync with the endpoint - remember that in case the agent is restarted, but do not
+            // rewrite the snapshot with every change
+            unsavedSnapshots.add(batch.getEndpointService());
+            synced = true;
 
         } catch (Exception e) {
-            log.errorf(e, "Failed to process inventory event");
+            log.errorf(e, "Failed to sync inventory of endpoint [%s]", batch.getEndpointName());
+        }
+
+        if (outbox != null && !(synced && outbox.isEmpty())) {
+            updateOutbox(batch, importTypes, addedOrModified, deleteChunks, timestamp);
+            if (synced) {
+                replayOutbox(); // the server can be reached (again)
+            }
+        }
+    }
+
+    // runs in the sender thread
+    private void saveInventorySnapshots() {
+        for (EndpointService<?, ?> endpointService : unsavedSnapshots) {
+            endpointService.saveInventorySnapshot();
+        }
+        unsavedSnapshots.clear();
+    }
+
+    /**
+     * Records the changes of the batch that could not be synced in the outbox and forgets the pending changes of the
+     * resources and types that were synced.
+     */
+    private <L> void updateOutbox(InventorySyncQueue.Batch<L> batch,
+            Map<ResourceType<L>, org.hawkular.inventory.api.model.ResourceType> importTypes,
+            List<Resource<L>> addedOrModified, List<InventoryDeleteChunk> deleteChunks, long timestamp) {
+
+        List<InventoryOutbox.Entry> unsynced = new ArrayList<>();
+        List<String> syncedResourceIds = new ArrayList<>();
+        List<String> syncedTypeIds = new ArrayList<>();
+
+        importTypes.forEach((rt, importType) -> {
+            String id = getInventoryId(rt);
+            if (rt.getPersistedTime() >= timestamp) {
+                syncedTypeIds.add(id);
+            } else {
+                unsynced.add(InventoryOutbox.Entry.type(id, Util.toJson(importType), timestamp));
+            }
+        });
+        for (Resource<L> r : addedOrModified) {
+            String id = r.getID().getIDString();
+            if (r.getPersistedTime() >= timestamp) {
+                syncedResourceIds.add(id);
+            } else {
+                unsynced.add(InventoryOutbox.Entry.resource(id, parentIdOf(r), Util.toJson(toRawResource(r)),
+                        timestamp));
+            }
+        }
+
+        // a resource is deleted if it or one of its ancestors was in a delete request that succeeded
+        Set<String> deleted = new HashSet<>();
+        deleteChunks.stream().filter(InventoryDeleteChunk::isDeleted).forEach(c -> deleted.addAll(c.getIds()));
+        for (Resource<L> r : batch.getRemoved()) {
+            boolean isDeleted = false;
+            for (Resource<L> d = r; d != null && !isDeleted; d = d.getParent()) {
+                isDeleted = deleted.contains(d.getID().getIDString());
+            }
+            if (isDeleted) {
+                syncedResourceIds.add(r.getID().getIDString());
+            } else {
+                unsynced.add(InventoryOutbox.Entry.delete(r.getID().getIDString(), parentIdOf(r), timestamp));
+            }
+        }
+
+        try {
+            outbox.synced(syncedResourceIds, syncedTypeIds);
+            outbox.record(unsynced);
+            if (!unsynced.isEmpty()) {
+                log.debugf("Recorded [%d] inventory changes of endpoint [%s] in the outbox", unsynced.size(),
+                        batch.getEndpointName());
+            }
+        } catch (Exception e) {
+            log.errorf(e, "Failed to write inventory outbox [%s]", outbox.getFile());
         }
     }
 
+    /**
+     * Replays the changes in the outbox: first the deletions, then the imports, parents first - in chunks that are
+     * sent like those of any other sync. Runs in the sender thread - after a successful sync and periodically while
+     * the outbox is not empty. The changes whose requests succeeded are forgotten by the outbox, even if others fail.
+     */
+    private void replayOutbox() {
+        if (outbox == null || outbox.isEmpty()) {
+            return;
+        }
+        List<InventoryOutbox.Entry> pending = outbox.getPending();
+        Map<String, String> deletes = new LinkedHashMap<>(); // parent ID by ID
+        Map<String, String> parentIds = new HashMap<>(); // of the resources to import
+        List<InventoryOutbox.Entry> types = new ArrayList<>();
+        List<InventoryOutbox.Entry> resources = new ArrayList<>();
+        for (InventoryOutbox.Entry entry : pending) {
+            switch (entry.getKind()) {
+                case DELETE:
+                    deletes.put(entry.getId(), entry.getParentId());
+                    break;
+                case TYPE:
+                    types.add(entry);
+                    break;
+                default:
+                    resources.add(entry);
+                    parentIds.put(entry.getId(), entry.getParentId());
+            }
+        }
+
+        List<InventoryDeleteChunk> deleteChunks = Collections.emptyList();
+        List<InventoryReplayChunk> chunks = Collections.emptyList();
+        try {
+            // inventory deletes the children of a deleted resource along with it
+            List<String> topmost = deletes.keySet().stream()
+                    .filter(id -> !deletes.containsKey(deletes.get(id)))
+                    .collect(Collectors.toList());
+            int maxDeleteQueryLength = MAX_DELETE_URL_LENGTH - getDeleteUrl().length();
+            deleteChunks = InventoryDeleteChunk.splitIds(topmost, maxDeleteQueryLength);
+
+            resources.sort(Comparator.comparingInt(e -> depthOf(e.getId(), parentIds)));
+            chunks = InventoryReplayChunk.split(types, resources, e -> depthOf(e.getId(), parentIds),
+                    config.getInventoryImportMaxResources(), config.getInventoryImportMaxBytes());
+
+            sendInventoryData(deleteChunks, chunks, System.currentTimeMillis());
+            log.debugf("Replayed [%d] inventory changes that could not be synced before", pending.size());
+        } catch (Exception e) {
+            log.debugf(e, "Cannot replay the [%d] inventory changes in the outbox yet", pending.size());
+        } finally {
+            forgetReplayed(deletes, deleteChunks, chunks);
+        }
+    }
+
+    private void forgetReplayed(Map<String, String> deletes, List<InventoryDeleteChunk> deleteChunks,
+            List<InventoryReplayChunk> chunks) {
+        Set<String> deleted = new HashSet<>();
+        deleteChunks.stream().filter(InventoryDeleteChunk::isDeleted).forEach(c -> deleted.addAll(c.getIds()));
+        List<String> syncedResourceIds = new ArrayList<>();
+        List<String> syncedTypeIds = new ArrayList<>();
+        for (String id : deletes.keySet()) {
+            // deleted if it or one of its ancestors was in a delete request that succeeded
+            int depth = 0;
+            for (String d = id; d != null && depth <= deletes.size(); d = deletes.get(d), depth++) {
+                if (deleted.contains(d)) {
+                    syncedResourceIds.add(id);
+                    break;
+                }
+            }
+        }
+        for (InventoryReplayChunk chunk : chunks) {
+            if (chunk.isImported()) {
+                syncedResourceIds.addAll(chunk.getResourceIds());
+                syncedTypeIds.addAll(chunk.getTypeIds());
+            }
+        }
+        try {
+            outbox.synced(syncedResourceIds, syncedTypeIds);
+        } catch (Exception e) {
+            log.errorf(e, "Failed to write inventory outbox [%s]", outbox.getFile());
+        }
+    }
+
+    // the depth of a resource among the given ones - resources whose parents are not among them are roots
+    private static int depthOf(String id, Map<String, String> parentIds) {
+        int depth = 0;
+        for (String p = parentIds.get(id); parentIds.containsKey(p) && depth < parentIds.size(); p = parentIds.get(p)) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private static String parentIdOf(Resource<?> resource) {
+        return (resource.getParent() != null) ? resource.getParent().getID().getIDString() : null;
+    }
+
+    /**
+     * Asks the server which of the given types and resources it does not have (or has a different version of). The
+     * types and resources it has are flagged as persisted and dropped from the types to import.
+     *
+     * @param importTypes the types to import - those the server has are removed
+     * @param resources the resources to compare
+     * @param stale where to put the resources to import
+     * @param resourceDigests where to put the digests of the compared resources
+     * @param timestamp the persisted time of the types and resources the server has
+     * @return the acknowledgment to send once the stale types and resources are imported, or null if the server does
+     *         not support the digest exchange and everything is to be imported
+     */
+    private <L> InventoryDigests.AckRequest compareDigests(String endpointName,
+            Map<ResourceType<L>, org.hawkular.inventory.api.model.ResourceType> importTypes,
+            List<Resource<L>> resources, List<Resource<L>> stale, Map<ID, Long> resourceDigests, long timestamp)
+            throws Exception {
+
+        InventoryDigests.CompareRequest compare = new InventoryDigests.CompareRequest(feedId, endpointName);
+        for (Resource<L> r : resources) {
+            long digest = InventoryDigests.digestOf(toRawResource(r));
+            resourceDigests.put(r.getID(), digest);
+            compare.resources.put(r.getID().getIDString(), InventoryDigests.toHex(digest));
+        }
+        importTypes.forEach((rt, importType) -> compare.types.put(getInventoryId(rt),
+                InventoryDigests.toHex(InventoryDigests.digestOf(importType))));
+
+        InventoryDigests.CompareResponse response = sendDigestRestRequest(compare,
+                InventoryDigests.CompareResponse.class);
+        if (response == null) {
+            return null;
+        }
+
+        InventoryDigests.AckRequest ack = new InventoryDigests.AckRequest(feedId, endpointName);
+        Set<String> staleResources = new HashSet<>(response.resources != null ? response.resources
+                : Collections.emptyList());
+        for (Resource<L> r : resources) {
+            String id = r.getID().getIDString();
+            if (staleResources.contains(id)) {
+                stale.add(r);
+                ack.resources.put(id, compare.resources.get(id));
+            } else {
+                r.setPersistedTime(timestamp);
+                r.getMetrics().forEach(m -> m.setPersistedTime(timestamp));
+            }
+        }
+        Set<String> staleTypes = new HashSet<>(response.types != null ? response.types : Collections.emptyList());
+        importTypes.entrySet().removeIf(t -> {
+            String id = getInventoryId(t.getKey());
+            if (staleTypes.contains(id)) {
+                ack.types.put(id, compare.types.get(id));
+                return false;
+            }
+            t.getKey().setPersistedTime(timestamp);
+            return true;
+        });
+        log.debugf("Server has [%d] of [%d] compared resources and [%d] of [%d] types of endpoint [%s]",
+                resources.size() - stale.size(), resources.size(), compare.types.size() - ack.types.size(),
+                compare.types.size(), endpointName);
+        return ack;
+    }
+
+    /**
+     * Tells the server the digests of what was imported and which resources were removed. If the root digest the
+     * server then has differs from the one this agent expects, all digests of the endpoint are compared next time.
+     */
+    private <L> void acknowledgeDigests(InventoryDigests.AckRequest ack, InventoryDigests endpointDigests,
+            Map<ID, Long> resourceDigests, Collection<Resource<L>> removed) throws Exception {
+        List<ID> removedIds = removed.stream().map(Resource::getID).collect(Collectors.toList());
+        ack.removed = removedIds.stream().map(ID::getIDString).collect(Collectors.toList());
+        InventoryDigests.AckResponse response = sendDigestRestRequest(ack, InventoryDigests.AckResponse.class);
+        if (response == null) {
+            return;
+        }
+        endpointDigests.synced(resourceDigests);
+        endpointDigests.removed(removedIds);
+        boolean inSync = endpointDigests.getRoot().equals(response.root);
+        if (!inSync) {
+            log.debugf("Root digest of endpoint [%s] is [%s] on the server but [%s] here - comparing all resources "
+                    + "next time", ack.endpoint, response.root, endpointDigests.getRoot());
+        }
+        endpointDigests.setCompareAll(!inSync);
+    }
+
     private String getInventoryId(NamedObject no) {
         String id;
         if (no.getID().equals(ID.NULL_ID)) {
@@ -175,7 +637,8 @@ public class AsyncInventoryStorage implements InventoryStorage {
         return id;
     }
 
-    private <L> void addResourceToImport(Resource<L> r, List<RawResource> importResources) {
+    // called each time the resource is written as JSON
+    private <L> RawResource toRawResource(Resource<L> r) {
         String parentId = (r.getParent() != null) ? r.getParent().getID().getIDString() : null;
         RawResource.Builder rb = RawResource.builder()
                 .id(getInventoryId(r))
@@ -187,8 +650,8 @@ public class AsyncInventoryStorage implements InventoryStorage {
         r.getProperties().forEach((k, v) -> rb.property(k, v.toString()));
         r.getMetrics().forEach(m -> rb.metric(buildMetric(m, m.getType().getMetricUnits())));
         RawResource resource = rb.build();
-        log.debugf("Adding resource: %s", resource);
-        importResources.add(resource);
+        log.tracef("Adding resource: %s", resource);
+        return resource;
     }
 
     private <L, M extends MeasurementType<L>> Metric buildMetric(MeasurementInstance<L, M> m,
@@ -215,51 +678,96 @@ public class AsyncInventoryStorage implements InventoryStorage {
         return mb.build();
     }
 
-    private void importInventoryData(Inventory importData) throws Exception {
+    /**
+     * Sends the delete requests and the import requests of the given chunks, with at most the configured number of
+     * requests in flight at once. The delete requests go first; they do not depend on anything as a resource is never
+     * both deleted and imported by the same sync. An import chunk is only sent once the import chunks it depends on
+     * have been imported. A chunk whose request fails for a reason that may not last - see {@link #isWorthRetrying}
+     * - is sent again, up to {@link #MAX_IMPORT_ATTEMPTS} times; if it fails for good, no further chunks are sent and
+     * the sync fails. The chunks that were imported are flagged as persisted either way. If the calling thread is
+     * interrupted, the requests in flight are cancelled.
+     */
+    private void sendInventoryData(List<InventoryDeleteChunk> deleteChunks, List<? extends InventoryChunk> chunks,
+            long timestamp) throws Exception {
+        log.tracef("Sending %d delete chunks and %d import chunks to inventory", deleteChunks.size(), chunks.size());
+        Deque<InventoryChunk> pending = new ArrayDeque<>(deleteChunks.size() + chunks.size());
+        pending.addAll(deleteChunks);
+        pending.addAll(chunks);
+        Map<Future<?>, InventoryChunk> inFlight = new HashMap<>(); // the chunk of each request
+        CompletionService<Void> completion = new ExecutorCompletionService<>(importer);
+        Exception failure = null;
+
         try {
-            log.tracef("Importing [%d] resources to inventory", importData.getResources().size());
-            sendImportRestRequest(importData);
-            diagnostics.getInventoryRate().mark(importData.getResources().size());
+            while (!inFlight.isEmpty() || (failure == null && !pending.isEmpty())) {
+                while (failure == null && inFlight.size() < maxConcurrentImports && !pending.isEmpty()) {
+                    InventoryChunk next = pending.peek();
+                    if (inFlight.values().stream().anyMatch(next::dependsOn)) {
+                        break; // wait until its parents are imported
+                    }
+                    pending.poll();
+                    inFlight.put(completion.submit(() -> {
+                        next.send(this);
+                        return null;
+                    }), next);
+                }
+
+                Future<Void> done = completion.take();
+                InventoryChunk chunk = inFlight.remove(done);
+                try {
+                    done.get();
+                    chunk.sent(timestamp, diagnostics);
+                } catch (ExecutionException e) {
+                    Exception cause = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                    diagnostics.getStorageErrorRate().mark(1);
+                    if (chunk.failed() < MAX_IMPORT_ATTEMPTS && isWorthRetrying(cause)) {
+                        log.debugf(cause, "Failed to send %s - will try again", chunk);
+                        pending.addFirst(chunk);
+                    } else if (failure == null) {
+                        failure = cause;
+                    }
+                }
+            }
         } catch (InterruptedException ie) {
+            inFlight.keySet().forEach(f -> f.cancel(true));
             log.errorFailedToStoreInventoryData(ie);
             Thread.currentThread().interrupt(); // preserve interrupt
             diagnostics.getStorageErrorRate().mark(1);
             throw ie;
-        } catch (Exception e) {
-            log.errorFailedToStoreInventoryData(e);
-            diagnostics.getStorageErrorRate().mark(1);
-            throw e;
+        }
+
+        if (failure != null) {
+            log.errorFailedToStoreInventoryData(failure);
+            throw failure;
         }
     }
 
-    private void deleteInventoryData(List<String> resourceIds) throws Exception {
-        try {
-            log.tracef("Deleting resources [%s] from inventory", resourceIds);
-            sendDeleteResourcesRestRequest(resourceIds);
-        } catch (InterruptedException ie) {
-            log.errorFailedToStoreInventoryData(ie);
-            Thread.currentThread().interrupt(); // preserve interrupt
-            diagnostics.getStorageErrorRate().mark(1);
-            throw ie;
-        } catch (Exception e) {
-            log.errorFailedToStoreInventoryData(e);
-            diagnostics.getStorageErrorRate().mark(1);
-            throw e;
+    /**
+     * Tells if a chunk whose request failed this way is to be sent again. An error status other than 5xx will come
+     * back the same way. The {@link StorageResilienceInterceptor} has already sent the request again, with a backoff
+     * delay, if the server could not be reached or was unavailable, so those failures are not retried here either -
+     * what is left are errors of the server and I/O errors once the request was sent, which the interceptor does not
+     * retry for an import as it is a POST. Imports and deletions can safely be sent twice.
+     */
+    private static boolean isWorthRetrying(Exception e) {
+        if (e instanceof StatusCodeException) {
+            int code = ((StatusCodeException) e).statusCode;
+            return code >= 500 && !StorageResilienceInterceptor.isUnavailable(code);
         }
+        return e instanceof IOException && !StorageResilienceInterceptor.isNotSent((IOException) e);
     }
 
-    private void sendImportRestRequest(Inventory importData) throws Exception {
+    void sendImportRestRequest(Inventory importData) throws Exception {
         StringBuilder url = Util.getContextUrlString(config.getUrl(), config.getInventoryContext())
                 .append("import");
-        Request request = httpClientBuilder.buildJsonPostRequest(url.toString(), null, Util.toJson(importData));
+        Request request = httpClientBuilder.buildJsonPostRequest(url.toString(), null,
+                new JsonRequestBody(importData));
         Call call = httpClientBuilder.getHttpClient().newCall(request);
 
         Timer.Context timer = diagnostics.getInventoryStorageRequestTimer().time();
         try (Response response = call.execute()) {
             log.tracef("Received response while importing inventory: code [%d]", response.code());
             if (!response.isSuccessful()) {
-                throw new Exception("status-code=[" + response.code() + "], reason=["
-                        + response.message() + "], url=[" + request.url().toString() + "]");
+                throw new StatusCodeException(response, request);
             }
         } finally {
             long durationNanos = timer.stop();
@@ -270,22 +778,57 @@ public class AsyncInventoryStorage implements InventoryStorage {
         }
     }
 
-    private void sendDeleteResourcesRestRequest(List<String> resourceId) throws Exception {
-        String ids = resourceId.stream()
-                .map(id -> "ids=" + Util.urlEncode(id))
-                .collect(Collectors.joining("&"));
+    /**
+     * Sends a request of the digest exchange - a comparison is POSTed, an acknowledgment is PUT.
+     *
+     * @return the response, or null if the server does not support the digest exchange
+     */
+    private <T> T sendDigestRestRequest(Object digestRequest, Class<T> responseType) throws Exception {
         StringBuilder url = Util.getContextUrlString(config.getUrl(), config.getInventoryContext())
-                .append("resources?").append(ids);
-        Request request = httpClientBuilder.buildJsonDeleteRequest(url.toString(), null);
+                .append("digests");
+        Request request = (digestRequest instanceof InventoryDigests.AckRequest)
+                ? httpClientBuilder.buildJsonPutRequest(url.toString(), null, Util.toJson(digestRequest))
+                : httpClientBuilder.buildJsonPostRequest(url.toString(), null, new JsonRequestBody(digestRequest));
         Call call = httpClientBuilder.getHttpClient().newCall(request);
 
         Timer.Context timer = diagnostics.getInventoryStorageRequestTimer().time();
         try (Response response = call.execute()) {
-            log.tracef("Received response while deleting inventory: code [%d]", response.code());
+            log.tracef("Received response while exchanging inventory digests: code [%d]", response.code());
+            if (response.code() == 404 || response.code() == 405 || response.code() == 501) {
+                digestSync = false;
+                log.infoInventoryDigestSyncNotSupported(response.code());
+                return null;
+            }
             if (!response.isSuccessful()) {
+                diagnostics.getStorageErrorRate().mark(1);
                 throw new Exception("status-code=[" + response.code() + "], reason=["
                         + response.message() + "], url=[" + request.url().toString() + "]");
             }
+            return Util.fromJson(response.body().string(), responseType);
+        } finally {
+            long durationNanos = timer.stop();
+            if (log.isDebugEnabled()) {
+                log.debugf("Inventory digest request time: [%d]ms",
+                        TimeUnit.MILLISECONDS.convert(durationNanos, TimeUnit.NANOSECONDS));
+            }
+        }
+    }
+
+    private StringBuilder getDeleteUrl() throws MalformedURLException {
+        return Util.getContextUrlString(config.getUrl(), config.getInventoryContext()).append("resources?");
+    }
+
+    void sendDeleteResourcesRestRequest(String query) throws Exception {
+        StringBuilder url = getDeleteUrl().append(query);
+        Request request = httpClientBuilder.buildJsonDeleteRequest(url.toString(), null);
+        Call call = httpClientBuilder.getHttpClient().newCall(request);
+
+        Timer.Context timer = diagnostics.getInventoryStorageRequestTimer().time();
+        try (Response response = call.execute()) {
+            log.tracef("Received response while deleting inventory: code [%d]", response.code());
+            if (!response.isSuccessful()) {
+                throw new StatusCodeException(response, request);
+            }
         } finally {
             long durationNanos = timer.stop();
             if (log.isDebugEnabled()) {
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * A request body that gzip compresses another body while it is written. The request that sends it needs a
+ * {@code Content-Encoding: gzip} header. Its length is not known up front, so it is sent chunked.
+ */
+final class GzipRequestBody extends RequestBody {
+
+    private final RequestBody uncompressed;
+
+    GzipRequestBody(RequestBody uncompressed) {
+        this.uncompressed = uncompressed;
+    }
+
+    /**
+     * @return the body that is compressed - to be sent instead if the server does not accept compressed bodies
+     */
+    RequestBody getUncompressed() {
+        return uncompressed;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return uncompressed.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+        uncompressed.writeTo(gzipSink);
+        gzipSink.close();
+    }
+}
@@ -17,8 +17,13 @@
 package org.hawkular.agent.monitor.storage;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.hawkular.agent.monitor.api.InventoryEvent;
 import org.hawkular.agent.monitor.api.NotificationPayloadBuilder;
@@ -27,20 +32,37 @@ import org.hawkular.agent.monitor.diagnostics.Diagnostics;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.protocol.Session;
+import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
 import org.hawkular.agent.monitor.util.Util;
+import org.hawkular.client.api.Notification;
 
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
 public class HawkularStorageAdapter implements StorageAdapter {
     private static final MsgLogger log = AgentLoggers.getLogger(HawkularStorageAdapter.class);
 
+    /**
+     * The maximum number of notification requests that are sent at the same time - the others wait in line. A request
+     * that waits to be sent again (see {@link StorageResilienceInterceptor}) keeps its place while it waits.
+     */
+    private static final int MAX_CONCURRENT_NOTIFICATION_REQUESTS = 4;
+
+    /**
+     * How long {@link #shutdown()} waits for notifications that are still being sent.
+     */
+    private static final long SHUTDOWN_WAIT_MILLIS = 10_000;
+
     private AgentCoreEngineConfiguration.StorageAdapterConfiguration config;
     private Diagnostics diagnostics;
     private HttpClientBuilder httpClientBuilder;
+    private OkHttpClient notificationClient;
     private AsyncInventoryStorage inventoryStorage;
+    private volatile boolean batchRejected; // set once the server turned out not to accept arrays of notifications
 
     public HawkularStorageAdapter() {
     }
@@ -54,6 +76,11 @@ public class HawkularStorageAdapter implements StorageAdapter {
         this.config = config;
         this.diagnostics = diag;
         this.httpClientBuilder = httpClientBuilder;
+        Dispatcher dispatcher = new Dispatcher(Executors.newCachedThreadPool(
+                ThreadFactoryGenerator.generateFactory(true, "Hawkular-Agent-Notification-Send")));
+        dispatcher.setMaxRequests(MAX_CONCURRENT_NOTIFICATION_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_CONCURRENT_NOTIFICATION_REQUESTS);
+        this.notificationClient = httpClientBuilder.getHttpClient().newBuilder().dispatcher(dispatcher).build();
         this.inventoryStorage = new AsyncInventoryStorage(feedId, config, httpClientBuilder, diagnostics);
     }
 
@@ -74,6 +101,24 @@ public class HawkularStorageAdapter implements StorageAdapter {
         if (inventoryStorage != null) {
             inventoryStorage.shutdown();
         }
+        if (notificationClient != null) {
+            shutdown(notificationClient.dispatcher());
+        }
+    }
+
+    // the dispatcher hands queued calls to its executor as running ones finish, so it must be idle before that stops
+    private void shutdown(Dispatcher dispatcher) {
+        long deadline = System.currentTimeMillis() + SHUTDOWN_WAIT_MILLIS;
+        try {
+            while (dispatcher.runningCallsCount() + dispatcher.queuedCallsCount() > 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dispatcher.cancelAll();
+        dispatcher.executorService().shutdown();
     }
 
     @Override
@@ -83,57 +128,119 @@ public class HawkularStorageAdapter implements StorageAdapter {
 
     @Override
     public void store(NotificationPayloadBuilder payloadBuilder, long waitMillis) {
+        store(Collections.singletonList(payloadBuilder), waitMillis);
+    }
+
+    /**
+     * Sends the notifications as a JSON array in one request. If the server rejects the array, each notification is
+     * sent in a request of its own, now and from then on.
+     */
+    @Override
+    public void store(List<NotificationPayloadBuilder> payloadBuilders, long waitMillis) {
+        if (payloadBuilders.isEmpty()) {
+            return;
+        }
         try {
-            // get the payload
-            String payload = Util.toJson(payloadBuilder.toPayload());
-
-            // build the REST URL...
-            StringBuilder url = Util.getContextUrlString(config.getUrl(), config.getHawkularContext());
-            url.append("notification");
-
-            // now send the REST request
-            Request request = this.httpClientBuilder.buildJsonPutRequest(url.toString(), null, payload);
-            final CountDownLatch latch = (waitMillis <= 0) ? null : new CountDownLatch(1);
-
-            this.httpClientBuilder.getHttpClient().newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    try {
-                        log.errorFailedToStoreNotification(e, payload);
-                        diagnostics.getStorageErrorRate().mark(1);
-                    } finally {
-                        if (latch != null) {
-                            latch.countDown();
-                        }
+            List<Notification> notifications = payloadBuilders.stream()
+                    .map(NotificationPayloadBuilder::toPayload)
+                    .collect(Collectors.toList());
+            boolean batch = notifications.size() > 1 && !batchRejected;
+            final CountDownLatch latch = (waitMillis <= 0) ? null
+                    : new CountDownLatch(batch ? 1 : notifications.size());
+
+            if (batch) {
+                sendNotifications(notifications, notifications, latch);
+            } else {
+                for (Notification notification : notifications) {
+                    sendNotifications(notification, null, latch);
+                }
+            }
+
+            if (latch != null) {
+                latch.await(waitMillis, TimeUnit.MILLISECONDS);
+            }
+
+        } catch (Throwable t) {
+            log.errorFailedToStoreNotification(t, String.valueOf(payloadBuilders.stream()
+                    .map(NotificationPayloadBuilder::toPayload)
+                    .collect(Collectors.toList())));
+            diagnostics.getStorageErrorRate().mark(1);
+        }
+    }
+
+    /**
+     * @param payload a notification or a list of them
+     * @param batch the notifications if the payload is a list of them, otherwise null
+     * @param latch counted down once the request is done, if not null
+     */
+    private void sendNotifications(Object payload, List<Notification> batch, CountDownLatch latch)
+            throws MalformedURLException {
+        String json = Util.toJson(payload);
+
+        // build the REST URL...
+        StringBuilder url = Util.getContextUrlString(config.getUrl(), config.getHawkularContext());
+        url.append("notification");
+
+        // now send the REST request
+        Request request = this.httpClientBuilder.buildJsonPutRequest(url.toString(), null, json);
+        this.notificationClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                try {
+                    log.errorFailedToStoreNotification(e, json);
+                    diagnostics.getStorageErrorRate().mark(1);
+                } finally {
+                    if (latch != null) {
+                        latch.countDown();
                     }
                 }
+            }
 
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    try {
-                        // HTTP status of 200 means success; anything else is an error
-                        if (response.code() != 200) {
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    // HTTP status of 200 means success; anything else is an error
+                    if (response.code() != 200) {
+                        if (batch != null && isBatchRejected(response.code())) {
+                            sendOneByOne(batch, response.code());
+                        } else {
                             IOException e = new IOException("status-code=[" + response.code() + "], reason=["
                                     + response.message() + "], url=[" + request.url().toString() + "]");
-                            log.errorFailedToStoreNotification(e, payload);
+                            log.errorFailedToStoreNotification(e, json);
                             diagnostics.getStorageErrorRate().mark(1);
                         }
-                    } finally {
-                        if (latch != null) {
-                            latch.countDown();
-                        }
-                        response.body().close();
                     }
+                } finally {
+                    if (latch != null) {
+                        latch.countDown();
+                    }
+                    response.body().close();
                 }
-            });
-
-            if (latch != null) {
-                latch.await(waitMillis, TimeUnit.MILLISECONDS);
             }
+        });
+    }
 
-        } catch (Throwable t) {
-            log.errorFailedToStoreNotification(t, String.valueOf(payloadBuilder.toPayload()));
-            diagnostics.getStorageErrorRate().mark(1);
+    /**
+     * A server that only knows single notifications answers an array of them with 415 (Unsupported Media Type), or
+     * 404 or 405 if it routes by payload. A 400 (Bad Request) is not taken as such - it may just as well be about the
+     * notifications themselves, which sending them one by one would not fix.
+     */
+    private static boolean isBatchRejected(int code) {
+        return code == 404 || code == 405 || code == 415;
+    }
+
+    private void sendOneByOne(List<Notification> notifications, int rejectedCode) {
+        if (!batchRejected) {
+            batchRejected = true;
+            log.infoNotificationBatchesNotSupported(rejectedCode);
+        }
+        for (Notification notification : notifications) {
+            try {
+                sendNotifications(notification, null, null);
+            } catch (Exception e) {
+                log.errorFailedToStoreNotification(e, String.valueOf(notification));
+                diagnostics.getStorageErrorRate().mark(1);
+            }
         }
     }
 }
@@ -16,24 +16,51 @@
  */
 package org.hawkular.agent.monitor.storage;
 
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.Locale;
 import java.util.Map;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.X509TrustManager;
 
 import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.StorageAdapterConfiguration;
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.util.BaseHttpClientGenerator;
+import org.hawkular.agent.monitor.util.Util;
 
+import okhttp3.Interceptor;
 import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Request.Builder;
 import okhttp3.RequestBody;
+import okhttp3.Response;
 
 /**
  * Builds an HTTP client that can be used to talk to the Hawkular server-side.
  * This builder has methods that you can use to build requests.
+ * <p>
+ * Requests sent with the client are retried while the server is unavailable, and not sent at all while it is down -
+ * see {@link StorageResilienceInterceptor}.
  */
 public class HttpClientBuilder extends BaseHttpClientGenerator {
+    private static final MsgLogger log = AgentLoggers.getLogger(HttpClientBuilder.class);
+
+    /**
+     * How much of the body of a 400 response is looked at to tell if the server rejected a compressed request.
+     */
+    private static final long MAX_REJECTION_BODY_BYTES = 4096;
+
+    private final boolean gzipRequests;
+    private final int gzipThresholdBytes;
+    private final String inventoryStatusUrl;
+    private final StorageResilienceInterceptor resilience;
+    private final OkHttpClient httpClient;
+    private volatile boolean gzipRejected; // set once the server turned out not to accept compressed requests
+
     /**
      * Creates the object that can be used to create a fully configured HTTP client.
      * Note that if sslContext is null, this object will use the configured keystorePath
@@ -62,6 +89,44 @@ public class HttpClientBuilder extends BaseHttpClientGenerator {
                 .connectTimeout(storageAdapter.getConnectTimeoutSeconds())
                 .readTimeout(storageAdapter.getReadTimeoutSeconds())
                 .build());
+        this.gzipRequests = storageAdapter.isGzipRequests();
+        this.gzipThresholdBytes = storageAdapter.getGzipThresholdBytes();
+        try {
+            this.inventoryStatusUrl = Util
+                    .getContextUrlString(storageAdapter.getUrl(), storageAdapter.getInventoryContext())
+                    .append("status").toString();
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid storage adapter URL: " + storageAdapter.getUrl(), e);
+        }
+        this.resilience = new StorageResilienceInterceptor(inventoryStatusUrl, super.getHttpClient(),
+                storageAdapter.getMaxRetries(), storageAdapter.getCircuitBreakerThreshold());
+
+        // the outermost interceptor is added first - each retry may be sent uncompressed
+        OkHttpClient.Builder clientBuilder = super.getHttpClient().newBuilder().addInterceptor(resilience);
+        if (gzipRequests) {
+            clientBuilder.addInterceptor(this::sendUncompressedIfRejected);
+        }
+        this.httpClient = clientBuilder.build();
+    }
+
+    @Override
+    public OkHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * @return the URL of the inventory status endpoint, which tells whether the server is up
+     */
+    public String getInventoryStatusUrl() {
+        return inventoryStatusUrl;
+    }
+
+    /**
+     * @param diagnostics where retries and the states of the circuit breakers are reported once the agent knows its
+     *        feed ID
+     */
+    public void setDiagnostics(Diagnostics diagnostics) {
+        resilience.setDiagnostics(diagnostics);
     }
 
     public Request buildGetRequest(String url, Map<String, String> headers) {
@@ -115,6 +180,16 @@ public class HttpClientBuilder extends BaseHttpClientGenerator {
     }
 
     public Request buildJsonPostRequest(String url, Map<String, String> headers, String jsonPayload) {
+        RequestBody body = RequestBody.create(MediaType.parse("application/json"), jsonPayload);
+        return buildJsonPostRequest(url, headers, body);
+    }
+
+    /**
+     * Like {@link #buildJsonPostRequest(String, Map, String)} but with a body that may write its JSON as it is sent,
+     * such as a {@link JsonRequestBody}. If the body does not know its length up front it is considered large enough
+     * to be compressed.
+     */
+    public Request buildJsonPostRequest(String url, Map<String, String> headers, RequestBody body) {
         // make sure we are authenticated. see http://en.wikipedia.org/wiki/Basic_access_authentication#Client_side
         String base64Credentials = buildBase64Credentials();
 
@@ -129,9 +204,7 @@ public class HttpClientBuilder extends BaseHttpClientGenerator {
             }
         }
 
-        RequestBody body = RequestBody.create(MediaType.parse("application/json"), jsonPayload);
-
-        return requestBuilder.post(body).build();
+        return requestBuilder.post(gzip(body, requestBuilder)).build();
     }
 
     public Request buildJsonPutRequest(String url, Map<String, String> headers, String jsonPayload) {
@@ -150,6 +223,71 @@ public class HttpClientBuilder extends BaseHttpClientGenerator {
 
         RequestBody body = RequestBody.create(MediaType.parse("application/json"), jsonPayload);
 
-        return requestBuilder.put(body).build();
+        return requestBuilder.put(gzip(body, requestBuilder)).build();
+    }
+
+    /**
+     * Compresses the given body if the configuration asks for it, the body is not too small and the server has not
+     * rejected a compressed body yet.
+     */
+    private RequestBody gzip(RequestBody body, Builder requestBuilder) {
+        long length;
+        try {
+            length = body.contentLength();
+        } catch (IOException e) {
+            length = -1;
+        }
+        if (!gzipRequests || gzipRejected || (length >= 0 && length < gzipThresholdBytes)) {
+            return body;
+        }
+        requestBuilder.header("Content-Encoding", "gzip");
+        return new GzipRequestBody(body);
+    }
+
+    /**
+     * Servers that cannot decode compressed requests usually answer with 415 (Unsupported Media Type) or, if the
+     * compressed bytes are taken for the JSON itself, with 400 (Bad Request). Such requests are sent again
+     * uncompressed, and if that works, no request is compressed anymore. A 400 is only taken for a rejected encoding
+     * if the response says so - see {@link #isEncodingRejected(Response)} - as it usually means that something is
+     * wrong with the request itself.
+     */
+    private Response sendUncompressedIfRejected(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        Response response = chain.proceed(request);
+        if (!(request.body() instanceof GzipRequestBody) || !isEncodingRejected(response)) {
+            return response;
+        }
+
+        int rejectedCode = response.code();
+        response.close();
+        Request uncompressed = request.newBuilder()
+                .removeHeader("Content-Encoding")
+                .method(request.method(), ((GzipRequestBody) request.body()).getUncompressed())
+                .build();
+        Response uncompressedResponse = chain.proceed(uncompressed);
+        if (uncompressedResponse.isSuccessful() && !gzipRejected) {
+            gzipRejected = true;
+            log.warnCompressedRequestsRejected(rejectedCode);
+        }
+        return uncompressedResponse;
+    }
+
+    /**
+     * A 400 response is about the encoding of the request if it lists the encodings the server accepts (as RFC 7694
+     * suggests), or if its body mentions gzip, the content encoding, or the first byte of gzip data (0x1f, which JSON
+     * parsers such as Jackson report as an illegal character with code 31).
+     */
+    private static boolean isEncodingRejected(Response response) throws IOException {
+        if (response.code() == 415) {
+            return true;
+        }
+        if (response.code() != 400) {
+            return false;
+        }
+        if (response.header("Accept-Encoding") != null) {
+            return true;
+        }
+        String body = response.peekBody(MAX_REJECTION_BODY_BYTES).string().toLowerCase(Locale.ENGLISH);
+        return body.contains("gzip") || body.contains("encoding") || body.contains("code 31");
     }
 }
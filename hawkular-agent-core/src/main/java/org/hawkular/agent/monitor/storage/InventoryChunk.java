@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
+
+/**
+ * A part of an inventory sync that is sent in a request of its own - an {@link InventoryImportChunk import} or a
+ * {@link InventoryDeleteChunk deletion}. The chunks of a sync are sent in order, several at a time, and a chunk whose
+ * request fails for a reason that may not last is sent again.
+ */
+interface InventoryChunk {
+
+    /**
+     * Sends the request of this chunk.
+     *
+     * @param storage the storage that sends the request
+     * @throws Exception if the request failed
+     */
+    void send(AsyncInventoryStorage storage) throws Exception;
+
+    /**
+     * Flags what this chunk holds as synced, once its request succeeded.
+     *
+     * @param timestamp when the request succeeded
+     * @param diagnostics where the synced resources are counted
+     */
+    void sent(long timestamp, Diagnostics diagnostics);
+
+    /**
+     * @param other another chunk of the same sync
+     * @return true if the other chunk has to be sent successfully before this chunk is sent
+     */
+    boolean dependsOn(InventoryChunk other);
+
+    /**
+     * @return the number of times the request of this chunk has failed, including this failure
+     */
+    int failed();
+}
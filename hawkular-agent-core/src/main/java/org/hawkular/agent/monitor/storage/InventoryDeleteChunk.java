@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.util.Util;
+
+/**
+ * The IDs of removed resources that are deleted from inventory in a request of their own. The IDs go into the query
+ * string of the delete request, so a large deletion (an undeployed application, a lost server) is split into chunks
+ * whose query strings are small enough for the URL to pass proxies and servers.
+ * <p>
+ * Inventory deletes the children of a deleted resource along with it, so a removed resource whose parent (or other
+ * ancestor) is removed too is not listed.
+ */
+final class InventoryDeleteChunk implements InventoryChunk {
+
+    private final int index;
+    private final List<String> ids = new ArrayList<>();
+    private final StringBuilder query = new StringBuilder();
+    private int failures;
+    private boolean deleted;
+
+    private InventoryDeleteChunk(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Splits a deletion into chunks whose query strings are at most the given length. A single ID whose query
+     * parameter is longer than that gets a chunk of its own.
+     *
+     * @param removed the removed resources, in any order
+     * @param maxQueryLength the maximum length of the query string of a chunk
+     * @return the chunks - empty if there is nothing to delete
+     */
+    static List<InventoryDeleteChunk> split(Collection<? extends Resource<?>> removed, int maxQueryLength) {
+        Set<ID> removedIds = new HashSet<>();
+        removed.forEach(r -> removedIds.add(r.getID()));
+
+        List<String> ids = new ArrayList<>();
+        for (Resource<?> resource : removed) {
+            if (!isAncestorRemoved(resource, removedIds)) { // else deleted along with its ancestor
+                ids.add(resource.getID().getIDString());
+            }
+        }
+        return splitIds(ids, maxQueryLength);
+    }
+
+    /**
+     * Like {@link #split(Collection, int)}, for IDs none of which is the ancestor of another.
+     *
+     * @param ids the IDs of the resources to delete
+     * @param maxQueryLength the maximum length of the query string of a chunk
+     * @return the chunks - empty if there is nothing to delete
+     */
+    static List<InventoryDeleteChunk> splitIds(List<String> ids, int maxQueryLength) {
+        List<InventoryDeleteChunk> chunks = new ArrayList<>();
+        InventoryDeleteChunk current = new InventoryDeleteChunk(0);
+        for (String id : ids) {
+            String param = "ids=" + Util.urlEncode(id);
+            int length = current.query.length() + (current.ids.isEmpty() ? 0 : 1) + param.length();
+            if (length > maxQueryLength && !current.ids.isEmpty()) {
+                chunks.add(current);
+                current = new InventoryDeleteChunk(chunks.size());
+            }
+            if (!current.ids.isEmpty()) {
+                current.query.append('&');
+            }
+            current.query.append(param);
+            current.ids.add(id);
+        }
+        if (!current.ids.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+
+    private static boolean isAncestorRemoved(Resource<?> resource, Set<ID> removedIds) {
+        for (Resource<?> parent = resource.getParent(); parent != null; parent = parent.getParent()) {
+            if (removedIds.contains(parent.getID())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the query string of the delete request for this chunk
+     */
+    String getQuery() {
+        return query.toString();
+    }
+
+    List<String> getIds() {
+        return ids;
+    }
+
+    @Override
+    public void send(AsyncInventoryStorage storage) throws Exception {
+        storage.sendDeleteResourcesRestRequest(getQuery());
+    }
+
+    /**
+     * Marks the resources of this chunk as deleted from inventory.
+     */
+    @Override
+    public void sent(long timestamp, Diagnostics diagnostics) {
+        deleted = true;
+    }
+
+    /**
+     * @return false - a resource is never both deleted and imported by the same sync
+     */
+    @Override
+    public boolean dependsOn(InventoryChunk other) {
+        return false;
+    }
+
+    boolean isDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public int failed() {
+        return ++failures;
+    }
+
+    @Override
+    public String toString() {
+        return "delete chunk " + index + " [" + ids.size() + " resources]";
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.util.Util;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * The digests of the resources of an endpoint that the inventory server is known to have, for the digest exchange
+ * that lets the agent skip importing what the server already has:
+ * <ol>
+ * <li>Before an import, the agent sends the digests of the resources and types it is about to import
+ * ({@link CompareRequest}) and the server answers with those it does not have or has different digests for
+ * ({@link CompareResponse}). Only those are imported.</li>
+ * <li>After the import, the agent tells the server the digests of what it imported and which resources it removed
+ * ({@link AckRequest}). The server answers with the root digest of all the resources of the endpoint it now has
+ * ({@link AckResponse}).</li>
+ * </ol>
+ * The digest of a resource or type is a 64-bit FNV-1a hash of the JSON it is imported as. The root digest is the sum
+ * of a hash of each (id, digest) pair - like the root of a Merkle tree it only matches if both sides know the same
+ * digests for the same resources, but it can be updated one resource at a time. When the root the server returns
+ * differs from the one the agent has (e.g. the agent was restarted and does not know all digests yet), the digests of
+ * all resources of the endpoint are compared the next time.
+ * <p>
+ * This class is not thread safe - it is only used by the thread that syncs inventory.
+ */
+final class InventoryDigests {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static final class CompareRequest {
+        String feedId;
+        String endpoint;
+        Map<String, String> resources = new HashMap<>(); // digest by resource ID
+        Map<String, String> types = new HashMap<>(); // digest by resource type ID
+
+        private CompareRequest() {
+        }
+
+        CompareRequest(String feedId, String endpoint) {
+            this.feedId = feedId;
+            this.endpoint = endpoint;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static final class CompareResponse {
+        List<String> resources; // the IDs of the resources the server does not have or has a different digest for
+        List<String> types; // the same for resource types
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static final class AckRequest {
+        String feedId;
+        String endpoint;
+        Map<String, String> resources = new HashMap<>(); // digest by resource ID of the imported resources
+        Map<String, String> types = new HashMap<>(); // digest by resource type ID of the imported types
+        List<String> removed; // the IDs of the removed resources
+
+        private AckRequest() {
+        }
+
+        AckRequest(String feedId, String endpoint) {
+            this.feedId = feedId;
+            this.endpoint = endpoint;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static final class AckResponse {
+        String root; // the root digest of all resources of the endpoint the server has
+    }
+
+    private final Map<ID, Long> digests = new HashMap<>();
+    private long root;
+    private boolean compareAll = true; // nothing is known yet
+
+    /**
+     * @param object a resource or type as it is imported
+     * @return the digest of the JSON of the object
+     */
+    static long digestOf(Object object) {
+        DigestStream stream = new DigestStream();
+        try {
+            Util.toJson(object, stream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return stream.hash;
+    }
+
+    /**
+     * @param digests digests by resource ID
+     * @return the root digest of the given digests
+     */
+    static String rootOf(Map<String, String> digests) {
+        long root = 0;
+        for (Map.Entry<String, String> digest : digests.entrySet()) {
+            root += entryHash(digest.getKey(), fromHex(digest.getValue()));
+        }
+        return toHex(root);
+    }
+
+    static String toHex(long digest) {
+        return Long.toHexString(digest);
+    }
+
+    static long fromHex(String digest) {
+        return Long.parseUnsignedLong(digest, 16);
+    }
+
+    private static long entryHash(String id, long digest) {
+        long h = FNV_OFFSET_BASIS;
+        for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        h = h * 31 + digest;
+        // the finalizer of MurmurHash3 - spreads the bits so that sums of entry hashes do not cancel each other out
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Remembers that the server has the given resources with the given digests.
+     *
+     * @param synced digests by resource ID
+     */
+    void synced(Map<ID, Long> synced) {
+        synced.forEach((id, digest) -> {
+            Long old = digests.put(id, digest);
+            if (old != null) {
+                root -= entryHash(id.getIDString(), old);
+            }
+            root += entryHash(id.getIDString(), digest);
+        });
+    }
+
+    /**
+     * Forgets the given resources as the server no longer has them.
+     *
+     * @param removed the IDs of the removed resources
+     */
+    void removed(Collection<ID> removed) {
+        for (ID id : removed) {
+            Long old = digests.remove(id);
+            if (old != null) {
+                root -= entryHash(id.getIDString(), old);
+            }
+        }
+    }
+
+    /**
+     * @return the root digest of the resources the server is known to have
+     */
+    String getRoot() {
+        return toHex(root);
+    }
+
+    /**
+     * @return true if the digests of all resources of the endpoint are to be compared the next time, rather than only
+     *         those of the added or modified ones
+     */
+    boolean isCompareAll() {
+        return compareAll;
+    }
+
+    void setCompareAll(boolean compareAll) {
+        this.compareAll = compareAll;
+    }
+
+    /**
+     * Hashes the bytes written to it and drops them.
+     */
+    private static final class DigestStream extends OutputStream {
+        private long hash = FNV_OFFSET_BASIS;
+
+        @Override
+        public void write(int b) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            long h = hash;
+            for (int i = off; i < off + len; i++) {
+                h = (h ^ (b[i] & 0xff)) * FNV_PRIME;
+            }
+            hash = h;
+        }
+    }
+}
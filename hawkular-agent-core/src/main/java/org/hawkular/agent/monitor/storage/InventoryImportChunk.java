@@ -0,0 +1,239 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.util.Util;
+import org.hawkular.inventory.api.model.Inventory;
+import org.hawkular.inventory.api.model.RawResource;
+
+/**
+ * A part of an inventory import that is sent in a request of its own, so that a large import neither has to fit into
+ * a single request nor fails as a whole.
+ * <p>
+ * The chunks of an import are {@link #split split} parent-first: a resource is never in an earlier chunk than its
+ * parent, and all resource types are in the first chunk. A chunk may only be sent once every chunk it
+ * {@link #dependsOn(InventoryChunk) depends on} has been imported, so that the parents of its resources exist.
+ * <p>
+ * A chunk only holds on to the agent's own resources. What is sent for each of them is built while the JSON of the
+ * chunk is {@link JsonRequestBody written}, one resource at a time, so the import payload is never all in memory.
+ */
+final class InventoryImportChunk<L> implements InventoryChunk {
+
+    private final int index;
+    private final Function<Resource<L>, RawResource> converter;
+    private final List<ResourceType<L>> resourceTypes = new ArrayList<>();
+    private final List<org.hawkular.inventory.api.model.ResourceType> importTypes = new ArrayList<>();
+    private final List<Resource<L>> resources = new ArrayList<>();
+    private int minDepth = Integer.MAX_VALUE; // -1 if the chunk holds the resource types
+    private int maxDepth = -1;
+    private long bytes;
+    private int failures;
+
+    private InventoryImportChunk(int index, Function<Resource<L>, RawResource> converter) {
+        this.index = index;
+        this.converter = converter;
+    }
+
+    /**
+     * Splits an import into chunks of at most the given number of resources and (approximately) bytes of JSON. A
+     * single resource that is larger than the byte limit gets a chunk of its own.
+     *
+     * @param types the resource types to import, along with what is sent for each of them
+     * @param resources the resources to import, in any order
+     * @param converter builds what is sent for a resource
+     * @param maxResources the maximum number of resources per chunk, or 0 for no limit
+     * @param maxBytes the maximum size of the JSON of a chunk, or 0 for no limit
+     * @return the chunks in the order they are to be sent - empty if there is nothing to import
+     */
+    static <L> List<InventoryImportChunk<L>> split(
+            Map<ResourceType<L>, org.hawkular.inventory.api.model.ResourceType> types,
+            List<Resource<L>> resources,
+            Function<Resource<L>, RawResource> converter,
+            int maxResources,
+            long maxBytes) {
+
+        List<InventoryImportChunk<L>> chunks = new ArrayList<>();
+        InventoryImportChunk<L> chunk = new InventoryImportChunk<>(0, converter);
+
+        // types are few and all resources need them, so they all go first
+        types.forEach((type, importType) -> {
+            chunk.resourceTypes.add(type);
+            chunk.importTypes.add(importType);
+            chunk.bytes += jsonSize(importType);
+        });
+        if (!types.isEmpty()) {
+            chunk.minDepth = -1;
+        }
+
+        List<Resource<L>> parentFirst = new ArrayList<>(resources);
+        parentFirst.sort(Comparator.comparingInt(InventoryImportChunk::depthOf));
+
+        InventoryImportChunk<L> current = chunk;
+        for (Resource<L> resource : parentFirst) {
+            long size = jsonSize(converter.apply(resource)); // only measured, it is built again when it is sent
+            boolean full = (maxResources > 0 && current.resources.size() >= maxResources)
+                    || (maxBytes > 0 && current.bytes + size > maxBytes);
+            if (full && !current.isEmpty()) {
+                chunks.add(current);
+                current = new InventoryImportChunk<>(chunks.size(), converter);
+            }
+            int depth = depthOf(resource);
+            current.resources.add(resource);
+            current.minDepth = Math.min(current.minDepth, depth);
+            current.maxDepth = Math.max(current.maxDepth, depth);
+            current.bytes += size;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+
+    private static int depthOf(Resource<?> resource) {
+        int depth = 0;
+        for (Resource<?> parent = resource.getParent(); parent != null; parent = parent.getParent()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private static long jsonSize(Object object) {
+        ByteCounter counter = new ByteCounter();
+        try {
+            Util.toJson(object, counter);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return counter.count;
+    }
+
+    /**
+     * @param other another chunk of the same sync
+     * @return true if the other chunk is an import chunk that may hold a resource type or a parent of a resource of
+     *         this chunk and therefore has to be imported before this chunk is sent
+     */
+    @Override
+    public boolean dependsOn(InventoryChunk other) {
+        if (!(other instanceof InventoryImportChunk)) {
+            return false;
+        }
+        InventoryImportChunk<?> earlier = (InventoryImportChunk<?>) other;
+        return earlier.index < index && earlier.minDepth < maxDepth;
+    }
+
+    @Override
+    public void send(AsyncInventoryStorage storage) throws Exception {
+        storage.sendImportRestRequest(toInventory());
+    }
+
+    /**
+     * Flags the types and resources of this chunk as {@link #setPersistedTime(long) persisted}.
+     */
+    @Override
+    public void sent(long timestamp, Diagnostics diagnostics) {
+        setPersistedTime(timestamp);
+        diagnostics.getInventoryRate().mark(resources.size());
+    }
+
+    /**
+     * @return the payload of the import request for this chunk - its resources are built each time they are read
+     */
+    Inventory toInventory() {
+        List<RawResource> importResources = new AbstractList<RawResource>() {
+            @Override
+            public RawResource get(int i) {
+                return converter.apply(resources.get(i));
+            }
+
+            @Override
+            public int size() {
+                return resources.size();
+            }
+        };
+        return new Inventory(importResources, importTypes);
+    }
+
+    /**
+     * Flags the types and resources of this chunk (and the metrics of its resources) as persisted.
+     *
+     * @param timestamp when they were persisted
+     */
+    void setPersistedTime(long timestamp) {
+        resourceTypes.forEach(rt -> rt.setPersistedTime(timestamp));
+        resources.forEach(r -> {
+            r.setPersistedTime(timestamp);
+            r.getMetrics().forEach(m -> m.setPersistedTime(timestamp));
+        });
+    }
+
+    @Override
+    public int failed() {
+        return ++failures;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    int getResourceCount() {
+        return resources.size();
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    private boolean isEmpty() {
+        return resources.isEmpty() && resourceTypes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "chunk " + index + " [" + resources.size() + " resources, " + resourceTypes.size() + " types, "
+                + bytes + " bytes]";
+    }
+
+    /**
+     * Counts the bytes written to it and drops them.
+     */
+    private static final class ByteCounter extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
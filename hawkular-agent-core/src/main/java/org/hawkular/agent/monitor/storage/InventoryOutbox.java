@@ -0,0 +1,513 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
+
+/**
+ * The inventory changes that could not be synced (e.g. because the inventory server was unreachable), kept on disk
+ * until they are replayed. For each resource and resource type only the latest change is kept: an import of a
+ * resource supersedes an earlier import or deletion of the same resource and vice versa.
+ * <p>
+ * The changes are appended to one of two memory-mapped segment files of a fixed size. Each record is written before
+ * its length, so a record that was not completely written when the agent died is never read. When the active segment
+ * is full, the changes that were not superseded are copied to the other segment, which then becomes the active one
+ * (its header is written last, with a higher generation). If the changes still do not fit, the oldest ones are
+ * dropped - the outbox never takes up more than its maximum size on disk.
+ * <p>
+ * Only the IDs of the pending changes and where their records are stay in memory; the JSON of a change is read from
+ * its record when it is {@link Entry#getJson() asked for}.
+ * <p>
+ * This class is not thread safe - it is only used by the thread that syncs inventory, though the JSON of pending
+ * changes may be read by the threads that send it while that thread waits for them.
+ */
+final class InventoryOutbox {
+    private static final MsgLogger log = AgentLoggers.getLogger(InventoryOutbox.class);
+
+    static final String FILE_NAME = "inventory.outbox";
+
+    private static final int MAGIC = 0x484B494F; // "HKIO"
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 16; // magic, version, generation
+    private static final int RECORD_HEADER_SIZE = 8; // length, checksum
+    private static final int END_MARKER_SIZE = 4; // a length of 0
+
+    private static final byte DONE = 0; // the record of a change that has been synced
+
+    /**
+     * A change of a resource or resource type that is waiting to be synced.
+     */
+    static final class Entry {
+        enum Kind {
+            RESOURCE(1), TYPE(2), DELETE(3);
+
+            private final byte code;
+
+            Kind(int code) {
+                this.code = (byte) code;
+            }
+
+            private static Kind of(byte code) {
+                for (Kind kind : values()) {
+                    if (kind.code == code) {
+                        return kind;
+                    }
+                }
+                return null;
+            }
+        }
+
+        private final Kind kind;
+        private final String id;
+        private final String parentId;
+        private final long time;
+        private String json; // until the change is recorded, then it is read from its record
+        private InventoryOutbox outbox; // while the change is pending
+        private int offset; // of its record in the active segment
+        private int size; // of its record
+
+        private Entry(Kind kind, String id, String parentId, String json, long time) {
+            this.kind = kind;
+            this.id = id;
+            this.parentId = parentId;
+            this.json = json;
+            this.time = time;
+        }
+
+        /**
+         * @param json what is imported for the resource
+         */
+        static Entry resource(String id, String parentId, String json, long time) {
+            return new Entry(Kind.RESOURCE, id, parentId, json, time);
+        }
+
+        /**
+         * @param json what is imported for the resource type
+         */
+        static Entry type(String id, String json, long time) {
+            return new Entry(Kind.TYPE, id, null, json, time);
+        }
+
+        static Entry delete(String id, String parentId, long time) {
+            return new Entry(Kind.DELETE, id, parentId, null, time);
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        /**
+         * @return the ID of the parent of the resource, or null if it is a root resource or a type
+         */
+        String getParentId() {
+            return parentId;
+        }
+
+        /**
+         * @return the JSON of the resource or type to import, or null if the resource is to be deleted or the change
+         *         is no longer pending
+         */
+        String getJson() {
+            return (outbox != null) ? outbox.readJson(this) : json;
+        }
+
+        /**
+         * @return the size of the record of the change, which is a little more than the size of its JSON
+         */
+        int getSize() {
+            return size;
+        }
+
+        /**
+         * @return when the change was recorded
+         */
+        long getTime() {
+            return time;
+        }
+
+        private String key() {
+            return keyOf(kind == Kind.TYPE, id);
+        }
+    }
+
+    private final File file;
+    private final int segmentSize;
+    private final Diagnostics diagnostics;
+    private final MappedByteBuffer[] segments = new MappedByteBuffer[2];
+    private int active;
+    private long generation;
+    private int position; // where the next record of the active segment goes
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<>(); // by key, oldest change first
+    private long pendingBytes;
+
+    /**
+     * Opens the outbox in the given directory, reading the changes that are still pending from a previous run.
+     *
+     * @param dir the directory of the outbox files
+     * @param maxBytes the maximum size of the outbox files on disk
+     * @param diagnostics where the depth and the age of the backlog are reported
+     * @throws IOException if the outbox files cannot be opened
+     */
+    InventoryOutbox(File dir, long maxBytes, Diagnostics diagnostics) throws IOException {
+        this.file = new File(dir, FILE_NAME);
+        this.segmentSize = (int) Math.min(Integer.MAX_VALUE, Math.max(4096, maxBytes / 2));
+        this.diagnostics = diagnostics;
+
+        dir.mkdirs();
+        for (int i = 0; i < segments.length; i++) {
+            try (RandomAccessFile raf = new RandomAccessFile(segmentFile(i), "rw")) {
+                raf.setLength(segmentSize);
+                segments[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+        }
+
+        active = -1;
+        for (int i = 0; i < segments.length; i++) {
+            long g = readGeneration(segments[i]);
+            if (g > generation) {
+                generation = g;
+                active = i;
+            }
+        }
+        if (active < 0) {
+            active = 0;
+            generation = 1;
+            writeHeader(segments[active], generation);
+            segments[active].putInt(SEGMENT_HEADER_SIZE, 0);
+            segments[active].force();
+            position = SEGMENT_HEADER_SIZE;
+        } else {
+            load();
+        }
+        diagnostics.getInventoryOutboxDepth().inc(pending.size());
+        reportOldest();
+    }
+
+    private File segmentFile(int i) {
+        return new File(file.getPath() + "." + i);
+    }
+
+    private static String keyOf(boolean type, String id) {
+        return (type ? "t:" : "r:") + id;
+    }
+
+    /**
+     * Records the given changes, superseding the pending changes of the same resources and types.
+     *
+     * @param changes the changes to record
+     * @throws IOException if the changes cannot be written
+     */
+    void record(Collection<Entry> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (Entry change : changes) {
+            byte[] record = encode(change);
+            int offset = append(record);
+            if (offset < 0) {
+                continue;
+            }
+            Entry old = pending.remove(change.key());
+            if (old != null) {
+                forget(old);
+            } else {
+                diagnostics.getInventoryOutboxDepth().inc();
+            }
+            change.size = record.length;
+            change.offset = offset;
+            change.outbox = this;
+            change.json = null;
+            pending.put(change.key(), change);
+            pendingBytes += change.size;
+        }
+        segments[active].force();
+        reportOldest();
+    }
+
+    /**
+     * Forgets the pending changes of the given resources and types as they have been synced.
+     *
+     * @param resourceIds the IDs of the resources that were imported or deleted
+     * @param typeIds the IDs of the resource types that were imported
+     * @throws IOException if the outbox cannot be written
+     */
+    void synced(Collection<String> resourceIds, Collection<String> typeIds) throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        int removed = done(resourceIds, false) + done(typeIds, true);
+        if (removed > 0) {
+            segments[active].force();
+            reportOldest();
+        }
+    }
+
+    private int done(Collection<String> ids, boolean type) throws IOException {
+        int removed = 0;
+        for (String id : ids) {
+            String key = keyOf(type, id);
+            Entry old = pending.remove(key);
+            if (old != null) {
+                forget(old);
+                diagnostics.getInventoryOutboxDepth().dec();
+                removed++;
+                append(encode(DONE, key, null, null, 0));
+            }
+        }
+        return removed;
+    }
+
+    private void forget(Entry entry) {
+        pendingBytes -= entry.size;
+        entry.outbox = null;
+    }
+
+    /**
+     * @return the pending changes, the oldest first - their JSON can be read as long as they are pending
+     */
+    List<Entry> getPending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    private void reportOldest() {
+        Iterator<Entry> it = pending.values().iterator();
+        diagnostics.setInventoryOutboxOldestTime(it.hasNext() ? it.next().time : 0);
+    }
+
+    // appends the record to the active segment, compacting the outbox if it does not fit; returns where it went
+    private int append(byte[] record) throws IOException {
+        if (position + record.length + END_MARKER_SIZE > segmentSize) {
+            compact(record.length);
+            if (position + record.length + END_MARKER_SIZE > segmentSize) {
+                log.warnInventoryOutboxFull(file.getPath(), 1);
+                diagnostics.getInventoryOutboxDropRate().mark();
+                return -1; // larger than the outbox can ever hold
+            }
+        }
+        int offset = position;
+        write(segments[active], offset, record);
+        position += record.length;
+        return offset;
+    }
+
+    // writes the record so that it is only read once it is completely written
+    private static void write(MappedByteBuffer segment, int position, byte[] record) {
+        segment.putInt(position + record.length, 0);
+        ByteBuffer target = segment.duplicate();
+        target.position(position + 4);
+        target.put(record, 4, record.length - 4);
+        segment.putInt(position, record.length);
+    }
+
+    // copies the pending changes to the other segment, dropping the oldest ones if they do not leave room for more
+    private void compact(int room) throws IOException {
+        int dropped = 0;
+        Iterator<Entry> oldest = pending.values().iterator();
+        while (SEGMENT_HEADER_SIZE + pendingBytes + room + END_MARKER_SIZE > segmentSize && oldest.hasNext()) {
+            Entry entry = oldest.next();
+            oldest.remove();
+            forget(entry);
+            dropped++;
+        }
+        if (dropped > 0) {
+            log.warnInventoryOutboxFull(file.getPath(), dropped);
+            diagnostics.getInventoryOutboxDropRate().mark(dropped);
+            diagnostics.getInventoryOutboxDepth().dec(dropped);
+        }
+
+        int target = 1 - active;
+        MappedByteBuffer segment = segments[target];
+        segment.putLong(8, 0); // the segment is not valid until it is completely written
+        segment.force();
+        int pos = SEGMENT_HEADER_SIZE;
+        for (Entry entry : pending.values()) {
+            byte[] record = new byte[entry.size];
+            ByteBuffer source = segments[active].duplicate();
+            source.position(entry.offset);
+            source.get(record);
+            write(segment, pos, record);
+            entry.offset = pos;
+            pos += record.length;
+        }
+        segment.putInt(pos, 0);
+        segment.force();
+        writeHeader(segment, generation + 1);
+        segment.force();
+
+        generation++;
+        active = target;
+        position = pos;
+        log.debugf("Compacted inventory outbox [%s]: [%d] changes pending, [%d] dropped", file, pending.size(),
+                dropped);
+    }
+
+    private void load() {
+        MappedByteBuffer segment = segments[active];
+        int pos = SEGMENT_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (pos + RECORD_HEADER_SIZE <= segmentSize) {
+            int length = segment.getInt(pos);
+            if (length < RECORD_HEADER_SIZE || pos + length + END_MARKER_SIZE > segmentSize) {
+                break; // the end, or a record that was not completely written
+            }
+            byte[] record = new byte[length];
+            ByteBuffer source = segment.duplicate();
+            source.position(pos);
+            source.get(record);
+            ByteBuffer in = ByteBuffer.wrap(record);
+            in.getInt();
+            int checksum = in.getInt();
+            crc.reset();
+            crc.update(record, RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE);
+            if ((int) crc.getValue() != checksum) {
+                log.debugf("Inventory outbox [%s] is damaged at [%d] - ignoring the rest", file, pos);
+                break;
+            }
+
+            byte code = in.get();
+            long time = in.getLong();
+            String id = readString(in);
+            String parentId = readString(in);
+            Entry.Kind kind = Entry.Kind.of(code);
+            if (code == DONE) {
+                Entry old = pending.remove(id); // the ID of a done record is the key of the change
+                if (old != null) {
+                    forget(old);
+                }
+            } else if (kind != null) {
+                Entry entry = new Entry(kind, id, parentId, null, time);
+                entry.size = length;
+                entry.offset = pos;
+                entry.outbox = this;
+                Entry old = pending.remove(entry.key());
+                if (old != null) {
+                    forget(old);
+                }
+                pending.put(entry.key(), entry);
+                pendingBytes += length;
+            }
+            pos += length;
+        }
+        position = pos;
+        log.debugf("Opened inventory outbox [%s]: [%d] changes pending", file, pending.size());
+    }
+
+    // the JSON is the last field of the record of a pending change
+    private String readJson(Entry entry) {
+        ByteBuffer in = segments[active].duplicate();
+        in.position(entry.offset + RECORD_HEADER_SIZE + 1 + 8);
+        skipString(in); // the ID
+        skipString(in); // the parent ID
+        return readString(in);
+    }
+
+    private static long readGeneration(MappedByteBuffer segment) {
+        if (segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION) {
+            return 0;
+        }
+        return segment.getLong(8);
+    }
+
+    private static void writeHeader(MappedByteBuffer segment, long generation) {
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, VERSION);
+        segment.putLong(8, generation);
+    }
+
+    private static byte[] encode(Entry entry) {
+        return encode(entry.kind.code, entry.id, entry.parentId, entry.json, entry.time);
+    }
+
+    private static byte[] encode(byte code, String id, String parentId, String json, long time) {
+        byte[] idBytes = bytesOf(id);
+        byte[] parentIdBytes = bytesOf(parentId);
+        byte[] jsonBytes = bytesOf(json);
+        int length = RECORD_HEADER_SIZE + 1 + 8 + sizeOf(idBytes) + sizeOf(parentIdBytes) + sizeOf(jsonBytes);
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.putInt(length);
+        out.putInt(0); // the checksum, see below
+        out.put(code);
+        out.putLong(time);
+        writeBytes(out, idBytes);
+        writeBytes(out, parentIdBytes);
+        writeBytes(out, jsonBytes);
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE);
+        out.putInt(4, (int) crc.getValue());
+        return out.array();
+    }
+
+    private static byte[] bytesOf(String s) {
+        return (s == null) ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return 4 + ((bytes == null) ? 0 : bytes.length);
+    }
+
+    private static void writeBytes(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(bytes.length);
+            out.put(bytes);
+        }
+    }
+
+    private static void skipString(ByteBuffer in) {
+        int length = in.getInt();
+        in.position(in.position() + Math.max(0, length));
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
+import org.hawkular.agent.monitor.util.Util;
+import org.hawkular.inventory.api.model.Inventory;
+import org.hawkular.inventory.api.model.RawResource;
+import org.hawkular.inventory.api.model.ResourceType;
+
+/**
+ * A part of the replay of the imports in the {@link InventoryOutbox outbox}, sent in a request of its own like an
+ * {@link InventoryImportChunk}. The chunks are split the same way: parent-first, with all resource types in the first
+ * chunk, and at most a given number of resources and (approximately) bytes of JSON each.
+ * <p>
+ * A chunk only holds on to the outbox entries. The JSON of each is read from the outbox and parsed while the request
+ * is written, one resource at a time.
+ */
+final class InventoryReplayChunk implements InventoryChunk {
+
+    private final int index;
+    private final List<InventoryOutbox.Entry> types = new ArrayList<>();
+    private final List<InventoryOutbox.Entry> resources = new ArrayList<>();
+    private int minDepth = Integer.MAX_VALUE; // -1 if the chunk holds the resource types
+    private int maxDepth = -1;
+    private long bytes;
+    private int failures;
+    private boolean imported;
+
+    private InventoryReplayChunk(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Splits the replay of the given imports into chunks.
+     *
+     * @param types the resource types to import
+     * @param resources the resources to import, parents first
+     * @param depth the depth of each resource among the resources to import
+     * @param maxResources the maximum number of resources per chunk, or 0 for no limit
+     * @param maxBytes the maximum size of the JSON of a chunk, or 0 for no limit
+     * @return the chunks - empty if there is nothing to import
+     */
+    static List<InventoryReplayChunk> split(List<InventoryOutbox.Entry> types, List<InventoryOutbox.Entry> resources,
+            ToIntFunction<InventoryOutbox.Entry> depth, int maxResources, long maxBytes) {
+        List<InventoryReplayChunk> chunks = new ArrayList<>();
+        InventoryReplayChunk current = new InventoryReplayChunk(0);
+        if (!types.isEmpty()) {
+            current.types.addAll(types);
+            current.minDepth = -1;
+            current.bytes = types.stream().mapToLong(InventoryOutbox.Entry::getSize).sum();
+        }
+        for (InventoryOutbox.Entry resource : resources) {
+            boolean full = (maxResources > 0 && current.resources.size() >= maxResources)
+                    || (maxBytes > 0 && current.bytes + resource.getSize() > maxBytes);
+            if (full && !current.isEmpty()) {
+                chunks.add(current);
+                current = new InventoryReplayChunk(chunks.size());
+            }
+            int d = depth.applyAsInt(resource);
+            current.resources.add(resource);
+            current.minDepth = Math.min(current.minDepth, d);
+            current.maxDepth = Math.max(current.maxDepth, d);
+            current.bytes += resource.getSize();
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+
+    private boolean isEmpty() {
+        return types.isEmpty() && resources.isEmpty();
+    }
+
+    /**
+     * @return true if the other chunk is a replay chunk that may hold a resource type or a parent of a resource of
+     *         this chunk and therefore has to be imported before this chunk is sent
+     */
+    @Override
+    public boolean dependsOn(InventoryChunk other) {
+        if (!(other instanceof InventoryReplayChunk)) {
+            return false;
+        }
+        InventoryReplayChunk earlier = (InventoryReplayChunk) other;
+        return earlier.index < index && earlier.minDepth < maxDepth;
+    }
+
+    @Override
+    public void send(AsyncInventoryStorage storage) throws Exception {
+        storage.sendImportRestRequest(toInventory());
+    }
+
+    // the resources are read and parsed each time they are written
+    private Inventory toInventory() {
+        List<RawResource> importResources = new AbstractList<RawResource>() {
+            @Override
+            public RawResource get(int i) {
+                return Util.fromJson(resources.get(i).getJson(), RawResource.class);
+            }
+
+            @Override
+            public int size() {
+                return resources.size();
+            }
+        };
+        List<ResourceType> importTypes = types.stream()
+                .map(t -> Util.fromJson(t.getJson(), ResourceType.class))
+                .collect(Collectors.toList());
+        return new Inventory(importResources, importTypes);
+    }
+
+    /**
+     * Marks the types and resources of this chunk as imported - they are then forgotten by the outbox.
+     */
+    @Override
+    public void sent(long timestamp, Diagnostics diagnostics) {
+        imported = true;
+        diagnostics.getInventoryRate().mark(resources.size());
+    }
+
+    boolean isImported() {
+        return imported;
+    }
+
+    List<String> getResourceIds() {
+        return resources.stream().map(InventoryOutbox.Entry::getId).collect(Collectors.toList());
+    }
+
+    List<String> getTypeIds() {
+        return types.stream().map(InventoryOutbox.Entry::getId).collect(Collectors.toList());
+    }
+
+    @Override
+    public int failed() {
+        return ++failures;
+    }
+
+    @Override
+    public String toString() {
+        return "replay chunk " + index + " [" + types.size() + " types, " + resources.size() + " resources]";
+    }
+}
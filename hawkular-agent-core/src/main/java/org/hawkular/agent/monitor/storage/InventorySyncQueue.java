@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hawkular.agent.monitor.api.InventoryEvent;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceManager;
+import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
+import org.hawkular.agent.monitor.protocol.EndpointService;
+import org.hawkular.agent.monitor.protocol.Session;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+
+/**
+ * The inventory changes of each endpoint that are waiting to be synced. Changes to the same resource are coalesced
+ * while they wait: a newer version of a resource replaces the one that is queued, a resource that is removed before
+ * the {@link InventoryEvent#isNew(Resource) new} resource was synced is forgotten altogether and a resource that is
+ * removed and then discovered again is only imported.
+ * <p>
+ * Each endpoint can have at most the given number of resources queued. Rather than making the discovery of an
+ * endpoint wait when its queue is full, the queued resources are dropped and all resources of the endpoint are synced
+ * instead - the queue then only keeps the removed resources.
+ * <p>
+ * This class is thread safe - {@link #offer(InventoryEvent)} never waits for a batch to be synced.
+ */
+final class InventorySyncQueue {
+
+    /**
+     * What is to be synced for one endpoint. Once {@link InventorySyncQueue#poll() taken out} of the queue, the batch
+     * belongs to the caller and no longer changes.
+     */
+    static final class Batch<L> {
+        private final String endpointName;
+        private final long queuedNanos; // when the oldest change in this batch was queued
+        private EndpointService<L, ?> endpointService;
+        private ResourceManager<L> resourceManager;
+        private ResourceTypeManager<L> resourceTypeManager; // null if no event asked for the types to be synced
+        private final Map<ID, Resource<L>> addedOrModified = new LinkedHashMap<>();
+        private final Map<ID, Resource<L>> removed = new LinkedHashMap<>();
+        private final Set<ID> newResourceIds = new HashSet<>(); // queued resources that inventory does not know
+        private boolean syncAll; // if true, addedOrModified overflowed and all resources are to be synced
+
+        private Batch(String endpointName, long queuedNanos) {
+            this.endpointName = endpointName;
+            this.queuedNanos = queuedNanos;
+        }
+
+        String getEndpointName() {
+            return endpointName;
+        }
+
+        long getQueuedNanos() {
+            return queuedNanos;
+        }
+
+        EndpointService<L, ?> getEndpointService() {
+            return endpointService;
+        }
+
+        ResourceTypeManager<L> getResourceTypeManager() {
+            return resourceTypeManager;
+        }
+
+        /**
+         * @return the resources to import - all resources of the endpoint if the queue of the endpoint overflowed
+         */
+        List<Resource<L>> getAddedOrModified() {
+            return syncAll ? resourceManager.getResourcesBreadthFirst() : new ArrayList<>(addedOrModified.values());
+        }
+
+        /**
+         * @return all resources the endpoint has now
+         */
+        List<Resource<L>> getAllResources() {
+            return resourceManager.getResourcesBreadthFirst();
+        }
+
+        Collection<Resource<L>> getRemoved() {
+            return removed.values();
+        }
+
+        boolean isSyncAll() {
+            return syncAll;
+        }
+
+        private int size() {
+            return addedOrModified.size() + removed.size();
+        }
+    }
+
+    private final int capacity;
+    private final Counter depth;
+    private final Meter coalesceRate;
+    private final Map<String, Batch<?>> batches = new LinkedHashMap<>(); // by endpoint name, oldest first
+
+    /**
+     * @param capacity the maximum number of added or modified resources that are queued for an endpoint
+     * @param depth counts the resources that are queued
+     * @param coalesceRate marked for each change that is merged with or cancelled out by another change
+     */
+    InventorySyncQueue(int capacity, Counter depth, Meter coalesceRate) {
+        this.capacity = capacity;
+        this.depth = depth;
+        this.coalesceRate = coalesceRate;
+    }
+
+    /**
+     * Queues the changes of the given event, coalescing them with the changes queued for the same endpoint.
+     *
+     * @param event the changes to queue
+     */
+    synchronized <L, S extends Session<L>> void offer(InventoryEvent<L, S> event) {
+        String endpointName = event.getEndpointService().getMonitoredEndpoint().getName();
+        @SuppressWarnings("unchecked")
+        Batch<L> batch = (Batch<L>) batches.computeIfAbsent(endpointName, n -> new Batch<>(n, System.nanoTime()));
+        int sizeBefore = batch.size();
+        int coalesced = 0;
+
+        batch.endpointService = event.getEndpointService();
+        batch.resourceManager = event.getResourceManager();
+        if (event.getResourceTypeManager().isPresent()) {
+            batch.resourceTypeManager = event.getResourceTypeManager().get();
+        }
+
+        for (Resource<L> resource : event.getRemoved()) {
+            ID id = resource.getID();
+            if (batch.addedOrModified.remove(id) != null) {
+                coalesced++;
+                if (batch.newResourceIds.remove(id)) {
+                    continue; // inventory never got to know it
+                }
+            } else if (batch.syncAll && batch.newResourceIds.remove(id)) {
+                coalesced++;
+                continue;
+            }
+            batch.removed.put(id, resource);
+        }
+
+        for (Resource<L> resource : event.getAddedOrModified()) {
+            ID id = resource.getID();
+            boolean isNew = event.isNew(resource);
+            if (batch.removed.remove(id) != null) {
+                coalesced++;
+                isNew = false; // inventory may still have the removed resource, the import replaces it
+            }
+            if (batch.syncAll) {
+                if (isNew) {
+                    batch.newResourceIds.add(id);
+                }
+                continue; // all resources are synced anyway
+            }
+            if (batch.addedOrModified.put(id, resource) != null) {
+                coalesced++; // whether it is new is what it was when it was first queued
+            } else if (isNew) {
+                batch.newResourceIds.add(id);
+            }
+        }
+
+        if (batch.addedOrModified.size() > capacity) {
+            // rather than making discovery wait until the queue has room, sync all resources of the endpoint
+            coalesced += batch.addedOrModified.size();
+            batch.addedOrModified.clear();
+            batch.syncAll = true;
+        }
+
+        depth.inc(batch.size() - sizeBefore);
+        if (coalesced > 0) {
+            coalesceRate.mark(coalesced);
+        }
+        if (batch.size() == 0 && !batch.syncAll && batch.resourceTypeManager == null) {
+            batches.remove(endpointName); // everything cancelled out
+        }
+    }
+
+    /**
+     * Takes the batch that has been queued for the longest time out of the queue.
+     *
+     * @return the batch or null if nothing is queued
+     */
+    synchronized Batch<?> poll() {
+        Iterator<Batch<?>> it = batches.values().iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        Batch<?> batch = it.next();
+        it.remove();
+        depth.dec(batch.size());
+        return batch;
+    }
+
+    /**
+     * @return true if nothing is queued
+     */
+    synchronized boolean isEmpty() {
+        return batches.isEmpty();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.IOException;
+
+import org.hawkular.agent.monitor.util.Util;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * A request body that writes the JSON of an object straight to the connection while the request is sent. Unlike
+ * {@link RequestBody#create(MediaType, String)}, the JSON is never held in memory as a whole - neither as a string
+ * nor as bytes - which matters for large payloads as the agent shares the heap with the application it monitors.
+ * <p>
+ * The JSON is generated again each time the body is written, so the object must not change while it is in use.
+ */
+public final class JsonRequestBody extends RequestBody {
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final Object payload;
+
+    /**
+     * @param payload the object whose JSON is the body
+     */
+    public JsonRequestBody(Object payload) {
+        this.payload = payload;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        Util.toJson(payload, sink.outputStream());
+    }
+}
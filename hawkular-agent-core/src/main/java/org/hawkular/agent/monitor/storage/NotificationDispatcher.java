@@ -16,26 +16,58 @@
  */
 package org.hawkular.agent.monitor.storage;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 import org.hawkular.agent.monitor.api.InventoryEvent;
 import org.hawkular.agent.monitor.api.InventoryListener;
 import org.hawkular.agent.monitor.api.NotificationPayloadBuilder;
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.StorageAdapterConfiguration;
 import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 import org.hawkular.agent.monitor.protocol.Session;
+import org.hawkular.agent.monitor.util.ThreadFactoryGenerator;
 import org.hawkular.client.api.NotificationType;
 
 /**
+ * Sends notifications of inventory changes to the server. Notifications are collected for a short window (or until
+ * there are enough of them) and stored together, so that a large deployment or the first discovery of a server does
+ * not send thousands of requests at once.
+ *
  * @author Jay Shaughnessy
  */
 public class NotificationDispatcher implements InventoryListener {
 
     private static final MsgLogger log = AgentLoggers.getLogger(NotificationDispatcher.class);
+
+    /**
+     * How long {@link #shutdown()} waits for the last notifications to be stored.
+     */
+    private static final long SHUTDOWN_WAIT_MILLIS = 10_000;
+
     StorageAdapter storageAdapter;
     String feedId;
+    private final int batchMaxSize;
+    private final long batchWindowMillis;
+    private final ScheduledExecutorService flusher;
+    private final Object batchLock = new Object();
+    private List<NotificationPayloadBuilder> batch = new ArrayList<>(); // guarded by batchLock
+    private ScheduledFuture<?> scheduledFlush; // guarded by batchLock
 
     public NotificationDispatcher(StorageAdapter storageAdapter, String feedId) {
         this.storageAdapter = storageAdapter;
         this.feedId = feedId;
+        StorageAdapterConfiguration config = storageAdapter.getStorageAdapterConfiguration();
+        this.batchMaxSize = Math.max(1, config.getNotificationBatchMaxSize());
+        this.batchWindowMillis = Math.max(0, config.getNotificationBatchWindowMillis());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryGenerator.generateFactory(true, "Hawkular-Agent-Notification-Batch"));
     }
 
     @Override
@@ -49,10 +81,72 @@ public class NotificationDispatcher implements InventoryListener {
                         b.addProperty("feedId", this.feedId);
                         b.addProperty("resourceType", r.getResourceType().getName().getNameString());
                         b.addProperty("resourceId", r.getID().getIDString());
-                        storageAdapter.store(b, 0);
+                        add(b);
                     } catch (Exception e) {
                         log.errorFailedToCreateNotification(e, NotificationType.RESOURCE_ADDED.name());
                     }
                 });
     }
+
+    /**
+     * Sends the notifications that are still collected and stops collecting them. Returns once they are stored (or
+     * after {@link #SHUTDOWN_WAIT_MILLIS}), so that the storage adapter can be shut down next.
+     */
+    public void shutdown() {
+        flusher.shutdownNow();
+        List<NotificationPayloadBuilder> notifications;
+        synchronized (batchLock) {
+            notifications = takeBatch();
+        }
+        store(notifications, SHUTDOWN_WAIT_MILLIS);
+    }
+
+    private void add(NotificationPayloadBuilder notification) {
+        List<NotificationPayloadBuilder> full = null;
+        synchronized (batchLock) {
+            batch.add(notification);
+            if (batch.size() >= batchMaxSize || batchWindowMillis == 0) {
+                full = takeBatch();
+            } else if (scheduledFlush == null) {
+                try {
+                    scheduledFlush = flusher.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    full = takeBatch(); // shut down - send it right away
+                }
+            }
+        }
+        if (full != null) {
+            store(full, 0);
+        }
+    }
+
+    private void flush() {
+        List<NotificationPayloadBuilder> notifications;
+        synchronized (batchLock) {
+            notifications = takeBatch();
+        }
+        store(notifications, 0);
+    }
+
+    // must hold batchLock
+    private List<NotificationPayloadBuilder> takeBatch() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (batch.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<NotificationPayloadBuilder> taken = batch;
+        batch = new ArrayList<>();
+        return taken;
+    }
+
+    private void store(List<NotificationPayloadBuilder> notifications, long waitMillis) {
+        if (notifications.isEmpty()) {
+            return;
+        }
+        log.debugf("Sending [%d] notifications", notifications.size());
+        storageAdapter.store(notifications, waitMillis);
+    }
 }
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
+import org.hawkular.agent.monitor.log.AgentLoggers;
+import org.hawkular.agent.monitor.log.MsgLogger;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Keeps the agent from hammering a server that is down - and keeps many agents from hitting it all at once when it
+ * comes back.
+ * <p>
+ * A request that fails because the server cannot be reached or is unavailable (502, 503 or 504) is sent again, up to a
+ * configured number of times, after a delay picked at random between 0 and a cap that doubles with each attempt ("full
+ * jitter"). A request that failed with an I/O error once it may have reached the server - a read timeout, say - is sent
+ * again only if its method is idempotent, so that a POST is never stored twice. The delay is spent sleeping in the
+ * thread that sends the request; for an asynchronous call that is a thread of the client's dispatcher, which cannot
+ * send other requests meanwhile. Each server (scheme, host and port) has a circuit breaker: after a configured number
+ * of consecutive failures it opens and requests fail right away instead of being sent. Once the breaker has been open
+ * for a while (at least {@link #OPEN_BASE_MILLIS}, plus a random delay that grows like that of the retries) the next
+ * request first probes the inventory status endpoint - the one the agent waits for at startup. If the probe succeeds,
+ * the breaker closes and requests are sent again; if not, the breaker stays open for longer.
+ * <p>
+ * WebSocket upgrades are passed through untouched - the command gateway reconnects on its own. Requests for the
+ * status endpoint are not retried or held back either, but their outcome closes an open breaker.
+ */
+final class StorageResilienceInterceptor implements Interceptor {
+    private static final MsgLogger log = AgentLoggers.getLogger(StorageResilienceInterceptor.class);
+
+    static final long RETRY_BASE_MILLIS = 500;
+    static final long OPEN_BASE_MILLIS = 5_000;
+    private static final int RETRY_CAP_FACTOR = 20; // retries wait 10 seconds at most
+    private static final int OPEN_CAP_FACTOR = 60; // a breaker is open for 5 minutes at most
+
+    /**
+     * The state of a circuit breaker, as reported to {@link Diagnostics#setStorageCircuitBreakerState(String, int)}.
+     */
+    enum State {
+        CLOSED(0), HALF_OPEN(1), OPEN(2);
+
+        private final int code;
+
+        State(int code) {
+            this.code = code;
+        }
+    }
+
+    private enum Permit {
+        SEND, PROBE, REJECT
+    }
+
+    private final class CircuitBreaker {
+        private final String endpoint;
+        private State state = State.CLOSED;
+        private int failures; // consecutive
+        private int opened; // consecutive times the breaker opened without a success in between
+        private long openUntil;
+
+        private CircuitBreaker(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        private synchronized Permit acquire() {
+            switch (state) {
+                case CLOSED:
+                    return Permit.SEND;
+                case OPEN:
+                    if (System.currentTimeMillis() < openUntil) {
+                        return Permit.REJECT;
+                    }
+                    setState(State.HALF_OPEN);
+                    return Permit.PROBE;
+                default:
+                    return Permit.REJECT; // another request is probing
+            }
+        }
+
+        // true while half open, too
+        private synchronized boolean isOpen() {
+            return state != State.CLOSED;
+        }
+
+        private synchronized void succeeded() {
+            if (state != State.CLOSED) {
+                log.infoStorageCircuitBreakerClosed(endpoint);
+            }
+            failures = 0;
+            opened = 0;
+            setState(State.CLOSED);
+        }
+
+        private synchronized void failed() {
+            failures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && failureThreshold > 0
+                    && failures >= failureThreshold)) {
+                long openMillis = openBaseMillis + jitter(openBaseMillis, openBaseMillis * OPEN_CAP_FACTOR, opened++);
+                openUntil = System.currentTimeMillis() + openMillis;
+                if (state == State.CLOSED) {
+                    log.warnStorageCircuitBreakerOpened(endpoint, failures);
+                }
+                log.debugf("Circuit breaker of [%s] is open for [%d] ms", endpoint, openMillis);
+                setState(State.OPEN);
+            }
+        }
+
+        private void setState(State newState) {
+            state = newState;
+            Diagnostics d = diagnostics;
+            if (d != null) {
+                d.setStorageCircuitBreakerState(endpoint, newState.code);
+            }
+        }
+    }
+
+    private final HttpUrl statusUrl;
+    private final OkHttpClient probeClient;
+    private final int maxRetries;
+    private final int failureThreshold;
+    private final long retryBaseMillis;
+    private final long openBaseMillis;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private volatile Diagnostics diagnostics;
+
+    /**
+     * @param statusUrl the inventory status endpoint that is probed before an open circuit breaker closes
+     * @param probeClient the client that sends the probes - without this interceptor
+     * @param maxRetries how many times a request that failed is sent again
+     * @param failureThreshold after how many consecutive failures a circuit breaker opens, 0 if it never opens
+     */
+    StorageResilienceInterceptor(String statusUrl, OkHttpClient probeClient, int maxRetries, int failureThreshold) {
+        this(statusUrl, probeClient, maxRetries, failureThreshold, RETRY_BASE_MILLIS, OPEN_BASE_MILLIS);
+    }
+
+    // for tests that cannot wait that long
+    StorageResilienceInterceptor(String statusUrl, OkHttpClient probeClient, int maxRetries, int failureThreshold,
+            long retryBaseMillis, long openBaseMillis) {
+        this.statusUrl = HttpUrl.parse(statusUrl);
+        if (this.statusUrl == null) {
+            throw new IllegalArgumentException("Invalid status URL: " + statusUrl);
+        }
+        this.probeClient = probeClient;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.failureThreshold = Math.max(0, failureThreshold);
+        this.retryBaseMillis = retryBaseMillis;
+        this.openBaseMillis = openBaseMillis;
+    }
+
+    /**
+     * @param diagnostics where retries and the states of the circuit breakers are reported from now on
+     */
+    void setDiagnostics(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        breakers.values().forEach(b -> {
+            synchronized (b) {
+                diagnostics.setStorageCircuitBreakerState(b.endpoint, b.state.code);
+            }
+        });
+    }
+
+    State getState(HttpUrl url) {
+        CircuitBreaker breaker = breakers.get(endpointOf(url));
+        if (breaker == null) {
+            return State.CLOSED;
+        }
+        synchronized (breaker) {
+            return breaker.state;
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.header("Upgrade") != null) {
+            return chain.proceed(request);
+        }
+
+        CircuitBreaker breaker = breakers.computeIfAbsent(endpointOf(request.url()), CircuitBreaker::new);
+        if (isStatusRequest(request)) {
+            Response response = chain.proceed(request);
+            if (response.code() == 200 && breaker.isOpen()) {
+                breaker.succeeded();
+            }
+            return response;
+        }
+
+        switch (breaker.acquire()) {
+            case REJECT:
+                throw rejected(breaker, request);
+            case PROBE:
+                if (!probe(breaker, request)) {
+                    throw rejected(breaker, request);
+                }
+                break;
+            default:
+                break;
+        }
+
+        for (int attempt = 0;; attempt++) {
+            try {
+                Response response = chain.proceed(request);
+                if (!isUnavailable(response.code())) {
+                    breaker.succeeded(); // the server is there, even if it did not like the request
+                    return response;
+                }
+                if (attempt >= maxRetries) {
+                    breaker.failed();
+                    return response;
+                }
+                log.debugf("Server is unavailable (%d) - will send [%s %s] again", response.code(),
+                        request.method(), request.url());
+                response.close();
+            } catch (IOException e) {
+                if (attempt >= maxRetries || !(isNotSent(e) || isIdempotent(request.method()))) {
+                    breaker.failed();
+                    throw e;
+                }
+                log.debugf("Cannot reach server (%s) - will send [%s %s] again", e, request.method(), request.url());
+            }
+
+            Diagnostics d = diagnostics;
+            if (d != null) {
+                d.getStorageRetryRate().mark();
+            }
+            try {
+                Thread.sleep(jitter(retryBaseMillis, retryBaseMillis * RETRY_CAP_FACTOR, attempt));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send [" + request.url() + "] again");
+            }
+            if (breaker.isOpen()) {
+                throw rejected(breaker, request); // other requests found out meanwhile that the server is down
+            }
+        }
+    }
+
+    private boolean probe(CircuitBreaker breaker, Request request) {
+        HttpUrl url = statusUrl.newBuilder()
+                .scheme(request.url().scheme())
+                .host(request.url().host())
+                .port(request.url().port())
+                .build();
+        Request.Builder probe = new Request.Builder().url(url).addHeader("Accept", "application/json").get();
+        String authorization = request.header("Authorization");
+        if (authorization != null) {
+            probe.addHeader("Authorization", authorization);
+        }
+        try (Response response = probeClient.newCall(probe.build()).execute()) {
+            if (response.code() == 200) {
+                breaker.succeeded();
+                return true;
+            }
+            log.debugf("Server [%s] is not ready yet: %d/%s", breaker.endpoint, response.code(), response.message());
+        } catch (IOException e) {
+            log.debugf("Server [%s] is not ready yet: %s", breaker.endpoint, e);
+        }
+        breaker.failed();
+        return false;
+    }
+
+    private IOException rejected(CircuitBreaker breaker, Request request) {
+        Diagnostics d = diagnostics;
+        if (d != null) {
+            d.getStorageCircuitBreakerRejectRate().mark();
+        }
+        // as if the server could not be reached, which is what the breaker found out
+        return new ConnectException("Server [" + breaker.endpoint + "] is unavailable - not sending ["
+                + request.method() + " " + request.url() + "]");
+    }
+
+    private boolean isStatusRequest(Request request) {
+        return "GET".equals(request.method()) && request.url().encodedPath().equals(statusUrl.encodedPath());
+    }
+
+    /**
+     * @return true if the request that failed this way never reached the server - it was sent again if it could be
+     */
+    static boolean isNotSent(IOException e) {
+        return e instanceof ConnectException || e instanceof UnknownHostException;
+    }
+
+    private static boolean isIdempotent(String method) {
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+            case "OPTIONS":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if the server answered that it is unavailable - the request was sent again if it could be
+     */
+    static boolean isUnavailable(int code) {
+        return code == 502 || code == 503 || code == 504;
+    }
+
+    private static String endpointOf(HttpUrl url) {
+        return url.scheme() + "://" + url.host() + ":" + url.port();
+    }
+
+    /**
+     * @return a random delay between 0 and the base delay doubled for each attempt, but no more than the cap
+     */
+    static long jitter(long baseMillis, long capMillis, int attempt) {
+        long ceiling = (attempt >= 30) ? capMillis : Math.min(capMillis, baseMillis << attempt);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
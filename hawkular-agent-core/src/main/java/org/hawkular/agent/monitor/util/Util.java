@@ -42,6 +42,7 @@ import org.hawkular.agent.monitor.log.AgentLoggers;
 import org.hawkular.agent.monitor.log.MsgLogger;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -85,6 +86,21 @@ public class Util {
         return json;
     }
 
+    /**
+     * Writes the JSON of the given object to the given stream as it is generated, rather than building all of it
+     * as a string first. The stream is flushed but not closed.
+     *
+     * @param obj the object to write
+     * @param out where to write the JSON
+     * @throws IOException if the object cannot be written as JSON or the stream failed
+     */
+    public static void toJson(Object obj, OutputStream out) throws IOException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            mapper.writeValue(generator, obj);
+        }
+    }
+
     public static <T> T fromJson(String json, Class<T> clazz) {
         final T obj;
         try {
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.inventory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.EndpointConfiguration;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.hawkular.inventory.api.model.MetricUnit;
+
+/**
+ * Measures how many bytes of heap the IDs and metric labels of a discovered resource take - once the way they used
+ * to be kept (formatted ID strings and a {@link HashMap} of labels per metric) and once the way they are kept now
+ * (IDs built from shared parts and {@link InventoryInterner interned} labels).
+ * <p>
+ * This is not a unit test - it is run by hand, e.g. from the IDE, with the number of resources as an optional
+ * argument. The numbers are estimates taken from the used heap, so run it with a fixed heap size (-Xms equal to -Xmx).
+ */
+public class InventoryHeapBenchmark {
+
+    private static final int METRICS_PER_RESOURCE = 10;
+
+    public static void main(String[] args) {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+
+        String feedId = "benchmark-feed";
+        EndpointConfiguration endpointConfig = new EndpointConfiguration("benchmark-server", true,
+                Collections.emptyList(), null, null, null, null, null);
+        MonitoredEndpoint<EndpointConfiguration> endpoint = MonitoredEndpoint.of(endpointConfig, null);
+
+        List<MetricType<DMRNodeLocation>> metricTypes = new ArrayList<>();
+        for (int i = 0; i < METRICS_PER_RESOURCE; i++) {
+            metricTypes.add(new MetricType<>(new ID("Metric Type " + i), new Name("Metric Type " + i),
+                    new AttributeLocation<>(DMRNodeLocation.empty(), "attribute-" + i), MetricUnit.NONE,
+                    SupportedMetricType.GAUGE, "metric_family_" + i, null, null));
+        }
+
+        // the locations are held by the resources either way so they are not part of what is measured
+        List<DMRNodeLocation> locations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(DMRNodeLocation.of("/subsystem=datasources/data-source=DataSource" + i));
+        }
+
+        long before = measure(() -> {
+            List<Object> held = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                DMRNodeLocation location = locations.get(i);
+                ID resourceId = new ID(String.format("%s~%s~%s", feedId, endpoint.getName(), location));
+                held.add(resourceId);
+                for (MetricType<DMRNodeLocation> metricType : metricTypes) {
+                    held.add(new ID(String.format("MI~R~[%s/%s]~MT~%s", feedId, resourceId, metricType.getID())));
+                    held.add(new HashMap<>(generateLabels(feedId, endpoint, i)));
+                }
+            }
+            return held;
+        });
+
+        long after = measure(() -> {
+            List<Object> held = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                DMRNodeLocation location = locations.get(i);
+                ID resourceId = InventoryIdUtil.generateResourceId(feedId, endpoint, location);
+                held.add(resourceId);
+                for (MetricType<DMRNodeLocation> metricType : metricTypes) {
+                    held.add(InventoryIdUtil.generateMetricInstanceId(feedId, resourceId, metricType));
+                    held.add(InventoryInterner.internLabels(generateLabels(feedId, endpoint, i)));
+                }
+            }
+            return held;
+        });
+
+        System.out.printf("%d resources with %d metrics each%n", count, METRICS_PER_RESOURCE);
+        System.out.printf("before: %d bytes per resource%n", before / count);
+        System.out.printf("after:  %d bytes per resource%n", after / count);
+    }
+
+    // the labels of all metrics of a resource are equal but each metric gets its own copy, as discovery does
+    private static Map<String, String> generateLabels(String feedId, MonitoredEndpoint<?> endpoint, int index) {
+        Map<String, String> labels = new HashMap<>();
+        labels.put("feed_id", feedId);
+        labels.put("server", endpoint.getName());
+        labels.put("data_source", "DataSource" + index);
+        labels.put("subsystem", new StringBuilder("datasources").toString());
+        return labels;
+    }
+
+    private static long measure(Supplier<List<Object>> build) {
+        long start = usedHeap();
+        List<Object> held = build.get();
+        long used = usedHeap() - start;
+        if (held.isEmpty()) {
+            throw new IllegalStateException("Nothing was built");
+        }
+        return used;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
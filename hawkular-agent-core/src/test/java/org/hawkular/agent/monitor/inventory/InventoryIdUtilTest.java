@@ -50,4 +50,79 @@ public class InventoryIdUtilTest {
         Assert.assertEquals("testmanagedserver", parts.getManagedServerName());
         Assert.assertEquals("~/~test/~id/~path", parts.getIdPart());
     }
+
+    @Test
+    public void testGeneratedIdsEqualPlainIds() {
+        EndpointConfiguration endpointConfig = new EndpointConfiguration("testmanagedserver", true,
+                Collections.emptyList(), null, null, null, null, null);
+        MonitoredEndpoint<EndpointConfiguration> me = MonitoredEndpoint.<EndpointConfiguration> of(endpointConfig,
+                null);
+
+        ID resourceId = InventoryIdUtil.generateResourceId("fid", me, new StringBuilder("/test/id/path/"));
+        ID plainResourceId = new ID("fid~testmanagedserver~/test/id/path/");
+        Assert.assertEquals("fid~testmanagedserver~/test/id/path~", resourceId.getIDString());
+        Assert.assertEquals(plainResourceId, resourceId);
+        Assert.assertEquals(resourceId, plainResourceId);
+        Assert.assertEquals(plainResourceId.hashCode(), resourceId.hashCode());
+        Assert.assertEquals(0, resourceId.compareTo(plainResourceId));
+        Assert.assertNotEquals(new ID("fid~testmanagedserver~/other"), resourceId);
+
+        MetricType<Object> metricType = new MetricType<>(new ID("mt"), new Name("mt"),
+                new AttributeLocation<>(new Object(), "attr"), null,
+                SupportedMetricType.GAUGE, null, null, null);
+        ID metricId = InventoryIdUtil.generateMetricInstanceId("fid", resourceId, metricType);
+        ID plainMetricId = new ID("MI~R~[fid/fid~testmanagedserver~/test/id/path~]~MT~mt");
+        Assert.assertEquals(plainMetricId.getIDString(), metricId.getIDString());
+        Assert.assertEquals(plainMetricId, metricId);
+        Assert.assertEquals(plainMetricId.hashCode(), metricId.hashCode());
+    }
+
+    @Test
+    public void testGeneratedIdsComparedByParts() {
+        EndpointConfiguration endpointConfig = new EndpointConfiguration("testmanagedserver", true,
+                Collections.emptyList(), null, null, null, null, null);
+        MonitoredEndpoint<EndpointConfiguration> me = MonitoredEndpoint.<EndpointConfiguration> of(endpointConfig,
+                null);
+        CountingPart part = new CountingPart("/test/id/path");
+        CountingPart equalPart = new CountingPart("/test/id/path");
+        ID resourceId = InventoryIdUtil.generateResourceId("fid", me, part);
+        ID equalResourceId = InventoryIdUtil.generateResourceId("fid", me, equalPart);
+
+        // the ID strings are built for the hash codes only
+        Assert.assertEquals(equalResourceId, resourceId);
+        Assert.assertEquals(1, part.built);
+        Assert.assertEquals(1, equalPart.built);
+        Assert.assertNotEquals(InventoryIdUtil.generateResourceId("fid", me, new CountingPart("/other")), resourceId);
+
+        // an ID string that is still referenced is not built again
+        String idString = resourceId.getIDString();
+        int built = part.built;
+        Assert.assertSame(idString, resourceId.getIDString());
+        Assert.assertEquals(built, part.built);
+    }
+
+    private static final class CountingPart {
+        private final String path;
+        private int built; // how many times the string form was asked for
+
+        private CountingPart(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CountingPart && path.equals(((CountingPart) obj).path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            built++;
+            return path;
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.inventory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InventoryInternerTest {
+
+    @Test
+    public void testInternLabels() {
+        Map<String, String> labels = new LinkedHashMap<>();
+        labels.put("b", "2");
+        labels.put("a", new StringBuilder("1").toString());
+        labels.put("c", null);
+
+        Map<String, String> interned = InventoryInterner.internLabels(labels);
+        Assert.assertEquals(labels, interned);
+        Assert.assertEquals(interned, labels);
+        Assert.assertEquals(labels.hashCode(), interned.hashCode());
+        Assert.assertEquals(labels.toString(), interned.toString());
+        Assert.assertEquals("1", interned.get("a"));
+        Assert.assertNull(interned.get("c"));
+        Assert.assertTrue(interned.containsKey("c"));
+        Assert.assertFalse(interned.containsKey("d"));
+
+        // equal labels share the same map and the same strings
+        Map<String, String> other = new HashMap<>(labels);
+        other.put("a", new StringBuilder("1").toString());
+        Map<String, String> internedOther = InventoryInterner.internLabels(other);
+        Assert.assertSame(interned, internedOther);
+        Assert.assertSame(interned, InventoryInterner.internLabels(interned));
+
+        other.put("a", "changed");
+        Assert.assertEquals("1", internedOther.get("a"));
+        Assert.assertNotEquals(interned, InventoryInterner.internLabels(other));
+
+        try {
+            interned.put("d", "4");
+            Assert.fail("Interned labels must be immutable");
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        Assert.assertTrue(InventoryInterner.internLabels(null).isEmpty());
+        Assert.assertTrue(InventoryInterner.internLabels(new HashMap<>()).isEmpty());
+    }
+
+    @Test
+    public void testInternStrings() {
+        String a = new StringBuilder("abc").toString();
+        String b = new StringBuilder("abc").toString();
+        Assert.assertSame(InventoryInterner.intern(a), InventoryInterner.intern(b));
+        Assert.assertNull(InventoryInterner.intern(null));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.inventory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InventorySnapshotTest {
+
+    private final ResourceType<DMRNodeLocation> type = ResourceType.<DMRNodeLocation> builder()
+            .id(new ID("resType"))
+            .name(new Name("resTypeName"))
+            .location(DMRNodeLocation.empty())
+            .build();
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File dir = Files.createTempDirectory("inventory-snapshot-test").toFile();
+        try {
+            File file = new File(dir, "test.inventory");
+            InventorySnapshot snapshot = new InventorySnapshot(file, "feed1", "endpoint1");
+            Assert.assertNull("There is no snapshot yet", snapshot.load());
+
+            ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+            Resource<DMRNodeLocation> root = Resource.<DMRNodeLocation> builder()
+                    .id(new ID("root1"))
+                    .name(new Name("root1Name"))
+                    .location(DMRNodeLocation.empty())
+                    .type(type)
+                    .build();
+            root = rm.addResource(root).getResource();
+            Resource<DMRNodeLocation> child = Resource.<DMRNodeLocation> builder()
+                    .id(new ID("child1"))
+                    .name(new Name("child1Name"))
+                    .location(DMRNodeLocation.of("/child=1"))
+                    .type(type)
+                    .parent(root)
+                    .build();
+            child = rm.addResource(child).getResource();
+            root.setPersistedTime(1000L);
+            child.setPersistedTime(2000L);
+
+            snapshot.save(rm);
+
+            Map<String, InventorySnapshot.Entry> entries = snapshot.load();
+            Assert.assertEquals(2, entries.size());
+            InventorySnapshot.Entry childEntry = entries.get("child1");
+            Assert.assertEquals("child1Name", childEntry.getName());
+            Assert.assertEquals("resTypeName", childEntry.getTypeName());
+            Assert.assertEquals(2000L, childEntry.getPersistedTime());
+            Assert.assertTrue(entries.get("root1").isUnchanged(root));
+            Assert.assertTrue(childEntry.isUnchanged(child));
+
+            // a resource discovered with another name has changed
+            Resource<DMRNodeLocation> renamedChild = Resource.<DMRNodeLocation> builder(child)
+                    .name(new Name("child1NewName"))
+                    .build();
+            Assert.assertFalse(childEntry.isUnchanged(renamedChild));
+
+            // the snapshot of another feed or endpoint is ignored
+            Assert.assertNull(new InventorySnapshot(file, "feed2", "endpoint1").load());
+            Assert.assertNull(new InventorySnapshot(file, "feed1", "endpoint2").load());
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -16,7 +16,10 @@
  */
 package org.hawkular.agent.monitor.inventory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -24,6 +27,8 @@ import org.hawkular.agent.monitor.inventory.ResourceManager.AddResult;
 import org.hawkular.agent.monitor.inventory.ResourceManager.AddResult.Effect;
 import org.hawkular.agent.monitor.protocol.dmr.DMRLocationResolver;
 import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.hawkular.agent.monitor.protocol.jmx.JMXLocationResolver;
+import org.hawkular.agent.monitor.protocol.jmx.JMXNodeLocation;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -446,12 +451,379 @@ public class ResourceManagerTest {
         Assert.assertFalse(bIter.hasNext());
     }
 
-    private AddResult<DMRNodeLocation> addResourceAndTest(
-            ResourceManager<DMRNodeLocation> rm,
-            Resource<DMRNodeLocation> resource,
+    @Test
+    public void testStaleResources() {
+        ResourceType<DMRNodeLocation> type = ResourceType
+                .<DMRNodeLocation> builder().id(new ID("resType")).name(new Name("resTypeName"))
+                .location(DMRNodeLocation.empty())
+                .build();
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+        Resource<DMRNodeLocation> root1 = Resource
+                .<DMRNodeLocation> builder()
+                .id(new ID("root1")).name(new Name("root1Name")).type(type)
+                .location(DMRNodeLocation.empty()).build();
+        Resource<DMRNodeLocation> child1 = Resource
+                .<DMRNodeLocation> builder()
+                .id(new ID("child1")).name(new Name("child1Name")).type(type).parent(root1)
+                .location(DMRNodeLocation.of("/child=1")).build();
+        Resource<DMRNodeLocation> child2 = Resource
+                .<DMRNodeLocation> builder()
+                .id(new ID("child2")).name(new Name("child2Name")).type(type).parent(root1)
+                .location(DMRNodeLocation.of("/child=2")).build();
+        Resource<DMRNodeLocation> child3 = Resource
+                .<DMRNodeLocation> builder()
+                .id(new ID("child3")).name(new Name("child3Name")).type(type).parent(root1)
+                .location(DMRNodeLocation.of("/child=3")).build();
+
+        // first scan sees everything
+        long generation = rm.nextGeneration();
+        addResourceAndTest(rm, root1, Effect.ADDED);
+        addResourceAndTest(rm, child1, Effect.ADDED);
+        addResourceAndTest(rm, child2, Effect.ADDED);
+        addResourceAndTest(rm, child3, Effect.ADDED);
+        Assert.assertTrue(rm.findStaleResources(generation).isEmpty());
+
+        // second scan sees root1 unchanged, child1 modified and child2 unchanged but not child3
+        generation = rm.nextGeneration();
+        addResourceAndTest(rm, root1, Effect.UNCHANGED);
+        addResourceAndTest(rm, Resource.<DMRNodeLocation> builder(child1).name(new Name("child1NewName")).build(),
+                Effect.MODIFIED);
+        addResourceAndTest(rm, child2, Effect.UNCHANGED);
+        List<Resource<DMRNodeLocation>> stale = rm.findStaleResources(generation);
+        Assert.assertEquals(stale.toString(), 1, stale.size());
+        Assert.assertEquals(child3, stale.get(0));
+        Assert.assertFalse(rm.isStale(root1, generation));
+        Assert.assertFalse(rm.isStale(child1, generation)); // the old object is checked by its ID
+        Assert.assertFalse(rm.isStale(child2, generation));
+        Assert.assertTrue(rm.isStale(child3, generation));
+
+        // once removed, a resource is still stale but no longer found by the sweep
+        rm.removeResource(child3);
+        Assert.assertTrue(rm.findStaleResources(generation).isEmpty());
+        Assert.assertTrue(rm.isStale(child3, generation));
+    }
+
+    @Test
+    public void testFindResourcesByLocationIndex() {
+        ResourceType<DMRNodeLocation> type = ResourceType
+                .<DMRNodeLocation> builder().id(new ID("resType")).name(new Name("resTypeName"))
+                .location(DMRNodeLocation.empty())
+                .build();
+        DMRLocationResolver resolver = new DMRLocationResolver();
+        ResourceManager<DMRNodeLocation> indexed = new ResourceManager<>(resolver);
+        ResourceManager<DMRNodeLocation> unindexed = new ResourceManager<>();
+
+        Resource<DMRNodeLocation> root1 = Resource
+                .<DMRNodeLocation> builder()
+                .id(new ID("root1")).name(new Name("root1Name")).type(type)
+                .location(DMRNodeLocation.empty()).build();
+        List<Resource<DMRNodeLocation>> resources = new ArrayList<>();
+        resources.add(root1);
+        for (int i = 1; i <= 3; i++) {
+            Resource<DMRNodeLocation> child = Resource
+                    .<DMRNodeLocation> builder()
+                    .id(new ID("child" + i)).name(new Name("child" + i + "Name")).type(type).parent(root1)
+                    .location(DMRNodeLocation.of("/child=" + i)).build();
+            resources.add(child);
+            for (int j = 1; j <= 2; j++) {
+                resources.add(Resource
+                        .<DMRNodeLocation> builder()
+                        .id(new ID("grand" + i + j)).name(new Name("grand" + i + j + "Name")).type(type)
+                        .parent(child)
+                        .location(DMRNodeLocation.of("/child=" + i + "/grandchild=" + j)).build());
+            }
+        }
+        for (Resource<DMRNodeLocation> resource : resources) {
+            addResourceAndTest(indexed, resource, Effect.ADDED);
+            addResourceAndTest(unindexed, resource, Effect.ADDED);
+        }
+
+        String[] queries = { "/", "/child=2", "/child=*", "/child=4", "/child=2/grandchild=1", "/child=2/grandchild=*",
+                "/child=*/grandchild=2", "/child=*/grandchild=*", "/other=*/grandchild=1",
+                "/child=1/grandchild=1/great=*" };
+        for (String query : queries) {
+            DMRNodeLocation location = DMRNodeLocation.of(query);
+            Assert.assertEquals(query, new HashSet<>(unindexed.findResources(location, resolver)),
+                    new HashSet<>(indexed.findResources(location, resolver)));
+        }
+        Assert.assertEquals(3, indexed.findResources(DMRNodeLocation.of("/child=*/grandchild=2"), resolver).size());
+
+        // the candidate ancestors of a location are those along its segments
+        Assert.assertEquals(new HashSet<>(Arrays.asList(root1, resources.get(4))), new HashSet<>(
+                indexed.findAncestorCandidates(DMRNodeLocation.of("/child=2/grandchild=3"))));
+        Assert.assertEquals(4, indexed.findAncestorCandidates(DMRNodeLocation.of("/child=*/grandchild=3")).size());
+        Assert.assertEquals(Arrays.asList(root1), indexed.findAncestorCandidates(DMRNodeLocation.of("/child=4")));
+        Assert.assertTrue(indexed.findAncestorCandidates(DMRNodeLocation.empty()).isEmpty());
+        Assert.assertEquals(10, unindexed.findAncestorCandidates(DMRNodeLocation.of("/child=4")).size());
+
+        // a modified resource replaces the old one in the index
+        Resource<DMRNodeLocation> newChild2 = Resource.<DMRNodeLocation> builder(resources.get(4))
+                .name(new Name("child2NewName")).build();
+        addResourceAndTest(indexed, newChild2, Effect.MODIFIED);
+        List<Resource<DMRNodeLocation>> found = indexed.findResources(DMRNodeLocation.of("/child=2"), resolver);
+        Assert.assertEquals(1, found.size());
+        Assert.assertSame(indexed.getResource(newChild2.getID()), found.get(0));
+
+        // removed resources and their descendants are no longer found
+        List<Resource<DMRNodeLocation>> removed = indexed.removeResources(DMRNodeLocation.of("/child=2"), resolver);
+        Assert.assertEquals(removed.toString(), 3, removed.size());
+        Assert.assertTrue(indexed.findResources(DMRNodeLocation.of("/child=2"), resolver).isEmpty());
+        Assert.assertEquals(2, indexed.findResources(DMRNodeLocation.of("/child=*/grandchild=2"), resolver).size());
+        Assert.assertEquals(7, indexed.size());
+    }
+
+    @Test
+    public void testFindJMXAncestorCandidates() throws Exception {
+        ResourceType<JMXNodeLocation> type = ResourceType
+                .<JMXNodeLocation> builder().id(new ID("resType")).name(new Name("resTypeName"))
+                .location(new JMXNodeLocation("d:type=X,name=*"))
+                .build();
+        ResourceManager<JMXNodeLocation> rm = new ResourceManager<>(new JMXLocationResolver());
+        Resource<JMXNodeLocation> parent = Resource
+                .<JMXNodeLocation> builder()
+                .id(new ID("parent")).name(new Name("parentName")).type(type)
+                .location(new JMXNodeLocation("d:type=X,name=Y")).build();
+        addResourceAndTest(rm, parent, Effect.ADDED);
+
+        // the key properties of a child do not start with those of its parent once sorted
+        Assert.assertEquals(Arrays.asList(parent),
+                rm.findAncestorCandidates(new JMXNodeLocation("d:type=X,name=Y,sub=Z")));
+    }
+
+    @Test
+    public void testDeepHierarchy() {
+        ResourceType<DMRNodeLocation> type = ResourceType
+                .<DMRNodeLocation> builder().id(new ID("resType")).name(new Name("resTypeName"))
+                .location(DMRNodeLocation.empty())
+                .build();
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+
+        // deep enough to overflow the stack if the hierarchy was walked recursively
+        int depth = 20000;
+        Resource<DMRNodeLocation> root = Resource.<DMRNodeLocation> builder()
+                .id(new ID("0")).name(new Name("0")).type(type).location(DMRNodeLocation.empty()).build();
+        addResourceAndTest(rm, root, Effect.ADDED);
+        Resource<DMRNodeLocation> parent = root;
+        for (int i = 1; i < depth; i++) {
+            parent = addResourceAndTest(rm, Resource.<DMRNodeLocation> builder()
+                    .id(new ID(String.valueOf(i))).name(new Name(String.valueOf(i))).type(type).parent(parent)
+                    .location(DMRNodeLocation.of("/level=" + i)).build(), Effect.ADDED).getResource();
+        }
+
+        Assert.assertEquals(depth, rm.size(root));
+        Assert.assertEquals(depth, rm.getResourcesBreadthFirst().size());
+        List<Resource<DMRNodeLocation>> removed = rm.removeResource(root);
+        Assert.assertEquals(depth, removed.size());
+        Assert.assertEquals(parent, removed.get(0)); // descendants come before their ancestors
+        Assert.assertEquals(root, removed.get(depth - 1));
+        Assert.assertEquals(0, rm.size());
+    }
+
+    @Test
+    public void testSnapshot() {
+        ResourceType<DMRNodeLocation> type = ResourceType
+                .<DMRNodeLocation> builder().id(new ID("resType")).name(new Name("resTypeName"))
+                .location(DMRNodeLocation.empty())
+                .build();
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+        Resource<DMRNodeLocation> root1 = Resource
+                .<DMRNodeLocation> builder()
+                .id(new ID("root1")).name(new Name("root1Name")).type(type)
+                .location(DMRNodeLocation.empty()).build();
+        Resource<DMRNodeLocation> child1 = Resource
+                .<DMRNodeLocation> builder()
+                .id(new ID("child1")).name(new Name("child1Name")).type(type).parent(root1)
+                .location(DMRNodeLocation.of("/child=1")).build();
+        Resource<DMRNodeLocation> child2 = Resource
+                .<DMRNodeLocation> builder()
+                .id(new ID("child2")).name(new Name("child2Name")).type(type).parent(root1)
+                .location(DMRNodeLocation.of("/child=2")).build();
+        Resource<DMRNodeLocation> grandChild1 = Resource
+                .<DMRNodeLocation> builder()
+                .id(new ID("grand1")).name(new Name("grand1Name")).type(type).parent(child1)
+                .location(DMRNodeLocation.of("/child=1/grandchild=1")).build();
+
+        ResourceManager.Snapshot<DMRNodeLocation> empty = rm.getSnapshot();
+        Assert.assertEquals(0, empty.size());
+
+        // nothing is visible in the snapshot until it is published
+        addResourceAndTest(rm, root1, Effect.ADDED);
+        addResourceAndTest(rm, child1, Effect.ADDED);
+        addResourceAndTest(rm, child2, Effect.ADDED);
+        addResourceAndTest(rm, grandChild1, Effect.ADDED);
+        Assert.assertSame(empty, rm.getSnapshot());
+        ResourceManager.Snapshot<DMRNodeLocation> first = rm.publishSnapshot();
+        Assert.assertSame(first, rm.getSnapshot());
+        Assert.assertEquals(4, first.size());
+        Assert.assertEquals(rm.getResourcesBreadthFirst(), first.getResourcesBreadthFirst());
+        Assert.assertEquals(child1, first.getParent(grandChild1));
+        Assert.assertEquals(2, first.getChildren(root1).size());
+        Assert.assertEquals(1, first.getRootResources().size());
+
+        // unchanged resources do not make a new snapshot
+        addResourceAndTest(rm, child2, Effect.UNCHANGED);
+        Assert.assertSame(first, rm.publishSnapshot());
+
+        // the published snapshot does not change with the tree
+        Resource<DMRNodeLocation> newChild1 = Resource.<DMRNodeLocation> builder(child1)
+                .name(new Name("child1NewName")).build();
+        addResourceAndTest(rm, newChild1, Effect.MODIFIED);
+        rm.removeResource(child2);
+        Assert.assertEquals(4, first.size());
+        Assert.assertEquals("child1Name", first.getResource(child1.getID()).getName().getNameString());
+
+        ResourceManager.Snapshot<DMRNodeLocation> second = rm.publishSnapshot();
+        Assert.assertEquals(first.getVersion() + 1, second.getVersion());
+        Assert.assertEquals(3, second.size());
+        Assert.assertEquals(rm.getResourcesBreadthFirst(), second.getResourcesBreadthFirst());
+        Assert.assertEquals("child1NewName", second.getResource(child1.getID()).getName().getNameString());
+        Assert.assertNull(second.getResource(child2.getID()));
+        Assert.assertEquals(1, second.getChildren(root1).size());
+        Assert.assertEquals(child1, second.getParent(grandChild1));
+        Assert.assertSame(first.getResource(grandChild1.getID()), second.getResource(grandChild1.getID()));
+    }
+
+    @Test
+    public void testSnapshotsShareIndex() {
+        ResourceType<DMRNodeLocation> type = ResourceType
+                .<DMRNodeLocation> builder().id(new ID("resType")).name(new Name("resTypeName"))
+                .location(DMRNodeLocation.empty())
+                .build();
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+        Resource<DMRNodeLocation> root = Resource
+                .<DMRNodeLocation> builder()
+                .id(new ID("root")).name(new Name("rootName")).type(type)
+                .location(DMRNodeLocation.empty()).build();
+        addResourceAndTest(rm, root, Effect.ADDED);
+        for (int i = 0; i < 50; i++) {
+            addResourceAndTest(rm, child(type, root, i, ""), Effect.ADDED);
+        }
+        ResourceManager.Snapshot<DMRNodeLocation> first = rm.publishSnapshot();
+
+        // small changes, one snapshot each - every snapshot sees its own state, however its index is layered
+        List<ResourceManager.Snapshot<DMRNodeLocation>> snapshots = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int n = i % 50;
+            switch (i % 3) {
+                case 0:
+                    Resource<DMRNodeLocation> doomed = rm.getResource(new ID("child" + n));
+                    if (doomed != null) {
+                        rm.removeResource(doomed);
+                    }
+                    break;
+                case 1:
+                    rm.addResource(child(type, root, n, "")); // back if it was removed
+                    break;
+                default:
+                    rm.addResource(child(type, root, 50 + n, "v" + i)); // added or modified
+                    break;
+            }
+            ResourceManager.Snapshot<DMRNodeLocation> snapshot = rm.publishSnapshot();
+            snapshots.add(snapshot);
+            Assert.assertEquals(rm.size(), snapshot.size());
+            for (int id = 0; id < 100; id++) {
+                Resource<DMRNodeLocation> live = rm.getResource(new ID("child" + id));
+                Resource<DMRNodeLocation> frozen = snapshot.getResource(new ID("child" + id));
+                Assert.assertSame("child" + id, live, frozen);
+            }
+        }
+        Assert.assertEquals(51, first.size());
+        for (int id = 0; id < 50; id++) {
+            Assert.assertNotNull(first.getResource(new ID("child" + id)));
+            Assert.assertEquals(root, first.getParent(first.getResource(new ID("child" + id))));
+        }
+        Assert.assertNull(first.getResource(new ID("child" + 51)));
+        for (ResourceManager.Snapshot<DMRNodeLocation> snapshot : snapshots) {
+            Assert.assertEquals(snapshot.size(), snapshot.getResourcesBreadthFirst().size());
+        }
+    }
+
+    private static Resource<DMRNodeLocation> child(ResourceType<DMRNodeLocation> type,
+            Resource<DMRNodeLocation> root, int i, String version) {
+        return Resource.<DMRNodeLocation> builder()
+                .id(new ID("child" + i)).name(new Name("child" + i + "Name" + version)).type(type).parent(root)
+                .location(DMRNodeLocation.of("/child=" + i)).build();
+    }
+
+    @Test
+    public void testFingerprint() {
+        ResourceType<DMRNodeLocation> type = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("resType"))
+                .name(new Name("resTypeName"))
+                .location(DMRNodeLocation.empty())
+                .build();
+        ResourceConfigurationPropertyType<DMRNodeLocation> configType = new ResourceConfigurationPropertyType<>(
+                new ID("configType"), new Name("configTypeName"),
+                new AttributeLocation<>(DMRNodeLocation.empty(), "attr"));
+
+        Resource<DMRNodeLocation> resource = buildResource(type, configType, "root1Name", "value1");
+        Resource<DMRNodeLocation> same = buildResource(type, configType, "root1Name", "value1");
+        Assert.assertEquals(resource.getFingerprint(), same.getFingerprint());
+        Assert.assertNotEquals(resource.getFingerprint(),
+                buildResource(type, configType, "root1NameUPDATE", "value1").getFingerprint());
+        Assert.assertNotEquals(resource.getFingerprint(),
+                buildResource(type, configType, "root1Name", "value2").getFingerprint());
+        Assert.assertNotEquals(resource.getFingerprint(),
+                buildResource(type, configType, "root1Name", null).getFingerprint());
+
+        // properties are part of the fingerprint, too
+        long fingerprint = same.getFingerprint();
+        same.addProperty("prop1", "propValue1");
+        Assert.assertNotEquals(fingerprint, same.getFingerprint());
+        same.removeProperty("prop1");
+        Assert.assertEquals(fingerprint, same.getFingerprint());
+
+        // a value that prints the same as a string is still a different value
+        same.addProperty("prop1", "1");
+        long withString = same.getFingerprint();
+        same.addProperty("prop1", 1);
+        Assert.assertNotEquals(withString, same.getFingerprint());
+        same.removeProperty("prop1");
+
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+        addResourceAndTest(rm, resource, Effect.ADDED);
+        addResourceAndTest(rm, buildResource(type, configType, "root1Name", "value1"), Effect.UNCHANGED);
+        addResourceAndTest(rm, buildResource(type, configType, "root1Name", "value2"), Effect.MODIFIED);
+        Resource<DMRNodeLocation> withProperty = buildResource(type, configType, "root1Name", "value2");
+        withProperty.addProperty("prop1", "propValue1");
+        addResourceAndTest(rm, withProperty, Effect.MODIFIED);
+
+        // equal fingerprints do not hide a change the fingerprint cannot see
+        Resource<DMRNodeLocation> withValue = buildResource(type, configType, "root1Name", "value2");
+        withValue.addProperty("prop1", new Opaque());
+        addResourceAndTest(rm, withValue, Effect.MODIFIED);
+        Resource<DMRNodeLocation> withOtherValue = buildResource(type, configType, "root1Name", "value2");
+        withOtherValue.addProperty("prop1", new Opaque());
+        Assert.assertEquals(withValue.getFingerprint(), withOtherValue.getFingerprint());
+        addResourceAndTest(rm, withOtherValue, Effect.MODIFIED);
+    }
+
+    // instances are never equal to each other, but all print the same
+    private static class Opaque {
+        @Override
+        public String toString() {
+            return "opaque";
+        }
+    }
+
+    private Resource<DMRNodeLocation> buildResource(ResourceType<DMRNodeLocation> type,
+            ResourceConfigurationPropertyType<DMRNodeLocation> configType, String name, String configValue) {
+        return Resource.<DMRNodeLocation> builder()
+                .id(new ID("root1"))
+                .name(new Name(name))
+                .location(DMRNodeLocation.empty())
+                .type(type)
+                .resourceConfigurationProperty(new ResourceConfigurationPropertyInstance<>(new ID("config1"),
+                        new Name("config1Name"), configType.getAttributeLocation(), configType, configValue))
+                .build();
+    }
+
+    private <L> AddResult<L> addResourceAndTest(
+            ResourceManager<L> rm,
+            Resource<L> resource,
             Effect effectToExpect) {
 
-        AddResult<DMRNodeLocation> addResult = rm.addResource(resource);
+        AddResult<L> addResult = rm.addResource(resource);
         Assert.assertEquals(effectToExpect, addResult.getEffect());
         return addResult;
     }
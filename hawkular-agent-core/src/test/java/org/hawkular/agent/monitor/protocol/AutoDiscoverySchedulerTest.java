@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.agent.monitor.api.InventoryEvent;
+import org.hawkular.agent.monitor.api.InventoryListener;
+import org.hawkular.agent.monitor.diagnostics.DiagnosticsImpl;
+import org.hawkular.agent.monitor.protocol.EndpointServiceTest.InMemoryEndpointService;
+import org.hawkular.agent.monitor.protocol.EndpointServiceTest.InMemorySession;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class AutoDiscoverySchedulerTest {
+
+    @Test
+    public void testFixedPeriod() {
+        AutoDiscoveryScheduler scheduler = new AutoDiscoveryScheduler(Collections.emptyList(), null, 600, 0, 0);
+        Assert.assertFalse(scheduler.isAdaptive());
+        Assert.assertEquals(600, scheduler.nextInterval(600, 0, 10));
+        Assert.assertEquals(600, scheduler.nextInterval(600, 5, 10));
+        Assert.assertEquals(600, scheduler.nextInterval(600, 0, 3600000));
+    }
+
+    @Test
+    public void testAdaptivePeriod() {
+        AutoDiscoveryScheduler scheduler = new AutoDiscoveryScheduler(Collections.emptyList(), null, 600, 60, 3600);
+        Assert.assertTrue(scheduler.isAdaptive());
+
+        // no changes - grow, but not beyond the max
+        Assert.assertEquals(900, scheduler.nextInterval(600, 0, 10));
+        Assert.assertEquals(3600, scheduler.nextInterval(3000, 0, 10));
+
+        // changes - shrink, but not below the min
+        Assert.assertEquals(300, scheduler.nextInterval(600, 1, 10));
+        Assert.assertEquals(60, scheduler.nextInterval(100, 1, 10));
+
+        // slow scans back off even if there were changes
+        Assert.assertEquals(400, scheduler.nextInterval(600, 1, 100000));
+        Assert.assertEquals(3600, scheduler.nextInterval(600, 1, 3600000));
+    }
+
+    @Test
+    public void testBoundsIncludePeriod() {
+        AutoDiscoveryScheduler scheduler = new AutoDiscoveryScheduler(Collections.emptyList(), null, 600, 0, 900);
+        Assert.assertEquals(600, scheduler.getMinPeriodSecs());
+        Assert.assertEquals(900, scheduler.getMaxPeriodSecs());
+
+        scheduler = new AutoDiscoveryScheduler(Collections.emptyList(), null, 600, 900, 1200);
+        Assert.assertEquals(600, scheduler.getMinPeriodSecs());
+        Assert.assertEquals(1200, scheduler.getMaxPeriodSecs());
+    }
+
+    @Test
+    public void testScansAgainAfterFailedScan() throws Exception {
+        // every scan fails once it has discovered the resources, when the listeners are told about them
+        AtomicInteger scans = new AtomicInteger();
+        InMemoryEndpointService endpointService = new InMemoryEndpointService(null);
+        endpointService.addInventoryListener(new InventoryListener() {
+            @Override
+            public <L, S extends Session<L>> void receivedEvent(InventoryEvent<L, S> event) {
+                scans.incrementAndGet();
+                throw new IllegalStateException("Listener failure");
+            }
+        });
+        endpointService.start();
+        ProtocolService<DMRNodeLocation, InMemorySession> service = ProtocolService
+                .<DMRNodeLocation, InMemorySession> builder("test")
+                .endpointService(endpointService)
+                .build();
+
+        AutoDiscoveryScheduler scheduler = new AutoDiscoveryScheduler(Collections.singletonList(service),
+                new DiagnosticsImpl(null, new MetricRegistry(), "feed"), 1, 0, 0);
+        scheduler.start();
+        try {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (scans.get() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue("No scan after a failed scan", scans.get() >= 2);
+        } finally {
+            scheduler.stop();
+            endpointService.stop();
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.hawkular.agent.monitor.api.InventoryEvent;
+import org.hawkular.agent.monitor.api.InventoryListener;
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.EndpointConfiguration;
+import org.hawkular.agent.monitor.diagnostics.DiagnosticsImpl;
+import org.hawkular.agent.monitor.inventory.AttributeLocation;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.InventorySnapshot;
+import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceManager;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
+import org.hawkular.agent.monitor.protocol.dmr.DMRLocationResolver;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.hawkular.agent.monitor.util.Consumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class EndpointServiceTest {
+
+    /**
+     * Holds up a query until it is opened.
+     */
+    static class Gate {
+        private final CountDownLatch reached = new CountDownLatch(1);
+        private final CountDownLatch opened = new CountDownLatch(1);
+    }
+
+    /**
+     * Answers queries from a set of locations and tells if it was ever used by more than one thread.
+     */
+    static class InMemoryDriver implements Driver<DMRNodeLocation> {
+        private final InMemoryEndpointService service;
+        private final Set<DMRNodeLocation> nodes;
+        private final List<DMRNodeLocation> queries;
+        private final DMRLocationResolver resolver = new DMRLocationResolver();
+        private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger inUse = new AtomicInteger();
+        private volatile boolean usedConcurrently;
+
+        InMemoryDriver(InMemoryEndpointService service) {
+            this.service = service;
+            this.nodes = service.nodes;
+            this.queries = service.queries;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <N> Map<DMRNodeLocation, N> fetchNodes(DMRNodeLocation query) throws ProtocolException {
+            threads.add(Thread.currentThread());
+            queries.add(query);
+            if (inUse.incrementAndGet() > 1) {
+                usedConcurrently = true;
+            }
+            try {
+                Thread.sleep(2); // give other threads a chance to run into this one
+                if (service.failingQueries.contains(query)) {
+                    throw new ProtocolException("Query failed: " + query);
+                }
+                Gate gate = service.gates.get(query);
+                if (gate != null) {
+                    gate.reached.countDown();
+                    gate.opened.await(10, TimeUnit.SECONDS);
+                }
+                Map<DMRNodeLocation, Object> result = new HashMap<>();
+                for (DMRNodeLocation node : nodes) {
+                    if (resolver.matches(query, node)) {
+                        result.put(node, node);
+                    }
+                }
+                return (Map<DMRNodeLocation, N>) Collections.unmodifiableMap(result);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProtocolException(e);
+            } finally {
+                inUse.decrementAndGet();
+            }
+        }
+
+        @Override
+        public Object fetchAttribute(AttributeLocation<DMRNodeLocation> attributeLocation) {
+            return null;
+        }
+
+        @Override
+        public Map<DMRNodeLocation, Object> fetchAttributeAsMap(AttributeLocation<DMRNodeLocation> location) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public boolean attributeExists(AttributeLocation<DMRNodeLocation> attributeLocation) {
+            return false;
+        }
+    }
+
+    static class InMemorySession extends Session<DMRNodeLocation> {
+        private final InMemoryEndpointService service;
+
+        InMemorySession(InMemoryEndpointService service, InMemoryDriver driver) {
+            super(service.getFeedId(), service.getMonitoredEndpoint(), service.getResourceTypeManager(), driver,
+                    service.getLocationResolver());
+            this.service = service;
+        }
+
+        @Override
+        public void close() {
+            service.openSessions.decrementAndGet();
+        }
+    }
+
+    /**
+     * An endpoint whose resources are the locations in {@link #nodes}: a server with subsystems and deployments,
+     * and deployments with subdeployments.
+     */
+    static class InMemoryEndpointService extends EndpointService<DMRNodeLocation, InMemorySession> {
+        private final Set<DMRNodeLocation> nodes = ConcurrentHashMap.newKeySet();
+        private final List<InMemoryDriver> drivers = new CopyOnWriteArrayList<>();
+        private final List<DMRNodeLocation> queries = new CopyOnWriteArrayList<>();
+        private final AtomicInteger openSessions = new AtomicInteger();
+        private final Set<DMRNodeLocation> failingQueries = ConcurrentHashMap.newKeySet();
+        private final Map<DMRNodeLocation, Gate> gates = new ConcurrentHashMap<>();
+
+        InMemoryEndpointService(Map<String, Object> customData) {
+            super("feed", MonitoredEndpoint.of(new EndpointConfiguration("server", true, null, null, null, null,
+                    customData, null), null), new ResourceTypeManager<>(types()), new DMRLocationResolver(),
+                    new DiagnosticsImpl(null, new MetricRegistry(), "feed").getDMRDiagnostics());
+            nodes.add(DMRNodeLocation.empty());
+            for (int i = 0; i < 5; i++) {
+                nodes.add(DMRNodeLocation.of("/subsystem=s" + i));
+                nodes.add(DMRNodeLocation.of("/deployment=d" + i));
+                for (int j = 0; j < 3; j++) {
+                    nodes.add(DMRNodeLocation.of("/deployment=d" + i + "/subdeployment=sd" + j));
+                }
+            }
+        }
+
+        @Override
+        public InMemorySession openSession() {
+            InMemoryDriver driver = new InMemoryDriver(this);
+            drivers.add(driver);
+            openSessions.incrementAndGet();
+            return new InMemorySession(this, driver);
+        }
+
+        private static List<ResourceType<DMRNodeLocation>> types() {
+            return Arrays.asList(
+                    type("Server", DMRNodeLocation.empty(), "Server", null),
+                    type("Subsystem", DMRNodeLocation.of("/subsystem=*"), "%-", "Server"),
+                    type("Deployment", DMRNodeLocation.of("/deployment=*"), "%-", "Server"),
+                    type("Subdeployment", DMRNodeLocation.of("/subdeployment=*"), "%-", "Deployment"));
+        }
+
+        private static ResourceType<DMRNodeLocation> type(String name, DMRNodeLocation location,
+                String nameTemplate, String parent) {
+            ResourceType.Builder<?, DMRNodeLocation> builder = ResourceType.<DMRNodeLocation> builder()
+                    .id(new ID(name))
+                    .name(new Name(name))
+                    .location(location)
+                    .resourceNameTemplate(nameTemplate);
+            if (parent != null) {
+                builder.parent(new Name(parent));
+            }
+            return builder.build();
+        }
+    }
+
+    @Test
+    public void testParallelDiscovery() throws Exception {
+        Map<String, Object> customData = new HashMap<>();
+        customData.put(EndpointService.PARALLEL_DISCOVERY_KEY, Boolean.TRUE);
+        customData.put(EndpointService.DISCOVERY_PARALLELISM_KEY, 4);
+        InMemoryEndpointService parallel = new InMemoryEndpointService(customData);
+        InMemoryEndpointService serial = new InMemoryEndpointService(null);
+
+        parallel.start();
+        serial.start();
+        DiscoveryScanSummary summary = discoverAll(parallel);
+        discoverAll(serial);
+
+        Assert.assertEquals(0, summary.getErrorCount());
+        Assert.assertEquals(parallel.nodes.size(), summary.getChangeCount());
+        Assert.assertEquals(resourceIds(serial), resourceIds(parallel));
+
+        // each worker thread queried the endpoint with a session of its own, and all those sessions are closed
+        Assert.assertTrue(parallel.drivers.size() >= 2);
+        for (InMemoryDriver driver : parallel.drivers) {
+            Assert.assertFalse(driver.usedConcurrently);
+            Assert.assertTrue(driver.threads.toString(), driver.threads.size() <= 1);
+        }
+        Assert.assertEquals(0, parallel.openSessions.get());
+
+        parallel.stop();
+        serial.stop();
+    }
+
+    @Test
+    public void testSubtreeDiscovery() throws Exception {
+        InMemoryEndpointService service = new InMemoryEndpointService(null);
+        service.start();
+        discoverAll(service);
+        int count = service.getResourceManager().size();
+
+        // a new deployment is discovered under the known server, without querying anything else
+        service.nodes.add(DMRNodeLocation.of("/deployment=d5"));
+        service.nodes.add(DMRNodeLocation.of("/deployment=d5/subdeployment=sd0"));
+        service.queries.clear();
+        Assert.assertTrue(service.discoverSubtree(DMRNodeLocation.of("/deployment=d5")));
+        Assert.assertEquals(Arrays.asList(DMRNodeLocation.of("/deployment=d5"),
+                DMRNodeLocation.of("/deployment=d5/subdeployment=*")), service.queries);
+        Assert.assertEquals(count + 2, service.getResourceManager().size());
+        Assert.assertEquals(1, service.getResourceManager()
+                .findResources(DMRNodeLocation.of("/deployment=d5/subdeployment=sd0"), service.getLocationResolver())
+                .size());
+
+        // a removed subdeployment is removed, the rest of the deployment is kept
+        service.nodes.remove(DMRNodeLocation.of("/deployment=d0/subdeployment=sd1"));
+        Assert.assertTrue(service.discoverSubtree(DMRNodeLocation.of("/deployment=d0")));
+        Assert.assertEquals(count + 1, service.getResourceManager().size());
+        Assert.assertTrue(service.getResourceManager()
+                .findResources(DMRNodeLocation.of("/deployment=d0/subdeployment=sd1"), service.getLocationResolver())
+                .isEmpty());
+
+        service.stop();
+    }
+
+    @Test
+    public void testSubtreeDiscoveryFallsBackToFullDiscovery() throws Exception {
+        InMemoryEndpointService service = new InMemoryEndpointService(null);
+        service.start();
+        discoverAll(service);
+
+        // a location that is not under any known resource (or a root) of a matching type requires a full discovery
+        service.nodes.add(DMRNodeLocation.of("/subsystem=s5"));
+        Assert.assertFalse(service.discoverSubtree(DMRNodeLocation.of("/deployment=d0/unknown=u0")));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (service.getResourceManager().findResources(DMRNodeLocation.of("/subsystem=s5"),
+                service.getLocationResolver()).isEmpty()) {
+            Assert.assertTrue("No full discovery", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        service.stop();
+    }
+
+    @Test
+    public void testFailedQueryKeepsUnreachedResources() throws Exception {
+        InMemoryEndpointService service = new InMemoryEndpointService(null);
+        service.start();
+        discoverAll(service);
+        int count = service.getResourceManager().size();
+
+        // the subdeployments of d0 cannot be queried - whether sd0 is still there is not known, so it is kept
+        service.nodes.remove(DMRNodeLocation.of("/deployment=d0/subdeployment=sd0"));
+        service.nodes.remove(DMRNodeLocation.of("/subsystem=s4"));
+        service.failingQueries.add(DMRNodeLocation.of("/deployment=d0/subdeployment=*"));
+        DiscoveryScanSummary summary = discoverAll(service);
+
+        Assert.assertEquals(1, summary.getErrorCount());
+        Assert.assertEquals(count - 1, service.getResourceManager().size());
+        Assert.assertEquals(1, service.getResourceManager().findResources(
+                DMRNodeLocation.of("/deployment=d0/subdeployment=sd0"), service.getLocationResolver()).size());
+        Assert.assertTrue(service.getResourceManager().findResources(DMRNodeLocation.of("/subsystem=s4"),
+                service.getLocationResolver()).isEmpty());
+
+        service.stop();
+    }
+
+    @Test
+    public void testCancelledDiscoveryKeepsUnreachedResources() throws Exception {
+        InMemoryEndpointService service = new InMemoryEndpointService(null);
+        service.start();
+        discoverAll(service);
+        int count = service.getResourceManager().size();
+
+        // the scan is cancelled while it queries the deployments - it does not go on to their subdeployments
+        service.nodes.remove(DMRNodeLocation.of("/deployment=d4/subdeployment=sd2"));
+        Gate gate = new Gate();
+        service.gates.put(DMRNodeLocation.of("/deployment=*"), gate);
+        service.queries.clear();
+        CountDownLatch done = new CountDownLatch(1);
+        service.discoverAll(new Consumer<DiscoveryScanSummary>() {
+            @Override
+            public void accept(DiscoveryScanSummary summary) {
+                done.countDown();
+            }
+
+            @Override
+            public void report(Throwable e) {
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(gate.reached.await(10, TimeUnit.SECONDS));
+        service.cancelDiscovery();
+        gate.opened.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(1, service.getDiagnostics().getDiscoveryCancellationRate().getCount());
+        Assert.assertEquals(count, service.getResourceManager().size());
+        Assert.assertFalse(service.queries.contains(DMRNodeLocation.of("/deployment=d4/subdeployment=*")));
+
+        service.stop();
+    }
+
+    @Test
+    public void testTimedOutDiscoveryKeepsUnreachedResources() throws Exception {
+        Map<String, Object> customData = new HashMap<>();
+        customData.put(EndpointService.DISCOVERY_SCAN_TIMEOUT_KEY, 1);
+        InMemoryEndpointService service = new InMemoryEndpointService(customData);
+        service.start();
+        discoverAll(service);
+        int count = service.getResourceManager().size();
+
+        // the deployments take longer to query than the whole scan may take
+        service.nodes.remove(DMRNodeLocation.of("/deployment=d4/subdeployment=sd2"));
+        Gate gate = new Gate();
+        service.gates.put(DMRNodeLocation.of("/deployment=*"), gate);
+        new Thread(() -> {
+            try {
+                Thread.sleep(1500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            gate.opened.countDown();
+        }).start();
+        discoverAll(service);
+
+        Assert.assertEquals(1, service.getDiagnostics().getDiscoveryTimeoutRate().getCount());
+        Assert.assertEquals(count, service.getResourceManager().size());
+
+        service.stop();
+    }
+
+    @Test
+    public void testPreviousInventoryOfUnknownType() throws Exception {
+        File dir = Files.createTempDirectory("endpoint-service-test").toFile();
+        File file = new File(dir, "server.inventory");
+        try {
+            // before the restart, the agent also synced a resource of a type it no longer knows
+            ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+            Resource<DMRNodeLocation> gone = rm.addResource(Resource.<DMRNodeLocation> builder()
+                    .id(new ID("feed~server~/gone=g0"))
+                    .name(new Name("g0"))
+                    .location(DMRNodeLocation.of("/gone=g0"))
+                    .type(InMemoryEndpointService.type("Gone", DMRNodeLocation.of("/gone=*"), "%-", null))
+                    .build()).getResource();
+            gone.setPersistedTime(1000L);
+            InventorySnapshot snapshot = new InventorySnapshot(file, "feed", "server");
+            snapshot.save(rm);
+
+            InMemoryEndpointService service = new InMemoryEndpointService(null);
+            service.setInventorySnapshot(snapshot);
+            List<InventoryEvent<?, ?>> events = new CopyOnWriteArrayList<>();
+            service.addInventoryListener(new InventoryListener() {
+                @Override
+                public <L, S extends Session<L>> void receivedEvent(InventoryEvent<L, S> event) {
+                    events.add(event);
+                }
+            });
+            service.start();
+            DiscoveryScanSummary summary = discoverAll(service);
+
+            // the resource cannot be reported as removed without its type - it is left alone
+            Assert.assertEquals(0, summary.getErrorCount());
+            Assert.assertEquals(1, events.size());
+            Assert.assertEquals(new ArrayList<>(), events.get(0).getRemoved());
+            service.stop();
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    private static DiscoveryScanSummary discoverAll(EndpointService<?, ?> service) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<DiscoveryScanSummary> result = new AtomicReference<>();
+        service.discoverAll(new Consumer<DiscoveryScanSummary>() {
+            @Override
+            public void accept(DiscoveryScanSummary summary) {
+                result.set(summary);
+                done.countDown();
+            }
+
+            @Override
+            public void report(Throwable e) {
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private static Set<String> resourceIds(EndpointService<?, ?> service) {
+        return service.getResourceManager().getResourcesBreadthFirst().stream()
+                .map(r -> r.getID().getIDString())
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+import org.hawkular.agent.monitor.protocol.MetricLabelTemplate.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricLabelTemplateTest {
+
+    private static final MetricLabelTemplate.Values VALUES = new MetricLabelTemplate.Values(
+            "feed1", "Local WildFly", "Datasource [ExampleDS]", "ActiveCount", "Active Connections", "NONE");
+
+    /**
+     * This is how the tokens were replaced before templates were parsed.
+     */
+    private static String replaceAll(String template, MetricLabelTemplate.Values values) {
+        for (Token token : Token.values()) {
+            template = template.replaceAll(token.getText(), values.get(token));
+        }
+        return template;
+    }
+
+    @Test
+    public void testRenderSameAsReplaceAll() {
+        String[] templates = {
+                "",
+                "name",
+                "%FeedId",
+                "%ManagedServerName_%ResourceName",
+                "%MetricTypeName [%MetricTypeUnits] of %AttributeName",
+                "%FeedId%FeedId%FeedId",
+                "%ResourceName%",
+                "%ResourceNames",
+                "%Unknown %FeedId",
+                "%FeedIdentity",
+                "server %server% of %-host% (%1) %ResourceName",
+        };
+        StringBuilder buffer = new StringBuilder();
+        for (String template : templates) {
+            String rendered = MetricLabelTemplate.parse(template).render(VALUES, buffer);
+            Assert.assertEquals(template, replaceAll(template, VALUES), rendered);
+        }
+    }
+
+    @Test
+    public void testPositionalTokens() {
+        Assert.assertFalse(MetricLabelTemplate.parse("%FeedId_%ResourceName").hasPositionalTokens());
+        Assert.assertTrue(MetricLabelTemplate.parse("%FeedId_%1").hasPositionalTokens());
+        Assert.assertTrue(MetricLabelTemplate.parse("%server%").hasPositionalTokens());
+        Assert.assertTrue(MetricLabelTemplate.parse("%-").hasPositionalTokens());
+    }
+
+    @Test
+    public void testCannotRender() {
+        StringBuilder buffer = new StringBuilder();
+
+        // a literal '%' followed by a value could be taken for a token by the later replacements
+        Assert.assertNull(MetricLabelTemplate.parse("%Resource%FeedId").render(VALUES, buffer));
+        Assert.assertNull(MetricLabelTemplate.parse("%%FeedId").render(VALUES, buffer));
+
+        // values that are special to the replacements
+        MetricLabelTemplate template = MetricLabelTemplate.parse("%ResourceName");
+        Assert.assertNull(template.render(new MetricLabelTemplate.Values(
+                "feed1", "Local WildFly", "%FeedId", "ActiveCount", "Active Connections", "NONE"), buffer));
+        Assert.assertNull(template.render(new MetricLabelTemplate.Values(
+                "feed1", "Local WildFly", "cost in $", "ActiveCount", "Active Connections", "NONE"), buffer));
+        Assert.assertNull(template.render(new MetricLabelTemplate.Values(
+                "feed1", "Local WildFly", "Name", null, "Active Connections", "NONE"), buffer));
+
+        // but templates without tokens never need the values
+        Assert.assertEquals("name", MetricLabelTemplate.parse("name").render(new MetricLabelTemplate.Values(
+                "feed1", "Local WildFly", "Name", null, "Active Connections", "NONE"), buffer));
+    }
+}
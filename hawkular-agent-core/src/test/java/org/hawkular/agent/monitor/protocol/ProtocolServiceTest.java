@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.hawkular.agent.monitor.protocol.EndpointServiceTest.InMemoryEndpointService;
+import org.hawkular.agent.monitor.protocol.EndpointServiceTest.InMemorySession;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProtocolServiceTest {
+
+    @Test
+    public void testInventorySnapshotOfAddedEndpoint() throws Exception {
+        File dir = Files.createTempDirectory("protocol-service-test").toFile();
+        File file = new File(dir, "test-server.inventory");
+        ProtocolService<DMRNodeLocation, InMemorySession> protocolService = ProtocolService
+                .<DMRNodeLocation, InMemorySession> builder("Test")
+                .build();
+        try {
+            protocolService.setInventorySnapshotDir("feed", dir);
+            protocolService.start();
+
+            // an endpoint added once the agent is running keeps a snapshot just like the configured ones
+            InMemoryEndpointService endpointService = new InMemoryEndpointService(null);
+            protocolService.add(endpointService);
+            endpointService.saveInventorySnapshot();
+            Assert.assertTrue(file.isFile());
+        } finally {
+            protocolService.stop();
+            file.delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol.dmr;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.EndpointConfiguration;
+import org.hawkular.agent.monitor.diagnostics.DiagnosticsImpl;
+import org.hawkular.agent.monitor.diagnostics.ProtocolDiagnostics;
+import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
+import org.jboss.as.controller.PathAddress;
+import org.jboss.as.controller.PathElement;
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class DMRRecursiveDriverTest {
+
+    private final MonitoredEndpoint<EndpointConfiguration> endpoint = MonitoredEndpoint.of(
+            new EndpointConfiguration("server", true, null, null, null, null, null, null), null);
+    private final ProtocolDiagnostics diagnostics = new DiagnosticsImpl(null, new MetricRegistry(), "feed")
+            .getDMRDiagnostics();
+
+    private ModelNode server;
+    private final List<ModelNode> requests = new ArrayList<>();
+    private ModelControllerClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        // /subsystem=a/thing=1/part=x/bit=1, /subsystem=a/thing=2 and /subsystem=b
+        server = resource("server");
+        ModelNode a = server.get("subsystem", "a").set(resource("a"));
+        ModelNode thing1 = a.get("thing", "1").set(resource("1"));
+        a.get("thing", "2").set(resource("2")).get("part");
+        ModelNode x = thing1.get("part", "x").set(resource("x"));
+        x.get("bit", "1").set(resource("1"));
+        server.get("subsystem", "b").set(resource("b")).get("thing");
+
+        client = mock(ModelControllerClient.class);
+        when(client.execute(any(ModelNode.class))).thenAnswer(i -> {
+            ModelNode request = (ModelNode) i.getArguments()[0];
+            synchronized (requests) {
+                requests.add(request);
+            }
+            return readResource(request);
+        });
+    }
+
+    @Test
+    public void testSameNodesAsPerLevelReads() throws Exception {
+        DMRRecursiveDriver recursive = new DMRRecursiveDriver(client, endpoint, diagnostics, 0, 1024 * 1024, 2,
+                new AtomicBoolean());
+        DMRDriver perLevel = new DMRDriver(client, endpoint, diagnostics);
+
+        // the first query is read two levels deep, the queries within those two levels are answered from memory
+        assertSameNodes(recursive, perLevel, "/subsystem=*", "a", "b");
+        assertSameNodes(recursive, perLevel, "/subsystem=a/thing=*", "1", "2");
+        assertSameNodes(recursive, perLevel, "/subsystem=a/thing=1", "1");
+        assertSameNodes(recursive, perLevel, "/subsystem=a/thing=1/part=*", "x");
+        assertSameNodes(recursive, perLevel, "/subsystem=a/thing=2/part=*");
+        assertSameNodes(recursive, perLevel, "/subsystem=b/thing=*");
+        assertSameNodes(recursive, perLevel, "/subsystem=c");
+        Assert.assertEquals(1, recursiveRequests());
+
+        // the bits are three levels down so they need a read of their own
+        assertSameNodes(recursive, perLevel, "/subsystem=a/thing=1/part=x/bit=*", "1");
+        Assert.assertEquals(2, recursiveRequests());
+        assertSameNodes(recursive, perLevel, "/subsystem=a/thing=1/part=x/bit=1", "1");
+        Assert.assertEquals(2, recursiveRequests());
+    }
+
+    @Test
+    public void testSizeLimitExceeded() throws Exception {
+        AtomicBoolean disabled = new AtomicBoolean();
+        DMRRecursiveDriver recursive = new DMRRecursiveDriver(client, endpoint, diagnostics, 0, 10, 2, disabled);
+        DMRDriver perLevel = new DMRDriver(client, endpoint, diagnostics);
+
+        // the model read is too large to be kept, but the nodes that were asked for are still returned
+        assertSameNodes(recursive, perLevel, "/subsystem=*", "a", "b");
+        Assert.assertEquals(1, recursiveRequests());
+        Assert.assertTrue(disabled.get());
+
+        // from now on, this and any other driver sharing the flag read one level at a time
+        assertSameNodes(recursive, perLevel, "/subsystem=a/thing=*", "1", "2");
+        DMRRecursiveDriver other = new DMRRecursiveDriver(client, endpoint, diagnostics, 0, 1024 * 1024, 2,
+                disabled);
+        assertSameNodes(other, perLevel, "/subsystem=a/thing=1/part=*", "x");
+        Assert.assertEquals(1, recursiveRequests());
+    }
+
+    private void assertSameNodes(DMRDriver recursive, DMRDriver perLevel, String query, String... expectedNames)
+            throws Exception {
+        Map<String, String> expected = names(perLevel.fetchNodes(DMRNodeLocation.of(query)));
+        Map<String, String> actual = names(recursive.fetchNodes(DMRNodeLocation.of(query)));
+        Assert.assertEquals(query, expected, actual);
+        Assert.assertEquals(query, Arrays.asList(expectedNames), new ArrayList<>(actual.values()));
+    }
+
+    private static Map<String, String> names(Map<DMRNodeLocation, ModelNode> nodes) {
+        Map<String, String> result = new TreeMap<>();
+        nodes.forEach((location, node) -> result.put(location.toString(), node.get("name").asString()));
+        return result;
+    }
+
+    private int recursiveRequests() {
+        synchronized (requests) {
+            return (int) requests.stream().filter(r -> r.hasDefined("recursive") && r.get("recursive").asBoolean())
+                    .count();
+        }
+    }
+
+    private static ModelNode resource(String name) {
+        ModelNode node = new ModelNode();
+        node.get("name").set(name);
+        return node;
+    }
+
+    /**
+     * Answers a {@code read-resource} request the way a server would - recursively down to the requested depth,
+     * and with a list of results if the address has wildcards.
+     */
+    private ModelNode readResource(ModelNode request) {
+        PathAddress address = PathAddress.pathAddress(request.get("address"));
+        int depth = 0;
+        if (request.hasDefined("recursive") && request.get("recursive").asBoolean()) {
+            depth = request.hasDefined("recursive-depth") ? request.get("recursive-depth").asInt()
+                    : Integer.MAX_VALUE;
+        }
+
+        List<ModelNode> results = new ArrayList<>();
+        find(server, PathAddress.EMPTY_ADDRESS, address, depth, results);
+        ModelNode response = new ModelNode();
+        if (address.isMultiTarget()) {
+            response.get("outcome").set("success");
+            response.get("result").setEmptyList();
+            results.forEach(r -> response.get("result").add(r));
+        } else if (results.isEmpty()) {
+            response.get("outcome").set("failed");
+            response.get("failure-description").set("not found: " + address);
+        } else {
+            response.get("outcome").set("success");
+            response.get("result").set(results.get(0).get("result"));
+        }
+        return response;
+    }
+
+    private static void find(ModelNode node, PathAddress current, PathAddress query, int depth,
+            List<ModelNode> results) {
+        if (current.size() == query.size()) {
+            ModelNode result = new ModelNode();
+            result.get("address").set(current.toModelNode());
+            result.get("outcome").set("success");
+            result.get("result").set(truncate(node, depth));
+            results.add(result);
+            return;
+        }
+        PathElement element = query.getElement(current.size());
+        ModelNode children = node.get(element.getKey());
+        if (!children.isDefined()) {
+            return;
+        }
+        for (Property child : children.asPropertyList()) {
+            if (element.isWildcard() || element.getValue().equals(child.getName())) {
+                PathAddress childAddress = current.append(PathElement.pathElement(element.getKey(), child.getName()));
+                find(child.getValue(), childAddress, query, depth, results);
+            }
+        }
+    }
+
+    // children below the given depth are listed by name only
+    private static ModelNode truncate(ModelNode node, int depth) {
+        ModelNode result = new ModelNode();
+        for (Property property : node.asPropertyList()) {
+            if (property.getName().equals("name")) {
+                result.get("name").set(property.getValue());
+            } else if (!property.getValue().isDefined()) {
+                result.get(property.getName());
+            } else {
+                for (Property child : property.getValue().asPropertyList()) {
+                    ModelNode value = result.get(property.getName(), child.getName());
+                    if (depth > 0) {
+                        value.set(truncate(child.getValue(), depth - 1));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
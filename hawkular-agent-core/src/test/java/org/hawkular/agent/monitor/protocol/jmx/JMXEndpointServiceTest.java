@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.protocol.jmx;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.hawkular.agent.monitor.api.InventoryEvent;
+import org.hawkular.agent.monitor.api.InventoryListener;
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.EndpointConfiguration;
+import org.hawkular.agent.monitor.diagnostics.DiagnosticsImpl;
+import org.hawkular.agent.monitor.diagnostics.ProtocolDiagnostics;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
+import org.hawkular.agent.monitor.protocol.Session;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class JMXEndpointServiceTest {
+
+    private static final String DOMAIN = "incremental-discovery-test";
+
+    public interface ThingMBean {
+        int getValue();
+    }
+
+    public static class Thing implements ThingMBean {
+        @Override
+        public int getValue() {
+            return 1;
+        }
+    }
+
+    private MBeanServer mbs;
+    private JMXEndpointService service;
+    private ProtocolDiagnostics diagnostics;
+    private final BlockingQueue<InventoryEvent<?, ?>> events = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        mbs = MBeanServerFactory.createMBeanServer(DOMAIN);
+    }
+
+    @After
+    public void tearDown() {
+        if (service != null) {
+            service.stop();
+        }
+        MBeanServerFactory.releaseMBeanServer(mbs);
+    }
+
+    @Test
+    public void testDiscoveredOnceChangesSettle() throws Exception {
+        service = start(400);
+
+        // each registration postpones the discovery - even though this takes longer than the delay
+        for (int i = 0; i < 8; i++) {
+            mbs.registerMBean(new Thing(), thing(i));
+            Assert.assertNull("Discovered before the changes settled", events.poll(100, TimeUnit.MILLISECONDS));
+        }
+        Assert.assertEquals(0, service.getResourceManager().size());
+        waitForResources(8);
+
+        mbs.unregisterMBean(thing(3));
+        waitForResources(7);
+        Assert.assertTrue(service.getResourceManager().findResources(new JMXNodeLocation(thing(3)),
+                service.getLocationResolver()).isEmpty());
+    }
+
+    @Test
+    public void testDiscoveredIfChangesKeepComing() throws Exception {
+        service = start(100);
+
+        // changes come faster than the delay, but not forever - they are processed within ten times the delay
+        boolean discovered = false;
+        for (int i = 0; i < 40; i++) {
+            mbs.registerMBean(new Thing(), thing(i));
+            discovered |= events.poll(50, TimeUnit.MILLISECONDS) != null;
+        }
+        Assert.assertTrue(discovered);
+        waitForResources(40);
+    }
+
+    @Test
+    public void testChildDiscoveredUnderItsParent() throws Exception {
+        service = start(100);
+        mbs.registerMBean(new Thing(), thing(0));
+        mbs.registerMBean(new Thing(), thing(1));
+        waitForResources(2);
+
+        // the object name of a child does not start with that of its parent once its keys are sorted
+        ObjectName part = new ObjectName(DOMAIN + ":type=Thing,name=thing1,part=p");
+        mbs.registerMBean(new Thing(), part);
+        waitForResources(3);
+        Resource<JMXNodeLocation> child = service.getResourceManager().findResources(new JMXNodeLocation(part),
+                service.getLocationResolver()).get(0);
+        Assert.assertEquals(new JMXNodeLocation(thing(1)),
+                service.getResourceManager().getParent(child).getLocation());
+        Assert.assertEquals(0, diagnostics.getFullDiscoveryScanTimer().getCount());
+    }
+
+    private JMXEndpointService start(int delayMillis) throws Exception {
+        Map<String, Object> customData = new HashMap<>();
+        customData.put(JMXEndpointService.MBEAN_SERVER_NAME_KEY, DOMAIN);
+        customData.put(JMXEndpointService.INCREMENTAL_DISCOVERY_KEY, Boolean.TRUE);
+        customData.put(JMXEndpointService.INCREMENTAL_DISCOVERY_DELAY_KEY, delayMillis);
+        EndpointConfiguration config = new EndpointConfiguration("local", true, null, null, null, null, customData,
+                null);
+        ResourceType<JMXNodeLocation> type = ResourceType.<JMXNodeLocation> builder()
+                .id(new ID("Thing"))
+                .name(new Name("Thing"))
+                .location(new JMXNodeLocation(DOMAIN + ":type=Thing,name=*"))
+                .resourceNameTemplate("Thing %name%")
+                .build();
+        ResourceType<JMXNodeLocation> partType = ResourceType.<JMXNodeLocation> builder()
+                .id(new ID("Part"))
+                .name(new Name("Part"))
+                .location(new JMXNodeLocation(DOMAIN + ":type=Thing,name=*,part=*"))
+                .resourceNameTemplate("Part %part%")
+                .parent(new Name("Thing"))
+                .build();
+        diagnostics = new DiagnosticsImpl(null, new MetricRegistry(), "feed").getJMXDiagnostics();
+        JMXEndpointService s = new JMXEndpointService("feed", MonitoredEndpoint.of(config, null),
+                new ResourceTypeManager<>(Arrays.asList(type, partType)), diagnostics);
+        s.addInventoryListener(new InventoryListener() {
+            @Override
+            public <L, S extends Session<L>> void receivedEvent(InventoryEvent<L, S> event) {
+                events.add(event);
+            }
+        });
+        s.start();
+        return s;
+    }
+
+    // waits for the inventory events until the resources are as many as expected
+    private void waitForResources(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (service.getResourceManager().size() != count) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                break;
+            }
+            events.poll(left, TimeUnit.MILLISECONDS);
+        }
+        Assert.assertEquals(count, service.getResourceManager().size());
+    }
+
+    private static ObjectName thing(int i) throws Exception {
+        return new ObjectName(DOMAIN + ":type=Thing,name=thing" + i);
+    }
+}
@@ -22,11 +22,15 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hawkular.agent.monitor.api.InventoryEvent;
 import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration;
@@ -48,14 +52,18 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 
 import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Protocol;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
 
 /**
  * @author Joel Takvorian
@@ -69,8 +77,11 @@ public class AsyncInventoryStorageTest {
     private EndpointService<AnyLocation, ?> endpointService;
     private ResourceManager<AnyLocation> resourceManager;
     private ResourceTypeManager<AnyLocation> resourceTypeManager;
-    private final List<String> collectedPostCalls = new ArrayList<>();
-    private final List<String> collectedDeleteCalls = new ArrayList<>();
+    private final List<String> collectedPostCalls = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> collectedPostBodies = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> collectedDeleteCalls = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger failingCalls = new AtomicInteger();
+    private volatile int failingCode = 500; // what the failing calls are answered with
 
     private final MetricType<AnyLocation> MT_1 = new MetricType<>(
             new ID("mt1"),
@@ -135,8 +146,9 @@ public class AsyncInventoryStorageTest {
         OkHttpClient httpClient = mock(OkHttpClient.class);
         when(httpClient.newCall(any(Request.class))).then(invocation -> {
             Call call = mock(Call.class);
+            int code = (failingCalls.getAndDecrement() > 0) ? failingCode : 200;
             when(call.execute()).thenReturn(new Response.Builder()
-                    .code(200)
+                    .code(code)
                     .request((Request) invocation.getArguments()[0])
                     .protocol(Protocol.HTTP_1_1)
                     .body(mock(ResponseBody.class))
@@ -151,10 +163,13 @@ public class AsyncInventoryStorageTest {
                     collectedDeleteCalls.add(url);
                     return new Request.Builder().url(url).build();
                 });
-        when(httpClientBuilder.buildJsonPostRequest(anyString(), any(Map.class), anyString()))
+        when(httpClientBuilder.buildJsonPostRequest(anyString(), any(Map.class), any(RequestBody.class)))
                 .then(invocation -> {
                     String url = (String) invocation.getArguments()[0];
                     collectedPostCalls.add(url);
+                    Buffer body = new Buffer();
+                    ((RequestBody) invocation.getArguments()[2]).writeTo(body);
+                    collectedPostBodies.add(body.readUtf8());
                     return new Request.Builder().url(url).build();
                 });
         return httpClientBuilder;
@@ -169,9 +184,15 @@ public class AsyncInventoryStorageTest {
         collected.clear();
     }
 
+    // hands the event to the storage and waits until the storage synced it
+    private void receive(InventoryEvent<AnyLocation, ?> event) throws InterruptedException {
+        storage.receivedEvent(event);
+        Assert.assertTrue("Inventory was not synced in time", storage.awaitSynced(10_000));
+    }
+
     @Test
     public void testDiscoverySequence() throws InterruptedException {
-        storage.receivedEvent(InventoryEvent.discovery(
+        receive(InventoryEvent.discovery(
                 endpointService,
                 resourceManager,
                 resourceTypeManager,
@@ -190,7 +211,7 @@ public class AsyncInventoryStorageTest {
         Thread.sleep(10);
 
         // Next run with no discovered resource
-        storage.receivedEvent(InventoryEvent.discovery(
+        receive(InventoryEvent.discovery(
                 endpointService,
                 resourceManager,
                 resourceTypeManager,
@@ -213,7 +234,7 @@ public class AsyncInventoryStorageTest {
                 .parent(R_2)
                 .build();
         resourceManager.addResource(r3);
-        storage.receivedEvent(InventoryEvent.discovery(
+        receive(InventoryEvent.discovery(
                 endpointService,
                 resourceManager,
                 resourceTypeManager,
@@ -232,7 +253,7 @@ public class AsyncInventoryStorageTest {
 
         // Next run with removed R_1
         resourceManager.removeResource(R_1);
-        storage.receivedEvent(InventoryEvent.discovery(
+        receive(InventoryEvent.discovery(
                 endpointService,
                 resourceManager,
                 resourceTypeManager,
@@ -250,7 +271,7 @@ public class AsyncInventoryStorageTest {
 
         // Next run with removed r3
         resourceManager.removeResource(r3);
-        storage.receivedEvent(InventoryEvent.discovery(
+        receive(InventoryEvent.discovery(
                 endpointService,
                 resourceManager,
                 resourceTypeManager,
@@ -267,9 +288,9 @@ public class AsyncInventoryStorageTest {
     }
 
     @Test
-    public void testNonDiscoverySequence() {
+    public void testNonDiscoverySequence() throws InterruptedException {
         // Initial discovery
-        storage.receivedEvent(InventoryEvent.discovery(
+        receive(InventoryEvent.discovery(
                 endpointService,
                 resourceManager,
                 resourceTypeManager,
@@ -288,7 +309,7 @@ public class AsyncInventoryStorageTest {
                 .parent(R_2)
                 .build();
         resourceManager.addResource(r3);
-        storage.receivedEvent(InventoryEvent.addedOrModified(
+        receive(InventoryEvent.addedOrModified(
                 endpointService,
                 resourceManager,
                 Collections.singletonList(r3)));
@@ -298,7 +319,7 @@ public class AsyncInventoryStorageTest {
 
         // Next run with removed R_1
         resourceManager.removeResource(R_1);
-        storage.receivedEvent(InventoryEvent.removed(
+        receive(InventoryEvent.removed(
                 endpointService,
                 resourceManager,
                 Collections.singletonList(R_1)));
@@ -308,7 +329,7 @@ public class AsyncInventoryStorageTest {
 
         // Next run with removed r3
         resourceManager.removeResource(r3);
-        storage.receivedEvent(InventoryEvent.removed(
+        receive(InventoryEvent.removed(
                 endpointService,
                 resourceManager,
                 Collections.singletonList(r3)));
@@ -317,6 +338,150 @@ public class AsyncInventoryStorageTest {
         Assert.assertEquals(0, collectedPostCalls.size());
     }
 
+    @Test
+    public void testChunkedImport() throws InterruptedException {
+        when(config.getInventoryImportMaxResources()).thenReturn(1);
+        when(config.getInventoryImportMaxConcurrentRequests()).thenReturn(2);
+        storage = new AsyncInventoryStorage("feed_id", config, httpClientBuilder, diagnostics);
+        Resource<AnyLocation> r3 = Resource.<AnyLocation>builder()
+                .id(new ID("r3"))
+                .name(new Name("Resource 3"))
+                .location(new AnyLocation("/2/2/3"))
+                .type(RT_2)
+                .parent(R_2)
+                .build();
+        resourceManager.addResource(r3);
+
+        // one chunk per resource, the first one (which also holds the types) fails once and is sent again
+        failingCalls.set(1);
+        receive(InventoryEvent.discovery(
+                endpointService,
+                resourceManager,
+                resourceTypeManager,
+                Arrays.asList(r3, R_2, R_1),
+                Collections.emptyList()));
+        expectCalls(collectedPostCalls,
+                "http://ignore/ignore/import",
+                "http://ignore/ignore/import",
+                "http://ignore/ignore/import",
+                "http://ignore/ignore/import");
+        // parents first, the child r3 is only sent once its parent R_2 is imported
+        Assert.assertEquals(collectedPostBodies.get(0), collectedPostBodies.get(1));
+        Assert.assertTrue(collectedPostBodies.get(0).contains("\"id\":\"r2\""));
+        Assert.assertTrue(collectedPostBodies.get(2).contains("\"id\":\"r1\""));
+        Assert.assertTrue(collectedPostBodies.get(3).contains("\"id\":\"r3\""));
+        Assert.assertTrue(RT_1.getPersistedTime() > 0);
+        Assert.assertTrue(R_1.getPersistedTime() > 0);
+        Assert.assertTrue(R_2.getPersistedTime() > 0);
+        Assert.assertTrue(r3.getPersistedTime() > 0);
+    }
+
+    @Test
+    public void testRejectedChunkNotSentAgain() throws InterruptedException {
+        when(config.getInventoryImportMaxResources()).thenReturn(1);
+        when(config.getInventoryImportMaxConcurrentRequests()).thenReturn(1);
+        storage = new AsyncInventoryStorage("feed_id", config, httpClientBuilder, diagnostics);
+
+        // a bad request will be just as bad the next time - the sync fails at once
+        failingCalls.set(1);
+        failingCode = 400;
+        receive(InventoryEvent.discovery(
+                endpointService,
+                resourceManager,
+                resourceTypeManager,
+                Arrays.asList(R_2, R_1),
+                Collections.emptyList()));
+        expectCalls(collectedPostCalls,
+                "http://ignore/ignore/import");
+        Assert.assertEquals(0, R_1.getPersistedTime());
+        Assert.assertEquals(0, R_2.getPersistedTime());
+    }
+
+    @Test
+    public void testChunkedDelete() throws Exception {
+        Resource<AnyLocation> r3 = Resource.<AnyLocation>builder()
+                .id(new ID("r3"))
+                .name(new Name("Resource 3"))
+                .location(new AnyLocation("/2/2/3"))
+                .type(RT_2)
+                .parent(R_2)
+                .build();
+        List<Resource<AnyLocation>> removed = new ArrayList<>(Arrays.asList(R_2, r3));
+        Set<String> expectedIds = new HashSet<>(Collections.singleton("r2"));
+        for (int i = 0; i < 200; i++) {
+            String id = "feed_id~server~/subsystem=datasources/data-source=DataSource" + i;
+            removed.add(Resource.<AnyLocation>builder()
+                    .id(new ID(id))
+                    .name(new Name("DataSource" + i))
+                    .location(new AnyLocation("/ds/" + i))
+                    .type(RT_1)
+                    .build());
+            expectedIds.add(id);
+        }
+
+        // the deletion of a server with many data sources goes along with the import of a modified resource
+        receive(InventoryEvent.discovery(
+                endpointService,
+                resourceManager,
+                resourceTypeManager,
+                Collections.singletonList(R_1),
+                removed));
+        expectCalls(collectedPostCalls,
+                "http://ignore/ignore/import");
+        Assert.assertTrue("Not split: " + collectedDeleteCalls, collectedDeleteCalls.size() > 1);
+        Set<String> deletedIds = new HashSet<>();
+        for (String url : collectedDeleteCalls) {
+            Assert.assertTrue("Too long: " + url, url.length() <= 4096);
+            Assert.assertTrue(url, url.startsWith("http://ignore/ignore/resources?ids="));
+            for (String param : url.substring(url.indexOf('?') + 1).split("&")) {
+                Assert.assertTrue(url, deletedIds.add(URLDecoder.decode(param.substring("ids=".length()), "UTF-8")));
+            }
+        }
+        // r3 is deleted along with its parent R_2
+        Assert.assertEquals(expectedIds, deletedIds);
+    }
+
+    @Test
+    public void testSyncQueueCoalesces() {
+        Counter depth = new Counter();
+        Meter coalesceRate = new Meter();
+        InventorySyncQueue queue = new InventorySyncQueue(2, depth, coalesceRate);
+        Resource<AnyLocation> r3 = Resource.<AnyLocation>builder()
+                .id(new ID("r3"))
+                .name(new Name("Resource 3"))
+                .location(new AnyLocation("/2/2/3"))
+                .type(RT_2)
+                .parent(R_2)
+                .build();
+
+        // R_1 is modified twice, r3 is new to inventory and removed before it was synced, R_2 is removed and re-added
+        queue.offer(InventoryEvent.addedOrModified(endpointService, resourceManager, Collections.singletonList(R_1)));
+        queue.offer(InventoryEvent.discovery(endpointService, resourceManager, resourceTypeManager,
+                Arrays.asList(R_1, r3), Collections.emptyList(), Collections.singleton(r3.getID())));
+        queue.offer(InventoryEvent.removed(endpointService, resourceManager, Arrays.asList(r3, R_2)));
+        queue.offer(InventoryEvent.addedOrModified(endpointService, resourceManager, Collections.singletonList(R_2)));
+        Assert.assertEquals(2, depth.getCount());
+        Assert.assertEquals(3, coalesceRate.getCount());
+
+        InventorySyncQueue.Batch<?> batch = queue.poll();
+        Assert.assertEquals(Arrays.asList(R_1, R_2), batch.getAddedOrModified());
+        Assert.assertTrue(batch.getRemoved().isEmpty());
+        Assert.assertSame(resourceTypeManager, batch.getResourceTypeManager());
+        Assert.assertFalse(batch.isSyncAll());
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, depth.getCount());
+
+        // more than 2 resources overflow the queue, so all resources get synced but removals are kept
+        queue.offer(InventoryEvent.addedOrModified(endpointService, resourceManager, Arrays.asList(R_1, R_2, r3)));
+        queue.offer(InventoryEvent.removed(endpointService, resourceManager, Collections.singletonList(r3)));
+        Assert.assertEquals(1, depth.getCount());
+        batch = queue.poll();
+        Assert.assertTrue(batch.isSyncAll());
+        Assert.assertEquals(resourceManager.getResourcesBreadthFirst(), batch.getAddedOrModified());
+        Assert.assertEquals(Collections.singletonList(r3), new ArrayList<>(batch.getRemoved()));
+        Assert.assertTrue(queue.isEmpty());
+    }
+
     private static class AnyLocation {
         private String path;
 
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.StorageAdapterConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+
+public class HttpClientBuilderTest {
+
+    private static final String URL = "http://ignore/hawkular/notification";
+
+    private static HttpClientBuilder build(boolean gzipRequests) {
+        return build("http://ignore", gzipRequests);
+    }
+
+    private static HttpClientBuilder build(String url, boolean gzipRequests) {
+        StorageAdapterConfiguration config = StorageAdapterConfiguration.builder()
+                .username("user")
+                .password("password")
+                .url(url)
+                .inventoryContext("/hawkular/inventory/")
+                .connectTimeoutSeconds(10)
+                .readTimeoutSeconds(120)
+                .gzipRequests(gzipRequests)
+                .gzipThresholdBytes(100)
+                .build();
+        return new HttpClientBuilder(config, null, null);
+    }
+
+    @Test
+    public void testGzipRequests() throws IOException {
+        HttpClientBuilder builder = build(true);
+
+        // too small to be worth it
+        Request small = builder.buildJsonPostRequest(URL, null, "{\"id\":\"small\"}");
+        Assert.assertNull(small.header("Content-Encoding"));
+
+        String large = largeJson();
+        Request compressed = builder.buildJsonPutRequest(URL, null, large);
+        Assert.assertEquals("gzip", compressed.header("Content-Encoding"));
+        Buffer sent = new Buffer();
+        compressed.body().writeTo(sent);
+        Assert.assertTrue("Not compressed: " + sent.size(), sent.size() < large.length() / 5);
+        Assert.assertEquals(large, Okio.buffer(new GzipSource(sent)).readUtf8());
+
+        // streamed bodies do not know their length, they are always large enough
+        Request streamed = builder.buildJsonPostRequest(URL, null,
+                new JsonRequestBody(Collections.singletonMap("id", "streamed")));
+        Assert.assertEquals("gzip", streamed.header("Content-Encoding"));
+
+        // not asked for
+        Request uncompressed = build(false).buildJsonPutRequest(URL, null, large);
+        Assert.assertNull(uncompressed.header("Content-Encoding"));
+    }
+
+    @Test
+    public void testSentUncompressedOnlyIfEncodingRejected() throws IOException {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", (HttpExchange exchange) -> {
+            try {
+                String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                received.add(encoding);
+                // /invalid is a bad request in any case, /json can only be parsed if it is not compressed
+                String path = exchange.getRequestURI().getPath();
+                String error = null;
+                if (path.equals("/invalid")) {
+                    error = "Missing property [id]";
+                } else if (path.equals("/json") && encoding != null) {
+                    error = "Illegal character ((CTRL-CHAR, code 31))";
+                }
+                if (error == null) {
+                    exchange.sendResponseHeaders(200, -1);
+                } else {
+                    byte[] body = error.getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(400, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort();
+            HttpClientBuilder builder = build(url, true);
+            String large = largeJson();
+
+            // a bad request that has nothing to do with the compression is not sent again
+            try (Response response = send(builder, url + "/invalid", large)) {
+                Assert.assertEquals(400, response.code());
+            }
+            Assert.assertEquals(Collections.singletonList("gzip"), received);
+            try (Response response = send(builder, url + "/valid", large)) {
+                Assert.assertEquals(200, response.code());
+            }
+            Assert.assertEquals("gzip", received.get(1));
+
+            // the server took the compressed bytes for JSON - sent again uncompressed, and from then on
+            received.clear();
+            try (Response response = send(builder, url + "/json", large)) {
+                Assert.assertEquals(200, response.code());
+            }
+            Assert.assertEquals(Arrays.asList("gzip", null), received);
+            Assert.assertNull(builder.buildJsonPostRequest(url, null, large).header("Content-Encoding"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static Response send(HttpClientBuilder builder, String url, String json) throws IOException {
+        return builder.getHttpClient().newCall(builder.buildJsonPostRequest(url, null, json)).execute();
+    }
+
+    private static String largeJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":\"feed~server~/subsystem=datasources/data-source=")
+                    .append(i).append("\"}");
+        }
+        return json.append("]").toString();
+    }
+}
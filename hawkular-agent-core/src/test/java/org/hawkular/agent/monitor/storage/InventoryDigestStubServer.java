@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.agent.monitor.util.Util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for the inventory server that implements the digest exchange of {@link InventoryDigests} and counts
+ * the bytes of the requests it receives. Imports and deletions are accepted but not applied.
+ * <p>
+ * Requests are counted by method and the last segment of their path, e.g. {@code "POST import"} or
+ * {@code "PUT digests"}.
+ */
+class InventoryDigestStubServer implements AutoCloseable {
+
+    static final String INVENTORY_CONTEXT = "/hawkular/inventory/";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(); // chunks are imported concurrently
+    private final Map<String, Map<String, String>> resourceDigests = new HashMap<>(); // by feed and endpoint
+    private final Map<String, Map<String, String>> typeDigests = new HashMap<>(); // by feed
+    private final Map<String, AtomicLong> bytesReceived = new ConcurrentHashMap<>();
+    private final List<String> imports = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean digestsSupported = true;
+
+    InventoryDigestStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(INVENTORY_CONTEXT, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    long getBytesReceived(String request) {
+        AtomicLong bytes = bytesReceived.get(request);
+        return (bytes == null) ? 0 : bytes.get();
+    }
+
+    /**
+     * @return the bodies of the imports received so far
+     */
+    List<String> getImports() {
+        return imports;
+    }
+
+    /**
+     * @param digestsSupported if false, the server answers 404 to the requests of the digest exchange, like a server
+     *        that does not know about it
+     */
+    void setDigestsSupported(boolean digestsSupported) {
+        this.digestsSupported = digestsSupported;
+    }
+
+    void reset() {
+        bytesReceived.clear();
+        imports.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            ByteArrayOutputStream in = new ByteArrayOutputStream();
+            Util.copyStream(exchange.getRequestBody(), in, false);
+            String path = exchange.getRequestURI().getPath();
+            String request = exchange.getRequestMethod() + " " + path.substring(path.lastIndexOf('/') + 1);
+            bytesReceived.computeIfAbsent(request, r -> new AtomicLong()).addAndGet(in.size());
+
+            if (!digestsSupported && request.endsWith(" digests")) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            String body = new String(in.toByteArray(), StandardCharsets.UTF_8);
+            String response;
+            switch (request) {
+                case "POST digests":
+                    response = Util.toJson(compare(Util.fromJson(body, InventoryDigests.CompareRequest.class)));
+                    break;
+                case "PUT digests":
+                    response = Util.toJson(acknowledge(Util.fromJson(body, InventoryDigests.AckRequest.class)));
+                    break;
+                case "POST import":
+                    imports.add(body);
+                    response = "";
+                    break;
+                default:
+                    response = "";
+            }
+
+            byte[] out = response.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, (out.length == 0) ? -1 : out.length);
+            if (out.length > 0) {
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(out);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private synchronized InventoryDigests.CompareResponse compare(InventoryDigests.CompareRequest compare) {
+        Map<String, String> resources = resourceDigests(compare.feedId, compare.endpoint);
+        Map<String, String> types = typeDigests.computeIfAbsent(compare.feedId, f -> new HashMap<>());
+        InventoryDigests.CompareResponse response = new InventoryDigests.CompareResponse();
+        response.resources = new ArrayList<>();
+        response.types = new ArrayList<>();
+        compare.resources.forEach((id, digest) -> {
+            if (!digest.equals(resources.get(id))) {
+                response.resources.add(id);
+            }
+        });
+        compare.types.forEach((id, digest) -> {
+            if (!digest.equals(types.get(id))) {
+                response.types.add(id);
+            }
+        });
+        return response;
+    }
+
+    private synchronized InventoryDigests.AckResponse acknowledge(InventoryDigests.AckRequest ack) {
+        Map<String, String> resources = resourceDigests(ack.feedId, ack.endpoint);
+        resources.putAll(ack.resources);
+        if (ack.removed != null) {
+            ack.removed.forEach(resources::remove);
+        }
+        typeDigests.computeIfAbsent(ack.feedId, f -> new HashMap<>()).putAll(ack.types);
+        InventoryDigests.AckResponse response = new InventoryDigests.AckResponse();
+        response.root = InventoryDigests.rootOf(resources);
+        return response;
+    }
+
+    private Map<String, String> resourceDigests(String feedId, String endpoint) {
+        return resourceDigests.computeIfAbsent(feedId + "~" + endpoint, k -> new HashMap<>());
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.hawkular.agent.monitor.api.InventoryEvent;
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration;
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.StorageAdapterConfiguration;
+import org.hawkular.agent.monitor.diagnostics.DiagnosticsImpl;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceManager;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
+import org.hawkular.agent.monitor.protocol.EndpointService;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class InventoryDigestSyncTest {
+
+    private static final int DATA_SOURCES = 200;
+
+    private InventoryDigestStubServer server;
+    private StorageAdapterConfiguration config;
+    private EndpointService<DMRNodeLocation, ?> endpointService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException {
+        server = new InventoryDigestStubServer();
+        config = StorageAdapterConfiguration.builder()
+                .username("user")
+                .password("password")
+                .url(server.getUrl())
+                .inventoryContext(InventoryDigestStubServer.INVENTORY_CONTEXT)
+                .connectTimeoutSeconds(10)
+                .readTimeoutSeconds(120)
+                .inventoryDigestSync(true)
+                .build();
+
+        AgentCoreEngineConfiguration.EndpointConfiguration endpointConfiguration
+                = mock(AgentCoreEngineConfiguration.EndpointConfiguration.class);
+        when(endpointConfiguration.getName()).thenReturn("server");
+        MonitoredEndpoint<AgentCoreEngineConfiguration.EndpointConfiguration> endpoint = MonitoredEndpoint.of(
+                endpointConfiguration, null);
+        endpointService = mock(EndpointService.class);
+        when(endpointService.getMonitoredEndpoint()).thenReturn(endpoint);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testRestartSkipsImport() throws InterruptedException {
+        AsyncInventoryStorage storage = newStorage();
+        Discovery discovery = new Discovery();
+        sync(storage, discovery);
+        long imported = server.getBytesReceived("POST import");
+        Assert.assertTrue(imported > 0);
+        Assert.assertEquals(1, server.getImports().size());
+        storage.shutdown();
+
+        // the agent restarts - nothing is persisted as far as it knows, but the server has it all
+        server.reset();
+        storage = newStorage();
+        discovery = new Discovery();
+        sync(storage, discovery);
+        Assert.assertEquals(0, server.getBytesReceived("POST import"));
+        Assert.assertTrue(server.getImports().isEmpty());
+        Assert.assertTrue(discovery.type.getPersistedTime() > 0);
+        discovery.resourceManager.getResourcesBreadthFirst()
+                .forEach(r -> Assert.assertTrue(r.getID().getIDString(), r.getPersistedTime() > 0));
+
+        long exchanged = server.getBytesReceived("POST digests") + server.getBytesReceived("PUT digests");
+        Assert.assertTrue("Digests [" + exchanged + "] are larger than the import [" + imported + "]",
+                exchanged < imported);
+
+        // one resource changes after the restart - only it is imported
+        server.reset();
+        Resource<DMRNodeLocation> changed = discovery.dataSource(7);
+        changed.addProperty("Enabled", "false");
+        sync(storage, InventoryEvent.addedOrModified(endpointService, discovery.resourceManager,
+                Collections.singletonList(changed)));
+        Assert.assertEquals(1, server.getImports().size());
+        String importJson = server.getImports().get(0);
+        Assert.assertTrue(importJson, importJson.contains(changed.getID().getIDString()));
+        Assert.assertFalse(importJson, importJson.contains(discovery.dataSource(8).getID().getIDString()));
+        storage.shutdown();
+    }
+
+    @Test
+    public void testUnsupportedByServer() throws InterruptedException {
+        server.setDigestsSupported(false);
+        AsyncInventoryStorage storage = newStorage();
+        Discovery discovery = new Discovery();
+        sync(storage, discovery);
+        // everything is imported as if digest sync was not enabled
+        Assert.assertEquals(1, server.getImports().size());
+        discovery.resourceManager.getResourcesBreadthFirst()
+                .forEach(r -> Assert.assertTrue(r.getID().getIDString(), r.getPersistedTime() > 0));
+
+        // the digests are not asked for again
+        server.reset();
+        Resource<DMRNodeLocation> changed = discovery.dataSource(7);
+        changed.addProperty("Enabled", "false");
+        sync(storage, InventoryEvent.addedOrModified(endpointService, discovery.resourceManager,
+                Collections.singletonList(changed)));
+        Assert.assertEquals(1, server.getImports().size());
+        Assert.assertEquals(0, server.getBytesReceived("POST digests"));
+        storage.shutdown();
+    }
+
+    private AsyncInventoryStorage newStorage() {
+        return new AsyncInventoryStorage("feed", config, new HttpClientBuilder(config, null, null),
+                new DiagnosticsImpl(null, new MetricRegistry(), "feed"));
+    }
+
+    private void sync(AsyncInventoryStorage storage, Discovery discovery) throws InterruptedException {
+        sync(storage, InventoryEvent.discovery(endpointService, discovery.resourceManager,
+                discovery.resourceTypeManager, discovery.resourceManager.getResourcesBreadthFirst(),
+                Collections.emptyList()));
+    }
+
+    private void sync(AsyncInventoryStorage storage, InventoryEvent<DMRNodeLocation, ?> event)
+            throws InterruptedException {
+        storage.receivedEvent(event);
+        Assert.assertTrue("Inventory was not synced in time", storage.awaitSynced(10_000));
+    }
+
+    /**
+     * The resources a discovery of a server with some data sources finds - built anew each time, like after a
+     * restart of the agent.
+     */
+    private static class Discovery {
+        private final ResourceType<DMRNodeLocation> type = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("Data Source"))
+                .name(new Name("Data Source"))
+                .location(DMRNodeLocation.of("/subsystem=datasources/data-source=*"))
+                .build();
+        private final ResourceManager<DMRNodeLocation> resourceManager = new ResourceManager<>();
+        private final ResourceTypeManager<DMRNodeLocation> resourceTypeManager;
+
+        Discovery() {
+            ResourceType<DMRNodeLocation> serverType = ResourceType.<DMRNodeLocation> builder()
+                    .id(new ID("Server"))
+                    .name(new Name("Server"))
+                    .location(DMRNodeLocation.empty())
+                    .build();
+            resourceTypeManager = new ResourceTypeManager<>(Arrays.asList(serverType, type));
+            Resource<DMRNodeLocation> root = Resource.<DMRNodeLocation> builder()
+                    .id(new ID("feed~server~/"))
+                    .name(new Name("Server"))
+                    .location(DMRNodeLocation.empty())
+                    .type(serverType)
+                    .build();
+            resourceManager.addResource(root);
+            for (int i = 0; i < DATA_SOURCES; i++) {
+                resourceManager.addResource(Resource.<DMRNodeLocation> builder()
+                        .id(new ID("feed~server~/subsystem=datasources/data-source=DS" + i))
+                        .name(new Name("DS" + i))
+                        .location(DMRNodeLocation.of("/subsystem=datasources/data-source=DS" + i))
+                        .type(type)
+                        .parent(root)
+                        .build());
+            }
+        }
+
+        Resource<DMRNodeLocation> dataSource(int i) {
+            return resourceManager.getResource(new ID("feed~server~/subsystem=datasources/data-source=DS" + i));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.hawkular.agent.monitor.util.Util;
+import org.hawkular.inventory.api.model.Inventory;
+import org.hawkular.inventory.api.model.Metric;
+import org.hawkular.inventory.api.model.RawResource;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * Measures how many bytes are allocated to send an inventory import - once the way it used to be sent (all resources
+ * built up front, the JSON built as a string and copied into the request body) and once the way it is sent now (a
+ * {@link JsonRequestBody} that builds each resource while it writes the JSON to the connection).
+ * <p>
+ * This is not a unit test - it is run by hand, e.g. from the IDE, with the number of resources as an optional
+ * argument. It needs a JVM that can count the bytes allocated by a thread, such as HotSpot.
+ */
+public class InventoryImportBenchmark {
+
+    private static final int METRICS_PER_RESOURCE = 10;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+
+        ResourceType<DMRNodeLocation> type = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("Data Source"))
+                .name(new Name("Data Source"))
+                .location(DMRNodeLocation.empty())
+                .build();
+        List<Resource<DMRNodeLocation>> resources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            resources.add(Resource.<DMRNodeLocation> builder()
+                    .id(new ID("benchmark-feed~benchmark-server~/subsystem=datasources/data-source=DataSource" + i))
+                    .name(new Name("DataSource" + i))
+                    .location(DMRNodeLocation.of("/subsystem=datasources/data-source=DataSource" + i))
+                    .type(type)
+                    .build());
+        }
+        InventoryImportChunk<DMRNodeLocation> chunk = InventoryImportChunk.split(Collections.emptyMap(), resources,
+                InventoryImportBenchmark::toRawResource, 0, 0).get(0);
+        MediaType json = MediaType.parse("application/json");
+
+        long before = Long.MAX_VALUE;
+        long after = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) { // the first rounds warm up the JIT and Jackson's caches
+            long start = allocatedBytes();
+            List<RawResource> rawResources = new ArrayList<>(count);
+            resources.forEach(r -> rawResources.add(toRawResource(r)));
+            String payload = Util.toJson(new Inventory(rawResources, Collections.emptyList()));
+            send(RequestBody.create(json, payload));
+            before = Math.min(before, allocatedBytes() - start);
+
+            start = allocatedBytes();
+            send(new JsonRequestBody(chunk.toInventory()));
+            after = Math.min(after, allocatedBytes() - start);
+        }
+
+        System.out.printf("%d resources with %d metrics each%n", count, METRICS_PER_RESOURCE);
+        System.out.printf("before: %d bytes allocated per resource%n", before / count);
+        System.out.printf("after:  %d bytes allocated per resource%n", after / count);
+    }
+
+    private static RawResource toRawResource(Resource<DMRNodeLocation> r) {
+        RawResource.Builder rb = RawResource.builder()
+                .id(r.getID().getIDString())
+                .feedId("benchmark-feed")
+                .typeId(r.getResourceType().getID().getIDString())
+                .name(r.getName().getNameString());
+        for (int i = 0; i < METRICS_PER_RESOURCE; i++) {
+            Map<String, String> labels = new HashMap<>();
+            labels.put("feed_id", "benchmark-feed");
+            labels.put("data_source", r.getName().getNameString());
+            rb.metric(Metric.builder()
+                    .displayName("Metric " + i)
+                    .family("metric_family_" + i)
+                    .labels(labels)
+                    .expression("metric_family_" + i + "{data_source=\"" + r.getName().getNameString() + "\"}")
+                    .build());
+        }
+        return rb.build();
+    }
+
+    // like the connection of a request, writes the body to a stream that sends it off (here: drops it)
+    private static void send(RequestBody body) throws IOException {
+        BufferedSink sink = Okio.buffer(Okio.sink(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        body.writeTo(sink);
+        sink.flush();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hawkular.agent.monitor.api.InventoryEvent;
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration;
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.StorageAdapterConfiguration;
+import org.hawkular.agent.monitor.diagnostics.Diagnostics;
+import org.hawkular.agent.monitor.diagnostics.DiagnosticsImpl;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceManager;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.inventory.ResourceTypeManager;
+import org.hawkular.agent.monitor.protocol.EndpointService;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class InventoryOutboxTest {
+
+    private File dir;
+    private Diagnostics diagnostics;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("inventory-outbox-test").toFile();
+        diagnostics = new DiagnosticsImpl(null, new MetricRegistry(), "feed");
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testPendingAfterReopen() throws IOException {
+        InventoryOutbox outbox = new InventoryOutbox(dir, 1024 * 1024, diagnostics);
+        Assert.assertTrue(outbox.isEmpty());
+        outbox.record(Arrays.asList(
+                InventoryOutbox.Entry.type("type1", "{\"id\":\"type1\"}", 1000L),
+                InventoryOutbox.Entry.resource("root1", null, "{\"id\":\"root1\"}", 1000L),
+                InventoryOutbox.Entry.resource("child1", "root1", "{\"id\":\"child1\"}", 1000L),
+                InventoryOutbox.Entry.delete("child2", "root1", 1000L)));
+        // a later change of the same resource supersedes the earlier one
+        outbox.record(Collections.singletonList(InventoryOutbox.Entry.delete("child1", "root1", 2000L)));
+        outbox.synced(Collections.singletonList("root1"), Collections.emptyList());
+        Assert.assertEquals(3, diagnostics.getInventoryOutboxDepth().getCount());
+
+        // the agent restarts
+        InventoryOutbox reopened = new InventoryOutbox(dir, 1024 * 1024,
+                new DiagnosticsImpl(null, new MetricRegistry(), "feed"));
+        List<InventoryOutbox.Entry> pending = reopened.getPending();
+        Assert.assertEquals(3, pending.size());
+        Assert.assertEquals(InventoryOutbox.Entry.Kind.TYPE, pending.get(0).getKind());
+        Assert.assertEquals("type1", pending.get(0).getId());
+        Assert.assertEquals("{\"id\":\"type1\"}", pending.get(0).getJson());
+        Assert.assertEquals(InventoryOutbox.Entry.Kind.DELETE, pending.get(1).getKind());
+        Assert.assertEquals("child2", pending.get(1).getId());
+        Assert.assertEquals("root1", pending.get(1).getParentId());
+        Assert.assertEquals(InventoryOutbox.Entry.Kind.DELETE, pending.get(2).getKind());
+        Assert.assertEquals("child1", pending.get(2).getId());
+        Assert.assertEquals(2000L, pending.get(2).getTime());
+        Assert.assertNull(pending.get(2).getJson());
+
+        reopened.synced(Arrays.asList("child1", "child2"), Collections.singletonList("type1"));
+        Assert.assertTrue(reopened.isEmpty());
+        Assert.assertTrue(new InventoryOutbox(dir, 1024 * 1024, diagnostics).isEmpty());
+    }
+
+    @Test
+    public void testCompactionKeepsPending() throws IOException {
+        InventoryOutbox outbox = new InventoryOutbox(dir, 16 * 1024, diagnostics);
+        // the same resources change over and over - far more than a segment holds, but little is pending
+        for (int i = 0; i < 1000; i++) {
+            outbox.record(Arrays.asList(
+                    InventoryOutbox.Entry.resource("root1", null, "{\"version\":" + i + "}", i),
+                    InventoryOutbox.Entry.resource("child1", "root1", "{\"version\":" + i + "}", i)));
+        }
+        Assert.assertEquals(0, diagnostics.getInventoryOutboxDropRate().getCount());
+        // the JSON is read from the segment the changes were copied to
+        Assert.assertEquals("{\"version\":999}", outbox.getPending().get(1).getJson());
+
+        List<InventoryOutbox.Entry> pending = new InventoryOutbox(dir, 16 * 1024,
+                new DiagnosticsImpl(null, new MetricRegistry(), "feed")).getPending();
+        Assert.assertEquals(2, pending.size());
+        Assert.assertEquals("{\"version\":999}", pending.get(0).getJson());
+        Assert.assertEquals("{\"version\":999}", pending.get(1).getJson());
+        // the outbox does not grow on disk
+        Assert.assertEquals(8 * 1024, new File(dir, InventoryOutbox.FILE_NAME + ".0").length());
+        Assert.assertEquals(8 * 1024, new File(dir, InventoryOutbox.FILE_NAME + ".1").length());
+    }
+
+    @Test
+    public void testOldestDroppedWhenFull() throws IOException {
+        InventoryOutbox outbox = new InventoryOutbox(dir, 16 * 1024, diagnostics);
+        char[] padding = new char[100];
+        Arrays.fill(padding, 'x');
+        for (int i = 0; i < 200; i++) {
+            outbox.record(Collections.singletonList(
+                    InventoryOutbox.Entry.resource("res" + i, null, new String(padding), i)));
+        }
+        long dropped = diagnostics.getInventoryOutboxDropRate().getCount();
+        Assert.assertTrue(dropped > 0);
+        Assert.assertEquals(200 - dropped, diagnostics.getInventoryOutboxDepth().getCount());
+
+        List<InventoryOutbox.Entry> pending = new InventoryOutbox(dir, 16 * 1024,
+                new DiagnosticsImpl(null, new MetricRegistry(), "feed")).getPending();
+        Assert.assertEquals(200 - dropped, pending.size());
+        Assert.assertEquals("res" + dropped, pending.get(0).getId());
+        Assert.assertEquals("res199", pending.get(pending.size() - 1).getId());
+    }
+
+    @Test
+    public void testReplayAfterRestart() throws Exception {
+        try (InventoryDigestStubServer server = new InventoryDigestStubServer()) {
+            syncWhileUnreachableThenRestart(server, 1000);
+
+            Assert.assertEquals(2, server.getImports().size());
+            String replayed = server.getImports().get(1);
+            Assert.assertTrue(replayed, replayed.contains("feed~server~/child=0"));
+            Assert.assertTrue(replayed, replayed.contains("feed~server~/\""));
+            Assert.assertTrue(replayed, replayed.contains("\"Server\""));
+            Assert.assertFalse(replayed, replayed.contains("feed~server~/child=1"));
+            Assert.assertTrue(new InventoryOutbox(dir, 1024 * 1024, diagnostics).isEmpty());
+        }
+    }
+
+    @Test
+    public void testReplayInChunks() throws Exception {
+        try (InventoryDigestStubServer server = new InventoryDigestStubServer()) {
+            syncWhileUnreachableThenRestart(server, 1);
+
+            // the replay is split like any other import - the types and the root first, then one child at a time
+            Assert.assertEquals(4, server.getImports().size());
+            String first = server.getImports().get(1);
+            Assert.assertTrue(first, first.contains("feed~server~/\""));
+            Assert.assertTrue(first, first.contains("\"Server\""));
+            Assert.assertFalse(first, first.contains("feed~server~/child="));
+            Assert.assertTrue(server.getImports().get(2).contains("feed~server~/child="));
+            Assert.assertTrue(server.getImports().get(3).contains("feed~server~/child="));
+            Assert.assertTrue(new InventoryOutbox(dir, 1024 * 1024, diagnostics).isEmpty());
+        }
+    }
+
+    /**
+     * Syncs a server with three children while the inventory server cannot be reached, so that it all goes to the
+     * outbox. Then the agent restarts and syncs one of the children, which replays the rest.
+     */
+    @SuppressWarnings("unchecked")
+    private void syncWhileUnreachableThenRestart(InventoryDigestStubServer server, int maxResources)
+            throws Exception {
+        AgentCoreEngineConfiguration.EndpointConfiguration endpointConfiguration
+                = mock(AgentCoreEngineConfiguration.EndpointConfiguration.class);
+        when(endpointConfiguration.getName()).thenReturn("server");
+        MonitoredEndpoint<AgentCoreEngineConfiguration.EndpointConfiguration> endpoint = MonitoredEndpoint.of(
+                endpointConfiguration, null);
+        EndpointService<DMRNodeLocation, ?> endpointService = mock(EndpointService.class);
+        when(endpointService.getMonitoredEndpoint()).thenReturn(endpoint);
+
+        ResourceType<DMRNodeLocation> type = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("Server"))
+                .name(new Name("Server"))
+                .location(DMRNodeLocation.empty())
+                .build();
+        ResourceTypeManager<DMRNodeLocation> rtm = new ResourceTypeManager<>(Collections.singletonList(type));
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+        Resource<DMRNodeLocation> root = rm.addResource(Resource.<DMRNodeLocation> builder()
+                .id(new ID("feed~server~/"))
+                .name(new Name("Server"))
+                .location(DMRNodeLocation.empty())
+                .type(type)
+                .build()).getResource();
+        List<Resource<DMRNodeLocation>> children = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            children.add(rm.addResource(Resource.<DMRNodeLocation> builder()
+                    .id(new ID("feed~server~/child=" + i))
+                    .name(new Name("child" + i))
+                    .location(DMRNodeLocation.of("/child=" + i))
+                    .type(type)
+                    .parent(root)
+                    .build()).getResource());
+        }
+
+        // the server cannot be reached - the discovery goes to the outbox
+        String unreachableUrl;
+        try (InventoryDigestStubServer stopped = new InventoryDigestStubServer()) {
+            unreachableUrl = stopped.getUrl();
+        }
+        AsyncInventoryStorage storage = newStorage(unreachableUrl, maxResources);
+        storage.receivedEvent(InventoryEvent.discovery(endpointService, rm, rtm, rm.getResourcesBreadthFirst(),
+                Collections.emptyList()));
+        Assert.assertTrue(storage.awaitSynced(10_000));
+        storage.shutdown();
+        Assert.assertEquals(5, new InventoryOutbox(dir, 1024 * 1024, diagnostics).getPending().size());
+
+        // the agent restarts and the server can be reached again - one change is synced, then the rest
+        storage = newStorage(server.getUrl(), maxResources);
+        storage.receivedEvent(InventoryEvent.addedOrModified(endpointService, rm,
+                Collections.singletonList(children.get(1))));
+        Assert.assertTrue(storage.awaitSynced(10_000));
+        storage.shutdown();
+    }
+
+    private AsyncInventoryStorage newStorage(String url, int maxResources) {
+        StorageAdapterConfiguration config = StorageAdapterConfiguration.builder()
+                .username("user")
+                .password("password")
+                .url(url)
+                .inventoryContext(InventoryDigestStubServer.INVENTORY_CONTEXT)
+                .connectTimeoutSeconds(10)
+                .readTimeoutSeconds(120)
+                .inventoryImportMaxResources(maxResources)
+                .inventoryOutboxDir(dir.getPath())
+                .inventoryOutboxMaxBytes(1024 * 1024)
+                .maxRetries(0)
+                .circuitBreakerThreshold(0)
+                .build();
+        return new AsyncInventoryStorage("feed", config, new HttpClientBuilder(config, null, null),
+                new DiagnosticsImpl(null, new MetricRegistry(), "feed"));
+    }
+}
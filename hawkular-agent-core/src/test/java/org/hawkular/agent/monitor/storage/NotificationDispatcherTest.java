@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hawkular.agent.monitor.api.InventoryEvent;
+import org.hawkular.agent.monitor.api.NotificationPayloadBuilder;
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration;
+import org.hawkular.agent.monitor.config.AgentCoreEngineConfiguration.StorageAdapterConfiguration;
+import org.hawkular.agent.monitor.diagnostics.DiagnosticsImpl;
+import org.hawkular.agent.monitor.inventory.ID;
+import org.hawkular.agent.monitor.inventory.MonitoredEndpoint;
+import org.hawkular.agent.monitor.inventory.Name;
+import org.hawkular.agent.monitor.inventory.Resource;
+import org.hawkular.agent.monitor.inventory.ResourceManager;
+import org.hawkular.agent.monitor.inventory.ResourceType;
+import org.hawkular.agent.monitor.protocol.EndpointService;
+import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
+import org.hawkular.agent.monitor.util.Util;
+import org.hawkular.client.api.NotificationType;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class NotificationDispatcherTest {
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testBatches() throws Exception {
+        StorageAdapter storageAdapter = mock(StorageAdapter.class);
+        when(storageAdapter.getStorageAdapterConfiguration()).thenReturn(config("http://ignore", 100, 200));
+        when(storageAdapter.createNotificationPayloadBuilder()).thenAnswer(i -> new NotificationPayloadBuilderImpl());
+
+        NotificationDispatcher dispatcher = new NotificationDispatcher(storageAdapter, "feed");
+        dispatcher.receivedEvent(addedDeployments(250));
+
+        // two full batches right away, the rest once the window is over
+        ArgumentCaptor<List> batches = ArgumentCaptor.forClass(List.class);
+        verify(storageAdapter, timeout(5000).times(3)).store(batches.capture(), eq(0L));
+        Assert.assertEquals(Arrays.asList(100, 100, 50),
+                Arrays.asList(batches.getAllValues().get(0).size(), batches.getAllValues().get(1).size(),
+                        batches.getAllValues().get(2).size()));
+        NotificationPayloadBuilder last = (NotificationPayloadBuilder) batches.getAllValues().get(2).get(49);
+        String json = Util.toJson(last.toPayload());
+        Assert.assertTrue(json, json.contains("feed~server~/deployment=app249.war"));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testSentOneByOneIfBatchRejected() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        HttpServer server = startServer(415, 0, received); // a server that only knows single notifications
+        try {
+            HawkularStorageAdapter storageAdapter = newStorageAdapter(config(server, 100, 0));
+
+            storageAdapter.store(notifications(storageAdapter, 3), 5000);
+            waitFor(received, 4);
+            Assert.assertTrue(received.get(0), received.get(0).startsWith("["));
+            received.subList(1, 4).forEach(body -> Assert.assertTrue(body, body.startsWith("{")));
+
+            // no more arrays
+            storageAdapter.store(notifications(storageAdapter, 2), 5000);
+            waitFor(received, 6);
+            received.subList(4, 6).forEach(body -> Assert.assertTrue(body, body.startsWith("{")));
+            storageAdapter.shutdown();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBatchNotRejectedByBadRequest() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        HttpServer server = startServer(400, 0, received);
+        try {
+            HawkularStorageAdapter storageAdapter = newStorageAdapter(config(server, 100, 0));
+
+            // the notifications may be what is bad - they are not sent again
+            storageAdapter.store(notifications(storageAdapter, 3), 5000);
+            storageAdapter.store(notifications(storageAdapter, 2), 5000);
+            waitFor(received, 2);
+            received.forEach(body -> Assert.assertTrue(body, body.startsWith("[")));
+            storageAdapter.shutdown();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testStoredBeforeShutdown() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        HttpServer server = startServer(200, 200, received);
+        try {
+            // the window is never over - the notifications are only sent on shutdown
+            HawkularStorageAdapter storageAdapter = newStorageAdapter(config(server, 100, 60_000));
+            NotificationDispatcher dispatcher = new NotificationDispatcher(storageAdapter, "feed");
+            dispatcher.receivedEvent(addedDeployments(3));
+            Assert.assertTrue(received.isEmpty());
+
+            dispatcher.shutdown();
+            storageAdapter.shutdown();
+            Assert.assertEquals(1, received.size());
+            Assert.assertTrue(received.get(0), received.get(0).contains("feed~server~/deployment=app2.war"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static InventoryEvent<DMRNodeLocation, ?> addedDeployments(int count) throws Exception {
+        AgentCoreEngineConfiguration.EndpointConfiguration endpointConfiguration
+                = mock(AgentCoreEngineConfiguration.EndpointConfiguration.class);
+        when(endpointConfiguration.getName()).thenReturn("server");
+        EndpointService<DMRNodeLocation, ?> endpointService = mock(EndpointService.class);
+        when(endpointService.getMonitoredEndpoint()).thenReturn(MonitoredEndpoint.of(endpointConfiguration, null));
+
+        ResourceType<DMRNodeLocation> type = ResourceType.<DMRNodeLocation> builder()
+                .id(new ID("Deployment"))
+                .name(new Name("Deployment"))
+                .location(DMRNodeLocation.of("/deployment=*"))
+                .notificationType(NotificationType.RESOURCE_ADDED)
+                .build();
+        ResourceManager<DMRNodeLocation> rm = new ResourceManager<>();
+        List<Resource<DMRNodeLocation>> added = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            added.add(rm.addResource(Resource.<DMRNodeLocation> builder()
+                    .id(new ID("feed~server~/deployment=app" + i + ".war"))
+                    .name(new Name("app" + i + ".war"))
+                    .location(DMRNodeLocation.of("/deployment=app" + i + ".war"))
+                    .type(type)
+                    .build()).getResource());
+        }
+        return InventoryEvent.addedOrModified(endpointService, rm, added);
+    }
+
+    /**
+     * @param arrayCode the status that requests with an array of notifications are answered with
+     * @param delayMillis how long the server takes before it records a request as received
+     */
+    private static HttpServer startServer(int arrayCode, long delayMillis, List<String> received) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/hawkular/api/", (HttpExchange exchange) -> {
+            try {
+                ByteArrayOutputStream in = new ByteArrayOutputStream();
+                Util.copyStream(exchange.getRequestBody(), in, false);
+                String body = new String(in.toByteArray(), StandardCharsets.UTF_8);
+                Thread.sleep(delayMillis);
+                received.add(body);
+                exchange.sendResponseHeaders(body.startsWith("[") ? arrayCode : 200, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static HawkularStorageAdapter newStorageAdapter(StorageAdapterConfiguration config) {
+        HawkularStorageAdapter storageAdapter = new HawkularStorageAdapter();
+        storageAdapter.initialize("feed", config, new DiagnosticsImpl(null, new MetricRegistry(), "feed"),
+                new HttpClientBuilder(config, null, null));
+        return storageAdapter;
+    }
+
+    private static List<NotificationPayloadBuilder> notifications(StorageAdapter storageAdapter, int count) {
+        List<NotificationPayloadBuilder> notifications = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            NotificationPayloadBuilder b = storageAdapter.createNotificationPayloadBuilder();
+            b.addNotificationType(NotificationType.RESOURCE_ADDED);
+            b.addProperty("feedId", "feed");
+            b.addProperty("resourceId", "resource" + i);
+            notifications.add(b);
+        }
+        return notifications;
+    }
+
+    private static void waitFor(List<String> received, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(received.toString(), count, received.size());
+    }
+
+    private static StorageAdapterConfiguration config(HttpServer server, int batchMaxSize, int batchWindowMillis) {
+        return config("http://127.0.0.1:" + server.getAddress().getPort(), batchMaxSize, batchWindowMillis);
+    }
+
+    private static StorageAdapterConfiguration config(String url, int batchMaxSize, int batchWindowMillis) {
+        return StorageAdapterConfiguration.builder()
+                .username("user")
+                .password("password")
+                .url(url)
+                .inventoryContext("/hawkular/inventory/")
+                .hawkularContext("/hawkular/api/")
+                .connectTimeoutSeconds(10)
+                .readTimeoutSeconds(120)
+                .maxRetries(0)
+                .circuitBreakerThreshold(0)
+                .notificationBatchMaxSize(batchMaxSize)
+                .notificationBatchWindowMillis(batchWindowMillis)
+                .build();
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.agent.monitor.storage;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.agent.monitor.diagnostics.DiagnosticsImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+public class StorageResilienceInterceptorTest {
+
+    private static final long OPEN_BASE_MILLIS = 50;
+    private static final long READ_TIMEOUT_MILLIS = 300;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>(); // by last path segment
+    private volatile int unavailableCount; // how many of the next import requests are answered with 503
+    private volatile int statusCode = 200;
+    private DiagnosticsImpl diagnostics;
+    private StorageResilienceInterceptor resilience;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/hawkular/inventory/", this::handle);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testRetriedUntilAvailable() throws IOException {
+        build(3, 0);
+        unavailableCount = 2;
+        try (Response response = client.newCall(importRequest()).execute()) {
+            Assert.assertEquals(200, response.code());
+        }
+        Assert.assertEquals(3, requests("import"));
+        Assert.assertEquals(2, diagnostics.getStorageRetryRate().getCount());
+
+        // still unavailable after all retries - the last response is returned
+        unavailableCount = 10;
+        try (Response response = client.newCall(importRequest()).execute()) {
+            Assert.assertEquals(503, response.code());
+        }
+        Assert.assertEquals(3 + 4, requests("import"));
+    }
+
+    @Test
+    public void testTimedOutRetriedOnlyIfIdempotent() throws IOException {
+        build(2, 0);
+        Request post = new Request.Builder().url(url("slow"))
+                .post(RequestBody.create(MediaType.parse("application/json"), "{}")).build();
+        try (Response response = client.newCall(post).execute()) {
+            Assert.fail("Not timed out: " + response);
+        } catch (IOException expected) {
+        }
+        Assert.assertEquals(1, requests("slow"));
+        Assert.assertEquals(0, diagnostics.getStorageRetryRate().getCount());
+
+        Request get = new Request.Builder().url(url("slow")).get().build();
+        try (Response response = client.newCall(get).execute()) {
+            Assert.fail("Not timed out: " + response);
+        } catch (IOException expected) {
+        }
+        Assert.assertEquals(1 + 3, requests("slow"));
+        Assert.assertEquals(2, diagnostics.getStorageRetryRate().getCount());
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        build(0, 2);
+        HttpUrl url = importRequest().url();
+        unavailableCount = Integer.MAX_VALUE;
+        statusCode = 503;
+        for (int i = 0; i < 2; i++) {
+            try (Response response = client.newCall(importRequest()).execute()) {
+                Assert.assertEquals(503, response.code());
+            }
+        }
+        Assert.assertEquals(StorageResilienceInterceptor.State.OPEN, resilience.getState(url));
+
+        // while open, requests are not sent
+        assertRejected();
+        Assert.assertEquals(2, requests("import"));
+        Assert.assertEquals(0, requests("status"));
+        Assert.assertEquals(1, diagnostics.getStorageCircuitBreakerRejectRate().getCount());
+
+        // once open long enough, the status endpoint is probed - the server is still down
+        Thread.sleep(OPEN_BASE_MILLIS * 3);
+        assertRejected();
+        Assert.assertEquals(1, requests("status"));
+        Assert.assertEquals(2, requests("import"));
+        Assert.assertEquals(StorageResilienceInterceptor.State.OPEN, resilience.getState(url));
+
+        // the server is back
+        unavailableCount = 0;
+        statusCode = 200;
+        Thread.sleep(OPEN_BASE_MILLIS * 4);
+        try (Response response = client.newCall(importRequest()).execute()) {
+            Assert.assertEquals(200, response.code());
+        }
+        Assert.assertEquals(2, requests("status"));
+        Assert.assertEquals(3, requests("import"));
+        Assert.assertEquals(StorageResilienceInterceptor.State.CLOSED, resilience.getState(url));
+        Assert.assertEquals(0, diagnostics.getMetricRegistry().getGauges().get(DiagnosticsImpl.name("feed",
+                "storage.circuit-breaker." + url.scheme() + "://" + url.host() + ":" + url.port() + ".state"))
+                .getValue());
+    }
+
+    private void build(int maxRetries, int failureThreshold) {
+        OkHttpClient base = new OkHttpClient.Builder().readTimeout(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).build();
+        resilience = new StorageResilienceInterceptor(url("status"), base, maxRetries, failureThreshold, 1,
+                OPEN_BASE_MILLIS);
+        diagnostics = new DiagnosticsImpl(null, new MetricRegistry(), "feed");
+        resilience.setDiagnostics(diagnostics);
+        client = base.newBuilder().addInterceptor(resilience).build();
+    }
+
+    private void assertRejected() {
+        try (Response response = client.newCall(importRequest()).execute()) {
+            Assert.fail("Sent while the circuit breaker is open: " + response);
+        } catch (IOException expected) {
+        }
+    }
+
+    private Request importRequest() {
+        return new Request.Builder().url(url("import")).get().build();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/hawkular/inventory/" + path;
+    }
+
+    private int requests(String path) {
+        AtomicInteger count = requests.get(path);
+        return (count == null) ? 0 : count.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String last = path.substring(path.lastIndexOf('/') + 1);
+            requests.computeIfAbsent(last, p -> new AtomicInteger()).incrementAndGet();
+            int code;
+            if (last.equals("slow")) {
+                try {
+                    Thread.sleep(READ_TIMEOUT_MILLIS * 3); // the client gives up before the response is sent
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                code = 200;
+            } else if (last.equals("status")) {
+                code = statusCode;
+            } else if (unavailableCount > 0) {
+                unavailableCount--;
+                code = 503;
+            } else {
+                code = 200;
+            }
+            exchange.sendResponseHeaders(code, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+}
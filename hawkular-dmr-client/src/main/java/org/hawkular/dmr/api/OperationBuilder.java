@@ -23,10 +23,15 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import org.jboss.as.controller.PathAddress;
 import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.OperationMessageHandler;
 import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
 import org.jboss.dmr.ModelNode;
 
@@ -89,6 +94,38 @@ public class OperationBuilder implements SubsystemDatasourceConstants, Subsystem
             return createResult(request, result);
         }
 
+        /**
+         * Same as {@link #execute(ModelControllerClient)} but gives up waiting for the result after the given time.
+         * An operation that times out is cancelled.
+         *
+         * @param client the client to execute the operation with
+         * @param timeout the maximum time to wait for the result
+         * @param unit the unit of the timeout
+         * @return the result of the operation
+         * @throws OperationTimeoutException if the result did not arrive in time
+         */
+        public R execute(ModelControllerClient client, long timeout, TimeUnit unit) {
+            ModelNode request = build();
+            Future<ModelNode> future = client.executeAsync(request, OperationMessageHandler.DISCARD);
+            ModelNode result;
+            try {
+                result = future.get(timeout, unit);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                String msg = String.format("Operation [%s] did not complete within [%d] %s",
+                        request.get(ModelDescriptionConstants.OP).asString(), timeout, unit);
+                throw new OperationTimeoutException(msg, e);
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new DmrApiException(e);
+            } catch (ExecutionException e) {
+                throw new DmrApiException(e.getCause());
+            }
+            log.tracef("Executed [%s] built by [%s] with result [%s]", request, getClass().getName(), result);
+            return createResult(request, result);
+        }
+
         @SuppressWarnings("unchecked")
         public T operationHeader(String key, boolean value) {
             baseNode.get(ModelDescriptionConstants.OPERATION_HEADERS).get(key).set(value);
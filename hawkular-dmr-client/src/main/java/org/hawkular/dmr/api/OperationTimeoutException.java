@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.dmr.api;
+
+/**
+ * Thrown when the result of an operation does not arrive in time.
+ *
+ * @see OperationBuilder.AbstractOperationBuilder#execute(org.jboss.as.controller.client.ModelControllerClient, long,
+ *      java.util.concurrent.TimeUnit)
+ */
+public class OperationTimeoutException extends DmrApiException {
+    private static final long serialVersionUID = 4372061836251954231L;
+
+    public OperationTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public OperationTimeoutException(String message) {
+        super(message);
+    }
+
+    public OperationTimeoutException(Throwable cause) {
+        super(cause);
+    }
+
+}
@@ -16,7 +16,17 @@
  */
 package org.hawkular.dmrclient;
 
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.dmr.api.DmrApiException;
 import org.hawkular.dmr.api.OperationBuilder;
+import org.hawkular.dmr.api.OperationTimeoutException;
+import org.jboss.as.controller.client.ModelControllerClient;
 import org.jboss.dmr.ModelNode;
 import org.junit.Assert;
 import org.junit.Test;
@@ -120,4 +130,88 @@ public class OperationBuilderTest {
         Assert.assertEquals(expected, actual.toString());
     }
 
+    @Test
+    public void testExecuteWithTimeout() {
+        CompletableFuture<ModelNode> reply = new CompletableFuture<>();
+        ModelNode response = new ModelNode();
+        response.get("outcome").set("success");
+        response.get("result").set("value");
+        reply.complete(response);
+
+        ModelNode result = OperationBuilder.readResource().execute(asyncClient(reply), 1, TimeUnit.SECONDS)
+                .assertSuccess().getResultNode();
+        Assert.assertEquals("value", result.asString());
+    }
+
+    @Test
+    public void testExecuteTimesOut() {
+        CompletableFuture<ModelNode> reply = new CompletableFuture<>();
+        try {
+            OperationBuilder.readResource().execute(asyncClient(reply), 50, TimeUnit.MILLISECONDS);
+            Assert.fail("Did not time out");
+        } catch (OperationTimeoutException expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("read-resource"));
+        }
+
+        // the operation is cancelled and whatever it would still return is dropped
+        Assert.assertTrue(reply.isCancelled());
+        Assert.assertFalse(reply.complete(new ModelNode()));
+    }
+
+    @Test
+    public void testExecuteFails() {
+        CompletableFuture<ModelNode> reply = new CompletableFuture<>();
+        reply.completeExceptionally(new IOException("Connection lost"));
+        try {
+            OperationBuilder.readResource().execute(asyncClient(reply), 1, TimeUnit.SECONDS);
+            Assert.fail("Did not fail");
+        } catch (OperationTimeoutException e) {
+            Assert.fail("Not a timeout: " + e);
+        } catch (DmrApiException expected) {
+            Assert.assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testExecuteInterrupted() {
+        CompletableFuture<ModelNode> reply = new CompletableFuture<>();
+        Thread.currentThread().interrupt();
+        try {
+            OperationBuilder.readResource().execute(asyncClient(reply), 1, TimeUnit.SECONDS);
+            Assert.fail("Was not interrupted");
+        } catch (DmrApiException expected) {
+            Assert.assertTrue(expected.getCause() instanceof InterruptedException);
+        }
+        Assert.assertTrue(Thread.interrupted()); // the interrupt is kept - and cleared here
+        Assert.assertTrue(reply.isCancelled());
+    }
+
+    /**
+     * @return a client whose asynchronous operations return the given reply
+     */
+    private static ModelControllerClient asyncClient(CompletableFuture<ModelNode> reply) {
+        return (ModelControllerClient) Proxy.newProxyInstance(ModelControllerClient.class.getClassLoader(),
+                new Class<?>[] { ModelControllerClient.class }, (proxy, method, args) -> {
+                    if (!method.getName().equals("executeAsync")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    // the type of the future differs between client versions, any future backed by the reply will do
+                    Class<?> futureType = method.getReturnType();
+                    return Proxy.newProxyInstance(futureType.getClassLoader(), new Class<?>[] { futureType },
+                            (p, m, a) -> {
+                                if (m.getName().equals("asyncCancel")) {
+                                    reply.cancel(true);
+                                    return null;
+                                }
+                                try {
+                                    if (m.getDeclaringClass() == Object.class) {
+                                        return m.invoke(reply, a);
+                                    }
+                                    return Future.class.getMethod(m.getName(), m.getParameterTypes()).invoke(reply, a);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                            });
+                });
+    }
 }
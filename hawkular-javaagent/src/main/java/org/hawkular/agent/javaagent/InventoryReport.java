@@ -73,15 +73,17 @@ public class InventoryReport {
     }
 
     private static void buildEndpointNode(ModelNode endpointNode, EndpointService<?, ?> endpointService) {
-        ResourceManager<?> resourceManager = endpointService.getResourceManager();
-        Collection<?> resources = resourceManager.getRootResources();
+        // the report is built from a snapshot so it neither waits for nor is skewed by a running discovery scan
+        ResourceManager.Snapshot<?> inventory = endpointService.getResourceManager().getSnapshot();
+        Collection<?> resources = inventory.getRootResources();
         for (Object resourceObj : resources) {
             ModelNode rootResourceNode = endpointNode.add();
-            processResource(resourceManager, rootResourceNode, (Resource<?>) resourceObj);
+            processResource(inventory, rootResourceNode, (Resource<?>) resourceObj);
         }
     }
 
-    private static void processResource(ResourceManager<?> manager, ModelNode resourceNode, Resource<?> resource) {
+    private static void processResource(ResourceManager.Snapshot<?> inventory, ModelNode resourceNode,
+            Resource<?> resource) {
         resourceNode = resourceNode.get(resource.getID().getIDString());
         resourceNode.get("Name").set(resource.getName().getNameString());
         resourceNode.get("Type ID").set(resource.getResourceType().getID().getIDString());
@@ -92,11 +94,11 @@ public class InventoryReport {
             }
         }
 
-        Set<?> children = manager.getChildren((Resource) resource);
+        Set<?> children = inventory.getChildren((Resource) resource);
         if (!children.isEmpty()) {
             ModelNode childrenNode = resourceNode.get("Children");
             for (Object childObj : children) {
-                processResource(manager, childrenNode, (Resource<?>) childObj);
+                processResource(inventory, childrenNode, (Resource<?>) childObj);
             }
         }
     }
@@ -48,6 +48,7 @@ import org.hawkular.agent.monitor.inventory.ResourceType.Builder;
 import org.hawkular.agent.monitor.inventory.TypeSet;
 import org.hawkular.agent.monitor.inventory.TypeSet.TypeSetBuilder;
 import org.hawkular.agent.monitor.inventory.TypeSets;
+import org.hawkular.agent.monitor.protocol.EndpointService;
 import org.hawkular.agent.monitor.protocol.dmr.DMREndpointService;
 import org.hawkular.agent.monitor.protocol.dmr.DMRNodeLocation;
 import org.hawkular.agent.monitor.protocol.jmx.JMXEndpointService;
@@ -86,6 +87,9 @@ public class ConfigConverter {
                 config.getSubsystem().getImmutable(),
                 config.getSubsystem().getInContainer(),
                 config.getSubsystem().getAutoDiscoveryScanPeriodSecs(),
+                config.getSubsystem().getAutoDiscoveryScanPeriodMinSecs(),
+                config.getSubsystem().getAutoDiscoveryScanPeriodMaxSecs(),
+                config.getSubsystem().getInventorySnapshotDir(),
                 config.getSubsystem().getTypeVersion(),
                 2);
 
@@ -104,20 +108,34 @@ public class ConfigConverter {
                 config.getDiagnostics().getInterval(),
                 config.getDiagnostics().getTimeUnits().toJavaTimeUnit());
 
-        StorageAdapterConfiguration storageAdapter = new StorageAdapterConfiguration(
-                config.getStorageAdapter().getUsername(),
-                config.getStorageAdapter().getPassword(),
-                config.getStorageAdapter().getFeedId(),
-                config.getStorageAdapter().getUrl(),
-                config.getStorageAdapter().useSSL(),
-                config.getStorageAdapter().getInventoryContext(),
-                config.getStorageAdapter().getFeedcommContext(),
-                config.getStorageAdapter().getHawkularContext(),
-                null, // we use security realm exclusively
-                null, // we use security realm exclusively
-                config.getStorageAdapter().getSecurityRealmName(),
-                config.getStorageAdapter().getConnectTimeoutSecs(),
-                config.getStorageAdapter().getReadTimeoutSecs());
+        // we use security realm exclusively - no keystore path and password
+        StorageAdapterConfiguration storageAdapter = StorageAdapterConfiguration.builder()
+                .username(config.getStorageAdapter().getUsername())
+                .password(config.getStorageAdapter().getPassword())
+                .feedId(config.getStorageAdapter().getFeedId())
+                .url(config.getStorageAdapter().getUrl())
+                .useSSL(config.getStorageAdapter().useSSL())
+                .inventoryContext(config.getStorageAdapter().getInventoryContext())
+                .feedcommContext(config.getStorageAdapter().getFeedcommContext())
+                .hawkularContext(config.getStorageAdapter().getHawkularContext())
+                .securityRealm(config.getStorageAdapter().getSecurityRealmName())
+                .connectTimeoutSeconds(config.getStorageAdapter().getConnectTimeoutSecs())
+                .readTimeoutSeconds(config.getStorageAdapter().getReadTimeoutSecs())
+                .inventoryImportMaxResources(config.getStorageAdapter().getInventoryImportMaxResources())
+                .inventoryImportMaxBytes(config.getStorageAdapter().getInventoryImportMaxBytes())
+                .inventoryImportMaxConcurrentRequests(
+                        config.getStorageAdapter().getInventoryImportMaxConcurrentRequests())
+                .gzipRequests(config.getStorageAdapter().getGzipRequests())
+                .gzipThresholdBytes(config.getStorageAdapter().getGzipThresholdBytes())
+                .inventoryDigestSync(config.getStorageAdapter().getInventoryDigestSync())
+                // the outbox lives in the agent's data directory
+                .inventoryOutboxDir(config.getSubsystem().getInventorySnapshotDir())
+                .inventoryOutboxMaxBytes(config.getStorageAdapter().getInventoryOutboxMaxBytes())
+                .maxRetries(config.getStorageAdapter().getMaxRetries())
+                .circuitBreakerThreshold(config.getStorageAdapter().getCircuitBreakerThreshold())
+                .notificationBatchMaxSize(config.getStorageAdapter().getNotificationBatchMaxSize())
+                .notificationBatchWindowMillis(config.getStorageAdapter().getNotificationBatchWindowMillis())
+                .build();
 
         PlatformConfiguration platformConfiguration = new PlatformConfiguration(
                 config.getPlatform().getEnabled(),
@@ -310,6 +328,22 @@ public class ConfigConverter {
             if (resourceTypeSets == null || resourceTypeSets.length == 0) {
                 resourceTypeSets = enabledResourceTypeSets.toArray(new String[enabledResourceTypeSets.size()]);
             }
+            Map<String, Object> customData = new HashMap<>();
+            customData.put(DMREndpointService.ENABLE_STATISTICS_KEY,
+                    config.getManagedServers().getLocalDmr().getEnableStatistics());
+            customData.put(EndpointService.PARALLEL_DISCOVERY_KEY,
+                    config.getManagedServers().getLocalDmr().getParallelDiscovery());
+            customData.put(EndpointService.DISCOVERY_PARALLELISM_KEY,
+                    config.getManagedServers().getLocalDmr().getDiscoveryParallelism());
+            customData.put(DMREndpointService.RECURSIVE_DISCOVERY_KEY,
+                    config.getManagedServers().getLocalDmr().getRecursiveDiscovery());
+            customData.put(DMREndpointService.RECURSIVE_DISCOVERY_SIZE_LIMIT_KEY,
+                    config.getManagedServers().getLocalDmr().getRecursiveDiscoverySizeLimit());
+            customData.put(EndpointService.DISCOVERY_SCAN_TIMEOUT_KEY,
+                    config.getManagedServers().getLocalDmr().getDiscoveryScanTimeoutSecs());
+            customData.put(DMREndpointService.DISCOVERY_REQUEST_TIMEOUT_KEY,
+                    config.getManagedServers().getLocalDmr().getDiscoveryRequestTimeoutSecs());
+
             EndpointConfiguration localDmrEndpointConfig = new EndpointConfiguration(
                     config.getManagedServers().getLocalDmr().getName(),
                     config.getManagedServers().getLocalDmr().getEnabled(),
@@ -317,8 +351,7 @@ public class ConfigConverter {
                     connectionData,
                     null,
                     config.getManagedServers().getLocalDmr().getMetricLabels(),
-                    Collections.singletonMap(DMREndpointService.ENABLE_STATISTICS_KEY,
-                            config.getManagedServers().getLocalDmr().getEnableStatistics()),
+                    customData,
                     asWaitForList(config.getManagedServers().getLocalDmr().getWaitFor()));
             managedServers.put(config.getManagedServers().getLocalDmr().getName(), localDmrEndpointConfig);
         }
@@ -341,6 +374,17 @@ public class ConfigConverter {
                     resourceTypeSets = enabledResourceTypeSets.toArray(new String[enabledResourceTypeSets.size()]);
                 }
 
+                Map<String, Object> customData = new HashMap<>();
+                customData.put(DMREndpointService.ENABLE_STATISTICS_KEY, remoteDmr.getEnableStatistics());
+                customData.put(EndpointService.PARALLEL_DISCOVERY_KEY, remoteDmr.getParallelDiscovery());
+                customData.put(EndpointService.DISCOVERY_PARALLELISM_KEY, remoteDmr.getDiscoveryParallelism());
+                customData.put(DMREndpointService.RECURSIVE_DISCOVERY_KEY, remoteDmr.getRecursiveDiscovery());
+                customData.put(DMREndpointService.RECURSIVE_DISCOVERY_SIZE_LIMIT_KEY,
+                        remoteDmr.getRecursiveDiscoverySizeLimit());
+                customData.put(EndpointService.DISCOVERY_SCAN_TIMEOUT_KEY, remoteDmr.getDiscoveryScanTimeoutSecs());
+                customData.put(DMREndpointService.DISCOVERY_REQUEST_TIMEOUT_KEY,
+                        remoteDmr.getDiscoveryRequestTimeoutSecs());
+
                 EndpointConfiguration remoteDmrEndpointConfig = new EndpointConfiguration(
                         remoteDmr.getName(),
                         remoteDmr.getEnabled(),
@@ -348,8 +392,7 @@ public class ConfigConverter {
                         connectionData,
                         remoteDmr.getSecurityRealmName(),
                         remoteDmr.getMetricLabels(),
-                        Collections.singletonMap(DMREndpointService.ENABLE_STATISTICS_KEY,
-                                remoteDmr.getEnableStatistics()),
+                        customData,
                         asWaitForList(remoteDmr.getWaitFor()));
 
                 managedServers.put(remoteDmr.getName(), remoteDmrEndpointConfig);
@@ -471,6 +514,20 @@ public class ConfigConverter {
                 resourceTypeSets = enabledResourceTypeSets.toArray(new String[enabledResourceTypeSets.size()]);
             }
 
+            Map<String, Object> customData = new HashMap<>();
+            customData.put(JMXEndpointService.MBEAN_SERVER_NAME_KEY,
+                    config.getManagedServers().getLocalJmx().getMbeanServerName());
+            customData.put(EndpointService.PARALLEL_DISCOVERY_KEY,
+                    config.getManagedServers().getLocalJmx().getParallelDiscovery());
+            customData.put(EndpointService.DISCOVERY_PARALLELISM_KEY,
+                    config.getManagedServers().getLocalJmx().getDiscoveryParallelism());
+            customData.put(JMXEndpointService.INCREMENTAL_DISCOVERY_KEY,
+                    config.getManagedServers().getLocalJmx().getIncrementalDiscovery());
+            customData.put(JMXEndpointService.INCREMENTAL_DISCOVERY_DELAY_KEY,
+                    config.getManagedServers().getLocalJmx().getIncrementalDiscoveryDelayMillis());
+            customData.put(EndpointService.DISCOVERY_SCAN_TIMEOUT_KEY,
+                    config.getManagedServers().getLocalJmx().getDiscoveryScanTimeoutSecs());
+
             EndpointConfiguration localJmx = new EndpointConfiguration(
                     config.getManagedServers().getLocalJmx().getName(),
                     config.getManagedServers().getLocalJmx().getEnabled(),
@@ -478,8 +535,7 @@ public class ConfigConverter {
                     null,
                     null,
                     config.getManagedServers().getLocalJmx().getMetricLabels(),
-                    Collections.singletonMap(JMXEndpointService.MBEAN_SERVER_NAME_KEY,
-                            config.getManagedServers().getLocalJmx().getMbeanServerName()),
+                    customData,
                     asWaitForList(config.getManagedServers().getLocalJmx().getWaitFor()));
             managedServers.put(config.getManagedServers().getLocalJmx().getName(), localJmx);
         }
@@ -503,6 +559,11 @@ public class ConfigConverter {
                     resourceTypeSets = enabledResourceTypeSets.toArray(new String[enabledResourceTypeSets.size()]);
                 }
 
+                Map<String, Object> customData = new HashMap<>();
+                customData.put(EndpointService.PARALLEL_DISCOVERY_KEY, remoteJmx.getParallelDiscovery());
+                customData.put(EndpointService.DISCOVERY_PARALLELISM_KEY, remoteJmx.getDiscoveryParallelism());
+                customData.put(EndpointService.DISCOVERY_SCAN_TIMEOUT_KEY, remoteJmx.getDiscoveryScanTimeoutSecs());
+
                 EndpointConfiguration remoteJmxEndpointConfig = new EndpointConfiguration(
                         remoteJmx.getName(),
                         remoteJmx.getEnabled(),
@@ -510,7 +571,7 @@ public class ConfigConverter {
                         connectionData,
                         remoteJmx.getSecurityRealmName(),
                         remoteJmx.getMetricLabels(),
-                        null,
+                        customData,
                         asWaitForList(remoteJmx.getWaitFor()));
 
                 managedServers.put(remoteJmx.getName(), remoteJmxEndpointConfig);
@@ -51,6 +51,21 @@ public class LocalJMX implements Validatable {
     @JsonProperty("wait-for")
     private WaitFor[] waitFor;
 
+    @JsonProperty("parallel-discovery")
+    private BooleanExpression parallelDiscovery = new BooleanExpression(Boolean.FALSE);
+
+    @JsonProperty("discovery-parallelism")
+    private IntegerExpression discoveryParallelism = new IntegerExpression(4);
+
+    @JsonProperty("incremental-discovery")
+    private BooleanExpression incrementalDiscovery = new BooleanExpression(Boolean.FALSE);
+
+    @JsonProperty("incremental-discovery-delay-millis")
+    private IntegerExpression incrementalDiscoveryDelayMillis = new IntegerExpression(1000);
+
+    @JsonProperty("discovery-scan-timeout-secs")
+    private IntegerExpression discoveryScanTimeoutSecs = new IntegerExpression(0);
+
     public LocalJMX() {
     }
 
@@ -62,6 +77,16 @@ public class LocalJMX implements Validatable {
         this.metricLabels = original.metricLabels == null ? null : new HashMap<>(original.metricLabels);
         this.mbeanServerName = original.mbeanServerName;
         this.waitFor = original.waitFor == null ? null : Arrays.copyOf(original.waitFor, original.waitFor.length);
+        this.parallelDiscovery = original.parallelDiscovery == null ? null
+                : new BooleanExpression(original.parallelDiscovery);
+        this.discoveryParallelism = original.discoveryParallelism == null ? null
+                : new IntegerExpression(original.discoveryParallelism);
+        this.incrementalDiscovery = original.incrementalDiscovery == null ? null
+                : new BooleanExpression(original.incrementalDiscovery);
+        this.incrementalDiscoveryDelayMillis = original.incrementalDiscoveryDelayMillis == null ? null
+                : new IntegerExpression(original.incrementalDiscoveryDelayMillis);
+        this.discoveryScanTimeoutSecs = original.discoveryScanTimeoutSecs == null ? null
+                : new IntegerExpression(original.discoveryScanTimeoutSecs);
     }
 
     @Override
@@ -136,4 +161,64 @@ public class LocalJMX implements Validatable {
     public void setWaitFor(WaitFor[] waitFor) {
         this.waitFor = waitFor;
     }
+
+    public Boolean getParallelDiscovery() {
+        return parallelDiscovery == null ? null : parallelDiscovery.get();
+    }
+
+    public void setParallelDiscovery(Boolean parallelDiscovery) {
+        if (this.parallelDiscovery != null) {
+            this.parallelDiscovery.set(parallelDiscovery);
+        } else {
+            this.parallelDiscovery = new BooleanExpression(parallelDiscovery);
+        }
+    }
+
+    public Integer getDiscoveryParallelism() {
+        return discoveryParallelism == null ? null : discoveryParallelism.get();
+    }
+
+    public void setDiscoveryParallelism(Integer discoveryParallelism) {
+        if (this.discoveryParallelism != null) {
+            this.discoveryParallelism.set(discoveryParallelism);
+        } else {
+            this.discoveryParallelism = new IntegerExpression(discoveryParallelism);
+        }
+    }
+
+    public Boolean getIncrementalDiscovery() {
+        return incrementalDiscovery == null ? null : incrementalDiscovery.get();
+    }
+
+    public void setIncrementalDiscovery(Boolean incrementalDiscovery) {
+        if (this.incrementalDiscovery != null) {
+            this.incrementalDiscovery.set(incrementalDiscovery);
+        } else {
+            this.incrementalDiscovery = new BooleanExpression(incrementalDiscovery);
+        }
+    }
+
+    public Integer getIncrementalDiscoveryDelayMillis() {
+        return incrementalDiscoveryDelayMillis == null ? null : incrementalDiscoveryDelayMillis.get();
+    }
+
+    public void setIncrementalDiscoveryDelayMillis(Integer incrementalDiscoveryDelayMillis) {
+        if (this.incrementalDiscoveryDelayMillis != null) {
+            this.incrementalDiscoveryDelayMillis.set(incrementalDiscoveryDelayMillis);
+        } else {
+            this.incrementalDiscoveryDelayMillis = new IntegerExpression(incrementalDiscoveryDelayMillis);
+        }
+    }
+
+    public Integer getDiscoveryScanTimeoutSecs() {
+        return discoveryScanTimeoutSecs == null ? null : discoveryScanTimeoutSecs.get();
+    }
+
+    public void setDiscoveryScanTimeoutSecs(Integer discoveryScanTimeoutSecs) {
+        if (this.discoveryScanTimeoutSecs != null) {
+            this.discoveryScanTimeoutSecs.set(discoveryScanTimeoutSecs);
+        } else {
+            this.discoveryScanTimeoutSecs = new IntegerExpression(discoveryScanTimeoutSecs);
+        }
+    }
 }
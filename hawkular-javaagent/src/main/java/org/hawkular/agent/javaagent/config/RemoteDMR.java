@@ -73,6 +73,24 @@ public class RemoteDMR implements Validatable {
     @JsonProperty("enable-statistics")
     private BooleanExpression enableStatistics = new BooleanExpression(Boolean.TRUE);
 
+    @JsonProperty("parallel-discovery")
+    private BooleanExpression parallelDiscovery = new BooleanExpression(Boolean.FALSE);
+
+    @JsonProperty("discovery-parallelism")
+    private IntegerExpression discoveryParallelism = new IntegerExpression(4);
+
+    @JsonProperty("recursive-discovery")
+    private BooleanExpression recursiveDiscovery = new BooleanExpression(Boolean.FALSE);
+
+    @JsonProperty("recursive-discovery-size-limit")
+    private IntegerExpression recursiveDiscoverySizeLimit = new IntegerExpression(52428800);
+
+    @JsonProperty("discovery-scan-timeout-secs")
+    private IntegerExpression discoveryScanTimeoutSecs = new IntegerExpression(0);
+
+    @JsonProperty("discovery-request-timeout-secs")
+    private IntegerExpression discoveryRequestTimeoutSecs = new IntegerExpression(0);
+
     public RemoteDMR() {
     }
 
@@ -92,6 +110,18 @@ public class RemoteDMR implements Validatable {
         this.waitFor = original.waitFor == null ? null : Arrays.copyOf(original.waitFor, original.waitFor.length);
         this.enableStatistics = original.enableStatistics == null ? null
                 : new BooleanExpression(original.enableStatistics);
+        this.parallelDiscovery = original.parallelDiscovery == null ? null
+                : new BooleanExpression(original.parallelDiscovery);
+        this.discoveryParallelism = original.discoveryParallelism == null ? null
+                : new IntegerExpression(original.discoveryParallelism);
+        this.recursiveDiscovery = original.recursiveDiscovery == null ? null
+                : new BooleanExpression(original.recursiveDiscovery);
+        this.recursiveDiscoverySizeLimit = original.recursiveDiscoverySizeLimit == null ? null
+                : new IntegerExpression(original.recursiveDiscoverySizeLimit);
+        this.discoveryScanTimeoutSecs = original.discoveryScanTimeoutSecs == null ? null
+                : new IntegerExpression(original.discoveryScanTimeoutSecs);
+        this.discoveryRequestTimeoutSecs = original.discoveryRequestTimeoutSecs == null ? null
+                : new IntegerExpression(original.discoveryRequestTimeoutSecs);
     }
 
     @Override
@@ -255,4 +285,76 @@ public class RemoteDMR implements Validatable {
             this.enableStatistics = new BooleanExpression(enableStatistics);
         }
     }
+
+    public Boolean getParallelDiscovery() {
+        return parallelDiscovery == null ? null : parallelDiscovery.get();
+    }
+
+    public void setParallelDiscovery(Boolean parallelDiscovery) {
+        if (this.parallelDiscovery != null) {
+            this.parallelDiscovery.set(parallelDiscovery);
+        } else {
+            this.parallelDiscovery = new BooleanExpression(parallelDiscovery);
+        }
+    }
+
+    public Integer getDiscoveryParallelism() {
+        return discoveryParallelism == null ? null : discoveryParallelism.get();
+    }
+
+    public void setDiscoveryParallelism(Integer discoveryParallelism) {
+        if (this.discoveryParallelism != null) {
+            this.discoveryParallelism.set(discoveryParallelism);
+        } else {
+            this.discoveryParallelism = new IntegerExpression(discoveryParallelism);
+        }
+    }
+
+    public Boolean getRecursiveDiscovery() {
+        return recursiveDiscovery == null ? null : recursiveDiscovery.get();
+    }
+
+    public void setRecursiveDiscovery(Boolean recursiveDiscovery) {
+        if (this.recursiveDiscovery != null) {
+            this.recursiveDiscovery.set(recursiveDiscovery);
+        } else {
+            this.recursiveDiscovery = new BooleanExpression(recursiveDiscovery);
+        }
+    }
+
+    public Integer getRecursiveDiscoverySizeLimit() {
+        return recursiveDiscoverySizeLimit == null ? null : recursiveDiscoverySizeLimit.get();
+    }
+
+    public void setRecursiveDiscoverySizeLimit(Integer recursiveDiscoverySizeLimit) {
+        if (this.recursiveDiscoverySizeLimit != null) {
+            this.recursiveDiscoverySizeLimit.set(recursiveDiscoverySizeLimit);
+        } else {
+            this.recursiveDiscoverySizeLimit = new IntegerExpression(recursiveDiscoverySizeLimit);
+        }
+    }
+
+    public Integer getDiscoveryScanTimeoutSecs() {
+        return discoveryScanTimeoutSecs == null ? null : discoveryScanTimeoutSecs.get();
+    }
+
+    public void setDiscoveryScanTimeoutSecs(Integer discoveryScanTimeoutSecs) {
+        if (this.discoveryScanTimeoutSecs != null) {
+            this.discoveryScanTimeoutSecs.set(discoveryScanTimeoutSecs);
+        } else {
+            this.discoveryScanTimeoutSecs = new IntegerExpression(discoveryScanTimeoutSecs);
+        }
+    }
+
+    public Integer getDiscoveryRequestTimeoutSecs() {
+        return discoveryRequestTimeoutSecs == null ? null : discoveryRequestTimeoutSecs.get();
+    }
+
+    public void setDiscoveryRequestTimeoutSecs(Integer discoveryRequestTimeoutSecs) {
+        if (this.discoveryRequestTimeoutSecs != null) {
+            this.discoveryRequestTimeoutSecs.set(discoveryRequestTimeoutSecs);
+        } else {
+            this.discoveryRequestTimeoutSecs = new IntegerExpression(discoveryRequestTimeoutSecs);
+        }
+    }
 }
@@ -62,6 +62,15 @@ public class RemoteJMX implements Validatable {
     @JsonProperty("wait-for")
     private WaitFor[] waitFor;
 
+    @JsonProperty("parallel-discovery")
+    private BooleanExpression parallelDiscovery = new BooleanExpression(Boolean.FALSE);
+
+    @JsonProperty("discovery-parallelism")
+    private IntegerExpression discoveryParallelism = new IntegerExpression(4);
+
+    @JsonProperty("discovery-scan-timeout-secs")
+    private IntegerExpression discoveryScanTimeoutSecs = new IntegerExpression(0);
+
     public RemoteJMX() {
     }
 
@@ -76,6 +85,12 @@ public class RemoteJMX implements Validatable {
                 : Arrays.copyOf(original.resourceTypeSets, original.resourceTypeSets.length);
         this.metricLabels = original.metricLabels == null ? null : new HashMap<>(original.metricLabels);
         this.waitFor = original.waitFor == null ? null : Arrays.copyOf(original.waitFor, original.waitFor.length);
+        this.parallelDiscovery = original.parallelDiscovery == null ? null
+                : new BooleanExpression(original.parallelDiscovery);
+        this.discoveryParallelism = original.discoveryParallelism == null ? null
+                : new IntegerExpression(original.discoveryParallelism);
+        this.discoveryScanTimeoutSecs = original.discoveryScanTimeoutSecs == null ? null
+                : new IntegerExpression(original.discoveryScanTimeoutSecs);
     }
 
     @Override
@@ -189,4 +204,40 @@ public class RemoteJMX implements Validatable {
     public void setWaitFor(WaitFor[] waitFor) {
         this.waitFor = waitFor;
     }
+
+    public Boolean getParallelDiscovery() {
+        return parallelDiscovery == null ? null : parallelDiscovery.get();
+    }
+
+    public void setParallelDiscovery(Boolean parallelDiscovery) {
+        if (this.parallelDiscovery != null) {
+            this.parallelDiscovery.set(parallelDiscovery);
+        } else {
+            this.parallelDiscovery = new BooleanExpression(parallelDiscovery);
+        }
+    }
+
+    public Integer getDiscoveryParallelism() {
+        return discoveryParallelism == null ? null : discoveryParallelism.get();
+    }
+
+    public void setDiscoveryParallelism(Integer discoveryParallelism) {
+        if (this.discoveryParallelism != null) {
+            this.discoveryParallelism.set(discoveryParallelism);
+        } else {
+            this.discoveryParallelism = new IntegerExpression(discoveryParallelism);
+        }
+    }
+
+    public Integer getDiscoveryScanTimeoutSecs() {
+        return discoveryScanTimeoutSecs == null ? null : discoveryScanTimeoutSecs.get();
+    }
+
+    public void setDiscoveryScanTimeoutSecs(Integer discoveryScanTimeoutSecs) {
+        if (this.discoveryScanTimeoutSecs != null) {
+            this.discoveryScanTimeoutSecs.set(discoveryScanTimeoutSecs);
+        } else {
+            this.discoveryScanTimeoutSecs = new IntegerExpression(discoveryScanTimeoutSecs);
+        }
+    }
 }
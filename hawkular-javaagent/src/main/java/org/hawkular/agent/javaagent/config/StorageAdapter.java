@@ -68,6 +68,39 @@ public class StorageAdapter implements Validatable {
     @JsonProperty("read-timeout-secs")
     private Integer readTimeoutSecs = 120;
 
+    @JsonProperty("inventory-import-max-resources")
+    private Integer inventoryImportMaxResources = 1000;
+
+    @JsonProperty("inventory-import-max-bytes")
+    private Integer inventoryImportMaxBytes = 4194304;
+
+    @JsonProperty("inventory-import-max-concurrent-requests")
+    private Integer inventoryImportMaxConcurrentRequests = 2;
+
+    @JsonProperty("gzip-requests")
+    private BooleanExpression gzipRequests = new BooleanExpression(Boolean.FALSE);
+
+    @JsonProperty("gzip-threshold-bytes")
+    private Integer gzipThresholdBytes = 1024;
+
+    @JsonProperty("inventory-digest-sync")
+    private BooleanExpression inventoryDigestSync = new BooleanExpression(Boolean.FALSE);
+
+    @JsonProperty("inventory-outbox-max-bytes")
+    private Integer inventoryOutboxMaxBytes = 67108864;
+
+    @JsonProperty("max-retries")
+    private Integer maxRetries = 3;
+
+    @JsonProperty("circuit-breaker-threshold")
+    private Integer circuitBreakerThreshold = 5;
+
+    @JsonProperty("notification-batch-max-size")
+    private Integer notificationBatchMaxSize = 100;
+
+    @JsonProperty("notification-batch-window-millis")
+    private Integer notificationBatchWindowMillis = 500;
+
     public StorageAdapter() {
     }
 
@@ -83,6 +116,18 @@ public class StorageAdapter implements Validatable {
         this.hawkularContext = original.hawkularContext;
         this.connectTimeoutSecs = original.connectTimeoutSecs;
         this.readTimeoutSecs = original.readTimeoutSecs;
+        this.inventoryImportMaxResources = original.inventoryImportMaxResources;
+        this.inventoryImportMaxBytes = original.inventoryImportMaxBytes;
+        this.inventoryImportMaxConcurrentRequests = original.inventoryImportMaxConcurrentRequests;
+        this.gzipRequests = original.gzipRequests == null ? null : new BooleanExpression(original.gzipRequests);
+        this.gzipThresholdBytes = original.gzipThresholdBytes;
+        this.inventoryDigestSync = original.inventoryDigestSync == null ? null
+                : new BooleanExpression(original.inventoryDigestSync);
+        this.inventoryOutboxMaxBytes = original.inventoryOutboxMaxBytes;
+        this.maxRetries = original.maxRetries;
+        this.circuitBreakerThreshold = original.circuitBreakerThreshold;
+        this.notificationBatchMaxSize = original.notificationBatchMaxSize;
+        this.notificationBatchWindowMillis = original.notificationBatchWindowMillis;
     }
 
     /**
@@ -114,6 +159,42 @@ public class StorageAdapter implements Validatable {
         if (readTimeoutSecs != null && readTimeoutSecs <= 0) {
             throw new Exception("storage-adapter read-timeout-secs must be greater than or equal to 0");
         }
+
+        if (inventoryImportMaxResources != null && inventoryImportMaxResources < 0) {
+            throw new Exception("storage-adapter inventory-import-max-resources must be greater than or equal to 0");
+        }
+
+        if (inventoryImportMaxBytes != null && inventoryImportMaxBytes < 0) {
+            throw new Exception("storage-adapter inventory-import-max-bytes must be greater than or equal to 0");
+        }
+
+        if (inventoryImportMaxConcurrentRequests != null && inventoryImportMaxConcurrentRequests <= 0) {
+            throw new Exception("storage-adapter inventory-import-max-concurrent-requests must be greater than 0");
+        }
+
+        if (gzipThresholdBytes != null && gzipThresholdBytes < 0) {
+            throw new Exception("storage-adapter gzip-threshold-bytes must be greater than or equal to 0");
+        }
+
+        if (inventoryOutboxMaxBytes != null && inventoryOutboxMaxBytes < 0) {
+            throw new Exception("storage-adapter inventory-outbox-max-bytes must be greater than or equal to 0");
+        }
+
+        if (maxRetries != null && maxRetries < 0) {
+            throw new Exception("storage-adapter max-retries must be greater than or equal to 0");
+        }
+
+        if (circuitBreakerThreshold != null && circuitBreakerThreshold < 0) {
+            throw new Exception("storage-adapter circuit-breaker-threshold must be greater than or equal to 0");
+        }
+
+        if (notificationBatchMaxSize != null && notificationBatchMaxSize <= 0) {
+            throw new Exception("storage-adapter notification-batch-max-size must be greater than 0");
+        }
+
+        if (notificationBatchWindowMillis != null && notificationBatchWindowMillis < 0) {
+            throw new Exception("storage-adapter notification-batch-window-millis must be greater than or equal to 0");
+        }
     }
 
     public Type getType() {
@@ -219,4 +300,100 @@ public class StorageAdapter implements Validatable {
     public void setReadTimeoutSecs(Integer readTimeoutSecs) {
         this.readTimeoutSecs = readTimeoutSecs;
     }
+
+    public Integer getInventoryImportMaxResources() {
+        return inventoryImportMaxResources;
+    }
+
+    public void setInventoryImportMaxResources(Integer inventoryImportMaxResources) {
+        this.inventoryImportMaxResources = inventoryImportMaxResources;
+    }
+
+    public Integer getInventoryImportMaxBytes() {
+        return inventoryImportMaxBytes;
+    }
+
+    public void setInventoryImportMaxBytes(Integer inventoryImportMaxBytes) {
+        this.inventoryImportMaxBytes = inventoryImportMaxBytes;
+    }
+
+    public Integer getInventoryImportMaxConcurrentRequests() {
+        return inventoryImportMaxConcurrentRequests;
+    }
+
+    public void setInventoryImportMaxConcurrentRequests(Integer inventoryImportMaxConcurrentRequests) {
+        this.inventoryImportMaxConcurrentRequests = inventoryImportMaxConcurrentRequests;
+    }
+
+    public Boolean getGzipRequests() {
+        return gzipRequests == null ? null : gzipRequests.get();
+    }
+
+    public void setGzipRequests(Boolean gzipRequests) {
+        if (this.gzipRequests != null) {
+            this.gzipRequests.set(gzipRequests);
+        } else {
+            this.gzipRequests = new BooleanExpression(gzipRequests);
+        }
+    }
+
+    public Integer getGzipThresholdBytes() {
+        return gzipThresholdBytes;
+    }
+
+    public void setGzipThresholdBytes(Integer gzipThresholdBytes) {
+        this.gzipThresholdBytes = gzipThresholdBytes;
+    }
+
+    public Boolean getInventoryDigestSync() {
+        return inventoryDigestSync == null ? null : inventoryDigestSync.get();
+    }
+
+    public void setInventoryDigestSync(Boolean inventoryDigestSync) {
+        if (this.inventoryDigestSync != null) {
+            this.inventoryDigestSync.set(inventoryDigestSync);
+        } else {
+            this.inventoryDigestSync = new BooleanExpression(inventoryDigestSync);
+        }
+    }
+
+    public Integer getInventoryOutboxMaxBytes() {
+        return inventoryOutboxMaxBytes;
+    }
+
+    public void setInventoryOutboxMaxBytes(Integer inventoryOutboxMaxBytes) {
+        this.inventoryOutboxMaxBytes = inventoryOutboxMaxBytes;
+    }
+
+    public Integer getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(Integer maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public Integer getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    public void setCircuitBreakerThreshold(Integer circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    public Integer getNotificationBatchMaxSize() {
+        return notificationBatchMaxSize;
+    }
+
+    public void setNotificationBatchMaxSize(Integer notificationBatchMaxSize) {
+        this.notificationBatchMaxSize = notificationBatchMaxSize;
+    }
+
+    public Integer getNotificationBatchWindowMillis() {
+        return notificationBatchWindowMillis;
+    }
+
+    public void setNotificationBatchWindowMillis(Integer notificationBatchWindowMillis) {
+        this.notificationBatchWindowMillis = notificationBatchWindowMillis;
+    }
 }
@@ -16,6 +16,8 @@
  */
 package org.hawkular.agent.javaagent.config;
 
+import org.hawkular.agent.javaagent.config.StringExpression.StringValue;
+
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -33,6 +35,12 @@ public class Subsystem implements Validatable {
     @JsonProperty("auto-discovery-scan-period-secs")
     private IntegerExpression autoDiscoveryScanPeriodSecs = new IntegerExpression(600);
 
+    @JsonProperty("auto-discovery-scan-period-min-secs")
+    private IntegerExpression autoDiscoveryScanPeriodMinSecs = new IntegerExpression(0);
+
+    @JsonProperty("auto-discovery-scan-period-max-secs")
+    private IntegerExpression autoDiscoveryScanPeriodMaxSecs = new IntegerExpression(0);
+
     @JsonProperty
     private BooleanExpression immutable = new BooleanExpression(Boolean.FALSE);
 
@@ -42,6 +50,9 @@ public class Subsystem implements Validatable {
     @JsonProperty("type-version")
     private String typeVersion;
 
+    @JsonProperty("inventory-snapshot-dir")
+    private StringExpression inventorySnapshotDir;
+
     public Subsystem() {
     }
 
@@ -49,9 +60,15 @@ public class Subsystem implements Validatable {
         this.enabled = original.enabled == null ? null : new BooleanExpression(original.enabled);
         this.autoDiscoveryScanPeriodSecs = original.autoDiscoveryScanPeriodSecs == null ? null
                 : new IntegerExpression(original.autoDiscoveryScanPeriodSecs);
+        this.autoDiscoveryScanPeriodMinSecs = original.autoDiscoveryScanPeriodMinSecs == null ? null
+                : new IntegerExpression(original.autoDiscoveryScanPeriodMinSecs);
+        this.autoDiscoveryScanPeriodMaxSecs = original.autoDiscoveryScanPeriodMaxSecs == null ? null
+                : new IntegerExpression(original.autoDiscoveryScanPeriodMaxSecs);
         this.immutable = original.immutable == null ? null : new BooleanExpression(original.immutable);
         this.inContainer = original.inContainer == null ? null : new BooleanExpression(original.inContainer);
         this.typeVersion = original.typeVersion;
+        this.inventorySnapshotDir = original.inventorySnapshotDir == null ? null
+                : new StringExpression(original.inventorySnapshotDir);
     }
 
     @Override
@@ -59,6 +76,18 @@ public class Subsystem implements Validatable {
         if (autoDiscoveryScanPeriodSecs != null && autoDiscoveryScanPeriodSecs.get() <= 0) {
             throw new Exception("subsystem auto-discovery-scan-period-secs must be greater than 0");
         }
+        Integer min = getAutoDiscoveryScanPeriodMinSecs();
+        Integer max = getAutoDiscoveryScanPeriodMaxSecs();
+        if (min != null && min < 0) {
+            throw new Exception("subsystem auto-discovery-scan-period-min-secs must not be negative");
+        }
+        if (max != null && max < 0) {
+            throw new Exception("subsystem auto-discovery-scan-period-max-secs must not be negative");
+        }
+        if (min != null && max != null && min > 0 && max > 0 && min > max) {
+            throw new Exception("subsystem auto-discovery-scan-period-min-secs must not be greater than "
+                    + "auto-discovery-scan-period-max-secs");
+        }
     }
 
     public Boolean getEnabled() {
@@ -85,6 +114,30 @@ public class Subsystem implements Validatable {
         }
     }
 
+    public Integer getAutoDiscoveryScanPeriodMinSecs() {
+        return autoDiscoveryScanPeriodMinSecs == null ? null : autoDiscoveryScanPeriodMinSecs.get();
+    }
+
+    public void setAutoDiscoveryScanPeriodMinSecs(Integer autoDiscoveryScanPeriodMinSecs) {
+        if (this.autoDiscoveryScanPeriodMinSecs != null) {
+            this.autoDiscoveryScanPeriodMinSecs.set(autoDiscoveryScanPeriodMinSecs);
+        } else {
+            this.autoDiscoveryScanPeriodMinSecs = new IntegerExpression(autoDiscoveryScanPeriodMinSecs);
+        }
+    }
+
+    public Integer getAutoDiscoveryScanPeriodMaxSecs() {
+        return autoDiscoveryScanPeriodMaxSecs == null ? null : autoDiscoveryScanPeriodMaxSecs.get();
+    }
+
+    public void setAutoDiscoveryScanPeriodMaxSecs(Integer autoDiscoveryScanPeriodMaxSecs) {
+        if (this.autoDiscoveryScanPeriodMaxSecs != null) {
+            this.autoDiscoveryScanPeriodMaxSecs.set(autoDiscoveryScanPeriodMaxSecs);
+        } else {
+            this.autoDiscoveryScanPeriodMaxSecs = new IntegerExpression(autoDiscoveryScanPeriodMaxSecs);
+        }
+    }
+
     public Boolean getImmutable() {
         return immutable == null ? null : immutable.get();
     }
@@ -116,4 +169,16 @@ public class Subsystem implements Validatable {
     public void setTypeVersion(String typeVersion) {
         this.typeVersion = typeVersion;
     }
+
+    public String getInventorySnapshotDir() {
+        return inventorySnapshotDir == null ? null : inventorySnapshotDir.get().toString();
+    }
+
+    public void setInventorySnapshotDir(String inventorySnapshotDir) {
+        if (this.inventorySnapshotDir != null) {
+            this.inventorySnapshotDir.set(new StringValue(inventorySnapshotDir));
+        } else {
+            this.inventorySnapshotDir = new StringExpression(new StringValue(inventorySnapshotDir));
+        }
+    }
 }
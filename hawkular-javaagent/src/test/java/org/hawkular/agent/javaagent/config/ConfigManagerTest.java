@@ -438,6 +438,17 @@ public class ConfigManagerTest {
         Assert.assertEquals("/hawkular/command-gateway/", sa.getFeedcommContext());
         Assert.assertEquals(10, sa.getConnectTimeoutSecs().intValue());
         Assert.assertEquals(120, sa.getReadTimeoutSecs().intValue());
+        Assert.assertEquals(1000, sa.getInventoryImportMaxResources().intValue());
+        Assert.assertEquals(4194304, sa.getInventoryImportMaxBytes().intValue());
+        Assert.assertEquals(2, sa.getInventoryImportMaxConcurrentRequests().intValue());
+        Assert.assertEquals(false, sa.getGzipRequests());
+        Assert.assertEquals(1024, sa.getGzipThresholdBytes().intValue());
+        Assert.assertEquals(false, sa.getInventoryDigestSync());
+        Assert.assertEquals(67108864, sa.getInventoryOutboxMaxBytes().intValue());
+        Assert.assertEquals(3, sa.getMaxRetries().intValue());
+        Assert.assertEquals(5, sa.getCircuitBreakerThreshold().intValue());
+        Assert.assertEquals(100, sa.getNotificationBatchMaxSize().intValue());
+        Assert.assertEquals(500, sa.getNotificationBatchWindowMillis().intValue());
 
         // platform
         Platform p = new Platform();
@@ -462,6 +473,24 @@ public class ConfigManagerTest {
         Assert.assertEquals(true, ljmx.getEnabled());
     }
 
+    @Test
+    public void testInventoryImportLimits() throws Exception {
+        StorageAdapter sa = new StorageAdapter();
+        sa.setUrl("http://localhost:8080");
+
+        // 0 means no limit
+        sa.setInventoryImportMaxResources(0);
+        sa.setInventoryImportMaxBytes(0);
+        sa.validate();
+
+        sa.setInventoryImportMaxBytes(-1);
+        try {
+            sa.validate();
+            Assert.fail("Negative limit should have been rejected");
+        } catch (Exception expected) {
+        }
+    }
+
     @Test
     public void testLoadFailure() throws Exception {
         ConfigManager cm = new ConfigManager(new File("/bogus/file/name.boo"));